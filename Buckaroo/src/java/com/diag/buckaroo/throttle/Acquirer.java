@@ -0,0 +1,314 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.concurrent.TimeUnit;
+
+import com.diag.buckaroo.throttle.BandwidthAlgorithm;
+import com.diag.buckaroo.throttle.BandwidthThrottle;
+import com.diag.buckaroo.throttle.DualRateBandwidthThrottle;
+import com.diag.buckaroo.throttle.ExtendedThrottle;
+import com.diag.buckaroo.throttle.ParkWaitStrategy;
+import com.diag.buckaroo.throttle.SingleRateBandwidthThrottle;
+import com.diag.buckaroo.throttle.Throttle;
+import com.diag.buckaroo.throttle.WaitStrategy;
+
+/**
+ * This class implements the loop that every caller of a Throttle otherwise writes
+ * for itself: ask if the event is admissible, and if it is not, roll back, wait the
+ * returned delay, and ask again; once it is, commit. The delay is converted from the
+ * ticks of the Throttle to nanoseconds using its frequency, and waited out using a
+ * Wait Strategy chosen by the application to trade CPU for pacing precision. The
+ * Throttle is locked only while it is being asked or committed, not while waiting, so
+ * an Acquirer (or several Acquirers for the same Throttle) may be used by many threads.
+ * Any other code using the same Throttle concurrently should synchronize on it too. A
+ * Throttle that is not time-based, like the Geometric Throttle, reports a delay that
+ * cannot be converted to a duration; such a Throttle is polled once a millisecond.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class Acquirer {
+
+	/**
+	 * This is the maximum possible representable number of nanoseconds.
+	 */
+	public final static long MAXIMUM_NANOSECONDS = Long.MAX_VALUE;
+
+	/**
+	 * This is the interval at which a Throttle that is not time-based is polled.
+	 */
+	public final static long POLL = BandwidthAlgorithm.NS_PER_MS;
+
+	/**
+	 * Convert the ticks used by a Throttle with the specified frequency to the
+	 * nanoseconds used by the JVM, rounding up by the ceiling.
+	 * @param ticks is the duration in ticks.
+	 * @param frequency is the number of ticks per second.
+	 * @return the duration in nanoseconds, or the maximum representable
+	 * duration if the frequency is zero or the result would overflow.
+	 */
+	public static long ticks2ns(long ticks, long frequency) {
+		if (ticks <= 0) {
+			return 0;
+		} else if (frequency <= 0) {
+			return MAXIMUM_NANOSECONDS;
+		} else if (frequency == BandwidthAlgorithm.NS_PER_S) {
+			return ticks;
+		} else if ((BandwidthAlgorithm.NS_PER_S % frequency) == 0) {
+			long multiplier = BandwidthAlgorithm.NS_PER_S / frequency;
+			return (ticks <= (MAXIMUM_NANOSECONDS / multiplier)) ? ticks * multiplier : MAXIMUM_NANOSECONDS;
+		} else {
+			long seconds = ticks / frequency;
+			long fraction = ticks % frequency;
+			if (seconds > ((MAXIMUM_NANOSECONDS / BandwidthAlgorithm.NS_PER_S) - 1)) {
+				return MAXIMUM_NANOSECONDS;
+			}
+			return (seconds * BandwidthAlgorithm.NS_PER_S) + (long)Math.ceil((fraction * (double)BandwidthAlgorithm.NS_PER_S) / frequency);
+		}
+	}
+
+	/**
+	 * This is the longest wait in nanoseconds, short enough that deadlines can
+	 * still be compared by difference.
+	 */
+	final static long HORIZON = MAXIMUM_NANOSECONDS >> 1;
+
+	/**
+	 * Return true if a Throttle counts octets rather than events, as a Bandwidth
+	 * Throttle, a Bandwidth Algorithm, and their final single and dual rate forms do.
+	 * Such a Throttle admits a count either in its entirety or not at all. A Throttle
+	 * that merely wraps one of these is not recognized.
+	 * @param throttle is the Throttle.
+	 * @return true if the Throttle counts octets, false otherwise.
+	 */
+	static boolean octets(Throttle throttle) {
+		return (throttle instanceof BandwidthThrottle)
+			|| (throttle instanceof BandwidthAlgorithm)
+			|| (throttle instanceof SingleRateBandwidthThrottle)
+			|| (throttle instanceof DualRateBandwidthThrottle);
+	}
+
+	/**
+	 * Convert a delay from a Throttle into the duration to wait. A Throttle that is
+	 * not time-based is polled.
+	 * @param throttle is the Throttle.
+	 * @param delay is the delay in ticks.
+	 * @return the duration in nanoseconds.
+	 */
+	static long duration(Throttle throttle, long delay) {
+		long frequency = throttle.frequency();
+		return (frequency > 0) ? ticks2ns(delay, frequency) : POLL;
+	}
+
+	/**
+	 * Convert a delay from a Throttle into an absolute deadline no further away
+	 * than the horizon.
+	 * @param throttle is the Throttle.
+	 * @param delay is the delay in ticks.
+	 * @param now is the current time in nanoseconds.
+	 * @return the deadline in nanoseconds.
+	 */
+	static long deadline(Throttle throttle, long delay, long now) {
+		long duration = duration(throttle, delay);
+		return now + ((duration < HORIZON) ? duration : HORIZON);
+	}
+
+	/**
+	 * Ask a Throttle once, committing as many of the remaining events as are
+	 * admissible. An Extended Throttle is asked how many it can admit in a single
+	 * calculation; any other Throttle admits at most one.
+	 * @param throttle is the Throttle.
+	 * @param extended is the same Throttle if it is an Extended Throttle, or null.
+	 * @param remaining is the number of events remaining.
+	 * @return the number of events admitted and committed.
+	 */
+	static int attempt(Throttle throttle, ExtendedThrottle extended, int remaining) {
+		synchronized (throttle) {
+			if (extended != null) {
+				int admitted = extended.admissibleCount(remaining);
+				if (admitted > 0) {
+					extended.commit(admitted);
+				} else {
+					extended.rollback();
+				}
+				return admitted;
+			} else if (throttle.admissible() > 0) {
+				throttle.rollback();
+				return 0;
+			} else {
+				throttle.commit();
+				return 1;
+			}
+		}
+	}
+
+	/**
+	 * Ask a Throttle once how long until an event is admissible.
+	 * @param throttle is the Throttle.
+	 * @return zero if admissible, otherwise the delay in ticks.
+	 */
+	static long delay(Throttle throttle) {
+		synchronized (throttle) {
+			long delay = throttle.admissible();
+			throttle.rollback();
+			return delay;
+		}
+	}
+
+	private final Throttle throttle;
+	private final ExtendedThrottle extended;
+	private final WaitStrategy strategy;
+
+	/**
+	 * Ctor.
+	 * @param throttle is the Throttle. If it is also an Extended Throttle, a count
+	 * of events is committed to it as many at a time as it admits.
+	 * @param strategy is the Wait Strategy used to wait out delays.
+	 */
+	public Acquirer(Throttle throttle, WaitStrategy strategy) {
+		this.throttle = throttle;
+		this.extended = (throttle instanceof ExtendedThrottle) ? (ExtendedThrottle)throttle : null;
+		this.strategy = strategy;
+	}
+
+	/**
+	 * Ctor. Delays are waited out by parking.
+	 * @param throttle is the Throttle.
+	 */
+	public Acquirer(Throttle throttle) {
+		this(throttle, new ParkWaitStrategy());
+	}
+
+	/**
+	 * Return the Throttle.
+	 * @return the Throttle.
+	 */
+	public Throttle getThrottle() {
+		return throttle;
+	}
+
+	/**
+	 * Return the Wait Strategy, which records the accuracy of the waits.
+	 * @return the Wait Strategy.
+	 */
+	public WaitStrategy getWaitStrategy() {
+		return strategy;
+	}
+
+	/**
+	 * Block until a single event is admissible and commit it.
+	 * @throws InterruptedException if the calling thread is interrupted.
+	 */
+	public void acquire() throws InterruptedException {
+		acquire(1);
+	}
+
+	/**
+	 * Block until the specified count of events has been admitted and committed.
+	 * Events are committed as soon as they are admissible, as many at a time as the
+	 * Throttle allows: an Extended Throttle may admit many events at once (and a
+	 * Bandwidth Throttle admits all of its octets at once), while any other Throttle
+	 * admits one event at a time.
+	 * @param count is the number of events (or, for a Bandwidth Throttle, octets).
+	 * @throws InterruptedException if the calling thread is interrupted.
+	 */
+	public void acquire(int count) throws InterruptedException {
+		int remaining = count;
+		while (remaining > 0) {
+			int admitted = attempt(throttle, extended, remaining);
+			if (admitted > 0) {
+				remaining -= admitted;
+			} else {
+				long delay = delay(throttle);
+				if (delay > 0) {
+					strategy.await(duration(throttle, delay));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Block until a single event is admissible but do not commit it.
+	 * @throws InterruptedException if the calling thread is interrupted.
+	 */
+	public void await() throws InterruptedException {
+		long delay;
+		while ((delay = delay(throttle)) > 0) {
+			strategy.await(duration(throttle, delay));
+		}
+	}
+
+	/**
+	 * Acquire a single event if it can be admitted within the specified timeout.
+	 * @param timeout is the maximum time to wait.
+	 * @param unit is the unit of the timeout.
+	 * @return true if the event was admitted and committed, false otherwise.
+	 * @throws InterruptedException if the calling thread is interrupted.
+	 */
+	public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+		return tryAcquire(1, timeout, unit);
+	}
+
+	/**
+	 * Acquire the specified count of events if they can be admitted within the
+	 * specified timeout. If waiting out a delay would exceed the timeout, this method
+	 * returns immediately rather than waiting in vain. A Throttle that is not time-based
+	 * is polled until the timeout expires. Events admitted before the timeout expired
+	 * remain committed.
+	 * @param count is the number of events (or, for a Bandwidth Throttle, octets).
+	 * @param timeout is the maximum time to wait.
+	 * @param unit is the unit of the timeout.
+	 * @return true if the events were admitted and committed, false otherwise.
+	 * @throws InterruptedException if the calling thread is interrupted.
+	 */
+	public boolean tryAcquire(int count, long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		int remaining = count;
+		while (remaining > 0) {
+			int admitted = attempt(throttle, extended, remaining);
+			if (admitted > 0) {
+				remaining -= admitted;
+			} else {
+				long delay = delay(throttle);
+				if (delay > 0) {
+					long duration = duration(throttle, delay);
+					if (duration > (deadline - System.nanoTime())) {
+						return false;
+					}
+					strategy.await(duration);
+				}
+			}
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return Acquirer.class.getSimpleName()
+			+ "{throttle=" + throttle
+			+ ",strategy=" + strategy
+			+ "}";
+	}
+
+}
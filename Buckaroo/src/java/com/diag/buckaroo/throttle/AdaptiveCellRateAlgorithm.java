@@ -0,0 +1,256 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
+import com.diag.buckaroo.throttle.TickSource;
+
+/**
+ * This class implements a Generic Cell Rate Algorithm whose increment, and hence
+ * whose rate, adapts to the capacity of whatever is downstream by Additive Increase
+ * Multiplicative Decrease (AIMD), the same control law used by TCP congestion
+ * avoidance. The caller reports the outcome of each admitted event: a success whose
+ * latency is within the latency threshold raises the rate so that a full second of
+ * successes at the current rate raises it by the additive increase; a failure, or a
+ * success whose latency exceeds the threshold, multiplies the rate by the decrease
+ * factor, but no more than once per hold off interval, so that a burst of failures
+ * caused by a single overload counts only once. The rate never leaves the range
+ * between its minimum and maximum. When the increment changes, the debt outstanding
+ * at the time of the change is scaled in proportion, so that the number of cells by
+ * which the stream is ahead of its contract is unchanged and the rate changes
+ * smoothly rather than granting a fresh burst or imposing a sudden pause. The limit
+ * does not adapt. Feedback is expected from the same thread that uses the throttle,
+ * or under the same lock; the effective rate may be read from any thread.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class AdaptiveCellRateAlgorithm extends GenericCellRateAlgorithm {
+
+	/**
+	 * This is the default multiplicative decrease factor.
+	 */
+	public final static double DECREASE = 0.5;
+
+	/**
+	 * This is the default hold off interval in microseconds.
+	 */
+	public final static long HOLDOFF = US_PER_S / 10;
+
+	protected final double minimum;		// minimum rate in cells per second
+	protected final double maximum;		// maximum rate in cells per second
+	protected final double increase;	// additive increase in cells per second per second
+	protected final double decrease;	// multiplicative decrease factor
+	protected final long threshold;		// latency threshold in ticks or zero for none
+	protected final long holdoff;		// minimum ticks between decreases
+	protected volatile double rate;		// current rate in cells per second
+	protected long decreased;			// time of the most recent decrease in ticks
+	protected long increases;			// number of increases
+	protected long decreases;			// number of decreases
+
+	/**
+	 * Compute the increment for a rate.
+	 * @param rate is the rate in cells per second.
+	 * @return the increment in microseconds.
+	 */
+	public static long increment(double rate) {
+		return (rate > 0) ? Math.max(1, Math.round(US_PER_S / rate)) : MAXIMUM_TICKS;
+	}
+
+	/**
+	 * Ctor.
+	 * @param initial is the initial rate in cells per second.
+	 * @param minimum is the minimum rate in cells per second.
+	 * @param maximum is the maximum rate in cells per second.
+	 * @param limit is the virtual scheduler limit or l in microseconds.
+	 * @param increase is the additive increase in cells per second per second of successes.
+	 * @param decrease is the multiplicative decrease factor between zero and one.
+	 * @param threshold is the latency in microseconds above which a success counts as
+	 * a failure, or zero if latency is to be ignored.
+	 * @param holdoff is the minimum interval in microseconds between decreases.
+	 * @param source is the Tick Source from which the time is read.
+	 */
+	public AdaptiveCellRateAlgorithm(double initial, double minimum, double maximum, long limit, double increase, double decrease, long threshold, long holdoff, TickSource source) {
+		super(increment(clamp(initial, minimum, maximum)), limit, source);
+		this.minimum = (minimum > 0) ? minimum : Double.MIN_VALUE;
+		this.maximum = (maximum > this.minimum) ? maximum : this.minimum;
+		this.increase = (increase > 0) ? increase : 0;
+		this.decrease = ((decrease > 0) && (decrease < 1)) ? decrease : DECREASE;
+		this.threshold = (threshold > 0) ? threshold : 0;
+		this.holdoff = (holdoff > 0) ? holdoff : 0;
+		adapt(initial);
+		this.decreased = now - this.holdoff;
+	}
+
+	/**
+	 * Ctor. The default decrease factor and hold off interval are used.
+	 * @param initial is the initial rate in cells per second.
+	 * @param minimum is the minimum rate in cells per second.
+	 * @param maximum is the maximum rate in cells per second.
+	 * @param limit is the virtual scheduler limit or l in microseconds.
+	 * @param increase is the additive increase in cells per second per second of successes.
+	 * @param threshold is the latency in microseconds above which a success counts as
+	 * a failure, or zero if latency is to be ignored.
+	 */
+	public AdaptiveCellRateAlgorithm(double initial, double minimum, double maximum, long limit, double increase, long threshold) {
+		this(initial, minimum, maximum, limit, increase, DECREASE, threshold, HOLDOFF, PRECISE);
+	}
+
+	/**
+	 * Ctor. The limit is zero, the additive increase is the minimum rate, latency
+	 * is ignored, and the default decrease factor and hold off interval are used.
+	 * @param initial is the initial rate in cells per second.
+	 * @param minimum is the minimum rate in cells per second.
+	 * @param maximum is the maximum rate in cells per second.
+	 */
+	public AdaptiveCellRateAlgorithm(double initial, double minimum, double maximum) {
+		this(initial, minimum, maximum, 0, minimum, 0);
+	}
+
+	private static double clamp(double rate, double minimum, double maximum) {
+		return (rate < minimum) ? minimum : (rate > maximum) ? maximum : rate;
+	}
+
+	/**
+	 * Change the rate at the specified time, recomputing the increment and scaling
+	 * the debt outstanding at that time in proportion.
+	 * @param ticks is the time in microseconds.
+	 * @param target is the new rate in cells per second.
+	 */
+	protected void adapt(long ticks, double target) {
+		rate = clamp(target, minimum, maximum);
+		long subsequent = increment(rate);
+		if (subsequent != increment) {
+			reconfigure(ticks, subsequent, limit);
+		}
+	}
+
+	/**
+	 * Change the rate at the current time, recomputing the increment and scaling
+	 * the debt outstanding at that time in proportion.
+	 * @param target is the new rate in cells per second.
+	 */
+	protected void adapt(double target) {
+		adapt(time(), target);
+	}
+
+	/**
+	 * Report that an admitted event succeeded with the specified latency.
+	 * @param latency is the latency in microseconds.
+	 */
+	public void success(long latency) {
+		if ((threshold > 0) && (latency > threshold)) {
+			failure();
+		} else if ((increase > 0) && (rate < maximum)) {
+			adapt(rate + (increase / rate));
+			++increases;
+		}
+	}
+
+	/**
+	 * Report that an admitted event succeeded.
+	 */
+	public void success() {
+		success(0);
+	}
+
+	/**
+	 * Report that an admitted event failed, for example because it timed out or
+	 * was refused by an overloaded server.
+	 */
+	public void failure() {
+		long ticks = time();
+		if ((ticks - decreased) >= holdoff) {
+			decreased = ticks;
+			if (rate > minimum) {
+				adapt(ticks, rate * decrease);
+				++decreases;
+			}
+		}
+	}
+
+	/**
+	 * Return the current rate.
+	 * @return the current rate in cells per second.
+	 */
+	public double getRate() {
+		return rate;
+	}
+
+	/**
+	 * Return the minimum rate.
+	 * @return the minimum rate in cells per second.
+	 */
+	public double getMinimumRate() {
+		return minimum;
+	}
+
+	/**
+	 * Return the maximum rate.
+	 * @return the maximum rate in cells per second.
+	 */
+	public double getMaximumRate() {
+		return maximum;
+	}
+
+	/**
+	 * Return the current increment.
+	 * @return the current increment in microseconds.
+	 */
+	public long getIncrement() {
+		return increment;
+	}
+
+	/**
+	 * Return the number of times the rate has been increased.
+	 * @return the number of increases.
+	 */
+	public long getIncreases() {
+		return increases;
+	}
+
+	/**
+	 * Return the number of times the rate has been decreased.
+	 * @return the number of decreases.
+	 */
+	public long getDecreases() {
+		return decreases;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.GenericCellRateAlgorithm#toString()
+	 */
+	public String toString() {
+		return AdaptiveCellRateAlgorithm.class.getSimpleName()
+			+ "{" + super.toString()
+			+ ",rate=" + rate
+			+ ",minimum=" + minimum
+			+ ",maximum=" + maximum
+			+ ",increase=" + increase
+			+ ",decrease=" + decrease
+			+ ",threshold=" + threshold
+			+ ",holdoff=" + holdoff
+			+ ",increases=" + increases
+			+ ",decreases=" + decreases
+			+ "}";
+	}
+
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import com.diag.buckaroo.jmx.LifeCycle;
+import com.diag.buckaroo.throttle.AdaptiveCellRateAlgorithm;
+import com.diag.buckaroo.throttle.AdaptiveRateMBean;
+
+/**
+ * This class exposes the effective rate of an Adaptive Cell Rate Algorithm, and
+ * how often it has been raised and lowered, as a standard managed bean (MBean).
+ * The attributes are read-only; the algorithm itself is not synchronized, so
+ * counts read while it is in use may be momentarily stale.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class AdaptiveRate extends LifeCycle implements AdaptiveRateMBean {
+
+	private final AdaptiveCellRateAlgorithm throttle;
+
+	/**
+	 * Ctor.
+	 * @param throttle is the Adaptive Cell Rate Algorithm to be exposed.
+	 */
+	public AdaptiveRate(AdaptiveCellRateAlgorithm throttle) {
+		this.throttle = throttle;
+	}
+
+	/**
+	 * Return the Adaptive Cell Rate Algorithm.
+	 * @return the Adaptive Cell Rate Algorithm.
+	 */
+	public AdaptiveCellRateAlgorithm get() {
+		return throttle;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.AdaptiveRateMBean#getRate()
+	 */
+	public double getRate() {
+		return throttle.getRate();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.AdaptiveRateMBean#getMinimumRate()
+	 */
+	public double getMinimumRate() {
+		return throttle.getMinimumRate();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.AdaptiveRateMBean#getMaximumRate()
+	 */
+	public double getMaximumRate() {
+		return throttle.getMaximumRate();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.AdaptiveRateMBean#getIncrement()
+	 */
+	public long getIncrement() {
+		return throttle.getIncrement();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.AdaptiveRateMBean#getIncreases()
+	 */
+	public long getIncreases() {
+		return throttle.getIncreases();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.AdaptiveRateMBean#getDecreases()
+	 */
+	public long getDecreases() {
+		return throttle.getDecreases();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.AdaptiveRateMBean#getThrottle()
+	 */
+	public String getThrottle() {
+		return throttle.toString();
+	}
+
+}
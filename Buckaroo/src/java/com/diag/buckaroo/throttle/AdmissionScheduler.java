@@ -0,0 +1,325 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.diag.buckaroo.throttle.Acquirer;
+import com.diag.buckaroo.throttle.ExtendedThrottle;
+import com.diag.buckaroo.throttle.Throttle;
+
+/**
+ * This class implements asynchronous admission to any number of Throttles using a
+ * single scheduler thread. Instead of blocking, a caller is handed a future that is
+ * completed when the Throttle admits its event. Callers waiting on the same Throttle
+ * are admitted in the order in which they asked. Each Throttle with waiters is kept,
+ * along with the time at which its oldest waiter becomes admissible, in a queue
+ * ordered by that time; the scheduler thread sleeps until the earliest such time,
+ * admits as many waiters on that Throttle as it can, and requeues the Throttle if any
+ * remain. A pending admission costs only its queue entry. When nothing is waiting on
+ * a Throttle, an admissible event is admitted immediately in the calling thread. The
+ * futures are completed in the scheduler thread, so any dependent actions that do
+ * more than hand the event off should use the asynchronous forms of those actions.
+ * As with the Acquirer, each Throttle is locked only while being asked or committed,
+ * and any other code using the same Throttle should synchronize on it too.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class AdmissionScheduler {
+
+	/**
+	 * This is a request for a count of events from a single caller.
+	 */
+	protected static class Waiter {
+		final CompletableFuture<Long> future = new CompletableFuture<Long>();
+		final long requested = System.nanoTime();
+		int remaining;
+		Waiter(int remaining) { this.remaining = remaining; }
+	}
+
+	/**
+	 * This is the queue of waiters for a single Throttle.
+	 */
+	protected static class Flow implements Comparable<Flow> {
+		final Throttle throttle;
+		final ExtendedThrottle extended;
+		final ArrayDeque<Waiter> waiters = new ArrayDeque<Waiter>();
+		long deadline;
+		Flow(Throttle throttle) {
+			this.throttle = throttle;
+			this.extended = (throttle instanceof ExtendedThrottle) ? (ExtendedThrottle)throttle : null;
+		}
+		public int compareTo(Flow that) {
+			long difference = this.deadline - that.deadline;
+			return (difference < 0) ? -1 : (difference > 0) ? 1 : 0;
+		}
+	}
+
+	/**
+	 * This is the scheduler thread.
+	 */
+	protected class Scheduler extends Thread {
+		Scheduler(String name) { super(name); setDaemon(true); }
+		public void run() { schedule(); }
+	}
+
+	private final Object lock = new Object();
+	private final Map<Throttle, Flow> flows = new IdentityHashMap<Throttle, Flow>();
+	private final PriorityQueue<Flow> queue = new PriorityQueue<Flow>();
+	private final String name;
+	private Scheduler scheduler = null;
+	private boolean enabled = false;
+	private int pending = 0;
+
+	/**
+	 * Ctor.
+	 * @param name is the name given to the scheduler thread.
+	 */
+	public AdmissionScheduler(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Ctor.
+	 */
+	public AdmissionScheduler() {
+		this(AdmissionScheduler.class.getSimpleName());
+	}
+
+	/**
+	 * Admit as many waiters at the head of a flow as the Throttle allows. The flow
+	 * must not be in the queue.
+	 * @param flow is the flow.
+	 * @param admitted is the list to which admitted waiters are added.
+	 * @return true if waiters remain, false otherwise.
+	 */
+	private boolean service(Flow flow, List<Waiter> admitted) {
+		Waiter waiter;
+		while ((waiter = flow.waiters.peekFirst()) != null) {
+			if (waiter.future.isDone()) {
+				flow.waiters.removeFirst();
+				--pending;
+				continue;
+			}
+			if (waiter.remaining <= 0) {
+				flow.waiters.removeFirst();
+				--pending;
+				admitted.add(waiter);
+				continue;
+			}
+			int count = Acquirer.attempt(flow.throttle, flow.extended, waiter.remaining);
+			if (count == 0) {
+				long delay = Acquirer.delay(flow.throttle);
+				if (delay > 0) {
+					flow.deadline = Acquirer.deadline(flow.throttle, delay, System.nanoTime());
+					return true;
+				}
+				continue;
+			}
+			if ((waiter.remaining -= count) <= 0) {
+				flow.waiters.removeFirst();
+				--pending;
+				admitted.add(waiter);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Complete the futures of admitted waiters with the nanoseconds each waited.
+	 * This is done without holding the lock since it runs any dependent actions.
+	 * @param admitted is the list of admitted waiters.
+	 */
+	private static void complete(List<Waiter> admitted) {
+		long now = System.nanoTime();
+		for (Waiter waiter : admitted) {
+			waiter.future.complete(now - waiter.requested);
+		}
+		admitted.clear();
+	}
+
+	/**
+	 * Admit waiters as their Throttles allow until disabled.
+	 */
+	private void schedule() {
+		List<Waiter> admitted = new ArrayList<Waiter>();
+		while (true) {
+			synchronized (lock) {
+				while (true) {
+					if (!enabled) {
+						return;
+					}
+					Flow flow = queue.peek();
+					if (flow == null) {
+						try { lock.wait(); } catch (InterruptedException ignore) { }
+						continue;
+					}
+					long remaining = flow.deadline - System.nanoTime();
+					if (remaining > 0) {
+						try { TimeUnit.NANOSECONDS.timedWait(lock, remaining); } catch (InterruptedException ignore) { }
+						continue;
+					}
+					queue.poll();
+					if (service(flow, admitted)) {
+						queue.add(flow);
+					} else {
+						flows.remove(flow.throttle);
+					}
+					if (!admitted.isEmpty()) {
+						break;
+					}
+				}
+			}
+			complete(admitted);
+		}
+	}
+
+	/**
+	 * Request admission of a single event by a Throttle.
+	 * @param throttle is the Throttle.
+	 * @return a future completed with the number of nanoseconds the event waited
+	 * once it has been admitted and committed to the Throttle.
+	 */
+	public CompletableFuture<Long> admit(Throttle throttle) {
+		return admit(throttle, 1);
+	}
+
+	/**
+	 * Request admission of the specified count of events by a Throttle. Events are
+	 * committed as soon as they are admissible, as many at a time as the Throttle allows:
+	 * an Extended Throttle may admit many events at once (and a Bandwidth Throttle admits
+	 * all of its octets at once), while any other Throttle admits one event at a time.
+	 * The future is completed when the last one has been. If the future is cancelled
+	 * before it is completed, any events not yet admitted are not committed. Admissions
+	 * requested before the scheduler is started are admitted once it is.
+	 * @param throttle is the Throttle.
+	 * @param count is the number of events (or, for a Bandwidth Throttle, octets).
+	 * @return a future completed with the number of nanoseconds the events waited
+	 * once they have been admitted and committed to the Throttle.
+	 */
+	public CompletableFuture<Long> admit(Throttle throttle, int count) {
+		List<Waiter> admitted = new ArrayList<Waiter>(1);
+		Waiter waiter;
+		synchronized (lock) {
+			Flow flow = flows.get(throttle);
+			boolean idle = (flow == null);
+			if (idle) {
+				flow = new Flow(throttle);
+			}
+			waiter = new Waiter(count);
+			flow.waiters.addLast(waiter);
+			++pending;
+			if (idle) {
+				if (service(flow, admitted)) {
+					flows.put(throttle, flow);
+					queue.add(flow);
+					if (queue.peek() == flow) {
+						lock.notifyAll();
+					}
+				}
+			}
+		}
+		complete(admitted);
+		return waiter.future;
+	}
+
+	/**
+	 * Return the number of requests not yet admitted.
+	 * @return the number of requests not yet admitted.
+	 */
+	public int size() {
+		synchronized (lock) {
+			return pending;
+		}
+	}
+
+	/**
+	 * Start the scheduler thread.
+	 * @return this object.
+	 */
+	public synchronized AdmissionScheduler start() {
+		if (scheduler == null) {
+			synchronized (lock) {
+				enabled = true;
+			}
+			scheduler = new Scheduler(name);
+			scheduler.start();
+		}
+		return this;
+	}
+
+	/**
+	 * Stop the scheduler thread and cancel every request not yet admitted. If called
+	 * from the scheduler thread itself, for example by an action dependent on one of
+	 * its futures, the scheduler thread exits once that action returns.
+	 * @return this object.
+	 * @throws InterruptedException if the calling thread is interrupted while
+	 * waiting for the scheduler thread to exit.
+	 */
+	public synchronized AdmissionScheduler stop() throws InterruptedException {
+		List<Waiter> cancelled = new ArrayList<Waiter>();
+		if (scheduler != null) {
+			synchronized (lock) {
+				enabled = false;
+				lock.notifyAll();
+			}
+			if (scheduler != Thread.currentThread()) {
+				scheduler.join();
+			}
+			scheduler = null;
+		}
+		synchronized (lock) {
+			for (Flow flow : flows.values()) {
+				cancelled.addAll(flow.waiters);
+			}
+			flows.clear();
+			queue.clear();
+			pending = 0;
+		}
+		for (Waiter waiter : cancelled) {
+			waiter.future.cancel(false);
+		}
+		return this;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		synchronized (lock) {
+			return AdmissionScheduler.class.getSimpleName()
+				+ "{name=" + name
+				+ ",enabled=" + enabled
+				+ ",flows=" + flows.size()
+				+ ",pending=" + pending
+				+ "}";
+		}
+	}
+
+}
@@ -0,0 +1,336 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
+import com.diag.buckaroo.throttle.Throttle;
+import com.diag.buckaroo.throttle.TickSource;
+
+/**
+ * This class implements a Generic Cell Rate Algorithm (GCRA) that may be shared by
+ * many threads without locking. Where the GenericCellRateAlgorithm keeps the time of
+ * the most recent committed admission (then) and the expected inter-arrival time (x)
+ * separately, this throttle keeps just their sum, the Theoretical Arrival Time (TAT)
+ * of the virtual scheduling form of the algorithm in the ATM Forum "Traffic Management
+ * Specification 4.0", in a single atomic longword. The tryAcquire method combines the
+ * admissible and commit methods into a single compare-and-swap so that an event is
+ * admitted and accounted for indivisibly. For the same monotonically increasing sequence
+ * of ticks used from a single thread, this throttle makes exactly the same decisions as
+ * the GenericCellRateAlgorithm with the same increment and limit. The admissible, commit,
+ * and rollback methods are provided so that this throttle can be used anywhere a Throttle
+ * is expected, and the commit is itself atomic, but the time passed between admissible
+ * and commit is shared by all threads; concurrent callers should use tryAcquire. As
+ * specified in the standard, ticks are in microseconds.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class AtomicCellRateAlgorithm implements Throttle {
+
+	/**
+	 * This is the maximum possible representable number of ticks.
+	 */
+	public final static long MAXIMUM_TICKS = GenericCellRateAlgorithm.MAXIMUM_TICKS;
+
+	protected final long increment;		// increment in ticks [TM 4.0]
+	protected final long limit;			// limit in ticks [TM 4.0]
+	protected final long x1maximum;		// maximum possible x1
+	protected final AtomicLong tat;		// theoretical arrival time in ticks [TM 4.0]
+	protected volatile long now;		// time of the most recent attempted admission in ticks
+	protected volatile boolean alarmed;	// alarm state
+	protected volatile boolean approximate;	// event stream is out of specification
+	protected final TickSource source;	// clock from which the time is read
+
+	/**
+	 * Ctor.
+	 * @param increment is the virtual scheduler increment or i in microseconds.
+	 * @param limit is the virtual scheduler limit or l in microseconds.
+	 * @param source is the Tick Source from which the time is read.
+	 */
+	public AtomicCellRateAlgorithm(long increment, long limit, TickSource source) {
+		this.source = source;
+		this.increment = (increment >= 0) ? increment : 0;
+		this.limit = (limit >= 0) ? limit : 0;
+		this.x1maximum = MAXIMUM_TICKS - this.increment;
+		this.tat = new AtomicLong();
+		reset();
+	}
+
+	/**
+	 * Ctor.
+	 * @param increment is the virtual scheduler increment or i in microseconds.
+	 * @param limit is the virtual scheduler limit or l in microseconds.
+	 */
+	public AtomicCellRateAlgorithm(long increment, long limit) {
+		this(increment, limit, GenericCellRateAlgorithm.PRECISE);
+	}
+
+	/**
+	 * Ctor. The limit is set to zero microseconds.
+	 * @param increment is the virtual scheduler increment or i in microseconds.
+	 */
+	public AtomicCellRateAlgorithm(long increment) {
+		this(increment, 0);
+	}
+
+	/**
+	 * Ctor. The increment is set to zero microseconds and the limit is
+	 * set to the maximum possible value.
+	 */
+	public AtomicCellRateAlgorithm() {
+		this(0, MAXIMUM_TICKS);
+	}
+
+	/**
+	 * Compute the expected inter-arrival time remaining at the specified time
+	 * given a theoretical arrival time. This is the x1 of the GCRA.
+	 * @param expected is the theoretical arrival time in ticks.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @return the remaining expected inter-arrival time in ticks.
+	 */
+	protected static long remaining(long expected, long ticks) {
+		long x1 = expected - ticks;
+		return (x1 > 0) ? x1 : 0;
+	}
+
+	/**
+	 * Compute the theoretical arrival time following an admission at the
+	 * specified time.
+	 * @param x1 is the remaining expected inter-arrival time in ticks.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @return the new theoretical arrival time in ticks.
+	 */
+	protected long next(long x1, long ticks) {
+		long x;
+		if (x1 > x1maximum) {
+			x = MAXIMUM_TICKS;
+			approximate = true;
+		} else {
+			x = x1 + increment;
+		}
+		return ticks + x;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#reset()
+	 */
+	public void reset() {
+		reset(time());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#reset(long)
+	 */
+	public void reset(long ticks) {
+		now = ticks;
+		tat.set(ticks - increment);
+		alarmed = false;
+		approximate = false;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#admissible()
+	 */
+	public long admissible() {
+		return admissible(time());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#admissible(long)
+	 */
+	public long admissible(long ticks) {
+		now = ticks;
+		long x1 = remaining(tat.get(), ticks);
+		return (x1 > limit) ? x1 - limit : 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#commit()
+	 */
+	public boolean commit() {
+		long ticks = now;
+		long expected;
+		long x1;
+		do {
+			expected = tat.get();
+			x1 = remaining(expected, ticks);
+		} while (!tat.compareAndSet(expected, next(x1, ticks)));
+		alarmed = (x1 > limit);
+		return !alarmed;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#rollback()
+	 */
+	public boolean rollback() {
+		return !alarmed;
+	}
+
+	/**
+	 * Atomically determine if an event is admissible at the current time
+	 * and, if it is, commit it. If it is not, the throttle state is not modified.
+	 * @return zero if the event was admitted and committed, or the number of ticks
+	 * from the current time until the next event would be admissible.
+	 */
+	public long tryAcquire() {
+		return tryAcquire(time());
+	}
+
+	/**
+	 * Atomically determine if an event is admissible at the specified time
+	 * and, if it is, commit it. If it is not, the throttle state is not modified.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @return zero if the event was admitted and committed, or the number of ticks
+	 * from the specified time until the next event would be admissible.
+	 */
+	public long tryAcquire(long ticks) {
+		long expected;
+		long x1;
+		do {
+			expected = tat.get();
+			x1 = remaining(expected, ticks);
+			if (x1 > limit) {
+				return x1 - limit;
+			}
+		} while (!tat.compareAndSet(expected, next(x1, ticks)));
+		alarmed = false;
+		return 0;
+	}
+
+	/**
+	 * Atomically admit and commit as many as the specified maximum number of
+	 * events that conform to the traffic contract no later than the specified
+	 * horizon past the specified time. The events are granted as a batch, for
+	 * example as a lease to be spent by some other party, and the theoretical
+	 * arrival time advances by one increment for each. If no event conforms,
+	 * the throttle state is not modified.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @param horizon is the number of ticks past the specified time by which
+	 * every granted event must conform.
+	 * @param max is the maximum number of events to grant.
+	 * @return the number of events granted, which may be zero.
+	 */
+	public int lease(long ticks, long horizon, int max) {
+		if (max <= 0) {
+			return 0;
+		}
+		long allowance = limit + ((horizon > 0) ? horizon : 0);
+		long expected;
+		long x1;
+		int count;
+		do {
+			expected = tat.get();
+			x1 = remaining(expected, ticks);
+			if (x1 > allowance) {
+				return 0;
+			}
+			count = (increment > 0) ? (int)Math.min(max, ((allowance - x1) / increment) + 1) : max;
+		} while (!tat.compareAndSet(expected, ticks + x1 + (count * increment)));
+		alarmed = false;
+		return count;
+	}
+
+	/**
+	 * Atomically admit and commit as many as the specified maximum number of
+	 * events that conform to the traffic contract at the specified time.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @param max is the maximum number of events to grant.
+	 * @return the number of events granted, which may be zero.
+	 */
+	public int lease(long ticks, int max) {
+		return lease(ticks, 0, max);
+	}
+
+	/**
+	 * Atomically return the specified number of previously granted but unused
+	 * events, moving the theoretical arrival time back by one increment for
+	 * each. Credit is never returned into the past: the theoretical arrival
+	 * time is not moved earlier than the specified time.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @param count is the number of unused events.
+	 */
+	public void release(long ticks, int count) {
+		if (count <= 0) {
+			return;
+		}
+		long expected;
+		long x;
+		do {
+			expected = tat.get();
+			if (expected <= ticks) {
+				return;
+			}
+			x = ((expected - ticks) / count > increment) ? expected - (count * increment) : ticks;
+		} while (!tat.compareAndSet(expected, x));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isAlarmed()
+	 */
+	public boolean isAlarmed() {
+		return alarmed;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isValid()
+	 */
+	public boolean isValid() {
+		return (increment >= 0) && (limit >= 0);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isApproximate()
+	 */
+	public boolean isApproximate() {
+		return approximate;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#frequency()
+	 */
+	public long frequency() {
+		return GenericCellRateAlgorithm.US_PER_S;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#time()
+	 */
+	public long time() {
+		return source.nanoTime() / GenericCellRateAlgorithm.NS_PER_US;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#toString()
+	 */
+	public String toString() {
+		return AtomicCellRateAlgorithm.class.getSimpleName()
+			+ "{now=" + now
+			+ ",tat=" + tat.get()
+			+ ",i=" + increment
+			+ ",l=" + limit
+			+ ",x1maximum=" + x1maximum
+			+ ",alarmed=" + alarmed
+			+ ",approximate=" + approximate
+			+ "}";
+	}
+}
@@ -21,6 +21,7 @@ package com.diag.buckaroo.throttle;
 
 import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
 import com.diag.buckaroo.throttle.ExtendedThrottle;
+import com.diag.buckaroo.throttle.TickSource;
 
 /**
  * This class extends the Generic Cell Rate Algorithm to accomodate
@@ -44,7 +45,8 @@ import com.diag.buckaroo.throttle.ExtendedThrottle;
  * and because the entire packet is handed to the underlying platform for transmission
  * at its own rate, data streams rate controlled by this Throttle exhibit burstier
  * behavior than cell streams rate controlled by the similar GenericCellRateAlgorithm.
- * This is similar to the Desperado C++ class BandwidthThrottle.
+ * For the same reason, this Throttle admits a count of octets either in its entirety
+ * or not at all. This is similar to the Desperado C++ class BandwidthThrottle.
  *
  * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
  *
@@ -127,12 +129,22 @@ public class BandwidthAlgorithm extends GenericCellRateAlgorithm implements Exte
 	 * Ctor.
 	 * @param increment is the virtual scheduler increment or i in nanoseconds.
 	 * @param limit is the virtual scheduler limit or l in nanoseconds.
+	 * @param source is the Tick Source from which the time is read.
 	 */
-	public BandwidthAlgorithm(long increment, long limit) {
-		super(increment, limit);
+	public BandwidthAlgorithm(long increment, long limit, TickSource source) {
+		super(increment, limit, source);
 		this.octetsmaximum = (this.increment == 0) ? MAXIMUM_TICKS : MAXIMUM_TICKS / this.increment;
 	}
 	
+	/**
+	 * Ctor.
+	 * @param increment is the virtual scheduler increment or i in nanoseconds.
+	 * @param limit is the virtual scheduler limit or l in nanoseconds.
+	 */
+	public BandwidthAlgorithm(long increment, long limit) {
+		this(increment, limit, PRECISE);
+	}
+	
 	/**
 	 * Ctor. The limit is zero nanoseconds.
 	 * @param increment is the virtual scheduler increment or i in nanoseconds.
@@ -149,6 +161,22 @@ public class BandwidthAlgorithm extends GenericCellRateAlgorithm implements Exte
 		this(0, MAXIMUM_TICKS);
 	}
 
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.GenericCellRateAlgorithm#reconfigure(long, long, long)
+	 */
+	public void reconfigure(long ticks, long increment, long limit) {
+		super.reconfigure(ticks, increment, limit);
+		this.octetsmaximum = (this.increment == 0) ? MAXIMUM_TICKS : MAXIMUM_TICKS / this.increment;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.GenericCellRateAlgorithm#admissibleCount(long, int)
+	 */
+	public int admissibleCount(long ticks, int max) {
+		long delay = admissible(ticks);
+		return ((max > 0) && (delay == 0)) ? max : 0;
+	}
+
 	/* (non-Javadoc)
 	 * @see com.diag.buckaroo.throttle.Throttle#commit()
 	 */
@@ -189,7 +217,7 @@ public class BandwidthAlgorithm extends GenericCellRateAlgorithm implements Exte
 	 * @see com.diag.buckaroo.throttle.Throttle#time()
 	 */
 	public long time() {
-		return System.nanoTime();
+		return source.nanoTime();
 	}
 
 	/* (non-Javadoc)
@@ -23,6 +23,7 @@ import java.lang.Long;
 
 import com.diag.buckaroo.throttle.BandwidthAlgorithm;
 import com.diag.buckaroo.throttle.CompoundExtendedThrottle;
+import com.diag.buckaroo.throttle.TickSource;
 
 
 /**
@@ -53,6 +54,13 @@ import com.diag.buckaroo.throttle.CompoundExtendedThrottle;
 public class BandwidthThrottle extends CompoundExtendedThrottle {
 
 	protected static final long FREQUENCY = new BandwidthAlgorithm().frequency();
+
+	private final BandwidthAlgorithm peak;
+	private final BandwidthAlgorithm sustained;
+	private int pbr;
+	private int jt;
+	private int sbr = 0;
+	private int mbs = 0;
 	
 	/**
 	 * Convert the ticks used by the Throttle to the milliseconds used by the JVM,
@@ -137,18 +145,46 @@ public class BandwidthThrottle extends CompoundExtendedThrottle {
 		return (l >= 0) ? l : Long.MAX_VALUE;
 	}
 
+	/**
+	 * Ctor. The algorithms are retained so that the contract can be reconfigured.
+	 * @param peak is the algorithm with the contract for the peak rate.
+	 * @param sustained is the algorithm with the contract for the sustained rate,
+	 * or null for a constant bit rate (CBR) traffic contract.
+	 */
+	private BandwidthThrottle(BandwidthAlgorithm peak, BandwidthAlgorithm sustained) {
+		super(peak, (sustained != null) ? sustained : PROMISCUOUS);
+		this.peak = peak;
+		this.sustained = sustained;
+	}
+
 	/**
 	 * Ctor for a variable bit rate (VBR) traffic contract.
 	 * @param pbr is the peak byte rate in bytes per second.
 	 * @param jt is the jitter tolerance in nanoseconds.
 	 * @param sbr is the sustained byte rate in bytes per second.
 	 * @param mbs is the maximum burst size in bytes.
+	 * @param source is the Tick Source from which the time is read.
 	 */
-	public BandwidthThrottle(int pbr, int jt, int sbr, int mbs) {
-		super(
-			new BandwidthAlgorithm(increment(pbr, jt), limit(pbr, jt)),
-		    new BandwidthAlgorithm(increment(pbr, jt, sbr, mbs), limit(pbr, jt, sbr, mbs))
+	public BandwidthThrottle(int pbr, int jt, int sbr, int mbs, TickSource source) {
+		this(
+		    new BandwidthAlgorithm(increment(pbr, jt), limit(pbr, jt), source),
+			new BandwidthAlgorithm(increment(pbr, jt, sbr, mbs), limit(pbr, jt, sbr, mbs), source)
 		);
+		this.pbr = pbr;
+		this.jt = jt;
+		this.sbr = sbr;
+		this.mbs = mbs;
+	}
+
+	/**
+	 * Ctor for a variable bit rate (VBR) traffic contract.
+	 * @param pbr is the peak byte rate in bytes per second.
+	 * @param jt is the jitter tolerance in nanoseconds.
+	 * @param sbr is the sustained byte rate in bytes per second.
+	 * @param mbs is the maximum burst size in bytes.
+	 */
+	public BandwidthThrottle(int pbr, int jt, int sbr, int mbs) {
+		this(pbr, jt, sbr, mbs, BandwidthAlgorithm.PRECISE);
 	}
 
 	/**
@@ -165,11 +201,24 @@ public class BandwidthThrottle extends CompoundExtendedThrottle {
 	 * Ctor for a constant bit rate (CBR) traffic contract.
 	 * @param pbr is the peak byte rate in bytes per second.
 	 * @param jt is the jitter tolerance in nanoseconds.
+	 * @param source is the Tick Source from which the time is read.
 	 */
-	public BandwidthThrottle(int pbr, int jt) {
-		super(
-			new BandwidthAlgorithm(increment(pbr, jt), limit(pbr, jt))
+	public BandwidthThrottle(int pbr, int jt, TickSource source) {
+		this(
+	        new BandwidthAlgorithm(increment(pbr, jt), limit(pbr, jt), source),
+	        null
 		);
+		this.pbr = pbr;
+		this.jt = jt;
+	}
+	
+	/**
+	 * Ctor for a constant bit rate (CBR) traffic contract.
+	 * @param pbr is the peak byte rate in bytes per second.
+	 * @param jt is the jitter tolerance in nanoseconds.
+	 */
+	public BandwidthThrottle(int pbr, int jt) {
+		this(pbr, jt, BandwidthAlgorithm.PRECISE);
 	}
 	
 	/**
@@ -189,6 +238,116 @@ public class BandwidthThrottle extends CompoundExtendedThrottle {
 		this(Integer.MAX_VALUE);
 	}
 
+	/**
+	 * Change a variable bit rate (VBR) traffic contract in place at the current time
+	 * without resetting the throttle state.
+	 * @param pbr is the peak byte rate in bytes per second.
+	 * @param jt is the jitter tolerance in nanoseconds.
+	 * @param sbr is the sustained byte rate in bytes per second.
+	 * @param mbs is the maximum burst size in bytes.
+	 * @return true if the contract was changed, false if the throttle has a CBR
+	 * traffic contract and was left unchanged.
+	 */
+	public boolean reconfigure(int pbr, int jt, int sbr, int mbs) {
+		return reconfigure(time(), pbr, jt, sbr, mbs);
+	}
+
+	/**
+	 * Change a variable bit rate (VBR) traffic contract in place at the specified time
+	 * without resetting the throttle state; the debt each algorithm carries at that time
+	 * is scaled in proportion to the change in its increment. A throttle constructed with
+	 * a constant bit rate (CBR) traffic contract has no sustained rate to change, so it
+	 * is left entirely unchanged.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @param pbr is the peak byte rate in bytes per second.
+	 * @param jt is the jitter tolerance in nanoseconds.
+	 * @param sbr is the sustained byte rate in bytes per second.
+	 * @param mbs is the maximum burst size in bytes.
+	 * @return true if the contract was changed, false if the throttle has a CBR
+	 * traffic contract and was left unchanged.
+	 */
+	public boolean reconfigure(long ticks, int pbr, int jt, int sbr, int mbs) {
+		if (sustained == null) {
+			return false;
+		}
+		reconfigurePeak(ticks, pbr, jt);
+		sustained.reconfigure(ticks, increment(pbr, jt, sbr, mbs), limit(pbr, jt, sbr, mbs));
+		this.sbr = sbr;
+		this.mbs = mbs;
+		return true;
+	}
+
+	/**
+	 * Change a constant bit rate (CBR) traffic contract in place at the current time
+	 * without resetting the throttle state.
+	 * @param pbr is the peak byte rate in bytes per second.
+	 * @param jt is the jitter tolerance in nanoseconds.
+	 */
+	public void reconfigure(int pbr, int jt) {
+		reconfigure(time(), pbr, jt);
+	}
+
+	/**
+	 * Change a constant bit rate (CBR) traffic contract in place at the specified time
+	 * without resetting the throttle state. A throttle constructed with a variable bit
+	 * rate (VBR) traffic contract gets a sustained rate equal to its peak rate.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @param pbr is the peak byte rate in bytes per second.
+	 * @param jt is the jitter tolerance in nanoseconds.
+	 */
+	public void reconfigure(long ticks, int pbr, int jt) {
+		if (sustained != null) {
+			reconfigure(ticks, pbr, jt, pbr, 1);
+		} else {
+			reconfigurePeak(ticks, pbr, jt);
+		}
+	}
+
+	/**
+	 * Change the peak rate and tolerance in place at the specified time without
+	 * resetting the throttle state.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @param pbr is the peak byte rate in bytes per second.
+	 * @param jt is the jitter tolerance in nanoseconds.
+	 */
+	private void reconfigurePeak(long ticks, int pbr, int jt) {
+		peak.reconfigure(ticks, increment(pbr, jt), limit(pbr, jt));
+		this.pbr = pbr;
+		this.jt = jt;
+	}
+
+	/**
+	 * Return the peak byte rate in bytes per second.
+	 * @return the peak byte rate in bytes per second.
+	 */
+	public int getPeakByteRate() {
+		return pbr;
+	}
+
+	/**
+	 * Return the jitter tolerance in nanoseconds.
+	 * @return the jitter tolerance in nanoseconds.
+	 */
+	public int getJitterTolerance() {
+		return jt;
+	}
+
+	/**
+	 * Return the sustained byte rate in bytes per second, or zero for a constant bit rate (CBR) traffic contract.
+	 * @return the sustained byte rate in bytes per second.
+	 */
+	public int getSustainedByteRate() {
+		return sbr;
+	}
+
+	/**
+	 * Return the maximum burst size in bytes, or zero for a constant bit rate (CBR) traffic contract.
+	 * @return the maximum burst size in bytes.
+	 */
+	public int getMaximumBurstSize() {
+		return mbs;
+	}
+
 	/* (non-Javadoc)
 	 * @see com.diag.buckaroo.throttle.Throttle#toString()
 	 */
@@ -0,0 +1,52 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import com.diag.buckaroo.throttle.WaitStrategy;
+
+/**
+ * This class implements a Wait Strategy that spins on System.nanoTime for the
+ * entire delay. It consumes an entire processor while waiting but is the most
+ * precise strategy; it is appropriate only for very short delays or for a thread
+ * that has a core to itself.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class BusySpinWaitStrategy extends WaitStrategy {
+
+	/**
+	 * Ctor.
+	 */
+	public BusySpinWaitStrategy() { }
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.WaitStrategy#pause(long)
+	 */
+	protected void pause(long deadline) throws InterruptedException {
+		while ((deadline - System.nanoTime()) > 0) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+	}
+
+}
@@ -23,6 +23,7 @@ import java.lang.Long;
 
 import com.diag.buckaroo.throttle.CompoundThrottle;
 import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
+import com.diag.buckaroo.throttle.TickSource;
 
 /**
  * This class implements a Cell Rate Throttle using one or two Generic Cell Rate Algorithms
@@ -53,6 +54,13 @@ import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
 public class CellRateThrottle extends CompoundThrottle {
 
 	protected static final long FREQUENCY = new GenericCellRateAlgorithm().frequency();
+
+	private final GenericCellRateAlgorithm peak;
+	private final GenericCellRateAlgorithm sustained;
+	private int pcr;
+	private int cdvt;
+	private int scr = 0;
+	private int mbs = 0;
 	
 	/**
 	 * Convert the ticks used by the Throttle to the milliseconds used by the JVM,
@@ -137,18 +145,46 @@ public class CellRateThrottle extends CompoundThrottle {
 		return (l >= 0) ? l : Long.MAX_VALUE;
 	}
 
+	/**
+	 * Ctor. The algorithms are retained so that the contract can be reconfigured.
+	 * @param peak is the algorithm with the contract for the peak rate.
+	 * @param sustained is the algorithm with the contract for the sustained rate,
+	 * or null for a constant bit rate (CBR) traffic contract.
+	 */
+	private CellRateThrottle(GenericCellRateAlgorithm peak, GenericCellRateAlgorithm sustained) {
+		super(peak, (sustained != null) ? sustained : PROMISCUOUS);
+		this.peak = peak;
+		this.sustained = sustained;
+	}
+
 	/**
 	 * Ctor for a variable bit rate (VBR) traffic contract.
 	 * @param pcr is the peak cell rate in cells per second.
 	 * @param cdvt is the cell delay variation (jitter) tolerance in microseconds.
 	 * @param scr is the sustained cell rate in cells per second.
 	 * @param mbs is the maximum burst size in cells.
+	 * @param source is the Tick Source from which the time is read.
 	 */
-	public CellRateThrottle(int pcr, int cdvt, int scr, int mbs) {
-		super(
-		    new GenericCellRateAlgorithm(increment(pcr, cdvt), limit(pcr, cdvt)),
-			new GenericCellRateAlgorithm(increment(pcr, cdvt, scr, mbs), limit(pcr, cdvt, scr, mbs))
+	public CellRateThrottle(int pcr, int cdvt, int scr, int mbs, TickSource source) {
+		this(
+		    new GenericCellRateAlgorithm(increment(pcr, cdvt), limit(pcr, cdvt), source),
+			new GenericCellRateAlgorithm(increment(pcr, cdvt, scr, mbs), limit(pcr, cdvt, scr, mbs), source)
 		);
+		this.pcr = pcr;
+		this.cdvt = cdvt;
+		this.scr = scr;
+		this.mbs = mbs;
+	}
+
+	/**
+	 * Ctor for a variable bit rate (VBR) traffic contract.
+	 * @param pcr is the peak cell rate in cells per second.
+	 * @param cdvt is the cell delay variation (jitter) tolerance in microseconds.
+	 * @param scr is the sustained cell rate in cells per second.
+	 * @param mbs is the maximum burst size in cells.
+	 */
+	public CellRateThrottle(int pcr, int cdvt, int scr, int mbs) {
+		this(pcr, cdvt, scr, mbs, GenericCellRateAlgorithm.PRECISE);
 	}
 
 	/**
@@ -165,11 +201,24 @@ public class CellRateThrottle extends CompoundThrottle {
 	 * Ctor for a constant bit rate (CBR) traffic contract.
 	 * @param pcr is the peak cell rate in cells per second.
 	 * @param cdvt is the cell delay variation (jitter) tolerance in microseconds.
+	 * @param source is the Tick Source from which the time is read.
 	 */
-	public CellRateThrottle(int pcr, int cdvt) {
-		super(
-	        new GenericCellRateAlgorithm(increment(pcr, cdvt), limit(pcr, cdvt))
+	public CellRateThrottle(int pcr, int cdvt, TickSource source) {
+		this(
+	        new GenericCellRateAlgorithm(increment(pcr, cdvt), limit(pcr, cdvt), source),
+	        null
 		);
+		this.pcr = pcr;
+		this.cdvt = cdvt;
+	}
+	
+	/**
+	 * Ctor for a constant bit rate (CBR) traffic contract.
+	 * @param pcr is the peak cell rate in cells per second.
+	 * @param cdvt is the cell delay variation (jitter) tolerance in microseconds.
+	 */
+	public CellRateThrottle(int pcr, int cdvt) {
+		this(pcr, cdvt, GenericCellRateAlgorithm.PRECISE);
 	}
 	
 	/**
@@ -189,6 +238,116 @@ public class CellRateThrottle extends CompoundThrottle {
 		this(Integer.MAX_VALUE);
 	}
 
+	/**
+	 * Change a variable bit rate (VBR) traffic contract in place at the current time
+	 * without resetting the throttle state.
+	 * @param pcr is the peak cell rate in cells per second.
+	 * @param cdvt is the cell delay variation (jitter) tolerance in microseconds.
+	 * @param scr is the sustained cell rate in cells per second.
+	 * @param mbs is the maximum burst size in cells.
+	 * @return true if the contract was changed, false if the throttle has a CBR
+	 * traffic contract and was left unchanged.
+	 */
+	public boolean reconfigure(int pcr, int cdvt, int scr, int mbs) {
+		return reconfigure(time(), pcr, cdvt, scr, mbs);
+	}
+
+	/**
+	 * Change a variable bit rate (VBR) traffic contract in place at the specified time
+	 * without resetting the throttle state; the debt each algorithm carries at that time
+	 * is scaled in proportion to the change in its increment. A throttle constructed with
+	 * a constant bit rate (CBR) traffic contract has no sustained rate to change, so it
+	 * is left entirely unchanged.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @param pcr is the peak cell rate in cells per second.
+	 * @param cdvt is the cell delay variation (jitter) tolerance in microseconds.
+	 * @param scr is the sustained cell rate in cells per second.
+	 * @param mbs is the maximum burst size in cells.
+	 * @return true if the contract was changed, false if the throttle has a CBR
+	 * traffic contract and was left unchanged.
+	 */
+	public boolean reconfigure(long ticks, int pcr, int cdvt, int scr, int mbs) {
+		if (sustained == null) {
+			return false;
+		}
+		reconfigurePeak(ticks, pcr, cdvt);
+		sustained.reconfigure(ticks, increment(pcr, cdvt, scr, mbs), limit(pcr, cdvt, scr, mbs));
+		this.scr = scr;
+		this.mbs = mbs;
+		return true;
+	}
+
+	/**
+	 * Change a constant bit rate (CBR) traffic contract in place at the current time
+	 * without resetting the throttle state.
+	 * @param pcr is the peak cell rate in cells per second.
+	 * @param cdvt is the cell delay variation (jitter) tolerance in microseconds.
+	 */
+	public void reconfigure(int pcr, int cdvt) {
+		reconfigure(time(), pcr, cdvt);
+	}
+
+	/**
+	 * Change a constant bit rate (CBR) traffic contract in place at the specified time
+	 * without resetting the throttle state. A throttle constructed with a variable bit
+	 * rate (VBR) traffic contract gets a sustained rate equal to its peak rate.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @param pcr is the peak cell rate in cells per second.
+	 * @param cdvt is the cell delay variation (jitter) tolerance in microseconds.
+	 */
+	public void reconfigure(long ticks, int pcr, int cdvt) {
+		if (sustained != null) {
+			reconfigure(ticks, pcr, cdvt, pcr, 1);
+		} else {
+			reconfigurePeak(ticks, pcr, cdvt);
+		}
+	}
+
+	/**
+	 * Change the peak rate and tolerance in place at the specified time without
+	 * resetting the throttle state.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @param pcr is the peak cell rate in cells per second.
+	 * @param cdvt is the cell delay variation (jitter) tolerance in microseconds.
+	 */
+	private void reconfigurePeak(long ticks, int pcr, int cdvt) {
+		peak.reconfigure(ticks, increment(pcr, cdvt), limit(pcr, cdvt));
+		this.pcr = pcr;
+		this.cdvt = cdvt;
+	}
+
+	/**
+	 * Return the peak cell rate in cells per second.
+	 * @return the peak cell rate in cells per second.
+	 */
+	public int getPeakCellRate() {
+		return pcr;
+	}
+
+	/**
+	 * Return the cell delay variation (jitter) tolerance in microseconds.
+	 * @return the cell delay variation (jitter) tolerance in microseconds.
+	 */
+	public int getCellDelayVariationTolerance() {
+		return cdvt;
+	}
+
+	/**
+	 * Return the sustained cell rate in cells per second, or zero for a constant bit rate (CBR) traffic contract.
+	 * @return the sustained cell rate in cells per second.
+	 */
+	public int getSustainedCellRate() {
+		return scr;
+	}
+
+	/**
+	 * Return the maximum burst size in cells, or zero for a constant bit rate (CBR) traffic contract.
+	 * @return the maximum burst size in cells.
+	 */
+	public int getMaximumBurstSize() {
+		return mbs;
+	}
+
 	/* (non-Javadoc)
 	 * @see com.diag.buckaroo.throttle.Throttle#toString()
 	 */
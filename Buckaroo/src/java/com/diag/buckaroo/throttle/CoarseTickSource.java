@@ -0,0 +1,138 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.concurrent.locks.LockSupport;
+
+import com.diag.buckaroo.throttle.TickSource;
+
+/**
+ * This class implements a Tick Source that returns a cached copy of System.nanoTime
+ * which a background ticker thread refreshes at a configurable resolution. Reading the
+ * time costs a single volatile load instead of a call into the platform clock, at the
+ * price of the time lagging by as much as the resolution plus however late the ticker
+ * thread is scheduled. A Throttle using this Tick Source may hence admit events slightly
+ * early or late; its resolution should be small compared to the increments of the
+ * Throttles using it. Until the ticker is started, and after it is stopped, the time
+ * is read from System.nanoTime directly, so it is always safe to use. One Coarse Tick
+ * Source may be shared by any number of Throttles.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class CoarseTickSource implements TickSource {
+
+	/**
+	 * This is the default resolution in nanoseconds.
+	 */
+	public final static long RESOLUTION = 1000000;
+
+	/**
+	 * This is the ticker thread.
+	 */
+	protected class Ticker extends Thread {
+		Ticker() { super(CoarseTickSource.class.getSimpleName()); setDaemon(true); }
+		public void run() {
+			while (enabled) {
+				now = System.nanoTime();
+				LockSupport.parkNanos(resolution);
+			}
+		}
+	}
+
+	private final long resolution;
+	private volatile long now;
+	private volatile boolean enabled = false;
+	private Ticker ticker = null;
+
+	/**
+	 * Ctor.
+	 * @param resolution is the interval in nanoseconds at which the time is refreshed.
+	 */
+	public CoarseTickSource(long resolution) {
+		this.resolution = (resolution > 0) ? resolution : 1;
+		this.now = System.nanoTime();
+	}
+
+	/**
+	 * Ctor. The default resolution is used.
+	 */
+	public CoarseTickSource() {
+		this(RESOLUTION);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.TickSource#nanoTime()
+	 */
+	public long nanoTime() {
+		return enabled ? now : System.nanoTime();
+	}
+
+	/**
+	 * Return the resolution.
+	 * @return the interval in nanoseconds at which the time is refreshed.
+	 */
+	public long getResolution() {
+		return resolution;
+	}
+
+	/**
+	 * Start the ticker thread.
+	 * @return this object.
+	 */
+	public synchronized CoarseTickSource start() {
+		if (ticker == null) {
+			now = System.nanoTime();
+			enabled = true;
+			ticker = new Ticker();
+			ticker.start();
+		}
+		return this;
+	}
+
+	/**
+	 * Stop the ticker thread.
+	 * @return this object.
+	 * @throws InterruptedException if the calling thread is interrupted while
+	 * waiting for the ticker thread to exit.
+	 */
+	public synchronized CoarseTickSource stop() throws InterruptedException {
+		if (ticker != null) {
+			enabled = false;
+			LockSupport.unpark(ticker);
+			ticker.join();
+			ticker = null;
+		}
+		return this;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return CoarseTickSource.class.getSimpleName()
+			+ "{resolution=" + resolution
+			+ ",enabled=" + enabled
+			+ ",now=" + now
+			+ "}";
+	}
+
+}
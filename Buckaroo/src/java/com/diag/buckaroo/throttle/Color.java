@@ -0,0 +1,49 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+/**
+ * This enumeration defines the colors with which a Three Color Marker marks events.
+ * Green events conform to the committed (sustained) rate, yellow events exceed the
+ * committed rate but conform to the peak rate, and red events exceed the peak rate.
+ * This follows the terminology of RFC 2698, "A Two Rate Three Color Marker".
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public enum Color {
+
+	/**
+	 * The event conforms to both the committed and the peak rates.
+	 */
+	GREEN,
+
+	/**
+	 * The event conforms to the peak rate but not the committed rate.
+	 */
+	YELLOW,
+
+	/**
+	 * The event conforms to neither rate.
+	 */
+	RED
+
+}
@@ -30,19 +30,23 @@ import com.diag.buckaroo.throttle.Throttle;
  * implements a Constant Bit Rate (CBR) contract with just a peak Throttle,
  * and if two Throttles are used it implements a Variable Bit Rate (VBR)
  * contract with both a peak and a sustained sustained Throttle. A Compound
- * Throttle returns the frequency and time of the peak Throttle. This is
- * similar to the Desperado C++ class CompoundThrottle.
+ * Throttle returns the frequency and time of the peak Throttle. A Compound
+ * Throttle is also an Extended Throttle: a batch of events is admissible if it
+ * is admissible by both Throttles, and a Throttle that is not itself an Extended
+ * Throttle is treated as admitting one event at a time. This is similar to the
+ * Desperado C++ class CompoundThrottle.
  *
  * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
  *
  * @version $Revision$
  */
-public class CompoundThrottle implements Throttle {
+public class CompoundThrottle implements ExtendedThrottle {
 
 	protected static final ExtendedThrottle PROMISCUOUS = new PromiscuousThrottle();
 	
 	private Throttle peak;
 	private Throttle sustained;
+	private long now;
 
 	/**
 	 * Ctor for a variable bit rate (VBR) traffic contract.
@@ -88,11 +92,68 @@ public class CompoundThrottle implements Throttle {
 	 * @see com.diag.buckaroo.throttle.Throttle#admissible(long)
 	 */
 	public long admissible(long ticks) {
+		now = ticks;
 		long peakAdmissible = peak.admissible(ticks);
 		long sustainedAdmissible = sustained.admissible(ticks);
 		return (peakAdmissible > sustainedAdmissible) ? peakAdmissible : sustainedAdmissible;
 	}
 
+	/**
+	 * Return how many of a batch of events are admissible by a single Throttle.
+	 * @param throttle is the Throttle.
+	 * @param ticks is the time of the emission in ticks.
+	 * @param max is the maximum number of events.
+	 * @return the number of events that are admissible.
+	 */
+	static int admissibleCount(Throttle throttle, long ticks, int max) {
+		if (throttle instanceof ExtendedThrottle) {
+			return ((ExtendedThrottle)throttle).admissibleCount(ticks, max);
+		} else {
+			return ((throttle.admissible(ticks) == 0) && (max > 0)) ? 1 : 0;
+		}
+	}
+
+	/**
+	 * Commit a batch of events to a single Throttle. A Throttle that is not an
+	 * Extended Throttle has each event after the first admitted and committed in
+	 * turn at the same time.
+	 * @param throttle is the Throttle.
+	 * @param ticks is the time of the emission in ticks.
+	 * @param count is the number of events.
+	 * @return true if the throttle is not alarmed, false otherwise.
+	 */
+	static boolean commit(Throttle throttle, long ticks, int count) {
+		if (throttle instanceof ExtendedThrottle) {
+			return ((ExtendedThrottle)throttle).commit(count);
+		} else if (count <= 0) {
+			return throttle.rollback();
+		} else {
+			boolean result = throttle.commit();
+			for (int ii = 1; ii < count; ++ii) {
+				throttle.admissible(ticks);
+				result = throttle.commit();
+			}
+			return result;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#admissibleCount(int)
+	 */
+	public int admissibleCount(int max) {
+		return admissibleCount(time(), max);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#admissibleCount(long, int)
+	 */
+	public int admissibleCount(long ticks, int max) {
+		now = ticks;
+		int peakCount = admissibleCount(peak, ticks, max);
+		int sustainedCount = admissibleCount(sustained, ticks, max);
+		return (peakCount < sustainedCount) ? peakCount : sustainedCount;
+	}
+
 	/* (non-Javadoc)
 	 * @see com.diag.buckaroo.throttle.Throttle#commit()
 	 */
@@ -102,6 +163,15 @@ public class CompoundThrottle implements Throttle {
 		return peakCommit && sustainedCommit;
 	}
 
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#commit(int)
+	 */
+	public boolean commit(int count) {
+		boolean peakCommit = commit(peak, now, count);
+		boolean sustainedCommit = commit(sustained, now, count);
+		return peakCommit && sustainedCommit;
+	}
+
 	/* (non-Javadoc)
 	 * @see com.diag.buckaroo.throttle.Throttle#rollback()
 	 */
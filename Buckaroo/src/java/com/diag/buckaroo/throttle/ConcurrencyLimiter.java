@@ -0,0 +1,396 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import com.diag.buckaroo.throttle.ExtendedThrottle;
+import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
+import com.diag.buckaroo.throttle.TickSource;
+
+/**
+ * This class implements a Concurrency Limiter, a Throttle that limits the number of
+ * events in flight rather than their rate, for use where the capacity of a downstream
+ * service depends on its latency rather than on a number of requests per second. An
+ * event is admissible while fewer than the limit are in flight; committing an event
+ * puts it in flight, and the application reports its completion, along with its round
+ * trip time (RTT), by calling complete, or its failure due to overload (a timeout or
+ * an explicit rejection) by calling drop. The limit adapts in the manner of TCP
+ * Vegas: the least RTT recently seen estimates the RTT without queueing, from which
+ * the number of events queued downstream is estimated as the limit times one less the
+ * ratio of that least RTT to the current RTT. While the estimated queue is short the
+ * limit grows, while it is long the limit shrinks, both by the logarithm of the
+ * limit, and a drop shrinks the limit multiplicatively. The limit does not grow while
+ * the application keeps fewer than half of the limit in flight. So that a permanent
+ * change in the downstream is eventually learned, every so many samples the least RTT
+ * is replaced by the current RTT and the limit is halved to drain any queue, so that
+ * the least RTT seen thereafter is again one without queueing. When an event is not
+ * admissible, the delay is an estimate of the time until the next completion: the
+ * smoothed RTT divided by the number in flight. Time is measured in microseconds, as
+ * by the Generic Cell Rate Algorithm. As an Extended Throttle, as many events as
+ * there are free places in flight are admissible at once. All methods are
+ * synchronized since completions are typically reported by threads other than those
+ * admitting events, but as with any other Throttle, a caller should synchronize on
+ * the limiter around an admissible and its commit or rollback.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class ConcurrencyLimiter implements ExtendedThrottle {
+
+	/**
+	 * This is the default initial limit.
+	 */
+	public final static int INITIAL = 20;
+
+	/**
+	 * This is the default minimum limit.
+	 */
+	public final static int MINIMUM = 1;
+
+	/**
+	 * This is the default maximum limit.
+	 */
+	public final static int MAXIMUM = 1000;
+
+	/**
+	 * This is the estimated queue length, in multiples of the logarithm of the
+	 * limit, below which the limit grows.
+	 */
+	public final static int ALPHA = 3;
+
+	/**
+	 * This is the estimated queue length, in multiples of the logarithm of the
+	 * limit, above which the limit shrinks.
+	 */
+	public final static int BETA = 6;
+
+	/**
+	 * This is the factor by which the limit shrinks on a drop.
+	 */
+	public final static double BACKOFF = 0.9;
+
+	/**
+	 * This is the number of samples after which the least RTT is replaced and
+	 * the limit halved.
+	 */
+	public final static int PROBE = 1000;
+
+	private final int initial;
+	private final int minimum;
+	private final int maximum;
+	private final TickSource source;
+	private double limit;
+	private int inflight;
+	private long rttMinimum;
+	private long rttSmoothed;
+	private int samples;
+	private long completed;
+	private long dropped;
+	private long now;
+	private boolean alarmed;
+	private boolean approximate;
+
+	/**
+	 * Ctor.
+	 * @param initial is the initial limit.
+	 * @param minimum is the minimum limit.
+	 * @param maximum is the maximum limit.
+	 * @param source is the Tick Source from which the time is read.
+	 */
+	public ConcurrencyLimiter(int initial, int minimum, int maximum, TickSource source) {
+		this.minimum = (minimum > 0) ? minimum : 1;
+		this.maximum = (maximum > this.minimum) ? maximum : this.minimum;
+		this.initial = (initial < this.minimum) ? this.minimum : (initial > this.maximum) ? this.maximum : initial;
+		this.source = source;
+		reset();
+	}
+
+	/**
+	 * Ctor.
+	 * @param initial is the initial limit.
+	 * @param minimum is the minimum limit.
+	 * @param maximum is the maximum limit.
+	 */
+	public ConcurrencyLimiter(int initial, int minimum, int maximum) {
+		this(initial, minimum, maximum, GenericCellRateAlgorithm.PRECISE);
+	}
+
+	/**
+	 * Ctor. The default limits are used.
+	 */
+	public ConcurrencyLimiter() {
+		this(INITIAL, MINIMUM, MAXIMUM);
+	}
+
+	/**
+	 * Return the current limit.
+	 * @return the limit on the number of events in flight.
+	 */
+	public synchronized int getLimit() {
+		return (int)limit;
+	}
+
+	/**
+	 * Return the number of events in flight.
+	 * @return the number of events in flight.
+	 */
+	public synchronized int getInFlight() {
+		return inflight;
+	}
+
+	/**
+	 * Return the least recent RTT, the estimate of the RTT without queueing.
+	 * @return the least recent RTT in ticks, or zero if none has been measured.
+	 */
+	public synchronized long getMinimumRtt() {
+		return rttMinimum;
+	}
+
+	/**
+	 * Return the smoothed RTT.
+	 * @return the smoothed RTT in ticks, or zero if none has been measured.
+	 */
+	public synchronized long getSmoothedRtt() {
+		return rttSmoothed;
+	}
+
+	/**
+	 * Return the number of events that have completed.
+	 * @return the number of completions.
+	 */
+	public synchronized long getCompleted() {
+		return completed;
+	}
+
+	/**
+	 * Return the number of events that have been dropped.
+	 * @return the number of drops.
+	 */
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * Take an event out of flight.
+	 */
+	private void land() {
+		if (inflight > 0) {
+			--inflight;
+		} else {
+			approximate = true;
+		}
+	}
+
+	/**
+	 * Report that an event in flight has completed and adapt the limit to its RTT.
+	 * @param rtt is the round trip time of the event in ticks.
+	 */
+	public synchronized void complete(long rtt) {
+		int flying = inflight;
+		land();
+		++completed;
+		if (rtt <= 0) {
+			rtt = 1;
+		}
+		rttSmoothed = (rttSmoothed > 0) ? rttSmoothed + ((rtt - rttSmoothed) / 8) : rtt;
+		if (++samples >= PROBE) {
+			samples = 0;
+			rttMinimum = rtt;
+			limit /= 2;
+		} else if ((rttMinimum <= 0) || (rtt < rttMinimum)) {
+			rttMinimum = rtt;
+		}
+		double log = Math.max(1.0, Math.log10(limit));
+		double queue = Math.ceil(limit * (1.0 - (((double)rttMinimum) / rtt)));
+		if (queue <= (ALPHA * log)) {
+			if ((flying * 2) >= limit) {
+				limit += log;
+			}
+		} else if (queue > (BETA * log)) {
+			limit -= log;
+		}
+		if (limit < minimum) {
+			limit = minimum;
+		} else if (limit > maximum) {
+			limit = maximum;
+		}
+	}
+
+	/**
+	 * Report that an event in flight was dropped by the downstream because of
+	 * overload, and shrink the limit.
+	 */
+	public synchronized void drop() {
+		land();
+		++dropped;
+		limit *= BACKOFF;
+		if (limit < minimum) {
+			limit = minimum;
+		}
+	}
+
+	/**
+	 * Report that an event in flight ended without a meaningful RTT, for example
+	 * because it was cancelled by the application. The limit is not changed.
+	 */
+	public synchronized void release() {
+		land();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#reset()
+	 */
+	public void reset() {
+		reset(time());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#reset(long)
+	 */
+	public synchronized void reset(long ticks) {
+		limit = initial;
+		inflight = 0;
+		rttMinimum = 0;
+		rttSmoothed = 0;
+		samples = 0;
+		completed = 0;
+		dropped = 0;
+		now = ticks;
+		alarmed = false;
+		approximate = false;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#admissible()
+	 */
+	public long admissible() {
+		return admissible(time());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#admissible(long)
+	 */
+	public synchronized long admissible(long ticks) {
+		now = ticks;
+		if (inflight < (int)limit) {
+			return 0;
+		}
+		long delay = (inflight > 0) ? rttSmoothed / inflight : rttSmoothed;
+		return (delay > 0) ? delay : 1;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#admissibleCount(int)
+	 */
+	public int admissibleCount(int max) {
+		return admissibleCount(time(), max);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#admissibleCount(long, int)
+	 */
+	public synchronized int admissibleCount(long ticks, int max) {
+		now = ticks;
+		int free = (int)limit - inflight;
+		return (max <= 0) ? 0 : (free <= 0) ? 0 : (free < max) ? free : max;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#commit()
+	 */
+	public boolean commit() {
+		return commit(1);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#commit(int)
+	 */
+	public synchronized boolean commit(int count) {
+		if (count <= 0) {
+			return rollback();
+		}
+		alarmed = (inflight + count) > (int)limit;
+		inflight += count;
+		return !alarmed;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#rollback()
+	 */
+	public synchronized boolean rollback() {
+		return !alarmed;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isAlarmed()
+	 */
+	public synchronized boolean isAlarmed() {
+		return alarmed;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isValid()
+	 */
+	public synchronized boolean isValid() {
+		return inflight >= 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isApproximate()
+	 */
+	public synchronized boolean isApproximate() {
+		return approximate;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#frequency()
+	 */
+	public long frequency() {
+		return GenericCellRateAlgorithm.US_PER_S;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#time()
+	 */
+	public long time() {
+		return source.nanoTime() / GenericCellRateAlgorithm.NS_PER_US;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public synchronized String toString() {
+		return ConcurrencyLimiter.class.getSimpleName()
+			+ "{limit=" + limit
+			+ ",minimum=" + minimum
+			+ ",maximum=" + maximum
+			+ ",inflight=" + inflight
+			+ ",rttMinimum=" + rttMinimum
+			+ ",rttSmoothed=" + rttSmoothed
+			+ ",samples=" + samples
+			+ ",completed=" + completed
+			+ ",dropped=" + dropped
+			+ ",now=" + now
+			+ ",alarmed=" + alarmed
+			+ ",approximate=" + approximate
+			+ "}";
+	}
+
+}
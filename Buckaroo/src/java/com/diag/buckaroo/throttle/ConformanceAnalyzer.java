@@ -0,0 +1,536 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.diag.buckaroo.throttle.CellRateThrottle;
+import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
+import com.diag.buckaroo.throttle.InstrumentedThrottle;
+
+/**
+ * This class implements an offline analyzer that replays a recorded trace of event
+ * timestamps against a peak and a sustained Generic Cell Rate Algorithm contract, as
+ * used by the Cell Rate Throttle, without creating or calling a Throttle per event.
+ * The trace is a file of raw longword timestamps in ticks (microseconds), in big
+ * endian byte order by default, as written by a DataOutputStream; it is memory mapped
+ * and processed in tight primitive loops. Each event is treated exactly as if
+ * admissible(ticks) and then commit() had been called on a Cell Rate Throttle, so the
+ * delay recorded for the event is the delay that admissible would have returned. The
+ * report gives the fraction of events that conform to the contract, a histogram of
+ * the delays of all the events, whose bucket zero counts those that conform, the
+ * smallest CDVT for which every event would conform to the peak rate, and, for a
+ * variable bit rate (VBR) contract, the smallest MBS for which every event would
+ * conform to the sustained rate given that CDVT.
+ * <p>
+ * Although each event depends on all the events before it, the theoretical arrival
+ * time after a segment of the trace is just the larger of the theoretical arrival time
+ * before the segment advanced by one increment per event, and the theoretical arrival
+ * time the segment would produce by itself. So a large trace is split into segments
+ * analyzed in parallel in two passes: the first computes each segment by itself, the
+ * results are chained together in order, and the second replays each segment from its
+ * now known initial state to collect the statistics. A timestamp that goes backwards
+ * is treated as if it had occurred at the latest prior timestamp, and marks the report
+ * as approximate.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class ConformanceAnalyzer {
+
+	/**
+	 * This is the number of buckets in the delay histogram, indexed as by the
+	 * Instrumented Throttle.
+	 */
+	public final static int BUCKETS = InstrumentedThrottle.BUCKETS;
+
+	/**
+	 * This is the smallest number of timestamps worth analyzing in its own segment.
+	 */
+	public final static int SEGMENT = 1 << 16;
+
+	/**
+	 * This is the largest number of timestamps that can be mapped in a single segment.
+	 */
+	public final static int MAXIMUM_SEGMENT = Integer.MAX_VALUE / (Long.SIZE / Byte.SIZE);
+
+	private final static long NONE = Long.MIN_VALUE;
+
+	/**
+	 * This class is the result of an analysis.
+	 */
+	public static class Report {
+
+		private long count = 0;
+		private long conforming = 0;
+		private long maximum = 0;
+		private long cdvt = 0;
+		private long mbs = 0;
+		private long x1peak = 0;
+		private long x1sustained = 0;
+		private boolean approximate = false;
+		private final long[] histogram = new long[BUCKETS];
+
+		/**
+		 * Fold the statistics of one segment into this report.
+		 * @param that is the report of one segment.
+		 */
+		void merge(Report that) {
+			count += that.count;
+			conforming += that.conforming;
+			if (that.maximum > maximum) { maximum = that.maximum; }
+			if (that.x1peak > x1peak) { x1peak = that.x1peak; }
+			if (that.x1sustained > x1sustained) { x1sustained = that.x1sustained; }
+			approximate = approximate || that.approximate;
+			for (int index = 0; index < BUCKETS; ++index) {
+				histogram[index] += that.histogram[index];
+			}
+		}
+
+		/**
+		 * Return the number of events analyzed.
+		 * @return the number of events analyzed.
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * Return the number of events that conformed to the contract.
+		 * @return the number of conforming events.
+		 */
+		public long getConforming() {
+			return conforming;
+		}
+
+		/**
+		 * Return the fraction of events that conformed to the contract.
+		 * @return the conformance ratio, which is one for an empty trace.
+		 */
+		public double getConformance() {
+			return (count > 0) ? ((double)conforming) / count : 1.0;
+		}
+
+		/**
+		 * Return a copy of the delay histogram. Bucket zero counts conforming events;
+		 * bucket n counts events delayed by at least 2^(n-1) and less than 2^n ticks.
+		 * @return the delay histogram.
+		 */
+		public long[] getHistogram() {
+			return histogram.clone();
+		}
+
+		/**
+		 * Return the largest delay required by any event.
+		 * @return the largest delay in ticks.
+		 */
+		public long getMaximumDelay() {
+			return maximum;
+		}
+
+		/**
+		 * Return the smallest cell delay variation tolerance for which every event
+		 * would conform to the peak rate.
+		 * @return the minimal CDVT in ticks (microseconds).
+		 */
+		public long getMinimalCellDelayVariationTolerance() {
+			return cdvt;
+		}
+
+		/**
+		 * Return the smallest maximum burst size for which every event would conform
+		 * to the sustained rate given the minimal CDVT, or zero for a constant bit rate
+		 * (CBR) contract.
+		 * @return the minimal MBS in events.
+		 */
+		public long getMinimalMaximumBurstSize() {
+			return mbs;
+		}
+
+		/**
+		 * Return true if any timestamp preceded the one before it.
+		 * @return true if the trace was out of order.
+		 */
+		public boolean isApproximate() {
+			return approximate;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		public String toString() {
+			return Report.class.getSimpleName()
+				+ "{count=" + count
+				+ ",conforming=" + conforming
+				+ ",maximum=" + maximum
+				+ ",cdvt=" + cdvt
+				+ ",mbs=" + mbs
+				+ ",approximate=" + approximate
+				+ "}";
+		}
+
+	}
+
+	/**
+	 * This class is the state carried from one segment of a trace to the next.
+	 */
+	private static class State {
+		long count = 0;			// number of events
+		long latest = NONE;		// latest timestamp in ticks
+		long peak = NONE;		// peak theoretical arrival time in ticks
+		long sustained = NONE;	// sustained theoretical arrival time in ticks
+	}
+
+	private final long peakIncrement;
+	private final long peakLimit;
+	private final long sustainedIncrement;
+	private final long sustainedLimit;
+	private final int threads;
+
+	/**
+	 * Ctor.
+	 * @param peakIncrement is the peak increment in ticks.
+	 * @param peakLimit is the peak limit in ticks.
+	 * @param sustainedIncrement is the sustained increment in ticks, or zero for
+	 * a constant bit rate (CBR) contract.
+	 * @param sustainedLimit is the sustained limit in ticks.
+	 * @param threads is the maximum number of segments analyzed concurrently.
+	 */
+	public ConformanceAnalyzer(long peakIncrement, long peakLimit, long sustainedIncrement, long sustainedLimit, int threads) {
+		this.peakIncrement = (peakIncrement >= 0) ? peakIncrement : 0;
+		this.peakLimit = (peakLimit >= 0) ? peakLimit : 0;
+		this.sustainedIncrement = (sustainedIncrement >= 0) ? sustainedIncrement : 0;
+		this.sustainedLimit = (sustainedLimit >= 0) ? sustainedLimit : 0;
+		this.threads = (threads > 0) ? threads : 1;
+	}
+
+	/**
+	 * Ctor. The contract is that of a variable bit rate (VBR) Cell Rate Throttle and
+	 * as many segments are analyzed concurrently as there are processors.
+	 * @param pcr is the peak cell rate in cells per second.
+	 * @param cdvt is the cell delay variation tolerance in microseconds.
+	 * @param scr is the sustained cell rate in cells per second.
+	 * @param mbs is the maximum burst size in cells.
+	 */
+	public ConformanceAnalyzer(int pcr, int cdvt, int scr, int mbs) {
+		this(CellRateThrottle.increment(pcr, cdvt), CellRateThrottle.limit(pcr, cdvt), CellRateThrottle.increment(pcr, cdvt, scr, mbs), CellRateThrottle.limit(pcr, cdvt, scr, mbs), Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Ctor. The contract is that of a constant bit rate (CBR) Cell Rate Throttle and
+	 * as many segments are analyzed concurrently as there are processors.
+	 * @param pcr is the peak cell rate in cells per second.
+	 * @param cdvt is the cell delay variation tolerance in microseconds.
+	 */
+	public ConformanceAnalyzer(int pcr, int cdvt) {
+		this(CellRateThrottle.increment(pcr, cdvt), CellRateThrottle.limit(pcr, cdvt), 0, GenericCellRateAlgorithm.MAXIMUM_TICKS, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Add an increment to a time, saturating rather than overflowing.
+	 * @param ticks is the time in ticks.
+	 * @param increment is the non-negative increment in ticks.
+	 * @return the sum in ticks.
+	 */
+	private static long advance(long ticks, long increment) {
+		return (ticks > (GenericCellRateAlgorithm.MAXIMUM_TICKS - increment)) ? GenericCellRateAlgorithm.MAXIMUM_TICKS : ticks + increment;
+	}
+
+	/**
+	 * Analyze one segment by itself. This is the first pass.
+	 * @param buffer is the segment.
+	 * @return the state after the segment, starting from no state.
+	 */
+	private State first(LongBuffer buffer) {
+		final long ip = peakIncrement;
+		final long is = sustainedIncrement;
+		final int length = buffer.limit();
+		long latest = NONE;
+		long peak = NONE;
+		long sustained = NONE;
+		for (int index = 0; index < length; ++index) {
+			long ticks = buffer.get(index);
+			if (ticks > latest) { latest = ticks; }
+			peak = advance((peak > latest) ? peak : latest, ip);
+			sustained = advance((sustained > latest) ? sustained : latest, is);
+		}
+		State state = new State();
+		state.count = length;
+		state.latest = latest;
+		state.peak = peak;
+		state.sustained = sustained;
+		return state;
+	}
+
+	/**
+	 * Chain the state after one segment onto the state before it.
+	 * @param before is the state before the segment.
+	 * @param segment is the state the segment produces by itself.
+	 * @return the state after the segment.
+	 */
+	private State chain(State before, State segment) {
+		State after = new State();
+		after.count = before.count + segment.count;
+		after.latest = (before.latest > segment.latest) ? before.latest : segment.latest;
+		after.peak = segment.peak;
+		after.sustained = segment.sustained;
+		if (segment.count > 0) {
+			if (before.peak != NONE) {
+				long peak = advance(before.peak, (peakIncrement > 0) && (segment.count > (GenericCellRateAlgorithm.MAXIMUM_TICKS / peakIncrement)) ? GenericCellRateAlgorithm.MAXIMUM_TICKS : segment.count * peakIncrement);
+				if (peak > after.peak) { after.peak = peak; }
+			}
+			if (before.sustained != NONE) {
+				long sustained = advance(before.sustained, (sustainedIncrement > 0) && (segment.count > (GenericCellRateAlgorithm.MAXIMUM_TICKS / sustainedIncrement)) ? GenericCellRateAlgorithm.MAXIMUM_TICKS : segment.count * sustainedIncrement);
+				if (sustained > after.sustained) { after.sustained = sustained; }
+			}
+		} else {
+			after.peak = before.peak;
+			after.sustained = before.sustained;
+		}
+		return after;
+	}
+
+	/**
+	 * Replay one segment from its initial state. This is the second pass.
+	 * @param buffer is the segment.
+	 * @param before is the state before the segment.
+	 * @return the report for the segment.
+	 */
+	private Report second(LongBuffer buffer, State before) {
+		final long ip = peakIncrement;
+		final long lp = peakLimit;
+		final long is = sustainedIncrement;
+		final long ls = sustainedLimit;
+		final int length = buffer.limit();
+		final long[] histogram = new long[BUCKETS];
+		long latest = before.latest;
+		long peak = before.peak;
+		long sustained = before.sustained;
+		long conforming = 0;
+		long maximum = 0;
+		long x1peak = 0;
+		long x1sustained = 0;
+		boolean approximate = false;
+		for (int index = 0; index < length; ++index) {
+			long ticks = buffer.get(index);
+			if (ticks >= latest) {
+				latest = ticks;
+			} else {
+				approximate = true;
+			}
+			long x1p = (peak > latest) ? peak - latest : 0;
+			long x1s = (sustained > latest) ? sustained - latest : 0;
+			if (x1p > x1peak) { x1peak = x1p; }
+			if (x1s > x1sustained) { x1sustained = x1s; }
+			long delay = x1p - lp;
+			if ((x1s - ls) > delay) { delay = x1s - ls; }
+			if (delay <= 0) {
+				++conforming;
+				++histogram[0];
+			} else {
+				if (delay > maximum) { maximum = delay; }
+				++histogram[InstrumentedThrottle.bucket(delay)];
+			}
+			peak = advance(latest + x1p, ip);
+			sustained = advance(latest + x1s, is);
+		}
+		Report report = new Report();
+		report.count = length;
+		report.conforming = conforming;
+		report.maximum = maximum;
+		report.x1peak = x1peak;
+		report.x1sustained = x1sustained;
+		report.approximate = approximate;
+		System.arraycopy(histogram, 0, report.histogram, 0, BUCKETS);
+		return report;
+	}
+
+	/**
+	 * Run a pass over every segment, concurrently if there is more than one.
+	 * @param tasks are the tasks, one per segment.
+	 * @return the results in segment order.
+	 * @throws InterruptedException if the calling thread is interrupted.
+	 */
+	private <T> List<T> run(List<Callable<T>> tasks) throws InterruptedException {
+		List<T> results = new ArrayList<T>(tasks.size());
+		if ((tasks.size() == 1) || (threads == 1)) {
+			for (Callable<T> task : tasks) {
+				try {
+					results.add(task.call());
+				} catch (RuntimeException exception) {
+					throw exception;
+				} catch (Exception exception) {
+					throw new IllegalStateException(exception);
+				}
+			}
+		} else {
+			ExecutorService executor = Executors.newFixedThreadPool((tasks.size() < threads) ? tasks.size() : threads);
+			try {
+				for (Future<T> future : executor.invokeAll(tasks)) {
+					try {
+						results.add(future.get());
+					} catch (ExecutionException exception) {
+						Throwable cause = exception.getCause();
+						if (cause instanceof RuntimeException) { throw (RuntimeException)cause; }
+						if (cause instanceof Error) { throw (Error)cause; }
+						throw new IllegalStateException(cause);
+					}
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Analyze a trace already divided into segments, in order.
+	 * @param segments are the segments of the trace.
+	 * @return the report.
+	 * @throws InterruptedException if the calling thread is interrupted.
+	 */
+	public Report analyze(final LongBuffer[] segments) throws InterruptedException {
+		List<Callable<State>> firsts = new ArrayList<Callable<State>>(segments.length);
+		for (final LongBuffer segment : segments) {
+			firsts.add(new Callable<State>() { public State call() { return first(segment); } });
+		}
+		List<State> states = run(firsts);
+		final State[] befores = new State[segments.length];
+		State state = new State();
+		for (int index = 0; index < segments.length; ++index) {
+			befores[index] = state;
+			state = chain(state, states.get(index));
+		}
+		List<Callable<Report>> seconds = new ArrayList<Callable<Report>>(segments.length);
+		for (int index = 0; index < segments.length; ++index) {
+			final LongBuffer segment = segments[index];
+			final State before = befores[index];
+			seconds.add(new Callable<Report>() { public Report call() { return second(segment, before); } });
+		}
+		Report report = new Report();
+		for (Report partial : run(seconds)) {
+			report.merge(partial);
+		}
+		report.cdvt = report.x1peak;
+		if (sustainedIncrement > peakIncrement) {
+			long excess = report.x1sustained - report.cdvt;
+			long spacing = sustainedIncrement - peakIncrement;
+			report.mbs = (excess > 0) ? ((excess + spacing - 1) / spacing) + 1 : 1;
+		}
+		return report;
+	}
+
+	/**
+	 * Return the number of timestamps in each segment of a trace.
+	 * @param count is the number of timestamps in the trace.
+	 * @return the number of timestamps in each segment but possibly the last.
+	 */
+	protected int segment(long count) {
+		long size = (count + threads - 1) / threads;
+		if (size < SEGMENT) { size = SEGMENT; }
+		if (size > MAXIMUM_SEGMENT) { size = MAXIMUM_SEGMENT; }
+		return (int)size;
+	}
+
+	/**
+	 * Analyze a trace in memory.
+	 * @param timestamps are the timestamps in ticks.
+	 * @return the report.
+	 * @throws InterruptedException if the calling thread is interrupted.
+	 */
+	public Report analyze(long[] timestamps) throws InterruptedException {
+		int size = segment(timestamps.length);
+		int count = (timestamps.length + size - 1) / size;
+		LongBuffer[] segments = new LongBuffer[count];
+		for (int index = 0; index < count; ++index) {
+			int offset = index * size;
+			int length = ((timestamps.length - offset) < size) ? timestamps.length - offset : size;
+			segments[index] = LongBuffer.wrap(timestamps, offset, length).slice();
+		}
+		return analyze(segments);
+	}
+
+	/**
+	 * Analyze a trace file. Any trailing bytes that do not form a whole timestamp
+	 * are ignored.
+	 * @param path is the trace file.
+	 * @param order is the byte order of the timestamps.
+	 * @return the report.
+	 * @throws IOException if the file cannot be mapped.
+	 * @throws InterruptedException if the calling thread is interrupted.
+	 */
+	public Report analyze(File path, ByteOrder order) throws IOException, InterruptedException {
+		final int width = Long.SIZE / Byte.SIZE;
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long total = channel.size() / width;
+			int size = segment(total);
+			int count = (int)((total + size - 1) / size);
+			LongBuffer[] segments = new LongBuffer[count];
+			for (int index = 0; index < count; ++index) {
+				long offset = (long)index * size;
+				long length = ((total - offset) < size) ? total - offset : size;
+				segments[index] = channel.map(FileChannel.MapMode.READ_ONLY, offset * width, length * width).order(order).asLongBuffer();
+			}
+			return analyze(segments);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Analyze a trace file of big endian timestamps.
+	 * @param path is the trace file.
+	 * @return the report.
+	 * @throws IOException if the file cannot be mapped.
+	 * @throws InterruptedException if the calling thread is interrupted.
+	 */
+	public Report analyze(File path) throws IOException, InterruptedException {
+		return analyze(path, ByteOrder.BIG_ENDIAN);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return ConformanceAnalyzer.class.getSimpleName()
+			+ "{peakIncrement=" + peakIncrement
+			+ ",peakLimit=" + peakLimit
+			+ ",sustainedIncrement=" + sustainedIncrement
+			+ ",sustainedLimit=" + sustainedLimit
+			+ ",threads=" + threads
+			+ "}";
+	}
+
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.diag.buckaroo.jmx.CallBack;
+import com.diag.buckaroo.jmx.Parameters;
+import com.diag.buckaroo.throttle.BandwidthThrottle;
+import com.diag.buckaroo.throttle.CellRateThrottle;
+
+/**
+ * This class binds the traffic contract of a Cell Rate Throttle or a Bandwidth
+ * Throttle to a Parameters managed bean so that the contract may be retuned at run
+ * time through any JMX console without resetting the throttle. The contract appears
+ * as the properties pcr, cdvt, scr and mbs for a Cell Rate Throttle or pbr, jt, sbr
+ * and mbs for a Bandwidth Throttle (scr or sbr and mbs only for a variable bit rate
+ * contract), optionally with a prefix so that the contracts of several throttles may
+ * share one Parameters object; changes to properties that are not part of the
+ * contract are passed on to whatever call back the Parameters object had before
+ * the binding was made. Properties missing when the binding is made are set
+ * from the current contract. Whenever one of the properties is changed through the
+ * MBean server, the contract is reconfigured from all of them; if any of them is
+ * not an integer, the change is logged and ignored. The throttle is locked while it
+ * is reconfigured, so any other code using the same throttle should synchronize on
+ * it too.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class ContractParameters implements CallBack {
+
+	protected static final Logger DEFAULT_LOGGER = Logger.getLogger(ContractParameters.class.getName());
+
+	private final Parameters parameters;
+	private final CellRateThrottle cell;
+	private final BandwidthThrottle bandwidth;
+	private final String[] names;
+	private final boolean variable;
+	private final CallBack previous;
+	private Logger log = DEFAULT_LOGGER;
+	private int reconfigurations = 0;
+
+	private ContractParameters(Parameters parameters, CellRateThrottle cell, BandwidthThrottle bandwidth, String[] names, int[] values, boolean variable) {
+		this.parameters = parameters;
+		this.cell = cell;
+		this.bandwidth = bandwidth;
+		this.names = names;
+		this.variable = variable;
+		Properties properties = parameters.getProperties();
+		boolean added = false;
+		int count = variable ? names.length : 2;
+		for (int ii = 0; ii < count; ++ii) {
+			synchronized (parameters) {
+				if (properties.getProperty(names[ii]) == null) {
+					properties.setProperty(names[ii], Integer.toString(values[ii]));
+					added = true;
+				}
+			}
+		}
+		if (added) {
+			parameters.init();
+		}
+		this.previous = parameters.getCallBack();
+		parameters.setCallBack(this);
+	}
+
+	/**
+	 * Ctor. The contract of a Cell Rate Throttle is bound to the properties pcr,
+	 * cdvt, scr and mbs, each preceded by the specified prefix.
+	 * @param parameters is the Parameters managed bean.
+	 * @param throttle is the Cell Rate Throttle.
+	 * @param prefix is the prefix of the property names.
+	 */
+	public ContractParameters(Parameters parameters, CellRateThrottle throttle, String prefix) {
+		this(parameters, throttle, null,
+			new String[] { prefix + "pcr", prefix + "cdvt", prefix + "scr", prefix + "mbs" },
+			new int[] { throttle.getPeakCellRate(), throttle.getCellDelayVariationTolerance(), throttle.getSustainedCellRate(), throttle.getMaximumBurstSize() },
+			throttle.getSustainedCellRate() > 0);
+	}
+
+	/**
+	 * Ctor. The contract of a Cell Rate Throttle is bound to the properties pcr,
+	 * cdvt, scr and mbs.
+	 * @param parameters is the Parameters managed bean.
+	 * @param throttle is the Cell Rate Throttle.
+	 */
+	public ContractParameters(Parameters parameters, CellRateThrottle throttle) {
+		this(parameters, throttle, "");
+	}
+
+	/**
+	 * Ctor. The contract of a Bandwidth Throttle is bound to the properties pbr,
+	 * jt, sbr and mbs, each preceded by the specified prefix.
+	 * @param parameters is the Parameters managed bean.
+	 * @param throttle is the Bandwidth Throttle.
+	 * @param prefix is the prefix of the property names.
+	 */
+	public ContractParameters(Parameters parameters, BandwidthThrottle throttle, String prefix) {
+		this(parameters, null, throttle,
+			new String[] { prefix + "pbr", prefix + "jt", prefix + "sbr", prefix + "mbs" },
+			new int[] { throttle.getPeakByteRate(), throttle.getJitterTolerance(), throttle.getSustainedByteRate(), throttle.getMaximumBurstSize() },
+			throttle.getSustainedByteRate() > 0);
+	}
+
+	/**
+	 * Ctor. The contract of a Bandwidth Throttle is bound to the properties pbr,
+	 * jt, sbr and mbs.
+	 * @param parameters is the Parameters managed bean.
+	 * @param throttle is the Bandwidth Throttle.
+	 */
+	public ContractParameters(Parameters parameters, BandwidthThrottle throttle) {
+		this(parameters, throttle, "");
+	}
+
+	/**
+	 * Set the Java logger used by this binding.
+	 * @param log is a Java logger.
+	 * @return this object.
+	 */
+	public ContractParameters setLogger(Logger log) {
+		this.log = log;
+		return this;
+	}
+
+	/**
+	 * Get the Java logger used by this binding.
+	 * @return a Java logger.
+	 */
+	public Logger getLogger() {
+		return log;
+	}
+
+	/**
+	 * Return the Parameters managed bean.
+	 * @return the Parameters managed bean.
+	 */
+	public Parameters getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * Return the number of times the contract has been reconfigured.
+	 * @return the number of reconfigurations.
+	 */
+	public synchronized int getReconfigurations() {
+		return reconfigurations;
+	}
+
+	/**
+	 * Reconfigure the contract from the current values of the properties.
+	 * @return true if the contract was reconfigured, false otherwise.
+	 */
+	public boolean reconfigure() {
+		int count = variable ? names.length : 2;
+		int[] values = new int[count];
+		for (int ii = 0; ii < count; ++ii) {
+			String value = parameters.get(names[ii]);
+			try {
+				values[ii] = Integer.parseInt((value != null) ? value.trim() : "");
+			} catch (NumberFormatException exception) {
+				log.log(Level.WARNING, names[ii] + "=" + value, exception);
+				return false;
+			}
+		}
+		if (cell != null) {
+			synchronized (cell) {
+				if (variable) {
+					cell.reconfigure(values[0], values[1], values[2], values[3]);
+				} else {
+					cell.reconfigure(values[0], values[1]);
+				}
+			}
+		} else {
+			synchronized (bandwidth) {
+				if (variable) {
+					bandwidth.reconfigure(values[0], values[1], values[2], values[3]);
+				} else {
+					bandwidth.reconfigure(values[0], values[1]);
+				}
+			}
+		}
+		synchronized (this) {
+			++reconfigurations;
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.jmx.CallBack#callback(java.lang.String)
+	 */
+	public void callback(String name) {
+		int count = variable ? names.length : 2;
+		for (int ii = 0; ii < count; ++ii) {
+			if (names[ii].equals(name)) {
+				reconfigure();
+				return;
+			}
+		}
+		if (previous != null) {
+			previous.callback(name);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		StringBuilder buffer = new StringBuilder();
+		buffer.append(ContractParameters.class.getSimpleName());
+		int count = variable ? names.length : 2;
+		for (int ii = 0; ii < count; ++ii) {
+			buffer.append((ii == 0) ? "{" : ",").append(names[ii]).append("=").append(parameters.get(names[ii]));
+		}
+		buffer.append(",reconfigurations=").append(getReconfigurations());
+		buffer.append(",throttle=").append((cell != null) ? cell : bandwidth);
+		buffer.append("}");
+		return buffer.toString();
+	}
+
+}
@@ -0,0 +1,430 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import com.diag.buckaroo.throttle.BandwidthAlgorithm;
+import com.diag.buckaroo.throttle.BandwidthThrottle;
+import com.diag.buckaroo.throttle.ExtendedThrottle;
+import com.diag.buckaroo.throttle.TickSource;
+
+/**
+ * This class implements a Dual Rate Bandwidth Throttle for a variable bit rate (VBR)
+ * traffic contract, making exactly the same decisions as the Bandwidth Throttle
+ * constructed with the same peak byte rate (PBR), jitter tolerance (JT), sustained
+ * byte rate (SBR), and maximum burst size (MBS). Where the Bandwidth Throttle composes
+ * two Bandwidth Algorithms through the Throttle interface inside a Compound Extended
+ * Throttle, this class is final and keeps the state of both algorithms, the one for
+ * the peak rate and the one for the sustained rate, side by side in its own fields, so
+ * that a call site using it is monomorphic and the JIT compiler can inline the entire
+ * admission decision. Since both algorithms always commit together, they share the
+ * time of the most recent attempted admission and the alarm and approximation states,
+ * which the Compound Extended Throttle would otherwise combine. As with the Bandwidth
+ * Algorithm, a count of octets is admitted either in its entirety or not at all, and
+ * all time durations are in nanoseconds. Like most Throttles, this class is not thread
+ * safe.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public final class DualRateBandwidthThrottle implements ExtendedThrottle {
+
+	private final TickSource source;	// clock from which the time is read
+	private long now;					// time of the most recent attempted admission in ticks
+	private long peakThen;				// time of the most recent committed admission in ticks
+	private long peakIncrement;			// increment in ticks [TM 4.0]
+	private long peakLimit;				// limit in ticks [TM 4.0]
+	private long peakX;					// expected inter-arrival time in ticks [TM 4.0]
+	private long peakX1;				// actual inter-arrival time in ticks [TM 4.0]
+	private long peakOctetsmaximum;		// maximum possible octets
+	private long sustainedThen;			// time of the most recent committed admission in ticks
+	private long sustainedIncrement;	// increment in ticks [TM 4.0]
+	private long sustainedLimit;		// limit in ticks [TM 4.0]
+	private long sustainedX;			// expected inter-arrival time in ticks [TM 4.0]
+	private long sustainedX1;			// actual inter-arrival time in ticks [TM 4.0]
+	private long sustainedOctetsmaximum;	// maximum possible octets
+	private boolean alarmed;			// alarm state
+	private boolean alarmed1;			// candidate alarm state
+	private boolean approximate;		// event stream is out of specification
+	private int pbr;
+	private int jt;
+	private int sbr;
+	private int mbs;
+
+	/**
+	 * Ctor for a variable bit rate (VBR) traffic contract.
+	 * @param pbr is the peak byte rate in bytes per second.
+	 * @param jt is the jitter tolerance in nanoseconds.
+	 * @param sbr is the sustained byte rate in bytes per second.
+	 * @param mbs is the maximum burst size in bytes.
+	 * @param source is the Tick Source from which the time is read.
+	 */
+	public DualRateBandwidthThrottle(int pbr, int jt, int sbr, int mbs, TickSource source) {
+		this.source = source;
+		this.peakIncrement = BandwidthThrottle.increment(pbr, jt);
+		this.peakLimit = BandwidthThrottle.limit(pbr, jt);
+		this.peakOctetsmaximum = (this.peakIncrement == 0) ? BandwidthAlgorithm.MAXIMUM_TICKS : BandwidthAlgorithm.MAXIMUM_TICKS / this.peakIncrement;
+		this.sustainedIncrement = BandwidthThrottle.increment(pbr, jt, sbr, mbs);
+		this.sustainedLimit = BandwidthThrottle.limit(pbr, jt, sbr, mbs);
+		this.sustainedOctetsmaximum = (this.sustainedIncrement == 0) ? BandwidthAlgorithm.MAXIMUM_TICKS : BandwidthAlgorithm.MAXIMUM_TICKS / this.sustainedIncrement;
+		this.pbr = pbr;
+		this.jt = jt;
+		this.sbr = sbr;
+		this.mbs = mbs;
+		reset();
+	}
+
+	/**
+	 * Ctor for a variable bit rate (VBR) traffic contract.
+	 * @param pbr is the peak byte rate in bytes per second.
+	 * @param jt is the jitter tolerance in nanoseconds.
+	 * @param sbr is the sustained byte rate in bytes per second.
+	 * @param mbs is the maximum burst size in bytes.
+	 */
+	public DualRateBandwidthThrottle(int pbr, int jt, int sbr, int mbs) {
+		this(pbr, jt, sbr, mbs, BandwidthAlgorithm.PRECISE);
+	}
+
+	/**
+	 * Ctor for a variable bit rate (VBR) traffic contract with a JT of zero nanoseconds.
+	 * @param pbr is the peak byte rate in bytes per second.
+	 * @param sbr is the sustained byte rate in bytes per second.
+	 * @param mbs is the maximum burst size in bytes.
+	 */
+	public DualRateBandwidthThrottle(int pbr, int sbr, int mbs) {
+		this(pbr, 0, sbr, mbs);
+	}
+
+	/**
+	 * Change the traffic contract in place at the current time without resetting
+	 * the throttle state.
+	 * @param pbr is the peak byte rate in bytes per second.
+	 * @param jt is the jitter tolerance in nanoseconds.
+	 * @param sbr is the sustained byte rate in bytes per second.
+	 * @param mbs is the maximum burst size in bytes.
+	 * @return true since the entire contract is always changed.
+	 */
+	public boolean reconfigure(int pbr, int jt, int sbr, int mbs) {
+		return reconfigure(time(), pbr, jt, sbr, mbs);
+	}
+
+	/**
+	 * Change the traffic contract in place at the specified time without resetting
+	 * the throttle state; the debt each algorithm carries at that time is scaled in
+	 * proportion to the change in its increment. Unlike the Bandwidth Throttle, this
+	 * class always has a sustained rate, so the entire contract is always changed.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @param pbr is the peak byte rate in bytes per second.
+	 * @param jt is the jitter tolerance in nanoseconds.
+	 * @param sbr is the sustained byte rate in bytes per second.
+	 * @param mbs is the maximum burst size in bytes.
+	 * @return true since the entire contract is always changed.
+	 */
+	public boolean reconfigure(long ticks, int pbr, int jt, int sbr, int mbs) {
+		long i = BandwidthThrottle.increment(pbr, jt);
+		long elapsed = ticks - peakThen;
+		if (elapsed < 0) {
+			elapsed = 0;
+			approximate = true;
+		} else {
+			peakThen = ticks;
+		}
+		long debt = (peakX > elapsed) ? peakX - elapsed : 0;
+		if ((i != peakIncrement) && (peakIncrement > 0)) {
+			debt = (long)((((double)debt) * i) / peakIncrement);
+		}
+		peakX = debt;
+		peakIncrement = i;
+		peakLimit = BandwidthThrottle.limit(pbr, jt);
+		peakOctetsmaximum = (peakIncrement == 0) ? BandwidthAlgorithm.MAXIMUM_TICKS : BandwidthAlgorithm.MAXIMUM_TICKS / peakIncrement;
+		i = BandwidthThrottle.increment(pbr, jt, sbr, mbs);
+		elapsed = ticks - sustainedThen;
+		if (elapsed < 0) {
+			elapsed = 0;
+			approximate = true;
+		} else {
+			sustainedThen = ticks;
+		}
+		debt = (sustainedX > elapsed) ? sustainedX - elapsed : 0;
+		if ((i != sustainedIncrement) && (sustainedIncrement > 0)) {
+			debt = (long)((((double)debt) * i) / sustainedIncrement);
+		}
+		sustainedX = debt;
+		sustainedIncrement = i;
+		sustainedLimit = BandwidthThrottle.limit(pbr, jt, sbr, mbs);
+		sustainedOctetsmaximum = (sustainedIncrement == 0) ? BandwidthAlgorithm.MAXIMUM_TICKS : BandwidthAlgorithm.MAXIMUM_TICKS / sustainedIncrement;
+		this.pbr = pbr;
+		this.jt = jt;
+		this.sbr = sbr;
+		this.mbs = mbs;
+		return true;
+	}
+
+	/**
+	 * Change the traffic contract in place at the current time without resetting
+	 * the throttle state to one whose sustained rate is equal to its peak rate.
+	 * @param pbr is the peak byte rate in bytes per second.
+	 * @param jt is the jitter tolerance in nanoseconds.
+	 */
+	public void reconfigure(int pbr, int jt) {
+		reconfigure(time(), pbr, jt);
+	}
+
+	/**
+	 * Change the traffic contract in place at the specified time without resetting
+	 * the throttle state to one whose sustained rate is equal to its peak rate.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @param pbr is the peak byte rate in bytes per second.
+	 * @param jt is the jitter tolerance in nanoseconds.
+	 */
+	public void reconfigure(long ticks, int pbr, int jt) {
+		reconfigure(ticks, pbr, jt, pbr, 1);
+	}
+
+	/**
+	 * Return the peak byte rate in bytes per second.
+	 * @return the peak byte rate in bytes per second.
+	 */
+	public int getPeakByteRate() {
+		return pbr;
+	}
+
+	/**
+	 * Return the jitter tolerance in nanoseconds.
+	 * @return the jitter tolerance in nanoseconds.
+	 */
+	public int getJitterTolerance() {
+		return jt;
+	}
+
+	/**
+	 * Return the sustained byte rate in bytes per second.
+	 * @return the sustained byte rate in bytes per second.
+	 */
+	public int getSustainedByteRate() {
+		return sbr;
+	}
+
+	/**
+	 * Return the maximum burst size in bytes.
+	 * @return the maximum burst size in bytes.
+	 */
+	public int getMaximumBurstSize() {
+		return mbs;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#reset()
+	 */
+	public void reset() {
+		reset(time());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#reset(long)
+	 */
+	public void reset(long ticks) {
+		now = ticks;
+		peakX = 0;
+		peakX1 = 0;
+		peakThen = ticks - peakIncrement;
+		sustainedX = 0;
+		sustainedX1 = 0;
+		sustainedThen = ticks - sustainedIncrement;
+		alarmed = false;
+		alarmed1 = false;
+		approximate = false;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#admissible()
+	 */
+	public long admissible() {
+		return admissible(time());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#admissible(long)
+	 */
+	public long admissible(long ticks) {
+		long peakDelay = 0;
+		long sustainedDelay = 0;
+		alarmed1 = false;
+		now = ticks;
+		long elapsed = ticks - peakThen;
+		if (elapsed < 0) {
+			elapsed = 0;
+			approximate = true;
+		}
+		if (peakX <= elapsed) {
+			peakX1 = 0;
+		} else {
+			peakX1 = peakX - elapsed;
+			if (peakX1 > peakLimit) {
+				peakDelay = peakX1 - peakLimit;
+				alarmed1 = true;
+			}
+		}
+		elapsed = ticks - sustainedThen;
+		if (elapsed < 0) {
+			elapsed = 0;
+			approximate = true;
+		}
+		if (sustainedX <= elapsed) {
+			sustainedX1 = 0;
+		} else {
+			sustainedX1 = sustainedX - elapsed;
+			if (sustainedX1 > sustainedLimit) {
+				sustainedDelay = sustainedX1 - sustainedLimit;
+				alarmed1 = true;
+			}
+		}
+		return (peakDelay > sustainedDelay) ? peakDelay : sustainedDelay;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#admissibleCount(int)
+	 */
+	public int admissibleCount(int max) {
+		return admissibleCount(time(), max);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#admissibleCount(long, int)
+	 */
+	public int admissibleCount(long ticks, int max) {
+		long delay = admissible(ticks);
+		return ((max > 0) && (delay == 0)) ? max : 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#commit()
+	 */
+	public boolean commit() {
+		return commit(1);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#commit(int)
+	 */
+	public boolean commit(int octets) {
+		peakThen = now;
+		if (octets > peakOctetsmaximum) {
+			peakX = BandwidthAlgorithm.MAXIMUM_TICKS;
+			approximate = true;
+		} else {
+			long increment2 = octets * peakIncrement;
+			long maximum2 = BandwidthAlgorithm.MAXIMUM_TICKS - increment2;
+			if (peakX1 > maximum2) {
+				peakX = BandwidthAlgorithm.MAXIMUM_TICKS;
+				approximate = true;
+			} else {
+				peakX = peakX1 + increment2;
+			}
+		}
+		sustainedThen = now;
+		if (octets > sustainedOctetsmaximum) {
+			sustainedX = BandwidthAlgorithm.MAXIMUM_TICKS;
+			approximate = true;
+		} else {
+			long increment2 = octets * sustainedIncrement;
+			long maximum2 = BandwidthAlgorithm.MAXIMUM_TICKS - increment2;
+			if (sustainedX1 > maximum2) {
+				sustainedX = BandwidthAlgorithm.MAXIMUM_TICKS;
+				approximate = true;
+			} else {
+				sustainedX = sustainedX1 + increment2;
+			}
+		}
+		alarmed = alarmed1;
+		return !alarmed;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#rollback()
+	 */
+	public boolean rollback() {
+		return !alarmed;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isAlarmed()
+	 */
+	public boolean isAlarmed() {
+		return alarmed;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isValid()
+	 */
+	public boolean isValid() {
+		return (peakX >= 0) && (peakX1 >= 0) && (sustainedX >= 0) && (sustainedX1 >= 0);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isApproximate()
+	 */
+	public boolean isApproximate() {
+		return approximate;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#frequency()
+	 */
+	public long frequency() {
+		return BandwidthAlgorithm.NS_PER_S;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#time()
+	 */
+	public long time() {
+		return source.nanoTime();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return DualRateBandwidthThrottle.class.getSimpleName()
+			+ "{pbr=" + pbr
+			+ ",jt=" + jt
+			+ ",sbr=" + sbr
+			+ ",mbs=" + mbs
+			+ ",now=" + now
+			+ ",peak={then=" + peakThen
+			+ ",i=" + peakIncrement
+			+ ",l=" + peakLimit
+			+ ",x=" + peakX
+			+ ",x1=" + peakX1
+			+ ",octetsmaximum=" + peakOctetsmaximum
+			+ "},sustained={then=" + sustainedThen
+			+ ",i=" + sustainedIncrement
+			+ ",l=" + sustainedLimit
+			+ ",x=" + sustainedX
+			+ ",x1=" + sustainedX1
+			+ ",octetsmaximum=" + sustainedOctetsmaximum
+			+ "},alarmed=" + alarmed
+			+ ",alarmed1=" + alarmed1
+			+ ",approximate=" + approximate
+			+ "}";
+	}
+
+}
@@ -0,0 +1,465 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import com.diag.buckaroo.throttle.CellRateThrottle;
+import com.diag.buckaroo.throttle.ExtendedThrottle;
+import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
+import com.diag.buckaroo.throttle.TickSource;
+
+/**
+ * This class implements a Dual Rate Throttle for a variable bit rate (VBR) traffic
+ * contract, making exactly the same decisions as the Cell Rate Throttle constructed
+ * with the same peak cell rate (PCR), cell delay variation tolerance (CDVT), sustained
+ * cell rate (SCR), and maximum burst size (MBS). Where the Cell Rate Throttle composes
+ * two Generic Cell Rate Algorithms through the Throttle interface inside a Compound
+ * Throttle, this class is final and keeps the state of both algorithms, the one for
+ * the peak rate and the one for the sustained rate, side by side in its own fields, so
+ * that a call site using it is monomorphic and the JIT compiler can inline the entire
+ * admission decision. Since both algorithms always commit together, they share the
+ * time of the most recent attempted admission and the alarm and approximation states,
+ * which the Compound Throttle would otherwise combine. As per "Traffic Management
+ * Specification 4.0" all time durations are in microseconds. Like most Throttles, this
+ * class is not thread safe.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public final class DualRateThrottle implements ExtendedThrottle {
+
+	private final TickSource source;	// clock from which the time is read
+	private long now;					// time of the most recent attempted admission in ticks
+	private long peakThen;				// time of the most recent committed admission in ticks
+	private long peakIncrement;			// increment in ticks [TM 4.0]
+	private long peakLimit;				// limit in ticks [TM 4.0]
+	private long peakX;					// expected inter-arrival time in ticks [TM 4.0]
+	private long peakX1;				// actual inter-arrival time in ticks [TM 4.0]
+	private long peakX1maximum;			// maximum possible x1
+	private long sustainedThen;			// time of the most recent committed admission in ticks
+	private long sustainedIncrement;	// increment in ticks [TM 4.0]
+	private long sustainedLimit;		// limit in ticks [TM 4.0]
+	private long sustainedX;			// expected inter-arrival time in ticks [TM 4.0]
+	private long sustainedX1;			// actual inter-arrival time in ticks [TM 4.0]
+	private long sustainedX1maximum;	// maximum possible x1
+	private boolean alarmed;			// alarm state
+	private boolean alarmed1;			// candidate alarm state
+	private boolean approximate;		// event stream is out of specification
+	private int pcr;
+	private int cdvt;
+	private int scr;
+	private int mbs;
+
+	/**
+	 * Ctor for a variable bit rate (VBR) traffic contract.
+	 * @param pcr is the peak cell rate in cells per second.
+	 * @param cdvt is the cell delay variation (jitter) tolerance in microseconds.
+	 * @param scr is the sustained cell rate in cells per second.
+	 * @param mbs is the maximum burst size in cells.
+	 * @param source is the Tick Source from which the time is read.
+	 */
+	public DualRateThrottle(int pcr, int cdvt, int scr, int mbs, TickSource source) {
+		this.source = source;
+		this.peakIncrement = CellRateThrottle.increment(pcr, cdvt);
+		this.peakLimit = CellRateThrottle.limit(pcr, cdvt);
+		this.peakX1maximum = GenericCellRateAlgorithm.MAXIMUM_TICKS - this.peakIncrement;
+		this.sustainedIncrement = CellRateThrottle.increment(pcr, cdvt, scr, mbs);
+		this.sustainedLimit = CellRateThrottle.limit(pcr, cdvt, scr, mbs);
+		this.sustainedX1maximum = GenericCellRateAlgorithm.MAXIMUM_TICKS - this.sustainedIncrement;
+		this.pcr = pcr;
+		this.cdvt = cdvt;
+		this.scr = scr;
+		this.mbs = mbs;
+		reset();
+	}
+
+	/**
+	 * Ctor for a variable bit rate (VBR) traffic contract.
+	 * @param pcr is the peak cell rate in cells per second.
+	 * @param cdvt is the cell delay variation (jitter) tolerance in microseconds.
+	 * @param scr is the sustained cell rate in cells per second.
+	 * @param mbs is the maximum burst size in cells.
+	 */
+	public DualRateThrottle(int pcr, int cdvt, int scr, int mbs) {
+		this(pcr, cdvt, scr, mbs, GenericCellRateAlgorithm.PRECISE);
+	}
+
+	/**
+	 * Ctor for a variable bit rate (VBR) traffic contract with a CDVT of zero microseconds.
+	 * @param pcr is the peak cell rate in cells per second.
+	 * @param scr is the sustained cell rate in cells per second.
+	 * @param mbs is the maximum burst size in cells.
+	 */
+	public DualRateThrottle(int pcr, int scr, int mbs) {
+		this(pcr, 0, scr, mbs);
+	}
+
+	/**
+	 * Change the traffic contract in place at the current time without resetting
+	 * the throttle state.
+	 * @param pcr is the peak cell rate in cells per second.
+	 * @param cdvt is the cell delay variation (jitter) tolerance in microseconds.
+	 * @param scr is the sustained cell rate in cells per second.
+	 * @param mbs is the maximum burst size in cells.
+	 * @return true since the entire contract is always changed.
+	 */
+	public boolean reconfigure(int pcr, int cdvt, int scr, int mbs) {
+		return reconfigure(time(), pcr, cdvt, scr, mbs);
+	}
+
+	/**
+	 * Change the traffic contract in place at the specified time without resetting
+	 * the throttle state; the debt each algorithm carries at that time is scaled in
+	 * proportion to the change in its increment. Unlike the Cell Rate Throttle, this
+	 * class always has a sustained rate, so the entire contract is always changed.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @param pcr is the peak cell rate in cells per second.
+	 * @param cdvt is the cell delay variation (jitter) tolerance in microseconds.
+	 * @param scr is the sustained cell rate in cells per second.
+	 * @param mbs is the maximum burst size in cells.
+	 * @return true since the entire contract is always changed.
+	 */
+	public boolean reconfigure(long ticks, int pcr, int cdvt, int scr, int mbs) {
+		long i = CellRateThrottle.increment(pcr, cdvt);
+		long elapsed = ticks - peakThen;
+		if (elapsed < 0) {
+			elapsed = 0;
+			approximate = true;
+		} else {
+			peakThen = ticks;
+		}
+		long debt = (peakX > elapsed) ? peakX - elapsed : 0;
+		if ((i != peakIncrement) && (peakIncrement > 0)) {
+			debt = (long)((((double)debt) * i) / peakIncrement);
+		}
+		peakX = debt;
+		peakIncrement = i;
+		peakLimit = CellRateThrottle.limit(pcr, cdvt);
+		peakX1maximum = GenericCellRateAlgorithm.MAXIMUM_TICKS - peakIncrement;
+		i = CellRateThrottle.increment(pcr, cdvt, scr, mbs);
+		elapsed = ticks - sustainedThen;
+		if (elapsed < 0) {
+			elapsed = 0;
+			approximate = true;
+		} else {
+			sustainedThen = ticks;
+		}
+		debt = (sustainedX > elapsed) ? sustainedX - elapsed : 0;
+		if ((i != sustainedIncrement) && (sustainedIncrement > 0)) {
+			debt = (long)((((double)debt) * i) / sustainedIncrement);
+		}
+		sustainedX = debt;
+		sustainedIncrement = i;
+		sustainedLimit = CellRateThrottle.limit(pcr, cdvt, scr, mbs);
+		sustainedX1maximum = GenericCellRateAlgorithm.MAXIMUM_TICKS - sustainedIncrement;
+		this.pcr = pcr;
+		this.cdvt = cdvt;
+		this.scr = scr;
+		this.mbs = mbs;
+		return true;
+	}
+
+	/**
+	 * Change the traffic contract in place at the current time without resetting
+	 * the throttle state to one whose sustained rate is equal to its peak rate.
+	 * @param pcr is the peak cell rate in cells per second.
+	 * @param cdvt is the cell delay variation (jitter) tolerance in microseconds.
+	 */
+	public void reconfigure(int pcr, int cdvt) {
+		reconfigure(time(), pcr, cdvt);
+	}
+
+	/**
+	 * Change the traffic contract in place at the specified time without resetting
+	 * the throttle state to one whose sustained rate is equal to its peak rate.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @param pcr is the peak cell rate in cells per second.
+	 * @param cdvt is the cell delay variation (jitter) tolerance in microseconds.
+	 */
+	public void reconfigure(long ticks, int pcr, int cdvt) {
+		reconfigure(ticks, pcr, cdvt, pcr, 1);
+	}
+
+	/**
+	 * Return the peak cell rate in cells per second.
+	 * @return the peak cell rate in cells per second.
+	 */
+	public int getPeakCellRate() {
+		return pcr;
+	}
+
+	/**
+	 * Return the cell delay variation (jitter) tolerance in microseconds.
+	 * @return the cell delay variation (jitter) tolerance in microseconds.
+	 */
+	public int getCellDelayVariationTolerance() {
+		return cdvt;
+	}
+
+	/**
+	 * Return the sustained cell rate in cells per second.
+	 * @return the sustained cell rate in cells per second.
+	 */
+	public int getSustainedCellRate() {
+		return scr;
+	}
+
+	/**
+	 * Return the maximum burst size in cells.
+	 * @return the maximum burst size in cells.
+	 */
+	public int getMaximumBurstSize() {
+		return mbs;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#reset()
+	 */
+	public void reset() {
+		reset(time());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#reset(long)
+	 */
+	public void reset(long ticks) {
+		now = ticks;
+		peakX = 0;
+		peakX1 = 0;
+		peakThen = ticks - peakIncrement;
+		sustainedX = 0;
+		sustainedX1 = 0;
+		sustainedThen = ticks - sustainedIncrement;
+		alarmed = false;
+		alarmed1 = false;
+		approximate = false;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#admissible()
+	 */
+	public long admissible() {
+		return admissible(time());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#admissible(long)
+	 */
+	public long admissible(long ticks) {
+		long peakDelay = 0;
+		long sustainedDelay = 0;
+		alarmed1 = false;
+		now = ticks;
+		long elapsed = ticks - peakThen;
+		if (elapsed < 0) {
+			elapsed = 0;
+			approximate = true;
+		}
+		if (peakX <= elapsed) {
+			peakX1 = 0;
+		} else {
+			peakX1 = peakX - elapsed;
+			if (peakX1 > peakLimit) {
+				peakDelay = peakX1 - peakLimit;
+				alarmed1 = true;
+			}
+		}
+		elapsed = ticks - sustainedThen;
+		if (elapsed < 0) {
+			elapsed = 0;
+			approximate = true;
+		}
+		if (sustainedX <= elapsed) {
+			sustainedX1 = 0;
+		} else {
+			sustainedX1 = sustainedX - elapsed;
+			if (sustainedX1 > sustainedLimit) {
+				sustainedDelay = sustainedX1 - sustainedLimit;
+				alarmed1 = true;
+			}
+		}
+		return (peakDelay > sustainedDelay) ? peakDelay : sustainedDelay;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#admissibleCount(int)
+	 */
+	public int admissibleCount(int max) {
+		return admissibleCount(time(), max);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#admissibleCount(long, int)
+	 */
+	public int admissibleCount(long ticks, int max) {
+		admissible(ticks);
+		if (max <= 0) {
+			return 0;
+		} else if ((peakX1 > peakLimit) || (sustainedX1 > sustainedLimit)) {
+			return 0;
+		}
+		int count = max;
+		if (peakIncrement > 0) {
+			long peakCount = ((peakLimit - peakX1) / peakIncrement) + 1;
+			if (peakCount < count) {
+				count = (int)peakCount;
+			}
+		}
+		if (sustainedIncrement > 0) {
+			long sustainedCount = ((sustainedLimit - sustainedX1) / sustainedIncrement) + 1;
+			if (sustainedCount < count) {
+				count = (int)sustainedCount;
+			}
+		}
+		return count;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#commit()
+	 */
+	public boolean commit() {
+		peakThen = now;
+		if (peakX1 > peakX1maximum) {
+			peakX = GenericCellRateAlgorithm.MAXIMUM_TICKS;
+			approximate = true;
+		} else {
+			peakX = peakX1 + peakIncrement;
+		}
+		sustainedThen = now;
+		if (sustainedX1 > sustainedX1maximum) {
+			sustainedX = GenericCellRateAlgorithm.MAXIMUM_TICKS;
+			approximate = true;
+		} else {
+			sustainedX = sustainedX1 + sustainedIncrement;
+		}
+		alarmed = alarmed1;
+		return !alarmed;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#commit(int)
+	 */
+	public boolean commit(int count) {
+		if (count <= 0) {
+			return rollback();
+		}
+		peakThen = now;
+		long last;
+		if ((peakIncrement > 0) && ((count - 1) > ((GenericCellRateAlgorithm.MAXIMUM_TICKS - peakX1) / peakIncrement))) {
+			last = GenericCellRateAlgorithm.MAXIMUM_TICKS;
+			approximate = true;
+		} else {
+			last = peakX1 + ((count - 1) * peakIncrement);
+		}
+		if (last > peakX1maximum) {
+			peakX = GenericCellRateAlgorithm.MAXIMUM_TICKS;
+			approximate = true;
+		} else {
+			peakX = last + peakIncrement;
+		}
+		alarmed = (last > peakLimit);
+		sustainedThen = now;
+		if ((sustainedIncrement > 0) && ((count - 1) > ((GenericCellRateAlgorithm.MAXIMUM_TICKS - sustainedX1) / sustainedIncrement))) {
+			last = GenericCellRateAlgorithm.MAXIMUM_TICKS;
+			approximate = true;
+		} else {
+			last = sustainedX1 + ((count - 1) * sustainedIncrement);
+		}
+		if (last > sustainedX1maximum) {
+			sustainedX = GenericCellRateAlgorithm.MAXIMUM_TICKS;
+			approximate = true;
+		} else {
+			sustainedX = last + sustainedIncrement;
+		}
+		alarmed = alarmed || (last > sustainedLimit);
+		return !alarmed;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#rollback()
+	 */
+	public boolean rollback() {
+		return !alarmed;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isAlarmed()
+	 */
+	public boolean isAlarmed() {
+		return alarmed;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isValid()
+	 */
+	public boolean isValid() {
+		return (peakX >= 0) && (peakX1 >= 0) && (sustainedX >= 0) && (sustainedX1 >= 0);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isApproximate()
+	 */
+	public boolean isApproximate() {
+		return approximate;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#frequency()
+	 */
+	public long frequency() {
+		return GenericCellRateAlgorithm.US_PER_S;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#time()
+	 */
+	public long time() {
+		return source.nanoTime() / GenericCellRateAlgorithm.NS_PER_US;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return DualRateThrottle.class.getSimpleName()
+			+ "{pcr=" + pcr
+			+ ",cdvt=" + cdvt
+			+ ",scr=" + scr
+			+ ",mbs=" + mbs
+			+ ",now=" + now
+			+ ",peak={then=" + peakThen
+			+ ",i=" + peakIncrement
+			+ ",l=" + peakLimit
+			+ ",x=" + peakX
+			+ ",x1=" + peakX1
+			+ ",x1maximum=" + peakX1maximum
+			+ "},sustained={then=" + sustainedThen
+			+ ",i=" + sustainedIncrement
+			+ ",l=" + sustainedLimit
+			+ ",x=" + sustainedX
+			+ ",x1=" + sustainedX1
+			+ ",x1maximum=" + sustainedX1maximum
+			+ "},alarmed=" + alarmed
+			+ ",alarmed1=" + alarmed1
+			+ ",approximate=" + approximate
+			+ "}";
+	}
+
+}
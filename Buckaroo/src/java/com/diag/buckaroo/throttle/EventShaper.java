@@ -0,0 +1,406 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.diag.buckaroo.throttle.Acquirer;
+import com.diag.buckaroo.throttle.ExtendedThrottle;
+import com.diag.buckaroo.throttle.Throttle;
+
+/**
+ * This class implements a traffic shaper for any number of flows, each policed by its
+ * own Throttle, using a single dispatcher thread. A producer offers an event on a
+ * flow and returns immediately; the event is held in that flow's bounded ring buffer
+ * and handed to the downstream consumer by the dispatcher thread at the time the
+ * Throttle says it conforms to its traffic contract. Traffic in excess of the
+ * contract is hence delayed rather than dropped, unless it overflows the ring buffer,
+ * in which case the offer is refused. Events on the same flow are released in the
+ * order in which they were offered. A Throttle that counts octets, like a Bandwidth
+ * Throttle, is charged the size offered with each event rather than one. Each flow
+ * with events is kept, along with the time at which its oldest event becomes
+ * admissible, in a queue ordered by that time; the dispatcher sleeps until the
+ * earliest such time, releases as many events from that flow as its Throttle allows,
+ * and requeues the flow if any remain. Every event is released by the dispatcher
+ * thread, even one that was admissible when offered, so the consumer is only ever
+ * called from that thread; it should hand the event off quickly, since the time it
+ * takes delays every other flow. As with the Admission Scheduler, each Throttle is
+ * locked only while being asked or committed, and any other code using the same
+ * Throttle should synchronize on it too.
+ *
+ * @param <E> is the type of the events.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class EventShaper<E> {
+
+	/**
+	 * This is the default capacity of the ring buffer of each flow.
+	 */
+	public final static int CAPACITY = 1024;
+
+	protected static final Logger DEFAULT_LOGGER = Logger.getLogger(EventShaper.class.getName());
+
+	/**
+	 * This is the ring buffer of events for a single Throttle.
+	 */
+	protected static class Flow implements Comparable<Flow> {
+		final Throttle throttle;
+		final ExtendedThrottle extended;
+		final Object[] ring;
+		final int[] sizes;
+		int head = 0;
+		int count = 0;
+		long deadline;
+		Flow(Throttle throttle, int capacity) {
+			this.throttle = throttle;
+			this.extended = (throttle instanceof ExtendedThrottle) ? (ExtendedThrottle)throttle : null;
+			this.ring = new Object[capacity];
+			this.sizes = Acquirer.octets(throttle) ? new int[capacity] : null;
+		}
+		boolean offer(Object event, int size) {
+			if (count >= ring.length) {
+				return false;
+			}
+			int tail = head + count;
+			if (tail >= ring.length) {
+				tail -= ring.length;
+			}
+			ring[tail] = event;
+			if (sizes != null) {
+				sizes[tail] = (size > 0) ? size : 1;
+			}
+			++count;
+			return true;
+		}
+		int attempt() {
+			if (sizes == null) {
+				return Acquirer.attempt(throttle, extended, count);
+			} else {
+				return (Acquirer.attempt(throttle, extended, sizes[head]) > 0) ? 1 : 0;
+			}
+		}
+		Object poll() {
+			Object event = ring[head];
+			ring[head] = null;
+			if (++head >= ring.length) {
+				head = 0;
+			}
+			--count;
+			return event;
+		}
+		public int compareTo(Flow that) {
+			long difference = this.deadline - that.deadline;
+			return (difference < 0) ? -1 : (difference > 0) ? 1 : 0;
+		}
+	}
+
+	/**
+	 * This is the dispatcher thread.
+	 */
+	protected class Dispatcher extends Thread {
+		Dispatcher(String name) { super(name); setDaemon(true); }
+		public void run() { dispatch(); }
+	}
+
+	private final Object lock = new Object();
+	private final Map<Throttle, Flow> flows = new IdentityHashMap<Throttle, Flow>();
+	private final PriorityQueue<Flow> queue = new PriorityQueue<Flow>();
+	private final Consumer<? super E> consumer;
+	private final int capacity;
+	private final String name;
+	private Logger log = DEFAULT_LOGGER;
+	private Dispatcher dispatcher = null;
+	private boolean enabled = false;
+	private int pending = 0;
+	private long offered = 0;
+	private long refused = 0;
+	private long released = 0;
+
+	/**
+	 * Ctor.
+	 * @param consumer is the downstream consumer to which events are released.
+	 * @param capacity is the maximum number of events held for each flow.
+	 * @param name is the name given to the dispatcher thread.
+	 */
+	public EventShaper(Consumer<? super E> consumer, int capacity, String name) {
+		this.consumer = consumer;
+		this.capacity = (capacity > 0) ? capacity : 1;
+		this.name = name;
+	}
+
+	/**
+	 * Ctor.
+	 * @param consumer is the downstream consumer to which events are released.
+	 * @param capacity is the maximum number of events held for each flow.
+	 */
+	public EventShaper(Consumer<? super E> consumer, int capacity) {
+		this(consumer, capacity, EventShaper.class.getSimpleName());
+	}
+
+	/**
+	 * Ctor. The default capacity is used.
+	 * @param consumer is the downstream consumer to which events are released.
+	 */
+	public EventShaper(Consumer<? super E> consumer) {
+		this(consumer, CAPACITY);
+	}
+
+	/**
+	 * Set the Java logger used by this shaper.
+	 * @param log is a Java logger.
+	 * @return this object.
+	 */
+	public EventShaper<E> setLogger(Logger log) {
+		this.log = log;
+		return this;
+	}
+
+	/**
+	 * Get the Java logger used by this shaper.
+	 * @return a Java logger.
+	 */
+	public Logger getLogger() {
+		return log;
+	}
+
+	/**
+	 * Release as many events at the head of a flow as the Throttle allows. The
+	 * flow must not be in the queue.
+	 * @param flow is the flow.
+	 * @param admitted is the list to which released events are added.
+	 * @return true if events remain, false otherwise.
+	 */
+	private boolean service(Flow flow, List<Object> admitted) {
+		while (flow.count > 0) {
+			int count = flow.attempt();
+			if (count == 0) {
+				long delay = Acquirer.delay(flow.throttle);
+				if (delay > 0) {
+					flow.deadline = Acquirer.deadline(flow.throttle, delay, System.nanoTime());
+					return true;
+				}
+				continue;
+			}
+			for (int ii = 0; ii < count; ++ii) {
+				admitted.add(flow.poll());
+			}
+			pending -= count;
+		}
+		return false;
+	}
+
+	/**
+	 * Hand released events to the consumer. This is done without holding the
+	 * lock. An exception thrown by the consumer is logged and the event dropped.
+	 * @param admitted is the list of released events.
+	 */
+	@SuppressWarnings("unchecked")
+	private void release(List<Object> admitted) {
+		for (Object event : admitted) {
+			try {
+				consumer.accept((E)event);
+			} catch (RuntimeException exception) {
+				log.log(Level.WARNING, exception.toString(), exception);
+			}
+		}
+		admitted.clear();
+	}
+
+	/**
+	 * Release events as their Throttles allow until disabled.
+	 */
+	private void dispatch() {
+		List<Object> admitted = new ArrayList<Object>();
+		while (true) {
+			synchronized (lock) {
+				while (true) {
+					if (!enabled) {
+						return;
+					}
+					Flow flow = queue.peek();
+					if (flow == null) {
+						try { lock.wait(); } catch (InterruptedException ignore) { }
+						continue;
+					}
+					long remaining = flow.deadline - System.nanoTime();
+					if (remaining > 0) {
+						try { TimeUnit.NANOSECONDS.timedWait(lock, remaining); } catch (InterruptedException ignore) { }
+						continue;
+					}
+					queue.poll();
+					if (service(flow, admitted)) {
+						queue.add(flow);
+					} else {
+						flows.remove(flow.throttle);
+					}
+					if (!admitted.isEmpty()) {
+						released += admitted.size();
+						break;
+					}
+				}
+			}
+			release(admitted);
+		}
+	}
+
+	/**
+	 * Offer an event on the flow policed by a Throttle that counts events. The event
+	 * is released to the consumer by the dispatcher thread once it conforms to the
+	 * traffic contract of the Throttle and every event offered before it on that flow
+	 * has been released. Events offered before the dispatcher is started are released
+	 * once it is.
+	 * @param throttle is the Throttle.
+	 * @param event is the event.
+	 * @return true if the event was accepted, false if the ring buffer of the flow
+	 * was full.
+	 * @throws IllegalArgumentException if the Throttle counts octets, like a
+	 * Bandwidth Throttle, in which case the size of the event must be offered too.
+	 */
+	public boolean offer(Throttle throttle, E event) {
+		if (Acquirer.octets(throttle)) {
+			throw new IllegalArgumentException("unsized " + throttle);
+		}
+		return offer(throttle, event, 1);
+	}
+
+	/**
+	 * Offer an event of a given size on the flow policed by a Throttle. A Throttle
+	 * that counts octets, like a Bandwidth Throttle, is charged the size of each event
+	 * as it is released, one event at a time; any other Throttle is charged one event
+	 * per event regardless of its size, and may release several at once.
+	 * @param throttle is the Throttle.
+	 * @param event is the event.
+	 * @param size is the size of the event in octets.
+	 * @return true if the event was accepted, false if the ring buffer of the flow
+	 * was full.
+	 */
+	public boolean offer(Throttle throttle, E event, int size) {
+		synchronized (lock) {
+			Flow flow = flows.get(throttle);
+			boolean idle = (flow == null);
+			if (idle) {
+				flow = new Flow(throttle, capacity);
+			}
+			if (!flow.offer(event, size)) {
+				++refused;
+				return false;
+			}
+			++offered;
+			++pending;
+			if (idle) {
+				long delay = Acquirer.delay(flow.throttle);
+				long now = System.nanoTime();
+				flow.deadline = (delay > 0) ? Acquirer.deadline(throttle, delay, now) : now;
+				flows.put(throttle, flow);
+				queue.add(flow);
+				if (queue.peek() == flow) {
+					lock.notifyAll();
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Return the number of events not yet released.
+	 * @return the number of events not yet released.
+	 */
+	public int size() {
+		synchronized (lock) {
+			return pending;
+		}
+	}
+
+	/**
+	 * Return the number of events held for the flow policed by a Throttle.
+	 * @param throttle is the Throttle.
+	 * @return the number of events not yet released on that flow.
+	 */
+	public int size(Throttle throttle) {
+		synchronized (lock) {
+			Flow flow = flows.get(throttle);
+			return (flow != null) ? flow.count : 0;
+		}
+	}
+
+	/**
+	 * Start the dispatcher thread.
+	 * @return this object.
+	 */
+	public synchronized EventShaper<E> start() {
+		if (dispatcher == null) {
+			synchronized (lock) {
+				enabled = true;
+			}
+			dispatcher = new Dispatcher(name);
+			dispatcher.start();
+		}
+		return this;
+	}
+
+	/**
+	 * Stop the dispatcher thread. Events not yet released remain held, and are
+	 * released if the dispatcher is started again.
+	 * @return this object.
+	 * @throws InterruptedException if the calling thread is interrupted while
+	 * waiting for the dispatcher thread to exit.
+	 */
+	public synchronized EventShaper<E> stop() throws InterruptedException {
+		if (dispatcher != null) {
+			synchronized (lock) {
+				enabled = false;
+				lock.notifyAll();
+			}
+			dispatcher.join();
+			dispatcher = null;
+		}
+		return this;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		synchronized (lock) {
+			return EventShaper.class.getSimpleName()
+				+ "{name=" + name
+				+ ",capacity=" + capacity
+				+ ",enabled=" + enabled
+				+ ",flows=" + flows.size()
+				+ ",pending=" + pending
+				+ ",offered=" + offered
+				+ ",refused=" + refused
+				+ ",released=" + released
+				+ "}";
+		}
+	}
+
+}
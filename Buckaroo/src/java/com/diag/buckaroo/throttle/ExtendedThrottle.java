@@ -23,7 +23,10 @@ import com.diag.buckaroo.throttle.Throttle;
 
 /**
  * This interface extends the Throttle interface by adding a
- * commit method that can specify a count of events to be emitted.
+ * commit method that can specify a count of events to be emitted,
+ * and an admissible method that computes how many events could be
+ * emitted right now, so that a batch of events can be admitted and
+ * committed with a single calculation instead of one per event.
  *
  * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
  *
@@ -41,4 +44,26 @@ public interface ExtendedThrottle extends Throttle {
 	 */
 	public boolean commit(int count);
 
+	/**
+	 * Return how many of the specified maximum number of events are admissible
+	 * right now. Like the admissible method, this begins a transaction that must be
+	 * completed by a call to the commit or rollback method; after a non-zero count N
+	 * is returned, committing any count up to N does not alarm the throttle.
+	 * @param max is the maximum number of events the caller has to emit.
+	 * @return the number of events that are admissible, from zero to the maximum.
+	 */
+	public int admissibleCount(int max);
+
+	/**
+	 * Return how many of the specified maximum number of events would be admissible
+	 * at the specified time. Like the admissible method, this begins a transaction
+	 * that must be completed by a call to the commit or rollback method; after a
+	 * non-zero count N is returned, committing any count up to N does not alarm the
+	 * throttle.
+	 * @param ticks is the time of the emission in ticks.
+	 * @param max is the maximum number of events the caller has to emit.
+	 * @return the number of events that are admissible, from zero to the maximum.
+	 */
+	public int admissibleCount(long ticks, int max);
+
 }
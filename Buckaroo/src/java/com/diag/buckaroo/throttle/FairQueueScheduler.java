@@ -0,0 +1,360 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.diag.buckaroo.throttle.Acquirer;
+import com.diag.buckaroo.throttle.CompoundThrottle;
+import com.diag.buckaroo.throttle.Throttle;
+
+/**
+ * This class implements a Deficit Round Robin scheduler which divides the capacity of
+ * a single outbound link, whose traffic contract is enforced by a link Throttle
+ * (typically a Bandwidth Throttle), fairly among any number of flows, each of which
+ * has its own traffic contract enforced by its own Throttle (typically a Cell Rate
+ * Throttle or a Bandwidth Throttle). Items of a given size in octets are offered on a
+ * flow and taken off the link, in order within each flow, by a single caller which
+ * transmits them. Each backlogged flow gets a quantum of octets, multiplied by its
+ * weight, per round; a flow may send an item only when its deficit covers the size of
+ * the item, the item conforms to the contract of the flow, and it conforms to the
+ * contract of the link. An item charges a flow Throttle that counts octets, like a
+ * Bandwidth Throttle or a Bandwidth Algorithm, its size in octets, and any other flow
+ * Throttle one event; it always charges the link its size. A flow whose contract
+ * refuses its next item is set aside until its Throttle says the item will conform,
+ * without losing its deficit, so that it neither blocks nor is scanned by the flows
+ * that can send. As long as the quantum is at least the size of the largest item,
+ * taking an item visits a constant number of flows no matter how many flows exist;
+ * setting a flow aside and waking it costs a logarithmic priority queue operation.
+ * Flows are remembered, with their weights, until they are removed. Each Throttle is
+ * locked only while being asked or committed, and any other code using the same
+ * Throttle should synchronize on it too. The Throttle of a flow stays locked from the
+ * time it is asked until the time it is committed or rolled back, and the link
+ * Throttle is locked within it, so other code that locks both should lock them in
+ * that order.
+ *
+ * @param <E> is the type of the items.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class FairQueueScheduler<E> {
+
+	/**
+	 * This is the default quantum in octets.
+	 */
+	public final static int QUANTUM = 1500;
+
+	/**
+	 * This is an item with its size.
+	 */
+	protected static class Item {
+		final Object item;
+		final int size;
+		Item(Object item, int size) { this.item = item; this.size = size; }
+	}
+
+	/**
+	 * This is the queue of items for a single Throttle.
+	 */
+	protected static class Flow implements Comparable<Flow> {
+		final Throttle throttle;
+		final boolean octets;
+		final ArrayDeque<Item> items = new ArrayDeque<Item>();
+		int weight = 1;
+		long deficit = 0;
+		boolean active = false;
+		boolean sleeping = false;
+		long deadline;
+		Flow(Throttle throttle) {
+			this.throttle = throttle;
+			this.octets = Acquirer.octets(throttle);
+		}
+		public int compareTo(Flow that) {
+			long difference = this.deadline - that.deadline;
+			return (difference < 0) ? -1 : (difference > 0) ? 1 : 0;
+		}
+	}
+
+	private final Map<Throttle, Flow> flows = new IdentityHashMap<Throttle, Flow>();
+	private final ArrayDeque<Flow> active = new ArrayDeque<Flow>();
+	private final PriorityQueue<Flow> sleeping = new PriorityQueue<Flow>();
+	private final Throttle link;
+	private final int quantum;
+	private long deadline = 0;
+	private int pending = 0;
+
+	/**
+	 * Ctor.
+	 * @param link is the Throttle enforcing the traffic contract of the link.
+	 * @param quantum is the number of octets a flow of weight one may send per round.
+	 */
+	public FairQueueScheduler(Throttle link, int quantum) {
+		this.link = link;
+		this.quantum = (quantum > 0) ? quantum : 1;
+	}
+
+	/**
+	 * Ctor. The default quantum is used.
+	 * @param link is the Throttle enforcing the traffic contract of the link.
+	 */
+	public FairQueueScheduler(Throttle link) {
+		this(link, QUANTUM);
+	}
+
+	/**
+	 * Return the flow of a Throttle, creating it if necessary.
+	 * @param throttle is the Throttle.
+	 * @return the flow.
+	 */
+	private Flow flow(Throttle throttle) {
+		Flow flow = flows.get(throttle);
+		if (flow == null) {
+			flow = new Flow(throttle);
+			flows.put(throttle, flow);
+		}
+		return flow;
+	}
+
+	/**
+	 * Set the weight of the flow policed by a Throttle. A flow of weight N gets N
+	 * quanta per round.
+	 * @param throttle is the Throttle.
+	 * @param weight is the weight, which must be at least one.
+	 * @return this object.
+	 */
+	public synchronized FairQueueScheduler<E> setWeight(Throttle throttle, int weight) {
+		flow(throttle).weight = (weight > 0) ? weight : 1;
+		return this;
+	}
+
+	/**
+	 * Return the weight of the flow policed by a Throttle.
+	 * @param throttle is the Throttle.
+	 * @return the weight, or zero if there is no such flow.
+	 */
+	public synchronized int getWeight(Throttle throttle) {
+		Flow flow = flows.get(throttle);
+		return (flow != null) ? flow.weight : 0;
+	}
+
+	/**
+	 * Offer an item on the flow policed by a Throttle.
+	 * @param throttle is the Throttle.
+	 * @param item is the item.
+	 * @param size is the size of the item in octets.
+	 */
+	public synchronized void offer(Throttle throttle, E item, int size) {
+		Flow flow = flow(throttle);
+		flow.items.addLast(new Item(item, (size > 0) ? size : 0));
+		++pending;
+		if (!flow.active && !flow.sleeping) {
+			flow.active = true;
+			active.addLast(flow);
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Remove the flow policed by a Throttle, discarding any items not yet taken.
+	 * @param throttle is the Throttle.
+	 * @return the number of items discarded.
+	 */
+	public synchronized int remove(Throttle throttle) {
+		Flow flow = flows.remove(throttle);
+		if (flow == null) {
+			return 0;
+		}
+		if (flow.active) {
+			active.remove(flow);
+		}
+		if (flow.sleeping) {
+			sleeping.remove(flow);
+		}
+		int count = flow.items.size();
+		pending -= count;
+		return count;
+	}
+
+	/**
+	 * Ask a Throttle once whether a count of events is admissible and, if it is not,
+	 * how long until one is. The transaction is left open for a commit or rollback.
+	 * @param throttle is the Throttle.
+	 * @param count is the number of events.
+	 * @return zero if admissible, otherwise the delay in ticks.
+	 */
+	private static long ask(Throttle throttle, int count) {
+		long ticks = throttle.time();
+		if (count <= 1) {
+			return throttle.admissible(ticks);
+		}
+		if (CompoundThrottle.admissibleCount(throttle, ticks, count) >= count) {
+			return 0;
+		}
+		throttle.rollback();
+		long delay = throttle.admissible(ticks);
+		return (delay > 0) ? delay : 1;
+	}
+
+	/**
+	 * Take the next item that may be sent on the link, if any, committing it to
+	 * the contracts of its flow and of the link.
+	 * @return the item, or null if no item may be sent now.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized E poll() {
+		long now = System.nanoTime();
+		Flow flow;
+		while (((flow = sleeping.peek()) != null) && ((flow.deadline - now) <= 0)) {
+			sleeping.poll();
+			flow.sleeping = false;
+			flow.active = true;
+			active.addLast(flow);
+		}
+		deadline = (flow != null) ? flow.deadline : now + Acquirer.HORIZON;
+		while ((flow = active.peekFirst()) != null) {
+			Item item = flow.items.peekFirst();
+			if (flow.deficit < item.size) {
+				flow.deficit += ((long)quantum) * flow.weight;
+				active.removeFirst();
+				active.addLast(flow);
+				continue;
+			}
+			int count = flow.octets ? item.size : 1;
+			long delay;
+			long linked = 0;
+			synchronized (flow.throttle) {
+				delay = ask(flow.throttle, count);
+				if (delay > 0) {
+					flow.throttle.rollback();
+				} else {
+					synchronized (link) {
+						linked = ask(link, item.size);
+						if (linked > 0) {
+							link.rollback();
+						} else {
+							CompoundThrottle.commit(link, link.time(), item.size);
+						}
+					}
+					if (linked > 0) {
+						flow.throttle.rollback();
+					} else {
+						CompoundThrottle.commit(flow.throttle, flow.throttle.time(), count);
+					}
+				}
+			}
+			if (delay > 0) {
+				active.removeFirst();
+				flow.active = false;
+				flow.sleeping = true;
+				flow.deadline = Acquirer.deadline(flow.throttle, delay, now);
+				sleeping.add(flow);
+				if ((flow.deadline - deadline) < 0) {
+					deadline = flow.deadline;
+				}
+				continue;
+			}
+			if (linked > 0) {
+				linked = Acquirer.deadline(link, linked, now);
+				if ((linked - deadline) < 0) {
+					deadline = linked;
+				}
+				return null;
+			}
+			flow.items.removeFirst();
+			--pending;
+			flow.deficit -= item.size;
+			if (flow.items.isEmpty()) {
+				flow.deficit = 0;
+				flow.active = false;
+				active.removeFirst();
+			}
+			return (E)item.item;
+		}
+		return null;
+	}
+
+	/**
+	 * Take the next item, waiting as long as necessary for one to be offered and
+	 * for it to conform to the contracts of its flow and of the link.
+	 * @return the item.
+	 * @throws InterruptedException if the calling thread is interrupted while waiting.
+	 */
+	public synchronized E take() throws InterruptedException {
+		while (true) {
+			E item = poll();
+			if (item != null) {
+				return item;
+			}
+			long remaining = deadline - System.nanoTime();
+			if (remaining > 0) {
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+		}
+	}
+
+	/**
+	 * Return the number of nanoseconds, as of the last call to poll that returned
+	 * nothing, until an item might next be taken, unless another is offered first.
+	 * @return the delay in nanoseconds, which may be zero or negative if an item
+	 * might be taken now.
+	 */
+	public synchronized long delay() {
+		return deadline - System.nanoTime();
+	}
+
+	/**
+	 * Return the number of items not yet taken.
+	 * @return the number of items not yet taken.
+	 */
+	public synchronized int size() {
+		return pending;
+	}
+
+	/**
+	 * Return the number of items not yet taken from the flow policed by a Throttle.
+	 * @param throttle is the Throttle.
+	 * @return the number of items not yet taken from that flow.
+	 */
+	public synchronized int size(Throttle throttle) {
+		Flow flow = flows.get(throttle);
+		return (flow != null) ? flow.items.size() : 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public synchronized String toString() {
+		return FairQueueScheduler.class.getSimpleName()
+			+ "{quantum=" + quantum
+			+ ",flows=" + flows.size()
+			+ ",active=" + active.size()
+			+ ",sleeping=" + sleeping.size()
+			+ ",pending=" + pending
+			+ ",link=" + link
+			+ "}";
+	}
+
+}
@@ -19,6 +19,10 @@
  */
 package com.diag.buckaroo.throttle;
 
+import com.diag.buckaroo.throttle.ExtendedThrottle;
+import com.diag.buckaroo.throttle.PreciseTickSource;
+import com.diag.buckaroo.throttle.TickSource;
+
 /**
  * This class implements a Generic Cell Rate Algorithm (GCRA) as specified in
  * the "Traffic Management Specification 4.0" specification [ Giroux, N., et al.,
@@ -39,13 +43,18 @@ package com.diag.buckaroo.throttle;
  * Maximum Burst Size (MBS) would use two of these throttles in conjunction, the prior
  * throttle plus GenericCellRateAlgorithm(1/SCR, CDVT+((MBS-1)*((1/SCR)-(1/PCR)))) where
  * conforming cells would have to conform to both contracts simultaneously. This is
- * similar to the Desperado C++ class Gcra.
+ * similar to the Desperado C++ class Gcra. As an Extended Throttle, this throttle
+ * can also admit and commit a batch of cells in closed form: committing N cells at
+ * once leaves it in exactly the state that admitting and committing each of those
+ * cells in turn at the same time would, and alarms it only if the last of them
+ * would not have conformed. The current time is read from a Tick Source, which
+ * unless otherwise specified reads System.nanoTime on every call.
  *
  * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
  *
  * @version $Revision$
  */
-public class GenericCellRateAlgorithm implements Throttle {
+public class GenericCellRateAlgorithm implements ExtendedThrottle {
 	
 	/**
 	 * This is the number of microseconds there are in a millisecond.
@@ -66,6 +75,11 @@ public class GenericCellRateAlgorithm implements Throttle {
 	 * This is the maximum possible representable number of ticks.
 	 */
 	public final static long MAXIMUM_TICKS = Long.MAX_VALUE;
+
+	/**
+	 * This is the Tick Source used unless another is specified.
+	 */
+	protected final static TickSource PRECISE = new PreciseTickSource();
 	
 	/**
 	 * Convert the milliseconds used by the JVM to the ticks used by the Throttle,
@@ -136,13 +150,16 @@ public class GenericCellRateAlgorithm implements Throttle {
 	protected boolean alarmed;	   // alarm state
 	protected boolean alarmed1;	   // candidate alarm state
 	protected boolean approximate; // event stream is out of specification
+	protected final TickSource source; // clock from which the time is read
 	
 	/**
 	 * Ctor.
 	 * @param increment is the virtual scheduler increment or i in microseconds.
 	 * @param limit is the virtual scheduler limit or l in microseconds.
+	 * @param source is the Tick Source from which the time is read.
 	 */
-	public GenericCellRateAlgorithm(long increment, long limit) {
+	public GenericCellRateAlgorithm(long increment, long limit, TickSource source) {
+		this.source = source;
 		if (increment >= 0) {
 			this.increment = increment;
 		} else {
@@ -159,6 +176,15 @@ public class GenericCellRateAlgorithm implements Throttle {
 		reset();
 	}
 	
+	/**
+	 * Ctor.
+	 * @param increment is the virtual scheduler increment or i in microseconds.
+	 * @param limit is the virtual scheduler limit or l in microseconds.
+	 */
+	public GenericCellRateAlgorithm(long increment, long limit) {
+		this(increment, limit, PRECISE);
+	}
+	
 	/**
 	 * Ctor. The limit is set to zero microseconds.
 	 * @param increment is the virtual scheduler increment or i in microseconds.
@@ -175,6 +201,54 @@ public class GenericCellRateAlgorithm implements Throttle {
 		this(0, MAXIMUM_TICKS);
 	}
 
+	/**
+	 * Change the traffic contract in place at the current time without resetting
+	 * the throttle.
+	 * @param increment is the new virtual scheduler increment or i in ticks.
+	 * @param limit is the new virtual scheduler limit or l in ticks.
+	 */
+	public void reconfigure(long increment, long limit) {
+		reconfigure(time(), increment, limit);
+	}
+
+	/**
+	 * Change the traffic contract in place at the specified time without resetting
+	 * the throttle. The debt the throttle is carrying at that time, what remains of
+	 * its expected inter-arrival time, is scaled by the ratio of the new increment to
+	 * the old, so that a stream which was some number of cells ahead of the old
+	 * contract is the same number of cells ahead of the new one; an idle stream stays
+	 * idle, and a busy one neither gets a fresh burst nor is made to pause. Like the
+	 * constructor, this method makes the best of questionable parameters.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @param increment is the new virtual scheduler increment or i in ticks.
+	 * @param limit is the new virtual scheduler limit or l in ticks.
+	 */
+	public void reconfigure(long ticks, long increment, long limit) {
+		if (increment < 0) {
+			increment = 0;
+			approximate = true;
+		}
+		if (limit < 0) {
+			limit = 0;
+			approximate = true;
+		}
+		long elapsed = ticks - then;
+		if (elapsed < 0) {
+			elapsed = 0;
+			approximate = true;
+		} else {
+			then = ticks;
+		}
+		long debt = (x > elapsed) ? x - elapsed : 0;
+		if ((increment != this.increment) && (this.increment > 0)) {
+			debt = (long)((((double)debt) * increment) / this.increment);
+		}
+		x = debt;
+		this.increment = increment;
+		this.limit = limit;
+		this.x1maximum = MAXIMUM_TICKS - this.increment;
+	}
+
 	/* (non-Javadoc)
 	 * @see com.diag.buckaroo.throttle.Throttle#reset()
 	 */
@@ -227,6 +301,30 @@ public class GenericCellRateAlgorithm implements Throttle {
 		return delay;
 	}
 
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#admissibleCount(int)
+	 */
+	public int admissibleCount(int max) {
+		return admissibleCount(time(), max);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#admissibleCount(long, int)
+	 */
+	public int admissibleCount(long ticks, int max) {
+		admissible(ticks);
+		if (max <= 0) {
+			return 0;
+		} else if (x1 > limit) {
+			return 0;
+		} else if (increment == 0) {
+			return max;
+		} else {
+			long count = ((limit - x1) / increment) + 1;
+			return (count < max) ? (int)count : max;
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see com.diag.buckaroo.throttle.Throttle#commit()
 	 */
@@ -242,6 +340,31 @@ public class GenericCellRateAlgorithm implements Throttle {
 		return !alarmed;
 	}
 
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#commit(int)
+	 */
+	public boolean commit(int count) {
+		if (count <= 0) {
+			return rollback();
+		}
+		then = now;
+		long last;
+		if ((increment > 0) && ((count - 1) > ((MAXIMUM_TICKS - x1) / increment))) {
+			last = MAXIMUM_TICKS;
+			approximate = true;
+		} else {
+			last = x1 + ((count - 1) * increment);
+		}
+		if (last > x1maximum) {
+			x = MAXIMUM_TICKS;
+			approximate = true;
+		} else {
+			x = last + increment;
+		}
+		alarmed = (last > limit);
+		return !alarmed;
+	}
+
 	/* (non-Javadoc)
 	 * @see com.diag.buckaroo.throttle.Throttle#rollback()
 	 */
@@ -281,7 +404,7 @@ public class GenericCellRateAlgorithm implements Throttle {
 	 * @see com.diag.buckaroo.throttle.Throttle#time()
 	 */
 	public long time() {
-		return System.nanoTime() / NS_PER_US;
+		return source.nanoTime() / NS_PER_US;
 	}
 
 	/* (non-Javadoc)
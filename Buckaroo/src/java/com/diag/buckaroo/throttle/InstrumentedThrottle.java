@@ -0,0 +1,374 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.diag.buckaroo.jmx.LifeCycle;
+import com.diag.buckaroo.throttle.CompoundThrottle;
+import com.diag.buckaroo.throttle.ExtendedThrottle;
+import com.diag.buckaroo.throttle.InstrumentedThrottleMBean;
+import com.diag.buckaroo.throttle.Throttle;
+
+/**
+ * This class decorates any Throttle, including an Extended Throttle, with counters
+ * of its decisions and a histogram of the delays it returns, and exposes them as a
+ * standard managed bean once it is started. Admitted and Delayed count calls to the
+ * admissible and admissibleCount methods that returned zero and non-zero delays (or
+ * non-zero and zero counts) respectively; Committed counts events, so a batch commit
+ * adds its count; Alarmed counts commits that left the Throttle alarmed; RolledBack
+ * counts rollbacks; and Approximated counts how many times the Throttle became
+ * approximate. The delay histogram has a bucket for each power of two: bucket zero
+ * counts zero delays and is the same as Admitted, and bucket N counts delays from
+ * 2^(N-1) to 2^N-1 ticks. When admissibleCount admits nothing, the delay recorded is
+ * that returned by admissible at the same time. The counters and the buckets are
+ * striped adders, which threads sharing the decorated Throttle update without
+ * contending, so an admitted decision costs one striped increment, a delayed one
+ * two and an update of the maximum delay, and a commit or rollback one or two.
+ * Since a Throttle stays approximate until it is reset, whether it became
+ * approximate is checked only when it is reset and when Approximated is read, not
+ * on every decision. Reading the counters never blocks the Throttle. Readings taken
+ * while the Throttle is in use are individually but not mutually consistent.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class InstrumentedThrottle extends LifeCycle implements ExtendedThrottle, InstrumentedThrottleMBean {
+
+	/**
+	 * This is the number of buckets in the delay histogram.
+	 */
+	public final static int BUCKETS = 64;
+
+	private final Throttle throttle;
+	private final LongAdder admitted = new LongAdder();
+	private final LongAdder delayed = new LongAdder();
+	private final LongAdder committed = new LongAdder();
+	private final LongAdder alarmed = new LongAdder();
+	private final LongAdder rolledback = new LongAdder();
+	private final LongAdder approximated = new LongAdder();
+	private final AtomicLong maximum = new AtomicLong(0);
+	private final LongAdder[] histogram = new LongAdder[BUCKETS];
+	private long now = 0;
+
+	/**
+	 * Ctor.
+	 * @param throttle is the Throttle to be instrumented.
+	 */
+	public InstrumentedThrottle(Throttle throttle) {
+		this.throttle = throttle;
+		for (int ii = 1; ii < BUCKETS; ++ii) {
+			histogram[ii] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Return the instrumented Throttle.
+	 * @return the instrumented Throttle.
+	 */
+	public Throttle get() {
+		return throttle;
+	}
+
+	/**
+	 * Return the histogram bucket into which a delay falls.
+	 * @param delay is the delay in ticks.
+	 * @return the bucket index.
+	 */
+	public static int bucket(long delay) {
+		return (delay > 0) ? (BUCKETS - Long.numberOfLeadingZeros(delay)) : 0;
+	}
+
+	/**
+	 * Record the result of an admissibility check.
+	 * @param delay is the delay returned by the Throttle.
+	 */
+	protected void delay(long delay) {
+		if (delay > 0) {
+			delayed.increment();
+			histogram[bucket(delay)].increment();
+			long prior;
+			while (delay > (prior = maximum.get())) {
+				if (maximum.compareAndSet(prior, delay)) {
+					break;
+				}
+			}
+		} else {
+			admitted.increment();
+		}
+	}
+
+	/**
+	 * Record the result of a commit.
+	 * @param count is the number of events committed.
+	 * @param result is the result returned by the Throttle.
+	 * @return the result.
+	 */
+	protected boolean commit(int count, boolean result) {
+		committed.add(count);
+		if (!result) {
+			alarmed.increment();
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#reset()
+	 */
+	public void reset() {
+		reset(time());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#reset(long)
+	 */
+	public void reset(long ticks) {
+		if (throttle.isApproximate()) {
+			approximated.increment();
+		}
+		throttle.reset(ticks);
+		now = ticks;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#admissible()
+	 */
+	public long admissible() {
+		return admissible(time());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#admissible(long)
+	 */
+	public long admissible(long ticks) {
+		now = ticks;
+		long delay = throttle.admissible(ticks);
+		delay(delay);
+		return delay;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#admissibleCount(int)
+	 */
+	public int admissibleCount(int max) {
+		return admissibleCount(time(), max);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#admissibleCount(long, int)
+	 */
+	public int admissibleCount(long ticks, int max) {
+		now = ticks;
+		int count;
+		if (throttle instanceof ExtendedThrottle) {
+			count = ((ExtendedThrottle)throttle).admissibleCount(ticks, max);
+			if (count > 0) {
+				admitted.increment();
+			} else {
+				long delay = throttle.admissible(ticks);
+				if (delay > 0) {
+					delay(delay);
+				} else {
+					delayed.increment();
+				}
+			}
+		} else {
+			long delay = throttle.admissible(ticks);
+			count = ((delay == 0) && (max > 0)) ? 1 : 0;
+			if ((delay == 0) && (count == 0)) {
+				delayed.increment();
+			} else {
+				delay(delay);
+			}
+		}
+		return count;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#commit()
+	 */
+	public boolean commit() {
+		return commit(1, throttle.commit());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#commit(int)
+	 */
+	public boolean commit(int count) {
+		if (count <= 0) {
+			return rollback();
+		}
+		return commit(count, CompoundThrottle.commit(throttle, now, count));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#rollback()
+	 */
+	public boolean rollback() {
+		rolledback.increment();
+		return throttle.rollback();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isAlarmed()
+	 */
+	public boolean isAlarmed() {
+		return throttle.isAlarmed();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isValid()
+	 */
+	public boolean isValid() {
+		return throttle.isValid();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isApproximate()
+	 */
+	public boolean isApproximate() {
+		return throttle.isApproximate();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#frequency()
+	 */
+	public long frequency() {
+		return throttle.frequency();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#time()
+	 */
+	public long time() {
+		return throttle.time();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.InstrumentedThrottleMBean#getAdmitted()
+	 */
+	public long getAdmitted() {
+		return admitted.sum();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.InstrumentedThrottleMBean#getDelayed()
+	 */
+	public long getDelayed() {
+		return delayed.sum();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.InstrumentedThrottleMBean#getCommitted()
+	 */
+	public long getCommitted() {
+		return committed.sum();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.InstrumentedThrottleMBean#getAlarmed()
+	 */
+	public long getAlarmed() {
+		return alarmed.sum();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.InstrumentedThrottleMBean#getRolledBack()
+	 */
+	public long getRolledBack() {
+		return rolledback.sum();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.InstrumentedThrottleMBean#getApproximated()
+	 */
+	public long getApproximated() {
+		return approximated.sum() + (throttle.isApproximate() ? 1 : 0);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.InstrumentedThrottleMBean#getMaximumDelay()
+	 */
+	public long getMaximumDelay() {
+		return maximum.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.InstrumentedThrottleMBean#getDelayHistogram()
+	 */
+	public long[] getDelayHistogram() {
+		long[] result = new long[BUCKETS];
+		result[0] = admitted.sum();
+		for (int ii = 1; ii < result.length; ++ii) {
+			result[ii] = histogram[ii].sum();
+		}
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.InstrumentedThrottleMBean#getFrequency()
+	 */
+	public long getFrequency() {
+		return throttle.frequency();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.InstrumentedThrottleMBean#getThrottle()
+	 */
+	public String getThrottle() {
+		return throttle.toString();
+	}
+
+	/**
+	 * Clear all of the counters and the histogram. The instrumented Throttle
+	 * is not affected. This method is exposed as an operation of the managed bean.
+	 */
+	public void clear() {
+		admitted.reset();
+		delayed.reset();
+		committed.reset();
+		alarmed.reset();
+		rolledback.reset();
+		approximated.reset();
+		maximum.set(0);
+		for (int ii = 1; ii < BUCKETS; ++ii) {
+			histogram[ii].reset();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return InstrumentedThrottle.class.getSimpleName()
+			+ "{admitted=" + admitted
+			+ ",delayed=" + delayed
+			+ ",committed=" + committed
+			+ ",alarmed=" + alarmed
+			+ ",rolledback=" + rolledback
+			+ ",approximated=" + approximated
+			+ ",maximum=" + maximum
+			+ ",throttle=" + throttle
+			+ "}";
+	}
+
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+/**
+ * This interface describes the managed bean exposed by an object
+ * of type InstrumentedThrottle.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public interface InstrumentedThrottleMBean {
+
+	public long getAdmitted();
+
+	public long getDelayed();
+
+	public long getCommitted();
+
+	public long getAlarmed();
+
+	public long getRolledBack();
+
+	public long getApproximated();
+
+	public long getMaximumDelay();
+
+	public long[] getDelayHistogram();
+
+	public long getFrequency();
+
+	public String getThrottle();
+
+	public void clear();
+}
@@ -0,0 +1,357 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.diag.buckaroo.throttle.AtomicCellRateAlgorithm;
+import com.diag.buckaroo.throttle.CellRateThrottle;
+import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
+import com.diag.buckaroo.throttle.TickSource;
+
+/**
+ * This class implements a registry of Cell Rate Throttle traffic contracts, one
+ * per key, in which every key shares the same contract but has its own state. It
+ * is intended for policing large numbers of independent clients, for example by
+ * IP address or API key. Rather than a Cell Rate Throttle object per key, each key
+ * has just a small state object holding the Theoretical Arrival Times (TAT) of its
+ * peak and sustained Generic Cell Rate Algorithms, kept in a concurrent map and
+ * created only when the key is first admitted. A key whose state has decayed back
+ * to being fully conforming is indistinguishable from a key that has never been seen,
+ * so such keys are periodically evicted by whichever caller happens to notice that the
+ * sweep interval has elapsed. The memory used by this throttle is hence bounded by
+ * the number of recently active keys rather than the number of keys ever seen. All
+ * methods are thread safe; an admission for a key is atomic with respect to other
+ * admissions for the same key. As per "Traffic Management Specification 4.0" all time
+ * durations are in microseconds.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ *
+ * @param <Key> is the type of the key identifying each independent event stream.
+ */
+public class KeyedThrottle<Key> {
+
+	/**
+	 * This is the maximum possible representable number of ticks.
+	 */
+	public final static long MAXIMUM_TICKS = GenericCellRateAlgorithm.MAXIMUM_TICKS;
+
+	/**
+	 * This is the per-key state: the theoretical arrival times of the peak and
+	 * sustained contracts, and whether the state has been evicted from the map.
+	 */
+	protected static class State {
+		long peak;			// peak theoretical arrival time in ticks
+		long sustained;		// sustained theoretical arrival time in ticks
+		boolean evicted;	// no longer in the map
+		State(long peak, long sustained) { this.peak = peak; this.sustained = sustained; }
+	}
+
+	protected final long peakIncrement;			// peak increment in ticks [TM 4.0]
+	protected final long peakLimit;				// peak limit in ticks [TM 4.0]
+	protected final long sustainedIncrement;	// sustained increment in ticks [TM 4.0]
+	protected final long sustainedLimit;		// sustained limit in ticks [TM 4.0]
+	protected final long interval;				// sweep interval in ticks
+	protected final TickSource source;			// clock from which the time is read
+
+	private final ConcurrentHashMap<Key, State> states;
+	private final AtomicLong swept;
+
+	/**
+	 * Ctor. The increments and limits are expressed directly in ticks.
+	 * @param peakIncrement is the peak virtual scheduler increment in microseconds.
+	 * @param peakLimit is the peak virtual scheduler limit in microseconds.
+	 * @param sustainedIncrement is the sustained virtual scheduler increment in microseconds.
+	 * @param sustainedLimit is the sustained virtual scheduler limit in microseconds.
+	 * @param interval is the minimum interval between sweeps for idle keys in microseconds.
+	 * @param source is the Tick Source from which the time is read.
+	 */
+	public KeyedThrottle(long peakIncrement, long peakLimit, long sustainedIncrement, long sustainedLimit, long interval, TickSource source) {
+		this.source = source;
+		this.peakIncrement = (peakIncrement >= 0) ? peakIncrement : 0;
+		this.peakLimit = (peakLimit >= 0) ? peakLimit : 0;
+		this.sustainedIncrement = (sustainedIncrement >= 0) ? sustainedIncrement : 0;
+		this.sustainedLimit = (sustainedLimit >= 0) ? sustainedLimit : 0;
+		this.interval = (interval >= 0) ? interval : 0;
+		this.states = new ConcurrentHashMap<Key, State>();
+		this.swept = new AtomicLong(time());
+	}
+
+	/**
+	 * Ctor. The increments and limits are expressed directly in ticks.
+	 * @param peakIncrement is the peak virtual scheduler increment in microseconds.
+	 * @param peakLimit is the peak virtual scheduler limit in microseconds.
+	 * @param sustainedIncrement is the sustained virtual scheduler increment in microseconds.
+	 * @param sustainedLimit is the sustained virtual scheduler limit in microseconds.
+	 * @param interval is the minimum interval between sweeps for idle keys in microseconds.
+	 */
+	public KeyedThrottle(long peakIncrement, long peakLimit, long sustainedIncrement, long sustainedLimit, long interval) {
+		this(peakIncrement, peakLimit, sustainedIncrement, sustainedLimit, interval, GenericCellRateAlgorithm.PRECISE);
+	}
+
+	/**
+	 * Ctor for a variable bit rate (VBR) traffic contract. Idle keys are swept
+	 * no more often than once a second.
+	 * @param pcr is the peak cell rate in cells per second.
+	 * @param cdvt is the cell delay variation (jitter) tolerance in microseconds.
+	 * @param scr is the sustained cell rate in cells per second.
+	 * @param mbs is the maximum burst size in cells.
+	 */
+	public KeyedThrottle(int pcr, int cdvt, int scr, int mbs) {
+		this(
+			CellRateThrottle.increment(pcr, cdvt), CellRateThrottle.limit(pcr, cdvt),
+			CellRateThrottle.increment(pcr, cdvt, scr, mbs), CellRateThrottle.limit(pcr, cdvt, scr, mbs),
+			GenericCellRateAlgorithm.US_PER_S
+		);
+	}
+
+	/**
+	 * Ctor for a constant bit rate (CBR) traffic contract. Idle keys are swept
+	 * no more often than once a second.
+	 * @param pcr is the peak cell rate in cells per second.
+	 * @param cdvt is the cell delay variation (jitter) tolerance in microseconds.
+	 */
+	public KeyedThrottle(int pcr, int cdvt) {
+		this(
+			CellRateThrottle.increment(pcr, cdvt), CellRateThrottle.limit(pcr, cdvt),
+			0, MAXIMUM_TICKS,
+			GenericCellRateAlgorithm.US_PER_S
+		);
+	}
+
+	/**
+	 * Ctor for a constant bit rate (CBR) traffic contract with a CDVT of zero microseconds.
+	 * @param pcr is the peak cell rate in cells per second.
+	 */
+	public KeyedThrottle(int pcr) {
+		this(pcr, 0);
+	}
+
+	private static long next(long x1, long increment, long ticks) {
+		return ticks + ((x1 > (MAXIMUM_TICKS - increment)) ? MAXIMUM_TICKS : x1 + increment);
+	}
+
+	private static long delay(long x1, long limit) {
+		return (x1 > limit) ? x1 - limit : 0;
+	}
+
+	private State find(Key key, long ticks) {
+		State state = states.get(key);
+		if (state == null) {
+			State fresh = new State(ticks - peakIncrement, ticks - sustainedIncrement);
+			state = states.putIfAbsent(key, fresh);
+			if (state == null) { state = fresh; }
+		}
+		return state;
+	}
+
+	private void sweep(long ticks) {
+		long prior = swept.get();
+		if (((ticks - prior) >= interval) && swept.compareAndSet(prior, ticks)) {
+			evict(ticks);
+		}
+	}
+
+	/**
+	 * Return the number of ticks from the specified time until the next event for the
+	 * specified key would be admissible. The throttle state is not modified.
+	 * @param key identifies the event stream.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @return the number of ticks until the next event is admissible, or zero.
+	 */
+	public long admissible(Key key, long ticks) {
+		State state = states.get(key);
+		if (state == null) {
+			return 0;
+		}
+		synchronized (state) {
+			long peakDelay = delay(AtomicCellRateAlgorithm.remaining(state.peak, ticks), peakLimit);
+			long sustainedDelay = delay(AtomicCellRateAlgorithm.remaining(state.sustained, ticks), sustainedLimit);
+			return (peakDelay > sustainedDelay) ? peakDelay : sustainedDelay;
+		}
+	}
+
+	/**
+	 * Return the number of ticks from the current time until the next event for the
+	 * specified key would be admissible. The throttle state is not modified.
+	 * @param key identifies the event stream.
+	 * @return the number of ticks until the next event is admissible, or zero.
+	 */
+	public long admissible(Key key) {
+		return admissible(key, time());
+	}
+
+	/**
+	 * Atomically determine if an event for the specified key is admissible at the
+	 * specified time and, if it is, commit it. If it is not, the state of the key
+	 * is not modified.
+	 * @param key identifies the event stream.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @return zero if the event was admitted and committed, or the number of ticks
+	 * from the specified time until the next event would be admissible.
+	 */
+	public long tryAcquire(Key key, long ticks) {
+		sweep(ticks);
+		while (true) {
+			State state = find(key, ticks);
+			synchronized (state) {
+				if (state.evicted) {
+					continue;
+				}
+				long peakX1 = AtomicCellRateAlgorithm.remaining(state.peak, ticks);
+				long sustainedX1 = AtomicCellRateAlgorithm.remaining(state.sustained, ticks);
+				long peakDelay = delay(peakX1, peakLimit);
+				long sustainedDelay = delay(sustainedX1, sustainedLimit);
+				if ((peakDelay > 0) || (sustainedDelay > 0)) {
+					return (peakDelay > sustainedDelay) ? peakDelay : sustainedDelay;
+				}
+				state.peak = next(peakX1, peakIncrement, ticks);
+				state.sustained = next(sustainedX1, sustainedIncrement, ticks);
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * Atomically determine if an event for the specified key is admissible at the
+	 * current time and, if it is, commit it. If it is not, the state of the key
+	 * is not modified.
+	 * @param key identifies the event stream.
+	 * @return zero if the event was admitted and committed, or the number of ticks
+	 * from the current time until the next event would be admissible.
+	 */
+	public long tryAcquire(Key key) {
+		return tryAcquire(key, time());
+	}
+
+	/**
+	 * Commit an event for the specified key at the specified time regardless of
+	 * whether it was admissible, for example because the application chose to
+	 * violate the traffic contract rather than drop the event.
+	 * @param key identifies the event stream.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @return true if the event was admissible, false otherwise.
+	 */
+	public boolean commit(Key key, long ticks) {
+		sweep(ticks);
+		while (true) {
+			State state = find(key, ticks);
+			synchronized (state) {
+				if (state.evicted) {
+					continue;
+				}
+				long peakX1 = AtomicCellRateAlgorithm.remaining(state.peak, ticks);
+				long sustainedX1 = AtomicCellRateAlgorithm.remaining(state.sustained, ticks);
+				state.peak = next(peakX1, peakIncrement, ticks);
+				state.sustained = next(sustainedX1, sustainedIncrement, ticks);
+				return (peakX1 <= peakLimit) && (sustainedX1 <= sustainedLimit);
+			}
+		}
+	}
+
+	/**
+	 * Evict every key whose state has decayed back to being fully conforming at
+	 * the specified time. This is done automatically no more often than once per
+	 * sweep interval by the admission methods, but may also be called explicitly.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @return the number of keys evicted.
+	 */
+	public int evict(long ticks) {
+		int evicted = 0;
+		Iterator<Map.Entry<Key, State>> iterator = states.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Key, State> entry = iterator.next();
+			State state = entry.getValue();
+			synchronized (state) {
+				if ((state.peak - ticks <= 0) && (state.sustained - ticks <= 0)) {
+					if (states.remove(entry.getKey(), state)) {
+						state.evicted = true;
+						++evicted;
+					}
+				}
+			}
+		}
+		return evicted;
+	}
+
+	/**
+	 * Forget the state of the specified key, returning it to its initial state.
+	 * @param key identifies the event stream.
+	 */
+	public void reset(Key key) {
+		State state = states.remove(key);
+		if (state != null) {
+			synchronized (state) { state.evicted = true; }
+		}
+	}
+
+	/**
+	 * Forget the state of all keys.
+	 */
+	public void reset() {
+		for (Key key : states.keySet()) {
+			reset(key);
+		}
+	}
+
+	/**
+	 * Return the number of keys currently holding state.
+	 * @return the number of keys currently holding state.
+	 */
+	public int size() {
+		return states.size();
+	}
+
+	/**
+	 * Return the number of ticks that are in one second.
+	 * @return the number of ticks that are in one second.
+	 */
+	public long frequency() {
+		return GenericCellRateAlgorithm.US_PER_S;
+	}
+
+	/**
+	 * Return the elapsed ticks since an epoch.
+	 * @return elapsed ticks since an epoch.
+	 */
+	public long time() {
+		return source.nanoTime() / GenericCellRateAlgorithm.NS_PER_US;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return KeyedThrottle.class.getSimpleName()
+			+ "{peakIncrement=" + peakIncrement
+			+ ",peakLimit=" + peakLimit
+			+ ",sustainedIncrement=" + sustainedIncrement
+			+ ",sustainedLimit=" + sustainedLimit
+			+ ",interval=" + interval
+			+ ",size=" + states.size()
+			+ "}";
+	}
+
+}
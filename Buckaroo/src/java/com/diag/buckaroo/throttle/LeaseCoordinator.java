@@ -0,0 +1,344 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.diag.buckaroo.throttle.AtomicCellRateAlgorithm;
+
+/**
+ * This class implements a Lease Coordinator which holds the authoritative state
+ * of a single traffic contract, in the form of an Atomic Cell Rate Algorithm, on
+ * behalf of any number of Leased Throttles, typically one per JVM, which share
+ * that contract. Rather than asking the coordinator about every event, each Leased
+ * Throttle leases a batch of conforming events which it then spends locally, and
+ * returns whatever it has not spent when the lease expires. The coordinator speaks
+ * a simple line oriented protocol over TCP, one request and one reply per line:
+ * <pre>
+ * LEASE count        GRANT granted ttl delay
+ * RETURN count       OK
+ * anything else      ERROR
+ * </pre>
+ * where count is the number of events requested or returned, granted is the number
+ * of events leased (possibly zero), ttl is the lifetime of the lease in ticks, and
+ * delay is the number of ticks until at least one event would be granted, which is
+ * zero if any were. Every granted event conforms to the contract no later than the
+ * lifetime of the lease from the time it was granted, so the aggregate of all of the
+ * Leased Throttles may run ahead of the contract by at most one lease lifetime's worth
+ * of events; it never exceeds the contract over any longer interval. Events leased
+ * to a client that disconnects without returning them are simply lost, which errs
+ * on the side of conformance. The coordinator binds to the loopback address by
+ * default so that it may be run, and tested, entirely locally.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class LeaseCoordinator {
+
+	/**
+	 * This is the default lease lifetime in ticks (microseconds).
+	 */
+	public final static long TTL = GenericCellRateAlgorithm.US_PER_S / 10;
+
+	public final static String LEASE = "LEASE";
+	public final static String RETURN = "RETURN";
+	public final static String GRANT = "GRANT";
+	public final static String OK = "OK";
+	public final static String ERROR = "ERROR";
+
+	protected static final Logger DEFAULT_LOGGER = Logger.getLogger(LeaseCoordinator.class.getName());
+
+	/**
+	 * This is the listener thread that accepts connections.
+	 */
+	protected class Listener extends Thread {
+		Listener() { super(LeaseCoordinator.class.getSimpleName()); setDaemon(true); }
+		public void run() {
+			log("Listening " + socket.getLocalSocketAddress());
+			while (enabled) {
+				try {
+					Socket connection = socket.accept();
+					Handler handler = new Handler(connection);
+					synchronized (handlers) {
+						handlers.add(handler);
+					}
+					handler.start();
+				} catch (IOException exception) {
+					if (enabled) {
+						log(exception);
+					}
+				}
+			}
+			log("Ending");
+		}
+	}
+
+	/**
+	 * This is the handler thread that serves a single connection.
+	 */
+	protected class Handler extends Thread {
+		private final Socket connection;
+		Handler(Socket connection) { super(LeaseCoordinator.class.getSimpleName() + "." + connection.getRemoteSocketAddress()); setDaemon(true); this.connection = connection; }
+		public void run() {
+			log("Serving " + connection.getRemoteSocketAddress());
+			try {
+				BufferedReader input = new BufferedReader(new InputStreamReader(connection.getInputStream(), "US-ASCII"));
+				Writer output = new OutputStreamWriter(connection.getOutputStream(), "US-ASCII");
+				String request;
+				while ((request = input.readLine()) != null) {
+					output.write(serve(request));
+					output.write('\n');
+					output.flush();
+				}
+			} catch (IOException exception) {
+				if (enabled) {
+					log(exception);
+				}
+			} finally {
+				try { connection.close(); } catch (IOException exception) { }
+				synchronized (handlers) {
+					handlers.remove(this);
+				}
+			}
+		}
+	}
+
+	private final AtomicCellRateAlgorithm gcra;
+	private final long ttl;
+	private final InetSocketAddress address;
+	private final Set<Handler> handlers = new HashSet<Handler>();
+	private Logger log = DEFAULT_LOGGER;
+	private volatile boolean enabled = false;
+	private ServerSocket socket = null;
+	private Listener listener = null;
+	private long leases = 0;
+	private long granted = 0;
+	private long returned = 0;
+
+	/**
+	 * Ctor.
+	 * @param gcra is the algorithm holding the authoritative contract state.
+	 * @param address is the address to which to bind; a port of zero chooses an
+	 * ephemeral port.
+	 * @param ttl is the lifetime of each lease in ticks.
+	 */
+	public LeaseCoordinator(AtomicCellRateAlgorithm gcra, InetSocketAddress address, long ttl) {
+		this.gcra = gcra;
+		this.address = address;
+		this.ttl = (ttl > 0) ? ttl : 0;
+	}
+
+	/**
+	 * Ctor. The coordinator binds to the specified port on the loopback address.
+	 * @param gcra is the algorithm holding the authoritative contract state.
+	 * @param port is the port to which to bind or zero for an ephemeral port.
+	 * @param ttl is the lifetime of each lease in ticks.
+	 */
+	public LeaseCoordinator(AtomicCellRateAlgorithm gcra, int port, long ttl) {
+		this(gcra, new InetSocketAddress(InetAddress.getLoopbackAddress(), port), ttl);
+	}
+
+	/**
+	 * Ctor. The coordinator binds to an ephemeral port on the loopback address
+	 * and uses the default lease lifetime.
+	 * @param gcra is the algorithm holding the authoritative contract state.
+	 */
+	public LeaseCoordinator(AtomicCellRateAlgorithm gcra) {
+		this(gcra, 0, TTL);
+	}
+
+	/**
+	 * Set the Java logger used by this coordinator.
+	 * @param log is a Java logger.
+	 * @return this object.
+	 */
+	public LeaseCoordinator setLogger(Logger log) {
+		this.log = log;
+		return this;
+	}
+
+	/**
+	 * Get the Java logger used by this coordinator.
+	 * @return a Java logger.
+	 */
+	public Logger getLogger() {
+		return log;
+	}
+
+	/**
+	 * Log a string as fine.
+	 * @param string is the string to log.
+	 */
+	protected void log(String string) {
+		getLogger().fine(string);
+	}
+
+	/**
+	 * Log an exception as a warning.
+	 * @param exception is the exception to log.
+	 */
+	protected void log(Exception exception) {
+		getLogger().log(Level.WARNING, exception.toString(), exception);
+	}
+
+	/**
+	 * Return the algorithm holding the authoritative contract state.
+	 * @return the algorithm.
+	 */
+	public AtomicCellRateAlgorithm getAlgorithm() {
+		return gcra;
+	}
+
+	/**
+	 * Return the lifetime of each lease.
+	 * @return the lifetime of each lease in ticks.
+	 */
+	public long getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * Return the port to which this coordinator is bound.
+	 * @return the bound port, or the configured port if not started.
+	 */
+	public synchronized int getPort() {
+		return (socket != null) ? socket.getLocalPort() : address.getPort();
+	}
+
+	/**
+	 * Serve a single request. This is the entire protocol, and may be called
+	 * directly for testing.
+	 * @param request is the request line.
+	 * @return the reply line.
+	 */
+	public String serve(String request) {
+		String[] tokens = request.trim().split("\\s+");
+		if (tokens.length != 2) {
+			return ERROR;
+		}
+		int count;
+		try {
+			count = Integer.parseInt(tokens[1]);
+		} catch (NumberFormatException exception) {
+			return ERROR;
+		}
+		if (count < 0) {
+			return ERROR;
+		}
+		long ticks = gcra.time();
+		if (LEASE.equals(tokens[0])) {
+			int leased = gcra.lease(ticks, ttl, count);
+			long delay = 0;
+			if ((leased == 0) && (count > 0)) {
+				delay = gcra.admissible(ticks) - ttl;
+				gcra.rollback();
+				if (delay <= 0) {
+					delay = 1;
+				}
+			}
+			synchronized (this) {
+				++leases;
+				granted += leased;
+			}
+			return GRANT + " " + leased + " " + ttl + " " + delay;
+		} else if (RETURN.equals(tokens[0])) {
+			gcra.release(ticks, count);
+			synchronized (this) {
+				returned += count;
+			}
+			return OK;
+		} else {
+			return ERROR;
+		}
+	}
+
+	/**
+	 * Bind the listening socket and start the listener thread.
+	 * @return this object.
+	 * @throws IOException if the socket cannot be bound.
+	 */
+	public synchronized LeaseCoordinator start() throws IOException {
+		if (listener == null) {
+			ServerSocket server = new ServerSocket();
+			server.setReuseAddress(true);
+			server.bind(address);
+			socket = server;
+			enabled = true;
+			listener = new Listener();
+			listener.start();
+		}
+		return this;
+	}
+
+	/**
+	 * Close the listening socket and all connections and stop all threads.
+	 * @return this object.
+	 * @throws InterruptedException if the calling thread is interrupted while
+	 * waiting for the threads to exit.
+	 */
+	public synchronized LeaseCoordinator stop() throws InterruptedException {
+		if (listener != null) {
+			enabled = false;
+			try { socket.close(); } catch (IOException exception) { log(exception); }
+			listener.join();
+			Handler[] active;
+			synchronized (handlers) {
+				active = handlers.toArray(new Handler[handlers.size()]);
+			}
+			for (Handler handler : active) {
+				try { handler.connection.close(); } catch (IOException exception) { log(exception); }
+				handler.join();
+			}
+			listener = null;
+			socket = null;
+		}
+		return this;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public synchronized String toString() {
+		return LeaseCoordinator.class.getSimpleName()
+			+ "{address=" + address
+			+ ",port=" + getPort()
+			+ ",ttl=" + ttl
+			+ ",enabled=" + enabled
+			+ ",leases=" + leases
+			+ ",granted=" + granted
+			+ ",returned=" + returned
+			+ ",gcra=" + gcra
+			+ "}";
+	}
+
+}
@@ -0,0 +1,367 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
+import com.diag.buckaroo.throttle.LeaseCoordinator;
+import com.diag.buckaroo.throttle.Throttle;
+import com.diag.buckaroo.throttle.TickSource;
+
+/**
+ * This class implements a Throttle which spends events leased in batches from a Lease
+ * Coordinator, typically in another JVM, which holds the authoritative state of a
+ * traffic contract shared by every Leased Throttle connected to it. While the Leased
+ * Throttle holds unexpired credit every event is admissible without any
+ * communication; when its credit is exhausted or its lease has expired, it returns
+ * any unspent credit and asks for another batch, blocking the caller for a round
+ * trip. If no events are granted, the delay returned is that reported by the
+ * coordinator. An event committed without credit is alarmed and is not reported to
+ * the coordinator. If the coordinator cannot be reached, or does not reply, within
+ * one lease lifetime (or one second if none is yet known) the Leased Throttle fails
+ * closed: the event is not admissible, the delay is that same interval, no attempt is
+ * made to reach the coordinator again until it has passed, and the Throttle is marked
+ * approximate until a lease succeeds. Time is measured in microseconds, as by the
+ * Generic Cell Rate Algorithm, and should agree with that of the coordinator, which
+ * is the case for any two JVMs on the same host. Like most Throttles, this class is
+ * not thread safe.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class LeasedThrottle implements Throttle, Closeable {
+
+	/**
+	 * This is the default number of events requested in each lease.
+	 */
+	public final static int BATCH = 16;
+
+	protected static final Logger DEFAULT_LOGGER = Logger.getLogger(LeasedThrottle.class.getName());
+
+	private final InetSocketAddress address;
+	private final int batch;
+	private final TickSource source;
+	private Logger log = DEFAULT_LOGGER;
+	private Socket socket = null;
+	private BufferedReader input = null;
+	private Writer output = null;
+	private int credit = 0;
+	private long expiry = 0;
+	private long ttl = 0;
+	private long now = 0;
+	private long retry = 0;
+	private boolean unreachable = false;
+	private boolean alarmed = false;
+	private boolean approximate = false;
+
+	/**
+	 * Ctor.
+	 * @param address is the address of the Lease Coordinator.
+	 * @param batch is the number of events requested in each lease.
+	 * @param source is the Tick Source from which time is read.
+	 */
+	public LeasedThrottle(InetSocketAddress address, int batch, TickSource source) {
+		this.address = address;
+		this.batch = (batch > 0) ? batch : 1;
+		this.source = source;
+	}
+
+	/**
+	 * Ctor.
+	 * @param address is the address of the Lease Coordinator.
+	 * @param batch is the number of events requested in each lease.
+	 */
+	public LeasedThrottle(InetSocketAddress address, int batch) {
+		this(address, batch, GenericCellRateAlgorithm.PRECISE);
+	}
+
+	/**
+	 * Ctor. The default batch size is used.
+	 * @param address is the address of the Lease Coordinator.
+	 */
+	public LeasedThrottle(InetSocketAddress address) {
+		this(address, BATCH);
+	}
+
+	/**
+	 * Set the Java logger used by this Throttle.
+	 * @param log is a Java logger.
+	 * @return this object.
+	 */
+	public LeasedThrottle setLogger(Logger log) {
+		this.log = log;
+		return this;
+	}
+
+	/**
+	 * Get the Java logger used by this Throttle.
+	 * @return a Java logger.
+	 */
+	public Logger getLogger() {
+		return log;
+	}
+
+	/**
+	 * Return the number of unspent leased events.
+	 * @return the number of unspent leased events.
+	 */
+	public int getCredit() {
+		return credit;
+	}
+
+	/**
+	 * Return the time allowed to connect to the coordinator and to receive each reply,
+	 * which is one lease lifetime, or one second if none is yet known.
+	 * @return the timeout in milliseconds.
+	 */
+	protected int timeout() {
+		long ms = (((ttl > 0) ? ttl : GenericCellRateAlgorithm.US_PER_S) + GenericCellRateAlgorithm.US_PER_MS - 1) / GenericCellRateAlgorithm.US_PER_MS;
+		return (ms < Integer.MAX_VALUE) ? (int)ms : Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Send a request and receive the reply, connecting if necessary.
+	 * @param request is the request line.
+	 * @return the reply tokens.
+	 * @throws IOException if the coordinator cannot be reached, does not reply within
+	 * the timeout, or replies with an error.
+	 */
+	protected String[] transact(String request) throws IOException {
+		try {
+			if (socket == null) {
+				Socket connection = new Socket();
+				connection.setTcpNoDelay(true);
+				connection.connect(address, timeout());
+				input = new BufferedReader(new InputStreamReader(connection.getInputStream(), "US-ASCII"));
+				output = new OutputStreamWriter(connection.getOutputStream(), "US-ASCII");
+				socket = connection;
+			}
+			socket.setSoTimeout(timeout());
+			output.write(request);
+			output.write('\n');
+			output.flush();
+			String reply;
+			try {
+				reply = input.readLine();
+			} catch (SocketTimeoutException exception) {
+				throw new SocketTimeoutException("no reply from " + address + ": " + request);
+			}
+			if (reply == null) {
+				throw new IOException("closed by " + address);
+			}
+			String[] tokens = reply.trim().split("\\s+");
+			if (LeaseCoordinator.ERROR.equals(tokens[0])) {
+				throw new IOException("refused by " + address + ": " + request);
+			}
+			return tokens;
+		} catch (IOException exception) {
+			disconnect();
+			throw exception;
+		}
+	}
+
+	/**
+	 * Close the connection to the coordinator, if any, without returning credit.
+	 */
+	protected void disconnect() {
+		if (socket != null) {
+			try { socket.close(); } catch (IOException exception) { }
+			socket = null;
+			input = null;
+			output = null;
+		}
+	}
+
+	/**
+	 * Return any unspent credit to the coordinator.
+	 */
+	protected void surrender() {
+		if (credit > 0) {
+			int count = credit;
+			credit = 0;
+			try {
+				transact(LeaseCoordinator.RETURN + " " + count);
+			} catch (IOException exception) {
+				log.log(Level.WARNING, exception.toString(), exception);
+				approximate = true;
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#reset()
+	 */
+	public void reset() {
+		reset(time());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#reset(long)
+	 */
+	public void reset(long ticks) {
+		surrender();
+		now = ticks;
+		expiry = ticks;
+		unreachable = false;
+		alarmed = false;
+		approximate = false;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#admissible()
+	 */
+	public long admissible() {
+		return admissible(time());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#admissible(long)
+	 */
+	public long admissible(long ticks) {
+		now = ticks;
+		if ((credit > 0) && ((expiry - ticks) > 0)) {
+			return 0;
+		}
+		if (unreachable && ((retry - ticks) > 0)) {
+			return retry - ticks;
+		}
+		long started = time();
+		surrender();
+		try {
+			String[] tokens = transact(LeaseCoordinator.LEASE + " " + batch);
+			int granted = Integer.parseInt(tokens[1]);
+			ttl = Long.parseLong(tokens[2]);
+			long delay = Long.parseLong(tokens[3]);
+			approximate = false;
+			unreachable = false;
+			if (granted > 0) {
+				credit = granted;
+				expiry = ticks + ttl;
+				return 0;
+			}
+			return (delay > 0) ? delay : 1;
+		} catch (IOException exception) {
+			log.log(Level.WARNING, exception.toString(), exception);
+		} catch (RuntimeException exception) {
+			log.log(Level.WARNING, exception.toString(), exception);
+			disconnect();
+		}
+		long delay = (ttl > 0) ? ttl : GenericCellRateAlgorithm.US_PER_S;
+		approximate = true;
+		unreachable = true;
+		retry = ticks + (time() - started) + delay;
+		return delay;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#commit()
+	 */
+	public boolean commit() {
+		if ((credit > 0) && ((expiry - now) > 0)) {
+			--credit;
+			alarmed = false;
+		} else {
+			alarmed = true;
+		}
+		return !alarmed;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#rollback()
+	 */
+	public boolean rollback() {
+		return !alarmed;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isAlarmed()
+	 */
+	public boolean isAlarmed() {
+		return alarmed;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isValid()
+	 */
+	public boolean isValid() {
+		return address != null;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isApproximate()
+	 */
+	public boolean isApproximate() {
+		return approximate;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#frequency()
+	 */
+	public long frequency() {
+		return GenericCellRateAlgorithm.US_PER_S;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#time()
+	 */
+	public long time() {
+		return source.nanoTime() / GenericCellRateAlgorithm.NS_PER_US;
+	}
+
+	/**
+	 * Return any unspent credit to the coordinator and close the connection.
+	 */
+	public void close() {
+		surrender();
+		disconnect();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return LeasedThrottle.class.getSimpleName()
+			+ "{address=" + address
+			+ ",batch=" + batch
+			+ ",connected=" + (socket != null)
+			+ ",credit=" + credit
+			+ ",expiry=" + expiry
+			+ ",ttl=" + ttl
+			+ ",now=" + now
+			+ ",unreachable=" + unreachable
+			+ ",retry=" + retry
+			+ ",alarmed=" + alarmed
+			+ ",approximate=" + approximate
+			+ "}";
+	}
+
+}
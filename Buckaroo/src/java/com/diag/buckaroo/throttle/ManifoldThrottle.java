@@ -0,0 +1,296 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import com.diag.buckaroo.throttle.ExtendedThrottle;
+import com.diag.buckaroo.throttle.PromiscuousThrottle;
+import com.diag.buckaroo.throttle.Throttle;
+
+/**
+ * Combines any number of Throttles together to form a Manifold Throttle, for
+ * example a per-second, a per-minute, and a per-day contract plus a global cap.
+ * Conformant events must meet the traffic contracts of all of the Throttles, which
+ * must share the same time base. Unlike the Compound Throttle, a Manifold Throttle
+ * holds exactly as many Throttles as it is given; Promiscuous Throttles, which
+ * can never affect the outcome, are dropped at construction. The Throttles are
+ * asked in order, and the asking stops at the first Throttle for which the event
+ * is not admissible, since the event cannot then be admissible no matter what
+ * the remaining Throttles say. Hence the delay returned is that of the first such
+ * Throttle, and the event is guaranteed to be admissible only by that Throttle
+ * once the delay has passed; a caller waiting out delays may have to wait once for
+ * each Throttle. For the same reason, the Throttles are best ordered from the most
+ * to the least likely to refuse an event. If an event that was not admissible is
+ * committed anyway, any Throttles that were not asked are asked at that time before
+ * being committed. A Manifold Throttle returns the frequency and time of its first
+ * Throttle.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class ManifoldThrottle implements ExtendedThrottle {
+
+	private final Throttle[] throttles;
+	private final ExtendedThrottle[] extended;
+	private int asked;
+	private long now;
+
+	/**
+	 * Ctor.
+	 * @param throttles are the Throttles whose traffic contracts must all be met.
+	 */
+	public ManifoldThrottle(Throttle... throttles) {
+		int count = 0;
+		for (Throttle throttle : throttles) {
+			if (!(throttle instanceof PromiscuousThrottle)) {
+				++count;
+			}
+		}
+		this.throttles = new Throttle[count];
+		this.extended = new ExtendedThrottle[count];
+		count = 0;
+		for (Throttle throttle : throttles) {
+			if (!(throttle instanceof PromiscuousThrottle)) {
+				this.throttles[count] = throttle;
+				this.extended[count] = (throttle instanceof ExtendedThrottle) ? (ExtendedThrottle)throttle : null;
+				++count;
+			}
+		}
+		this.asked = count;
+	}
+
+	/**
+	 * Return the number of Throttles.
+	 * @return the number of Throttles.
+	 */
+	public int size() {
+		return throttles.length;
+	}
+
+	/**
+	 * Return the Throttle at the specified index.
+	 * @param index is the index of the Throttle.
+	 * @return the Throttle.
+	 */
+	public Throttle get(int index) {
+		return throttles[index];
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#reset()
+	 */
+	public void reset() {
+		reset(time());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#reset(long)
+	 */
+	public void reset(long ticks) {
+		for (int ii = 0; ii < throttles.length; ++ii) {
+			throttles[ii].reset(ticks);
+		}
+		asked = throttles.length;
+		now = ticks;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#admissible()
+	 */
+	public long admissible() {
+		return admissible(time());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#admissible(long)
+	 */
+	public long admissible(long ticks) {
+		now = ticks;
+		for (int ii = 0; ii < throttles.length; ++ii) {
+			long delay = throttles[ii].admissible(ticks);
+			if (delay > 0) {
+				asked = ii + 1;
+				return delay;
+			}
+		}
+		asked = throttles.length;
+		return 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#admissibleCount(int)
+	 */
+	public int admissibleCount(int max) {
+		return admissibleCount(time(), max);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#admissibleCount(long, int)
+	 */
+	public int admissibleCount(long ticks, int max) {
+		now = ticks;
+		int count = (max > 0) ? max : 0;
+		for (int ii = 0; ii < throttles.length; ++ii) {
+			int admissible;
+			if (extended[ii] != null) {
+				admissible = extended[ii].admissibleCount(ticks, count);
+			} else {
+				admissible = ((throttles[ii].admissible(ticks) == 0) && (count > 0)) ? 1 : 0;
+			}
+			if (admissible < count) {
+				count = admissible;
+			}
+			if (count == 0) {
+				asked = ii + 1;
+				return 0;
+			}
+		}
+		asked = throttles.length;
+		return count;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#commit()
+	 */
+	public boolean commit() {
+		boolean result = true;
+		for (int ii = 0; ii < throttles.length; ++ii) {
+			if (ii >= asked) {
+				throttles[ii].admissible(now);
+			}
+			if (!throttles[ii].commit()) {
+				result = false;
+			}
+		}
+		asked = throttles.length;
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#commit(int)
+	 */
+	public boolean commit(int count) {
+		if (count <= 0) {
+			return rollback();
+		}
+		boolean result = true;
+		for (int ii = 0; ii < throttles.length; ++ii) {
+			if (ii >= asked) {
+				throttles[ii].admissible(now);
+			}
+			boolean committed;
+			if (extended[ii] != null) {
+				committed = extended[ii].commit(count);
+			} else {
+				committed = throttles[ii].commit();
+				for (int jj = 1; jj < count; ++jj) {
+					throttles[ii].admissible(now);
+					committed = throttles[ii].commit();
+				}
+			}
+			if (!committed) {
+				result = false;
+			}
+		}
+		asked = throttles.length;
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#rollback()
+	 */
+	public boolean rollback() {
+		boolean result = true;
+		for (int ii = 0; ii < throttles.length; ++ii) {
+			boolean rolledback = (ii < asked) ? throttles[ii].rollback() : !throttles[ii].isAlarmed();
+			if (!rolledback) {
+				result = false;
+			}
+		}
+		asked = throttles.length;
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isAlarmed()
+	 */
+	public boolean isAlarmed() {
+		for (int ii = 0; ii < throttles.length; ++ii) {
+			if (throttles[ii].isAlarmed()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isValid()
+	 */
+	public boolean isValid() {
+		for (int ii = 0; ii < throttles.length; ++ii) {
+			if (!throttles[ii].isValid()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isApproximate()
+	 */
+	public boolean isApproximate() {
+		for (int ii = 0; ii < throttles.length; ++ii) {
+			if (throttles[ii].isApproximate()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#frequency()
+	 */
+	public long frequency() {
+		return (throttles.length > 0) ? throttles[0].frequency() : 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#time()
+	 */
+	public long time() {
+		return (throttles.length > 0) ? throttles[0].time() : 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#toString()
+	 */
+	public String toString() {
+		StringBuilder buffer = new StringBuilder();
+		buffer.append(ManifoldThrottle.class.getSimpleName());
+		buffer.append("{asked=").append(asked);
+		buffer.append(",now=").append(now);
+		for (int ii = 0; ii < throttles.length; ++ii) {
+			buffer.append(",throttle[").append(ii).append("]=").append(throttles[ii]);
+		}
+		buffer.append("}");
+		return buffer.toString();
+	}
+
+}
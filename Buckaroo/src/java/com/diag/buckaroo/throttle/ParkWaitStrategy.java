@@ -0,0 +1,56 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.concurrent.locks.LockSupport;
+
+import com.diag.buckaroo.throttle.WaitStrategy;
+
+/**
+ * This class implements a Wait Strategy that calls LockSupport.parkNanos, which
+ * on most platforms has a finer granularity than Thread.sleep at about the same
+ * cost in CPU.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class ParkWaitStrategy extends WaitStrategy {
+
+	/**
+	 * Ctor.
+	 */
+	public ParkWaitStrategy() { }
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.WaitStrategy#pause(long)
+	 */
+	protected void pause(long deadline) throws InterruptedException {
+		long remaining = deadline - System.nanoTime();
+		while (remaining > 0) {
+			LockSupport.parkNanos(remaining);
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			remaining = deadline - System.nanoTime();
+		}
+	}
+
+}
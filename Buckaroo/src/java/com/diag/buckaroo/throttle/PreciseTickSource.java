@@ -0,0 +1,54 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import com.diag.buckaroo.throttle.TickSource;
+
+/**
+ * This class implements a Tick Source that reads System.nanoTime on every call.
+ * It is as precise as the platform allows, and is what every time-based Throttle
+ * uses unless it is given some other Tick Source.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class PreciseTickSource implements TickSource {
+
+	/**
+	 * Ctor.
+	 */
+	public PreciseTickSource() { }
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.TickSource#nanoTime()
+	 */
+	public long nanoTime() {
+		return System.nanoTime();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return PreciseTickSource.class.getSimpleName() + "{}";
+	}
+
+}
@@ -0,0 +1,435 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import com.diag.buckaroo.throttle.CellRateThrottle;
+import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
+import com.diag.buckaroo.throttle.Throttle;
+import com.diag.buckaroo.throttle.TickSource;
+
+/**
+ * This class implements a Priority Throttle which divides a single Cell Rate
+ * Throttle traffic contract among priority classes, reserving a configurable share
+ * of the contract for each class. Class zero has the highest priority. Besides the
+ * peak and sustained Generic Cell Rate Algorithms of the contract itself, which every
+ * event of every class must conform to, each class with a non-zero share has its own
+ * Generic Cell Rate Algorithm reserving that share of the sustained rate (or, for a
+ * constant bit rate contract, the peak rate), whose limit is that of the contract plus
+ * the difference between the increments of the reservation and of the contract, so
+ * that a reservation may be used at any time within its own increment and the
+ * reservations together can fill the contract regardless of their phases. Whatever
+ * share is not reserved by any class forms a pool below the lowest class. An event
+ * of a class conforms if it conforms to the contract and to the reservation of its
+ * own class, or of any lower priority class, or of the pool; the first such
+ * reservation, in that order, is charged for it. So a class may borrow capacity
+ * that lower priority classes are not using, but never capacity reserved for a
+ * higher priority class, and a bulk class saturating its own reservation cannot delay a
+ * latency critical class beyond what the contract itself allows. Each class is
+ * presented as a Throttle of its own, so that it can be used anywhere a Throttle can,
+ * for example with an Acquirer. The state shared by the classes is protected by the
+ * Priority Throttle's own lock, and each commit re-evaluates the event atomically at
+ * the time it was asked about; as with any other Throttle, a caller using a class
+ * from more than one thread should also synchronize on that class's Throttle.
+ * Resetting the Throttle of a class resets only its own alarm and counter; the
+ * contract and reservations shared by all classes are reset by the Priority Throttle.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class PriorityThrottle {
+
+	/**
+	 * This is the Throttle presenting a single priority class.
+	 */
+	protected class Share implements Throttle {
+
+		private final int priority;
+		private long now = 0;
+		private long borrowed = 0;
+		private boolean alarmed = false;
+
+		Share(int priority) {
+			this.priority = priority;
+		}
+
+		/**
+		 * Return the number of committed events of this class that were charged to
+		 * the reservation of a lower priority class or to the pool.
+		 * @return the number of borrowed events.
+		 */
+		public long getBorrowed() {
+			synchronized (PriorityThrottle.this) {
+				return borrowed;
+			}
+		}
+
+		/* (non-Javadoc)
+		 * @see com.diag.buckaroo.throttle.Throttle#reset()
+		 */
+		public void reset() {
+			reset(time());
+		}
+
+		/* (non-Javadoc)
+		 * @see com.diag.buckaroo.throttle.Throttle#reset(long)
+		 */
+		public void reset(long ticks) {
+			synchronized (PriorityThrottle.this) {
+				now = ticks;
+				borrowed = 0;
+				alarmed = false;
+			}
+		}
+
+		/* (non-Javadoc)
+		 * @see com.diag.buckaroo.throttle.Throttle#admissible()
+		 */
+		public long admissible() {
+			return admissible(time());
+		}
+
+		/* (non-Javadoc)
+		 * @see com.diag.buckaroo.throttle.Throttle#admissible(long)
+		 */
+		public long admissible(long ticks) {
+			synchronized (PriorityThrottle.this) {
+				now = ticks;
+				return evaluate(priority, ticks);
+			}
+		}
+
+		/* (non-Javadoc)
+		 * @see com.diag.buckaroo.throttle.Throttle#commit()
+		 */
+		public boolean commit() {
+			synchronized (PriorityThrottle.this) {
+				long delay = evaluate(priority, now);
+				int charged = (chosen >= 0) ? chosen : priority;
+				peak.commit();
+				if (sustained != null) {
+					sustained.commit();
+				}
+				if (reservations[charged] != null) {
+					reservations[charged].commit();
+				}
+				if (charged != priority) {
+					++borrowed;
+				}
+				alarmed = (delay > 0);
+				return !alarmed;
+			}
+		}
+
+		/* (non-Javadoc)
+		 * @see com.diag.buckaroo.throttle.Throttle#rollback()
+		 */
+		public boolean rollback() {
+			synchronized (PriorityThrottle.this) {
+				return !alarmed;
+			}
+		}
+
+		/* (non-Javadoc)
+		 * @see com.diag.buckaroo.throttle.Throttle#isAlarmed()
+		 */
+		public boolean isAlarmed() {
+			synchronized (PriorityThrottle.this) {
+				return alarmed;
+			}
+		}
+
+		/* (non-Javadoc)
+		 * @see com.diag.buckaroo.throttle.Throttle#isValid()
+		 */
+		public boolean isValid() {
+			return PriorityThrottle.this.isValid();
+		}
+
+		/* (non-Javadoc)
+		 * @see com.diag.buckaroo.throttle.Throttle#isApproximate()
+		 */
+		public boolean isApproximate() {
+			return PriorityThrottle.this.isApproximate();
+		}
+
+		/* (non-Javadoc)
+		 * @see com.diag.buckaroo.throttle.Throttle#frequency()
+		 */
+		public long frequency() {
+			return peak.frequency();
+		}
+
+		/* (non-Javadoc)
+		 * @see com.diag.buckaroo.throttle.Throttle#time()
+		 */
+		public long time() {
+			return peak.time();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		public String toString() {
+			synchronized (PriorityThrottle.this) {
+				return Share.class.getSimpleName()
+					+ "{priority=" + priority
+					+ ",now=" + now
+					+ ",borrowed=" + borrowed
+					+ ",alarmed=" + alarmed
+					+ ",reservation=" + reservations[priority]
+					+ "}";
+			}
+		}
+
+	}
+
+	private final GenericCellRateAlgorithm peak;
+	private final GenericCellRateAlgorithm sustained;
+	private final GenericCellRateAlgorithm[] reservations;
+	private final Share[] shares;
+	private int chosen = -1;
+
+	/**
+	 * Compute the reservations for a set of shares of a rate.
+	 * @param shares are the shares of each class, which are scaled down to sum to one
+	 * if they sum to more than one.
+	 * @param increment is the increment of the rate being shared in ticks.
+	 * @param limit is the limit of the rate being shared in ticks.
+	 * @param source is the Tick Source from which the time is read.
+	 * @return the reservations of each class, followed by that of the pool, any of
+	 * which is null if its share is zero.
+	 */
+	private static GenericCellRateAlgorithm[] reserve(double[] shares, long increment, long limit, TickSource source) {
+		double total = 0.0;
+		for (double share : shares) {
+			if (share > 0.0) {
+				total += share;
+			}
+		}
+		double scale = (total > 1.0) ? total : 1.0;
+		GenericCellRateAlgorithm[] reservations = new GenericCellRateAlgorithm[shares.length + 1];
+		for (int index = 0; index <= shares.length; ++index) {
+			double share = (index < shares.length) ? shares[index] / scale : 1.0 - (total / scale);
+			if (share > 1.0e-9) {
+				double reserved = Math.ceil(increment / share);
+				long reservedIncrement = (reserved < (GenericCellRateAlgorithm.MAXIMUM_TICKS >> 1)) ? (long)reserved : (GenericCellRateAlgorithm.MAXIMUM_TICKS >> 1);
+				long reservedLimit = limit + (reservedIncrement - increment);
+				reservations[index] = new GenericCellRateAlgorithm(reservedIncrement, (reservedLimit >= limit) ? reservedLimit : GenericCellRateAlgorithm.MAXIMUM_TICKS, source);
+			}
+		}
+		return reservations;
+	}
+
+	/**
+	 * Ctor for a variable bit rate (VBR) traffic contract. The shares divide the
+	 * sustained cell rate.
+	 * @param pcr is the peak cell rate in cells per second.
+	 * @param cdvt is the cell delay variation tolerance in microseconds.
+	 * @param scr is the sustained cell rate in cells per second.
+	 * @param mbs is the maximum burst size in cells.
+	 * @param shares are the fractions of the contract reserved for each class,
+	 * highest priority first.
+	 * @param source is the Tick Source from which the time is read.
+	 */
+	public PriorityThrottle(int pcr, int cdvt, int scr, int mbs, double[] shares, TickSource source) {
+		this.peak = new GenericCellRateAlgorithm(CellRateThrottle.increment(pcr, cdvt), CellRateThrottle.limit(pcr, cdvt), source);
+		this.sustained = new GenericCellRateAlgorithm(CellRateThrottle.increment(pcr, cdvt, scr, mbs), CellRateThrottle.limit(pcr, cdvt, scr, mbs), source);
+		this.reservations = reserve(shares, CellRateThrottle.increment(pcr, cdvt, scr, mbs), CellRateThrottle.limit(pcr, cdvt, scr, mbs), source);
+		this.shares = new Share[shares.length];
+		for (int index = 0; index < shares.length; ++index) {
+			this.shares[index] = new Share(index);
+		}
+	}
+
+	/**
+	 * Ctor for a variable bit rate (VBR) traffic contract. The shares divide the
+	 * sustained cell rate.
+	 * @param pcr is the peak cell rate in cells per second.
+	 * @param cdvt is the cell delay variation tolerance in microseconds.
+	 * @param scr is the sustained cell rate in cells per second.
+	 * @param mbs is the maximum burst size in cells.
+	 * @param shares are the fractions of the contract reserved for each class,
+	 * highest priority first.
+	 */
+	public PriorityThrottle(int pcr, int cdvt, int scr, int mbs, double[] shares) {
+		this(pcr, cdvt, scr, mbs, shares, GenericCellRateAlgorithm.PRECISE);
+	}
+
+	/**
+	 * Ctor for a constant bit rate (CBR) traffic contract. The shares divide the
+	 * peak cell rate.
+	 * @param pcr is the peak cell rate in cells per second.
+	 * @param cdvt is the cell delay variation tolerance in microseconds.
+	 * @param shares are the fractions of the contract reserved for each class,
+	 * highest priority first.
+	 * @param source is the Tick Source from which the time is read.
+	 */
+	public PriorityThrottle(int pcr, int cdvt, double[] shares, TickSource source) {
+		this.peak = new GenericCellRateAlgorithm(CellRateThrottle.increment(pcr, cdvt), CellRateThrottle.limit(pcr, cdvt), source);
+		this.sustained = null;
+		this.reservations = reserve(shares, CellRateThrottle.increment(pcr, cdvt), CellRateThrottle.limit(pcr, cdvt), source);
+		this.shares = new Share[shares.length];
+		for (int index = 0; index < shares.length; ++index) {
+			this.shares[index] = new Share(index);
+		}
+	}
+
+	/**
+	 * Ctor for a constant bit rate (CBR) traffic contract. The shares divide the
+	 * peak cell rate.
+	 * @param pcr is the peak cell rate in cells per second.
+	 * @param cdvt is the cell delay variation tolerance in microseconds.
+	 * @param shares are the fractions of the contract reserved for each class,
+	 * highest priority first.
+	 */
+	public PriorityThrottle(int pcr, int cdvt, double[] shares) {
+		this(pcr, cdvt, shares, GenericCellRateAlgorithm.PRECISE);
+	}
+
+	/**
+	 * Evaluate an event of a class at a time, leaving the index of the reservation
+	 * that would be charged for it, or -1 if none conforms, in chosen. Each algorithm
+	 * that may be committed is left having been asked last about this event.
+	 * @param priority is the class.
+	 * @param ticks is the time in ticks.
+	 * @return the delay in ticks.
+	 */
+	private long evaluate(int priority, long ticks) {
+		long delay = peak.admissible(ticks);
+		if (sustained != null) {
+			long sustainedDelay = sustained.admissible(ticks);
+			if (sustainedDelay > delay) {
+				delay = sustainedDelay;
+			}
+		}
+		long least = GenericCellRateAlgorithm.MAXIMUM_TICKS;
+		chosen = -1;
+		for (int index = priority; index < reservations.length; ++index) {
+			if (reservations[index] != null) {
+				long reservationDelay = reservations[index].admissible(ticks);
+				if (reservationDelay == 0) {
+					chosen = index;
+					break;
+				}
+				if (reservationDelay < least) {
+					least = reservationDelay;
+				}
+			}
+		}
+		if ((chosen < 0) && (least > delay)) {
+			delay = least;
+		}
+		return delay;
+	}
+
+	/**
+	 * Return the Throttle for a priority class.
+	 * @param priority is the class, zero being the highest priority.
+	 * @return the Throttle for the class.
+	 */
+	public Throttle getThrottle(int priority) {
+		return shares[priority];
+	}
+
+	/**
+	 * Return the number of committed events of a class that were charged to the
+	 * reservation of a lower priority class or to the pool.
+	 * @param priority is the class.
+	 * @return the number of borrowed events.
+	 */
+	public long getBorrowed(int priority) {
+		return shares[priority].getBorrowed();
+	}
+
+	/**
+	 * Return the number of priority classes.
+	 * @return the number of priority classes.
+	 */
+	public int size() {
+		return shares.length;
+	}
+
+	/**
+	 * Reset the contract, every reservation, and every class to a time.
+	 * @param ticks is the time in ticks.
+	 */
+	public synchronized void reset(long ticks) {
+		peak.reset(ticks);
+		if (sustained != null) {
+			sustained.reset(ticks);
+		}
+		for (GenericCellRateAlgorithm reservation : reservations) {
+			if (reservation != null) {
+				reservation.reset(ticks);
+			}
+		}
+		for (Share share : shares) {
+			share.reset(ticks);
+		}
+	}
+
+	/**
+	 * Reset the contract, every reservation, and every class to the current time.
+	 */
+	public void reset() {
+		reset(peak.time());
+	}
+
+	/**
+	 * Return true if every algorithm is valid.
+	 * @return true if valid.
+	 */
+	public synchronized boolean isValid() {
+		boolean valid = peak.isValid() && ((sustained == null) || sustained.isValid());
+		for (GenericCellRateAlgorithm reservation : reservations) {
+			valid = valid && ((reservation == null) || reservation.isValid());
+		}
+		return valid;
+	}
+
+	/**
+	 * Return true if any algorithm is approximate.
+	 * @return true if approximate.
+	 */
+	public synchronized boolean isApproximate() {
+		boolean approximate = peak.isApproximate() || ((sustained != null) && sustained.isApproximate());
+		for (GenericCellRateAlgorithm reservation : reservations) {
+			approximate = approximate || ((reservation != null) && reservation.isApproximate());
+		}
+		return approximate;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public synchronized String toString() {
+		StringBuilder buffer = new StringBuilder();
+		buffer.append(PriorityThrottle.class.getSimpleName());
+		buffer.append("{peak=").append(peak);
+		buffer.append(",sustained=").append(sustained);
+		for (int index = 0; index < reservations.length; ++index) {
+			buffer.append((index < shares.length) ? ",reservation[" + index + "]=" : ",pool=").append(reservations[index]);
+		}
+		buffer.append("}");
+		return buffer.toString();
+	}
+
+}
@@ -57,6 +57,16 @@ public class PromiscuousThrottle implements ExtendedThrottle {
 	 */
 	public long admissible(long ticks) { return 0; }
 
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#admissibleCount(int)
+	 */
+	public int admissibleCount(int max) { return (max > 0) ? max : 0; }
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#admissibleCount(long, int)
+	 */
+	public int admissibleCount(long ticks, int max) { return (max > 0) ? max : 0; }
+
 	/* (non-Javadoc)
 	 * @see com.diag.buckaroo.throttle.Throttle#commit()
 	 */
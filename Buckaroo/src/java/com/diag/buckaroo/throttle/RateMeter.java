@@ -0,0 +1,380 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.diag.buckaroo.throttle.BandwidthAlgorithm;
+import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
+import com.diag.buckaroo.throttle.TickSource;
+
+/**
+ * This class implements a Rate Meter which measures the rate at which events
+ * (or octets) actually occur, as a companion to a Throttle that limits that rate.
+ * It reports exponentially weighted moving average (EWMA) rates over time constants
+ * of one, ten, and sixty seconds, like the UNIX load average, and a slotted count of
+ * the events in a sliding window. Time is measured in ticks of a frequency chosen at
+ * construction, so that a Rate Meter can share the ticks of the Throttle beside it:
+ * microseconds for the Generic Cell Rate Algorithm and Cell Rate Throttle, nanoseconds
+ * for the Bandwidth Algorithm and Bandwidth Throttle. Rates are always reported in
+ * events per second. The averages are folded once per update interval, a tenth of a
+ * second, by whichever caller first notices that the interval has elapsed; they
+ * start at zero and converge over their time constants. The sliding window is divided
+ * into slots, each of which counts the events in one slot width and is tagged with the
+ * slot width it counts, so the window count covers between the window less one slot
+ * width and the whole window. Marking an event is thread safe, lock free except once
+ * per update interval, and allocates nothing, so a Rate Meter can sit beside every
+ * Throttle on the hot path.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class RateMeter {
+
+	/**
+	 * This is the default number of slots in the sliding window.
+	 */
+	public final static int SLOTS = 100;
+
+	/**
+	 * These are the time constants of the moving averages in seconds.
+	 */
+	public final static int[] CONSTANTS = new int[] { 1, 10, 60 };
+
+	/**
+	 * This is the number of update intervals per second.
+	 */
+	public final static int UPDATES = 10;
+
+	// A slot packs the low bits of the slot width it counts with its count.
+	private final static int COUNT_BITS = 40;
+	private final static long COUNT_MASK = (1L << COUNT_BITS) - 1;
+	private final static long EPOCH_MASK = (1L << (Long.SIZE - COUNT_BITS)) - 1;
+
+	private final long frequency;
+	private final long divisor;
+	private final long interval;
+	private final long width;
+	private final int slots;
+	private final TickSource source;
+	private final LongAdder total = new LongAdder();
+	private final AtomicLongArray window;
+	private final double[] decays = new double[CONSTANTS.length];
+	private final double[] averages = new double[CONSTANTS.length];
+	private volatile long next;
+	private long folded = 0;
+
+	/**
+	 * Ctor.
+	 * @param frequency is the number of ticks per second.
+	 * @param period is the duration of the sliding window in ticks.
+	 * @param slots is the number of slots in the sliding window.
+	 * @param source is the Tick Source from which the time is read.
+	 */
+	public RateMeter(long frequency, long period, int slots, TickSource source) {
+		this.frequency = (frequency > 0) ? frequency : 1;
+		this.divisor = (this.frequency < BandwidthAlgorithm.NS_PER_S) ? BandwidthAlgorithm.NS_PER_S / this.frequency : 1;
+		this.source = source;
+		this.interval = (this.frequency >= UPDATES) ? this.frequency / UPDATES : 1;
+		this.slots = (slots > 0) ? slots : 1;
+		long width = (period > 0) ? period / this.slots : 0;
+		this.width = (width > 0) ? width : 1;
+		this.window = new AtomicLongArray(this.slots);
+		for (int index = 0; index < CONSTANTS.length; ++index) {
+			decays[index] = Math.exp(-((double)interval) / (CONSTANTS[index] * (double)this.frequency));
+		}
+		reset(time());
+	}
+
+	/**
+	 * Ctor. The sliding window is one second divided into the default number of slots.
+	 * @param frequency is the number of ticks per second.
+	 * @param source is the Tick Source from which the time is read.
+	 */
+	public RateMeter(long frequency, TickSource source) {
+		this(frequency, frequency, SLOTS, source);
+	}
+
+	/**
+	 * Ctor. The sliding window is one second divided into the default number of slots.
+	 * @param frequency is the number of ticks per second.
+	 */
+	public RateMeter(long frequency) {
+		this(frequency, GenericCellRateAlgorithm.PRECISE);
+	}
+
+	/**
+	 * Ctor. The ticks are microseconds, as used by the Generic Cell Rate Algorithm.
+	 */
+	public RateMeter() {
+		this(GenericCellRateAlgorithm.US_PER_S);
+	}
+
+	/**
+	 * Return the number of ticks per second.
+	 * @return the frequency in ticks per second.
+	 */
+	public long frequency() {
+		return frequency;
+	}
+
+	/**
+	 * Return the current time in ticks.
+	 * @return the current time in ticks.
+	 */
+	public long time() {
+		return source.nanoTime() / divisor;
+	}
+
+	/**
+	 * Discard all measurements as of the specified time. This is not atomic with
+	 * respect to concurrent marking.
+	 * @param ticks is the time in ticks.
+	 */
+	public synchronized void reset(long ticks) {
+		total.reset();
+		folded = 0;
+		for (int index = 0; index < averages.length; ++index) {
+			averages[index] = 0.0;
+		}
+		for (int index = 0; index < slots; ++index) {
+			window.set(index, 0);
+		}
+		next = ticks + interval;
+	}
+
+	/**
+	 * Discard all measurements as of the current time.
+	 */
+	public void reset() {
+		reset(time());
+	}
+
+	/**
+	 * Fold the events since the last update into the moving averages.
+	 * @param ticks is the current time in ticks.
+	 */
+	private synchronized void fold(long ticks) {
+		long elapsed = ticks - next;
+		if (elapsed >= 0) {
+			long intervals = (elapsed / interval) + 1;
+			long sum = total.sum();
+			double rate = ((double)(sum - folded)) * frequency / interval;
+			folded = sum;
+			for (int index = 0; index < averages.length; ++index) {
+				double average = averages[index];
+				average = rate + (decays[index] * (average - rate));
+				if (intervals > 1) {
+					average *= Math.pow(decays[index], intervals - 1);
+				}
+				averages[index] = average;
+			}
+			next += intervals * interval;
+		}
+	}
+
+	/**
+	 * Record events in the sliding window.
+	 * @param ticks is the time of the events in ticks.
+	 * @param count is the number of events.
+	 */
+	private void slot(long ticks, long count) {
+		long epoch = Math.floorDiv(ticks, width);
+		int index = (int)Math.floorMod(epoch, (long)slots);
+		long tag = (epoch & EPOCH_MASK) << COUNT_BITS;
+		while (true) {
+			long prior = window.get(index);
+			long value = ((prior & ~COUNT_MASK) == tag) ? prior + count : tag | count;
+			if (window.compareAndSet(index, prior, value)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Record events that occurred at the specified time.
+	 * @param ticks is the time of the events in ticks.
+	 * @param count is the number of events (or octets), which should be small
+	 * compared to two to the fortieth power.
+	 */
+	public void mark(long ticks, long count) {
+		if ((ticks - next) >= 0) {
+			fold(ticks);
+		}
+		if (count > 0) {
+			total.add(count);
+			slot(ticks, count);
+		}
+	}
+
+	/**
+	 * Record an event that occurred at the specified time.
+	 * @param ticks is the time of the event in ticks.
+	 */
+	public void mark(long ticks) {
+		mark(ticks, 1);
+	}
+
+	/**
+	 * Record an event that occurred at the current time.
+	 */
+	public void mark() {
+		mark(time(), 1);
+	}
+
+	/**
+	 * Return the total number of events recorded.
+	 * @return the total number of events.
+	 */
+	public long getTotal() {
+		return total.sum();
+	}
+
+	/**
+	 * Return the number of events in the sliding window ending at the specified time.
+	 * This is an approximation: the count is of the events in the slot containing the
+	 * specified time and in every slot before it that is still in the window, so it
+	 * covers at least the window less one slot width and at most the whole window. It
+	 * may hence miss the events in up to one slot width at the old end of the window,
+	 * so at a steady rate it undercounts by at most one part in the number of slots.
+	 * @param ticks is the time in ticks.
+	 * @return the number of events in the sliding window.
+	 */
+	public long getCount(long ticks) {
+		long epoch = Math.floorDiv(ticks, width);
+		long count = 0;
+		for (int index = 0; index < slots; ++index) {
+			long value = window.get(index);
+			long age = (epoch - (value >>> COUNT_BITS)) & EPOCH_MASK;
+			if (age < slots) {
+				count += value & COUNT_MASK;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Return the number of events in the sliding window ending at the current time.
+	 * @return the number of events in the sliding window.
+	 */
+	public long getCount() {
+		return getCount(time());
+	}
+
+	/**
+	 * Return the rate over the sliding window ending at the specified time. This is
+	 * the count of the window divided by the whole window, and so has the same bound.
+	 * @param ticks is the time in ticks.
+	 * @return the rate in events per second.
+	 */
+	public double getWindowRate(long ticks) {
+		return ((double)getCount(ticks)) * frequency / (width * slots);
+	}
+
+	/**
+	 * Return the moving average rate with the specified time constant as of the
+	 * specified time.
+	 * @param ticks is the time in ticks.
+	 * @param index is the index of the time constant.
+	 * @return the rate in events per second.
+	 */
+	private double getRate(long ticks, int index) {
+		if ((ticks - next) >= 0) {
+			fold(ticks);
+		}
+		synchronized (this) {
+			return averages[index];
+		}
+	}
+
+	/**
+	 * Return the moving average rate with a time constant of one second as of the
+	 * specified time.
+	 * @param ticks is the time in ticks.
+	 * @return the rate in events per second.
+	 */
+	public double getRate1(long ticks) {
+		return getRate(ticks, 0);
+	}
+
+	/**
+	 * Return the moving average rate with a time constant of ten seconds as of the
+	 * specified time.
+	 * @param ticks is the time in ticks.
+	 * @return the rate in events per second.
+	 */
+	public double getRate10(long ticks) {
+		return getRate(ticks, 1);
+	}
+
+	/**
+	 * Return the moving average rate with a time constant of sixty seconds as of the
+	 * specified time.
+	 * @param ticks is the time in ticks.
+	 * @return the rate in events per second.
+	 */
+	public double getRate60(long ticks) {
+		return getRate(ticks, 2);
+	}
+
+	/**
+	 * Return the moving average rate with a time constant of one second.
+	 * @return the rate in events per second.
+	 */
+	public double getRate1() {
+		return getRate1(time());
+	}
+
+	/**
+	 * Return the moving average rate with a time constant of ten seconds.
+	 * @return the rate in events per second.
+	 */
+	public double getRate10() {
+		return getRate10(time());
+	}
+
+	/**
+	 * Return the moving average rate with a time constant of sixty seconds.
+	 * @return the rate in events per second.
+	 */
+	public double getRate60() {
+		return getRate60(time());
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public synchronized String toString() {
+		return RateMeter.class.getSimpleName()
+			+ "{frequency=" + frequency
+			+ ",interval=" + interval
+			+ ",width=" + width
+			+ ",slots=" + slots
+			+ ",next=" + next
+			+ ",total=" + getTotal()
+			+ ",rate1=" + averages[0]
+			+ ",rate10=" + averages[1]
+			+ ",rate60=" + averages[2]
+			+ "}";
+	}
+
+}
@@ -0,0 +1,329 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.WritableByteChannel;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.diag.buckaroo.throttle.Acquirer;
+import com.diag.buckaroo.throttle.CompoundThrottle;
+import com.diag.buckaroo.throttle.Throttle;
+
+/**
+ * This class implements a Selector Pacer which paces the writes to any number of
+ * non-blocking channels registered with a single Selector, each according to its own
+ * Throttle, typically a Bandwidth Throttle. Each Selection Key to be paced is registered
+ * with the pacer along with its Throttle. A write through the pacer writes to the
+ * channel only if its Throttle is admissible, writes no more than a maximum chunk size,
+ * and commits the number of octets actually written, so that a partial write is charged
+ * only for what it wrote. If the Throttle is then not admissible, the pacer turns off
+ * the write interest of the key and remembers, in a queue ordered by time, when the
+ * Throttle will next be admissible. Before each select, the pacer turns the write
+ * interest back on for every key whose time has come, and computes the select timeout
+ * as the time until the earliest remaining deadline, so that the selector thread sleeps
+ * until either a channel is ready or a Throttle becomes admissible, and never polls.
+ * Only write interest that the pacer itself turned off is turned back on. A Throttle
+ * that is not time-based is polled at the same interval as by the Acquirer. Like the
+ * Selector loop that uses it, a Selector Pacer is meant to be used by a single thread,
+ * and is not thread safe.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class SelectorPacer {
+
+	/**
+	 * This is the default maximum chunk size in octets.
+	 */
+	public final static int CHUNK = 65536;
+
+	/**
+	 * This is the pacing state of a single Selection Key.
+	 */
+	protected static class Pace implements Comparable<Pace> {
+		final SelectionKey key;
+		final Throttle throttle;
+		long deadline = 0;			// when the Throttle is next admissible in nanoseconds
+		boolean suspended = false;	// write interest turned off by the pacer
+		Pace(SelectionKey key, Throttle throttle) { this.key = key; this.throttle = throttle; }
+		public int compareTo(Pace that) {
+			long difference = this.deadline - that.deadline;
+			return (difference < 0) ? -1 : (difference > 0) ? 1 : 0;
+		}
+	}
+
+	private final Map<SelectionKey, Pace> paces = new IdentityHashMap<SelectionKey, Pace>();
+	private final PriorityQueue<Pace> queue = new PriorityQueue<Pace>();
+	private final int chunk;
+
+	/**
+	 * Ctor.
+	 * @param chunk is the maximum chunk size in octets.
+	 */
+	public SelectorPacer(int chunk) {
+		this.chunk = (chunk > 0) ? chunk : 1;
+	}
+
+	/**
+	 * Ctor. The default maximum chunk size is used.
+	 */
+	public SelectorPacer() {
+		this(CHUNK);
+	}
+
+	/**
+	 * Pace the writes to the channel of a Selection Key using a Throttle.
+	 * @param key is the Selection Key, whose channel must be writable.
+	 * @param throttle is the Throttle.
+	 */
+	public void register(SelectionKey key, Throttle throttle) {
+		unregister(key);
+		paces.put(key, new Pace(key, throttle));
+	}
+
+	/**
+	 * Stop pacing the writes to the channel of a Selection Key. If the pacer had
+	 * turned off its write interest, and the key is still valid, it is turned back on.
+	 * @param key is the Selection Key.
+	 * @return the Throttle, or null if the key was not registered.
+	 */
+	public Throttle unregister(SelectionKey key) {
+		Pace pace = paces.remove(key);
+		if (pace == null) {
+			return null;
+		}
+		if (pace.suspended) {
+			queue.remove(pace);
+			resume(pace);
+		}
+		return pace.throttle;
+	}
+
+	/**
+	 * Return the Throttle of a Selection Key.
+	 * @param key is the Selection Key.
+	 * @return the Throttle, or null if the key is not registered.
+	 */
+	public Throttle getThrottle(SelectionKey key) {
+		Pace pace = paces.get(key);
+		return (pace != null) ? pace.throttle : null;
+	}
+
+	/**
+	 * Return true if the pacer has turned off the write interest of a Selection Key
+	 * because its Throttle is not admissible.
+	 * @param key is the Selection Key.
+	 * @return true if the key is suspended.
+	 */
+	public boolean isSuspended(SelectionKey key) {
+		Pace pace = paces.get(key);
+		return (pace != null) && pace.suspended;
+	}
+
+	/**
+	 * Return the number of registered Selection Keys.
+	 * @return the number of registered keys.
+	 */
+	public int size() {
+		return paces.size();
+	}
+
+	/**
+	 * Turn the write interest of a suspended key back on.
+	 * @param pace is the pacing state of the key.
+	 */
+	private static void resume(Pace pace) {
+		pace.suspended = false;
+		try {
+			if (pace.key.isValid()) {
+				pace.key.interestOps(pace.key.interestOps() | SelectionKey.OP_WRITE);
+			}
+		} catch (CancelledKeyException exception) {
+			// Ignore.
+		}
+	}
+
+	/**
+	 * Turn off the write interest of a key until its Throttle is next admissible.
+	 * @param pace is the pacing state of the key.
+	 * @param delay is the delay in ticks of its Throttle.
+	 * @param now is the current time in nanoseconds.
+	 */
+	private void suspend(Pace pace, long delay, long now) {
+		pace.deadline = Acquirer.deadline(pace.throttle, delay, now);
+		if (!pace.suspended) {
+			pace.suspended = true;
+			queue.add(pace);
+			try {
+				if (pace.key.isValid()) {
+					pace.key.interestOps(pace.key.interestOps() & ~SelectionKey.OP_WRITE);
+				}
+			} catch (CancelledKeyException exception) {
+				// Ignore.
+			}
+		}
+	}
+
+	/**
+	 * Ask the Throttle of a key whether it is admissible, and suspend the key if not.
+	 * @param pace is the pacing state of the key.
+	 * @return true if admissible, false otherwise.
+	 */
+	private boolean check(Pace pace) {
+		long delay = Acquirer.delay(pace.throttle);
+		if (delay > 0) {
+			suspend(pace, delay, System.nanoTime());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Write to the channel of a paced Selection Key, typically when it is selected
+	 * as writable. Nothing is written if its Throttle is not admissible or if the key
+	 * is suspended; otherwise no more than the maximum chunk size is written, and the
+	 * octets written are committed to the Throttle. If the Throttle is then not
+	 * admissible, the key is suspended.
+	 * @param key is the Selection Key.
+	 * @param src is the buffer from which to write.
+	 * @return the number of octets written, possibly zero.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public int write(SelectionKey key, ByteBuffer src) throws IOException {
+		Pace pace = paces.get(key);
+		if (pace == null) {
+			throw new IllegalArgumentException("unregistered " + key);
+		}
+		if (pace.suspended || !src.hasRemaining() || !check(pace)) {
+			return 0;
+		}
+		int limit = src.limit();
+		if (src.remaining() > chunk) {
+			src.limit(src.position() + chunk);
+		}
+		int count;
+		try {
+			count = ((WritableByteChannel)key.channel()).write(src);
+		} finally {
+			src.limit(limit);
+		}
+		if (count > 0) {
+			synchronized (pace.throttle) {
+				long ticks = pace.throttle.time();
+				pace.throttle.admissible(ticks);
+				CompoundThrottle.commit(pace.throttle, ticks, count);
+			}
+			check(pace);
+		}
+		return count;
+	}
+
+	/**
+	 * Turn the write interest back on for every suspended key whose Throttle should
+	 * now be admissible.
+	 * @param now is the current time in nanoseconds.
+	 * @return the number of keys resumed.
+	 */
+	public int resume(long now) {
+		int resumed = 0;
+		Pace pace;
+		while (((pace = queue.peek()) != null) && ((pace.deadline - now) <= 0)) {
+			queue.poll();
+			resume(pace);
+			++resumed;
+		}
+		return resumed;
+	}
+
+	/**
+	 * Turn the write interest back on for every suspended key whose Throttle should
+	 * now be admissible.
+	 * @return the number of keys resumed.
+	 */
+	public int resume() {
+		return resume(System.nanoTime());
+	}
+
+	/**
+	 * Return the number of nanoseconds until the earliest suspended key is resumed.
+	 * @param now is the current time in nanoseconds.
+	 * @return the time until the next deadline in nanoseconds, zero if a deadline has
+	 * passed, or -1 if no key is suspended.
+	 */
+	public long delay(long now) {
+		Pace pace = queue.peek();
+		if (pace == null) {
+			return -1;
+		}
+		long delay = pace.deadline - now;
+		return (delay > 0) ? delay : 0;
+	}
+
+	/**
+	 * Return the timeout to pass to Selector.select: the time until the earliest
+	 * suspended key is resumed, rounded up to whole milliseconds, or zero, meaning
+	 * forever, if no key is suspended.
+	 * @param now is the current time in nanoseconds.
+	 * @return the timeout in milliseconds.
+	 */
+	public long timeout(long now) {
+		long delay = delay(now);
+		if (delay < 0) {
+			return 0;
+		}
+		long ms = TimeUnit.NANOSECONDS.toMillis(delay + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+		return (ms > 0) ? ms : 1;
+	}
+
+	/**
+	 * Resume every suspended key whose deadline has passed and then select on the
+	 * Selector until a channel is ready, the earliest remaining deadline passes, or
+	 * the Selector is woken up.
+	 * @param selector is the Selector with which the paced keys are registered.
+	 * @return the number of keys whose ready sets were updated.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public int select(Selector selector) throws IOException {
+		long now = System.nanoTime();
+		resume(now);
+		return selector.select(timeout(now));
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return SelectorPacer.class.getSimpleName()
+			+ "{chunk=" + chunk
+			+ ",keys=" + paces.size()
+			+ ",suspended=" + queue.size()
+			+ "}";
+	}
+
+}
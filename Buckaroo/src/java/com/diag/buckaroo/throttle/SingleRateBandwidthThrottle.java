@@ -0,0 +1,315 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import com.diag.buckaroo.throttle.BandwidthAlgorithm;
+import com.diag.buckaroo.throttle.BandwidthThrottle;
+import com.diag.buckaroo.throttle.ExtendedThrottle;
+import com.diag.buckaroo.throttle.TickSource;
+
+/**
+ * This class implements a Single Rate Bandwidth Throttle for a constant bit rate
+ * (CBR) traffic contract, making exactly the same decisions as the Bandwidth Throttle
+ * constructed with the same peak byte rate (PBR) and jitter tolerance (JT). Where the
+ * Bandwidth Throttle composes a Bandwidth Algorithm and a Promiscuous Throttle through
+ * the Throttle interface inside a Compound Extended Throttle, this class is final and
+ * keeps the state of its one Bandwidth Algorithm in its own fields, so that a call
+ * site using it is monomorphic and the JIT compiler can inline the entire admission
+ * decision. Although admission decisions are made once per packet rather than once
+ * per byte, an application pacing many small packets, or many streams, makes as many
+ * decisions per second as one pacing cells. As with the Bandwidth Algorithm, a count
+ * of octets is admitted either in its entirety or not at all, and all time durations
+ * are in nanoseconds. Like most Throttles, this class is not thread safe.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public final class SingleRateBandwidthThrottle implements ExtendedThrottle {
+
+	private final TickSource source;	// clock from which the time is read
+	private long now;					// time of the most recent attempted admission in ticks
+	private long then;					// time of the most recent committed admission in ticks
+	private long increment;				// increment in ticks [TM 4.0]
+	private long limit;					// limit in ticks [TM 4.0]
+	private long x;						// expected inter-arrival time in ticks [TM 4.0]
+	private long x1;					// actual inter-arrival time in ticks [TM 4.0]
+	private long octetsmaximum;			// maximum possible octets
+	private boolean alarmed;			// alarm state
+	private boolean alarmed1;			// candidate alarm state
+	private boolean approximate;		// event stream is out of specification
+	private int pbr;
+	private int jt;
+
+	/**
+	 * Ctor for a constant bit rate (CBR) traffic contract.
+	 * @param pbr is the peak byte rate in bytes per second.
+	 * @param jt is the jitter tolerance in nanoseconds.
+	 * @param source is the Tick Source from which the time is read.
+	 */
+	public SingleRateBandwidthThrottle(int pbr, int jt, TickSource source) {
+		this.source = source;
+		this.pbr = pbr;
+		this.jt = jt;
+		this.increment = BandwidthThrottle.increment(pbr, jt);
+		this.limit = BandwidthThrottle.limit(pbr, jt);
+		this.octetsmaximum = (this.increment == 0) ? BandwidthAlgorithm.MAXIMUM_TICKS : BandwidthAlgorithm.MAXIMUM_TICKS / this.increment;
+		reset();
+	}
+
+	/**
+	 * Ctor for a constant bit rate (CBR) traffic contract.
+	 * @param pbr is the peak byte rate in bytes per second.
+	 * @param jt is the jitter tolerance in nanoseconds.
+	 */
+	public SingleRateBandwidthThrottle(int pbr, int jt) {
+		this(pbr, jt, BandwidthAlgorithm.PRECISE);
+	}
+
+	/**
+	 * Ctor for a constant bit rate (CBR) traffic contract with a JT of zero nanoseconds.
+	 * @param pbr is the peak byte rate in bytes per second.
+	 */
+	public SingleRateBandwidthThrottle(int pbr) {
+		this(pbr, 0);
+	}
+
+	/**
+	 * Ctor for a constant bit rate (CBR) traffic contract with a peak byte rate (PBR)
+	 * set to the maximum possible value and the jitter tolerance (JT) set to zero
+	 * nanoseconds.
+	 */
+	public SingleRateBandwidthThrottle() {
+		this(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Change the traffic contract in place at the current time without resetting
+	 * the throttle state.
+	 * @param pbr is the peak byte rate in bytes per second.
+	 * @param jt is the jitter tolerance in nanoseconds.
+	 */
+	public void reconfigure(int pbr, int jt) {
+		reconfigure(time(), pbr, jt);
+	}
+
+	/**
+	 * Change the traffic contract in place at the specified time without resetting
+	 * the throttle state; the debt the throttle carries at that time is scaled in
+	 * proportion to the change in its increment.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @param pbr is the peak byte rate in bytes per second.
+	 * @param jt is the jitter tolerance in nanoseconds.
+	 */
+	public void reconfigure(long ticks, int pbr, int jt) {
+		long i = BandwidthThrottle.increment(pbr, jt);
+		long elapsed = ticks - then;
+		if (elapsed < 0) {
+			elapsed = 0;
+			approximate = true;
+		} else {
+			then = ticks;
+		}
+		long debt = (x > elapsed) ? x - elapsed : 0;
+		if ((i != increment) && (increment > 0)) {
+			debt = (long)((((double)debt) * i) / increment);
+		}
+		x = debt;
+		increment = i;
+		limit = BandwidthThrottle.limit(pbr, jt);
+		octetsmaximum = (increment == 0) ? BandwidthAlgorithm.MAXIMUM_TICKS : BandwidthAlgorithm.MAXIMUM_TICKS / increment;
+		this.pbr = pbr;
+		this.jt = jt;
+	}
+
+	/**
+	 * Return the peak byte rate in bytes per second.
+	 * @return the peak byte rate in bytes per second.
+	 */
+	public int getPeakByteRate() {
+		return pbr;
+	}
+
+	/**
+	 * Return the jitter tolerance in nanoseconds.
+	 * @return the jitter tolerance in nanoseconds.
+	 */
+	public int getJitterTolerance() {
+		return jt;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#reset()
+	 */
+	public void reset() {
+		reset(time());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#reset(long)
+	 */
+	public void reset(long ticks) {
+		x = 0;
+		x1 = 0;
+		now = ticks;
+		then = ticks - increment;
+		alarmed = false;
+		alarmed1 = false;
+		approximate = false;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#admissible()
+	 */
+	public long admissible() {
+		return admissible(time());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#admissible(long)
+	 */
+	public long admissible(long ticks) {
+		long delay = 0;
+		alarmed1 = false;
+		now = ticks;
+		long elapsed = ticks - then;
+		if (elapsed < 0) {
+			elapsed = 0;
+			approximate = true;
+		}
+		if (x <= elapsed) {
+			x1 = 0;
+		} else {
+			x1 = x - elapsed;
+			if (x1 > limit) {
+				delay = x1 - limit;
+				alarmed1 = true;
+			}
+		}
+		return delay;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#admissibleCount(int)
+	 */
+	public int admissibleCount(int max) {
+		return admissibleCount(time(), max);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#admissibleCount(long, int)
+	 */
+	public int admissibleCount(long ticks, int max) {
+		long delay = admissible(ticks);
+		return ((max > 0) && (delay == 0)) ? max : 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#commit()
+	 */
+	public boolean commit() {
+		return commit(1);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.ExtendedThrottle#commit(int)
+	 */
+	public boolean commit(int octets) {
+		then = now;
+		if (octets > octetsmaximum) {
+			x = BandwidthAlgorithm.MAXIMUM_TICKS;
+			approximate = true;
+		} else {
+			long increment2 = octets * increment;
+			long maximum2 = BandwidthAlgorithm.MAXIMUM_TICKS - increment2;
+			if (x1 > maximum2) {
+				x = BandwidthAlgorithm.MAXIMUM_TICKS;
+				approximate = true;
+			} else {
+				x = x1 + increment2;
+			}
+		}
+		alarmed = alarmed1;
+		return !alarmed;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#rollback()
+	 */
+	public boolean rollback() {
+		return !alarmed;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isAlarmed()
+	 */
+	public boolean isAlarmed() {
+		return alarmed;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isValid()
+	 */
+	public boolean isValid() {
+		return (x >= 0) && (x1 >= 0);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isApproximate()
+	 */
+	public boolean isApproximate() {
+		return approximate;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#frequency()
+	 */
+	public long frequency() {
+		return BandwidthAlgorithm.NS_PER_S;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#time()
+	 */
+	public long time() {
+		return source.nanoTime();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return SingleRateBandwidthThrottle.class.getSimpleName()
+			+ "{pbr=" + pbr
+			+ ",jt=" + jt
+			+ ",now=" + now
+			+ ",then=" + then
+			+ ",i=" + increment
+			+ ",l=" + limit
+			+ ",x=" + x
+			+ ",x1=" + x1
+			+ ",octetsmaximum=" + octetsmaximum
+			+ ",alarmed=" + alarmed
+			+ ",alarmed1=" + alarmed1
+			+ ",approximate=" + approximate
+			+ "}";
+	}
+
+}
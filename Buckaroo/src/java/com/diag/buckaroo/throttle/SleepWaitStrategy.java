@@ -0,0 +1,52 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import com.diag.buckaroo.throttle.BandwidthAlgorithm;
+import com.diag.buckaroo.throttle.WaitStrategy;
+
+/**
+ * This class implements a Wait Strategy that calls Thread.sleep, which is
+ * what the examples in the unit tests of the throttles have always done.
+ * It uses the least CPU but may overshoot by as much as a scheduler quantum.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class SleepWaitStrategy extends WaitStrategy {
+
+	/**
+	 * Ctor.
+	 */
+	public SleepWaitStrategy() { }
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.WaitStrategy#pause(long)
+	 */
+	protected void pause(long deadline) throws InterruptedException {
+		long remaining = deadline - System.nanoTime();
+		while (remaining > 0) {
+			Thread.sleep(BandwidthAlgorithm.delay2ms1(remaining), BandwidthAlgorithm.delay2ns2(remaining));
+			remaining = deadline - System.nanoTime();
+		}
+	}
+
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.concurrent.locks.LockSupport;
+
+import com.diag.buckaroo.throttle.WaitStrategy;
+
+/**
+ * This class implements a Wait Strategy that parks for the bulk of the delay,
+ * yields the processor as the deadline approaches, and spins for the final
+ * stretch. It costs more CPU than parking alone, but only near the deadline,
+ * and overshoots by far less.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class SpinYieldParkWaitStrategy extends WaitStrategy {
+
+	/**
+	 * This is the default final stretch of a wait spent spinning in nanoseconds.
+	 */
+	public final static long SPIN = 10000;
+
+	/**
+	 * This is the default stretch of a wait before the spin spent yielding in nanoseconds.
+	 */
+	public final static long YIELD = 100000;
+
+	private final long spin;
+	private final long yield;
+
+	/**
+	 * Ctor.
+	 * @param spin is the final stretch of a wait spent spinning in nanoseconds.
+	 * @param yield is the stretch of a wait before the spin spent yielding in nanoseconds.
+	 */
+	public SpinYieldParkWaitStrategy(long spin, long yield) {
+		this.spin = (spin > 0) ? spin : 0;
+		this.yield = (yield > 0) ? yield : 0;
+	}
+
+	/**
+	 * Ctor. The default spin and yield durations are used.
+	 */
+	public SpinYieldParkWaitStrategy() {
+		this(SPIN, YIELD);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.WaitStrategy#pause(long)
+	 */
+	protected void pause(long deadline) throws InterruptedException {
+		long remaining = deadline - System.nanoTime();
+		while (remaining > 0) {
+			if (remaining > (spin + yield)) {
+				LockSupport.parkNanos(remaining - (spin + yield));
+			} else if (remaining > spin) {
+				Thread.yield();
+			}
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			remaining = deadline - System.nanoTime();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.WaitStrategy#toString()
+	 */
+	public String toString() {
+		return SpinYieldParkWaitStrategy.class.getSimpleName()
+			+ "{" + super.toString()
+			+ ",spin=" + spin
+			+ ",yield=" + yield
+			+ "}";
+	}
+
+}
@@ -0,0 +1,491 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
+import com.diag.buckaroo.throttle.Throttle;
+import com.diag.buckaroo.throttle.TickSource;
+
+/**
+ * This class implements a Striped Throttle which splits a single Generic Cell Rate
+ * Algorithm (GCRA) traffic contract across some number of stripes so that many threads
+ * may share the contract without all of them contending for the same cache line, as
+ * they do for the single atomic longword of the Atomic Cell Rate Algorithm. Each stripe
+ * is itself a lock free GCRA, in the form of a Theoretical Arrival Time (TAT) in its
+ * own padded cache line, with the contract's limit and the contract's increment
+ * multiplied by the number of stripes, so that the stripes together sustain the
+ * contracted rate. Each thread is assigned a home stripe, round robin, the first time
+ * it uses the throttle, and as long as its home stripe admits the event no other cache
+ * line is touched. Only when its home stripe does not admit the event does the thread
+ * try the other stripes in turn, so that the allowance of stripes whose threads are
+ * idle is not lost; if none admits the event the delay is the least of theirs. The
+ * rebalance method, which may be called periodically by a background thread started
+ * by the start method, redistributes the backlog of all of the stripes evenly among
+ * them, so that busy stripes borrow the unused allowance of idle ones and threads
+ * mostly find their home stripe admissible. Since every stripe admits an event only
+ * while its own backlog is within the limit, over any interval this throttle admits
+ * at most one fewer than the number of stripes more events than would a single GCRA
+ * with the same increment and limit; equivalently, it never exceeds a single GCRA with
+ * the same increment and a limit larger by one fewer than the number of stripes times
+ * the increment, which is returned by getEquivalentLimit. Since a stripe's backlog is
+ * never less than zero, a stripe that has been idle does not accumulate credit, so in
+ * the long run the throttle errs only on the side of conformance. As for the Atomic
+ * Cell Rate Algorithm, the tryAcquire method admits and commits an event indivisibly
+ * and is the method concurrent callers should use; the admissible, commit, and rollback
+ * methods are provided so that this throttle can be used anywhere a Throttle is
+ * expected, and remember per thread which stripe admitted the event and whether the
+ * thread's most recent commit was alarmed. As specified in the standard, ticks are in
+ * microseconds.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class StripedThrottle implements Throttle {
+
+	/**
+	 * This is the maximum possible representable number of ticks.
+	 */
+	public final static long MAXIMUM_TICKS = GenericCellRateAlgorithm.MAXIMUM_TICKS;
+
+	/**
+	 * This is the default interval in nanoseconds at which the background thread
+	 * rebalances the stripes.
+	 */
+	public final static long PERIOD = 1000000;
+
+	/**
+	 * This is the number of longwords from the start of one stripe to the next,
+	 * enough to keep each stripe on its own pair of cache lines.
+	 */
+	protected final static int PAD = 16;
+
+	/**
+	 * This is the state each thread keeps about its use of this throttle.
+	 */
+	protected static class Cursor {
+		final int home;			// index of the thread's home stripe
+		int stripe;				// index of the stripe that admitted the most recent event
+		long now;				// time of the most recent attempted admission in ticks
+		boolean alarmed;		// alarm state of the most recent commit
+		Cursor(int home) { this.home = home; this.stripe = home; }
+	}
+
+	/**
+	 * This is the background thread that rebalances the stripes.
+	 */
+	protected class Rebalancer extends Thread {
+		Rebalancer() { super(StripedThrottle.class.getSimpleName()); setDaemon(true); }
+		public void run() {
+			while (enabled) {
+				LockSupport.parkNanos(period);
+				if (enabled) {
+					rebalance(time());
+				}
+			}
+		}
+	}
+
+	protected final long increment;		// increment of the contract in ticks [TM 4.0]
+	protected final long limit;			// limit of the contract and of each stripe in ticks [TM 4.0]
+	protected final int stripes;		// number of stripes
+	protected final long stride;		// increment of each stripe in ticks
+	protected final long x1maximum;		// maximum possible x1 of each stripe
+	protected final long period;		// rebalancing interval in nanoseconds
+	protected final AtomicLongArray tat;	// theoretical arrival time of each stripe in ticks [TM 4.0]
+	protected final TickSource source;	// clock from which the time is read
+	protected volatile boolean approximate;	// event stream is out of specification
+	private final AtomicInteger assigned = new AtomicInteger();
+	private final ThreadLocal<Cursor> cursors = new ThreadLocal<Cursor>() {
+		protected Cursor initialValue() { return new Cursor((assigned.getAndIncrement() & Integer.MAX_VALUE) % stripes); }
+	};
+	private volatile boolean enabled = false;
+	private Rebalancer rebalancer = null;
+
+	/**
+	 * Ctor.
+	 * @param increment is the virtual scheduler increment or i of the contract in microseconds.
+	 * @param limit is the virtual scheduler limit or l of the contract in microseconds.
+	 * @param stripes is the number of stripes.
+	 * @param period is the interval in nanoseconds at which the background thread,
+	 * once started, rebalances the stripes.
+	 * @param source is the Tick Source from which the time is read.
+	 */
+	public StripedThrottle(long increment, long limit, int stripes, long period, TickSource source) {
+		this.source = source;
+		this.increment = (increment >= 0) ? increment : 0;
+		this.limit = (limit >= 0) ? limit : 0;
+		this.stripes = (stripes > 0) ? stripes : 1;
+		long s = this.increment * this.stripes;
+		this.stride = ((s / this.stripes) == this.increment) ? s : MAXIMUM_TICKS;
+		this.x1maximum = MAXIMUM_TICKS - this.stride;
+		this.period = (period > 0) ? period : 1;
+		this.tat = new AtomicLongArray((this.stripes + 1) * PAD);
+		reset();
+	}
+
+	/**
+	 * Ctor.
+	 * @param increment is the virtual scheduler increment or i of the contract in microseconds.
+	 * @param limit is the virtual scheduler limit or l of the contract in microseconds.
+	 * @param stripes is the number of stripes.
+	 */
+	public StripedThrottle(long increment, long limit, int stripes) {
+		this(increment, limit, stripes, PERIOD, GenericCellRateAlgorithm.PRECISE);
+	}
+
+	/**
+	 * Ctor. There is one stripe for each available processor.
+	 * @param increment is the virtual scheduler increment or i of the contract in microseconds.
+	 * @param limit is the virtual scheduler limit or l of the contract in microseconds.
+	 */
+	public StripedThrottle(long increment, long limit) {
+		this(increment, limit, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Return the index into the array of theoretical arrival times of a stripe.
+	 * @param stripe is the stripe.
+	 * @return the index of its theoretical arrival time.
+	 */
+	protected static int index(int stripe) {
+		return (stripe + 1) * PAD;
+	}
+
+	/**
+	 * Compute the expected inter-arrival time remaining at the specified time
+	 * given a theoretical arrival time. This is the x1 of the GCRA.
+	 * @param expected is the theoretical arrival time in ticks.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @return the remaining expected inter-arrival time in ticks.
+	 */
+	protected static long remaining(long expected, long ticks) {
+		long x1 = expected - ticks;
+		return (x1 > 0) ? x1 : 0;
+	}
+
+	/**
+	 * Compute the theoretical arrival time of a stripe following an admission
+	 * at the specified time.
+	 * @param x1 is the remaining expected inter-arrival time in ticks.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @return the new theoretical arrival time in ticks.
+	 */
+	protected long next(long x1, long ticks) {
+		long x;
+		if (x1 > x1maximum) {
+			x = MAXIMUM_TICKS;
+			approximate = true;
+		} else {
+			x = x1 + stride;
+		}
+		return ticks + x;
+	}
+
+	/**
+	 * Return the number of stripes.
+	 * @return the number of stripes.
+	 */
+	public int getStripes() {
+		return stripes;
+	}
+
+	/**
+	 * Return the limit of the single GCRA with the same increment which this
+	 * throttle never exceeds: the limit of the contract plus one fewer than the
+	 * number of stripes times the increment.
+	 * @return the equivalent limit in ticks.
+	 */
+	public long getEquivalentLimit() {
+		long l = limit + ((stripes - 1) * increment);
+		return (l >= limit) ? l : MAXIMUM_TICKS;
+	}
+
+	/**
+	 * Return the home stripe of the calling thread.
+	 * @return the index of the home stripe of the calling thread.
+	 */
+	public int getHome() {
+		return cursors.get().home;
+	}
+
+	/**
+	 * Return the backlog of a stripe at the specified time, which is the number of
+	 * ticks it would take the stripe to drain if it admitted no more events.
+	 * @param stripe is the index of the stripe.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @return the backlog in ticks.
+	 */
+	public long getBacklog(int stripe, long ticks) {
+		return remaining(tat.get(index(stripe)), ticks);
+	}
+
+	/**
+	 * Redistribute the backlog of all of the stripes evenly among them at the
+	 * specified time. Events admitted concurrently are not lost: each stripe is
+	 * adjusted by adding the difference between its share and the backlog it was
+	 * seen to have, so any concurrent admission is accounted for in addition.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 */
+	public void rebalance(long ticks) {
+		long[] observed = new long[stripes];
+		long total = 0;
+		for (int ii = 0; ii < stripes; ++ii) {
+			int index = index(ii);
+			long expected;
+			do {
+				expected = tat.get(index);
+				if (expected >= ticks) {
+					break;
+				}
+			} while (!tat.compareAndSet(index, expected, ticks));
+			observed[ii] = (expected >= ticks) ? expected : ticks;
+			total += observed[ii] - ticks;
+		}
+		long share = total / stripes;
+		long residue = total % stripes;
+		for (int ii = 0; ii < stripes; ++ii) {
+			long target = ticks + share + ((ii < residue) ? 1 : 0);
+			long delta = target - observed[ii];
+			if (delta != 0) {
+				tat.addAndGet(index(ii), delta);
+			}
+		}
+	}
+
+	/**
+	 * Start the background thread that periodically rebalances the stripes.
+	 * @return this object.
+	 */
+	public synchronized StripedThrottle start() {
+		if (rebalancer == null) {
+			enabled = true;
+			rebalancer = new Rebalancer();
+			rebalancer.start();
+		}
+		return this;
+	}
+
+	/**
+	 * Stop the background thread that periodically rebalances the stripes.
+	 * @return this object.
+	 * @throws InterruptedException if the calling thread is interrupted while
+	 * waiting for the background thread to exit.
+	 */
+	public synchronized StripedThrottle stop() throws InterruptedException {
+		if (rebalancer != null) {
+			enabled = false;
+			LockSupport.unpark(rebalancer);
+			rebalancer.join();
+			rebalancer = null;
+		}
+		return this;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#reset()
+	 */
+	public void reset() {
+		reset(time());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#reset(long)
+	 */
+	public void reset(long ticks) {
+		for (int ii = 0; ii < stripes; ++ii) {
+			tat.set(index(ii), ticks - stride);
+		}
+		Cursor cursor = cursors.get();
+		cursor.now = ticks;
+		cursor.stripe = cursor.home;
+		cursor.alarmed = false;
+		approximate = false;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#admissible()
+	 */
+	public long admissible() {
+		return admissible(time());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#admissible(long)
+	 */
+	public long admissible(long ticks) {
+		Cursor cursor = cursors.get();
+		cursor.now = ticks;
+		cursor.stripe = cursor.home;
+		long delay = MAXIMUM_TICKS;
+		int stripe = cursor.home;
+		for (int ii = 0; ii < stripes; ++ii) {
+			long x1 = remaining(tat.get(index(stripe)), ticks);
+			if (x1 <= limit) {
+				cursor.stripe = stripe;
+				return 0;
+			}
+			if ((x1 - limit) < delay) {
+				delay = x1 - limit;
+				cursor.stripe = stripe;
+			}
+			if ((++stripe) >= stripes) {
+				stripe = 0;
+			}
+		}
+		return delay;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#commit()
+	 */
+	public boolean commit() {
+		Cursor cursor = cursors.get();
+		int index = index(cursor.stripe);
+		long ticks = cursor.now;
+		long expected;
+		long x1;
+		do {
+			expected = tat.get(index);
+			x1 = remaining(expected, ticks);
+		} while (!tat.compareAndSet(index, expected, next(x1, ticks)));
+		cursor.alarmed = (x1 > limit);
+		return !cursor.alarmed;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#rollback()
+	 */
+	public boolean rollback() {
+		return !cursors.get().alarmed;
+	}
+
+	/**
+	 * Atomically determine if an event is admissible at the current time
+	 * and, if it is, commit it. If it is not, the throttle state is not modified.
+	 * @return zero if the event was admitted and committed, or the number of ticks
+	 * from the current time until the next event would be admissible.
+	 */
+	public long tryAcquire() {
+		return tryAcquire(time());
+	}
+
+	/**
+	 * Atomically determine if an event is admissible at the specified time
+	 * and, if it is, commit it, trying the home stripe of the calling thread
+	 * first. If it is not, the throttle state is not modified.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @return zero if the event was admitted and committed, or the number of ticks
+	 * from the specified time until the next event would be admissible.
+	 */
+	public long tryAcquire(long ticks) {
+		Cursor cursor = cursors.get();
+		long delay = MAXIMUM_TICKS;
+		int stripe = cursor.home;
+		for (int ii = 0; ii < stripes; ++ii) {
+			int index = index(stripe);
+			long expected;
+			long x1;
+			do {
+				expected = tat.get(index);
+				x1 = remaining(expected, ticks);
+				if (x1 > limit) {
+					break;
+				}
+				if (tat.compareAndSet(index, expected, next(x1, ticks))) {
+					cursor.stripe = stripe;
+					cursor.alarmed = false;
+					return 0;
+				}
+			} while (true);
+			if ((x1 - limit) < delay) {
+				delay = x1 - limit;
+			}
+			if ((++stripe) >= stripes) {
+				stripe = 0;
+			}
+		}
+		return delay;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isAlarmed()
+	 */
+	public boolean isAlarmed() {
+		return cursors.get().alarmed;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isValid()
+	 */
+	public boolean isValid() {
+		return (increment >= 0) && (limit >= 0) && (stride < MAXIMUM_TICKS);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#isApproximate()
+	 */
+	public boolean isApproximate() {
+		return approximate;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#frequency()
+	 */
+	public long frequency() {
+		return GenericCellRateAlgorithm.US_PER_S;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.diag.buckaroo.throttle.Throttle#time()
+	 */
+	public long time() {
+		return source.nanoTime() / GenericCellRateAlgorithm.NS_PER_US;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		StringBuilder buffer = new StringBuilder();
+		buffer.append(StripedThrottle.class.getSimpleName());
+		buffer.append("{i=").append(increment);
+		buffer.append(",l=").append(limit);
+		buffer.append(",stripes=").append(stripes);
+		buffer.append(",stride=").append(stride);
+		buffer.append(",period=").append(period);
+		buffer.append(",enabled=").append(enabled);
+		buffer.append(",approximate=").append(approximate);
+		buffer.append(",tat=[");
+		for (int ii = 0; ii < stripes; ++ii) {
+			if (ii > 0) {
+				buffer.append(',');
+			}
+			buffer.append(tat.get(index(ii)));
+		}
+		buffer.append("]}");
+		return buffer.toString();
+	}
+
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import com.diag.buckaroo.jmx.Counters;
+import com.diag.buckaroo.throttle.CellRateThrottle;
+import com.diag.buckaroo.throttle.Color;
+import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
+import com.diag.buckaroo.throttle.Throttle;
+import com.diag.buckaroo.throttle.TickSource;
+
+/**
+ * This class implements a two rate three color marker, similar to that of RFC 2698,
+ * using a peak and a committed (sustained) Throttle, typically each a Generic Cell
+ * Rate Algorithm. Where a Compound Throttle reduces the two contracts to a single delay
+ * and alarm, a Three Color Marker instead reports in a single evaluation which of the
+ * contracts an event conforms to, so that traffic can be marked rather than policed:
+ * an event is red if it is not admissible by the peak Throttle, in which case neither
+ * Throttle is charged for it; yellow if it is admissible by the peak but not the
+ * committed Throttle, in which case only the peak Throttle is charged; and green if it
+ * is admissible by both, in which case both are charged. Lower layers can then drop or
+ * deprioritize yellow events instead of rejecting them outright. In color aware mode
+ * an event already marked by an upstream marker can only keep its color or be demoted:
+ * a red event stays red and charges neither Throttle, and a yellow event is never
+ * checked against the committed Throttle. The number of events marked each color is
+ * kept in a Counters managed bean, which may be registered with an MBean server for
+ * monitoring. Marking is synchronized so that the two Throttles are always evaluated
+ * and charged together.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class ThreeColorMarker {
+
+	private final Throttle peak;
+	private final Throttle committed;
+	private final Counters counters = new Counters(Color.class);
+
+	/**
+	 * Ctor.
+	 * @param peak is the Throttle with the contract for the peak rate.
+	 * @param committed is the Throttle with the contract for the committed rate.
+	 */
+	public ThreeColorMarker(Throttle peak, Throttle committed) {
+		this.peak = peak;
+		this.committed = committed;
+	}
+
+	/**
+	 * Ctor using the parameters of a variable bit rate (VBR) Cell Rate Throttle
+	 * traffic contract, the sustained cell rate being the committed rate.
+	 * @param pcr is the peak cell rate in cells per second.
+	 * @param cdvt is the cell delay variation tolerance in microseconds.
+	 * @param scr is the sustained cell rate in cells per second.
+	 * @param mbs is the maximum burst size in cells.
+	 * @param source is the Tick Source from which the time is read.
+	 */
+	public ThreeColorMarker(int pcr, int cdvt, int scr, int mbs, TickSource source) {
+		this(
+			new GenericCellRateAlgorithm(CellRateThrottle.increment(pcr, cdvt), CellRateThrottle.limit(pcr, cdvt), source),
+			new GenericCellRateAlgorithm(CellRateThrottle.increment(pcr, cdvt, scr, mbs), CellRateThrottle.limit(pcr, cdvt, scr, mbs), source)
+		);
+	}
+
+	/**
+	 * Ctor using the parameters of a variable bit rate (VBR) Cell Rate Throttle
+	 * traffic contract, the sustained cell rate being the committed rate.
+	 * @param pcr is the peak cell rate in cells per second.
+	 * @param cdvt is the cell delay variation tolerance in microseconds.
+	 * @param scr is the sustained cell rate in cells per second.
+	 * @param mbs is the maximum burst size in cells.
+	 */
+	public ThreeColorMarker(int pcr, int cdvt, int scr, int mbs) {
+		this(pcr, cdvt, scr, mbs, GenericCellRateAlgorithm.PRECISE);
+	}
+
+	/**
+	 * Return the Throttle with the contract for the peak rate.
+	 * @return the peak Throttle.
+	 */
+	public Throttle getPeak() {
+		return peak;
+	}
+
+	/**
+	 * Return the Throttle with the contract for the committed rate.
+	 * @return the committed Throttle.
+	 */
+	public Throttle getCommitted() {
+		return committed;
+	}
+
+	/**
+	 * Return the per color counters, which may be registered as a managed bean.
+	 * @return the per color counters.
+	 */
+	public Counters getCounters() {
+		return counters;
+	}
+
+	/**
+	 * Return the number of events marked a particular color since the counters
+	 * were last reset.
+	 * @param color is the color.
+	 * @return the number of events.
+	 */
+	public int getCount(Color color) {
+		return counters.get(color);
+	}
+
+	/**
+	 * Reset both Throttles to the specified time. The counters are not reset.
+	 * @param ticks is the time in ticks.
+	 */
+	public synchronized void reset(long ticks) {
+		peak.reset(ticks);
+		committed.reset(ticks);
+	}
+
+	/**
+	 * Reset both Throttles to the current time. The counters are not reset.
+	 */
+	public void reset() {
+		reset(time());
+	}
+
+	/**
+	 * Mark an event, which may already have been marked upstream, at the specified
+	 * time and charge the Throttles accordingly.
+	 * @param ticks is the time of the event in ticks.
+	 * @param color is the color with which the event arrived.
+	 * @return the color of the event.
+	 */
+	public synchronized Color mark(long ticks, Color color) {
+		if (color != Color.RED) {
+			if (peak.admissible(ticks) > 0) {
+				peak.rollback();
+				color = Color.RED;
+			} else if ((color == Color.YELLOW) || (committed.admissible(ticks) > 0)) {
+				if (color != Color.YELLOW) {
+					committed.rollback();
+				}
+				peak.commit();
+				color = Color.YELLOW;
+			} else {
+				peak.commit();
+				committed.commit();
+			}
+		}
+		counters.inc(color);
+		return color;
+	}
+
+	/**
+	 * Mark an event at the specified time and charge the Throttles accordingly.
+	 * @param ticks is the time of the event in ticks.
+	 * @return the color of the event.
+	 */
+	public Color mark(long ticks) {
+		return mark(ticks, Color.GREEN);
+	}
+
+	/**
+	 * Mark an event at the current time and charge the Throttles accordingly.
+	 * @return the color of the event.
+	 */
+	public Color mark() {
+		return mark(time());
+	}
+
+	/**
+	 * Return the current time in ticks of the peak Throttle.
+	 * @return the current time in ticks.
+	 */
+	public long time() {
+		return peak.time();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return ThreeColorMarker.class.getSimpleName()
+			+ "{green=" + counters.get(Color.GREEN)
+			+ ",yellow=" + counters.get(Color.YELLOW)
+			+ ",red=" + counters.get(Color.RED)
+			+ ",peak=" + peak
+			+ ",committed=" + committed
+			+ "}";
+	}
+
+}
@@ -0,0 +1,396 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
+
+/**
+ * This class implements a table of Generic Cell Rate Algorithm states, one per
+ * longword key, kept as fixed width records in a memory mapped file. Each record
+ * holds the key, the time of the most recent committed admission (then), the
+ * expected inter-arrival time (x), and the traffic contract (the increment and the
+ * limit) of its GCRA. Admission decisions are made directly against the mapped records
+ * without creating an object per key, and because the state lives in the file, it
+ * survives a restart of the JVM: a client that had exhausted its burst allowance
+ * before the restart has still exhausted it afterwards. Since nanoTime has no
+ * meaning across JVMs, the ticks of this table are microseconds since the UNIX
+ * epoch, derived from the system clock at construction and advanced using nanoTime.
+ * Records are located by open addressing with linear probing in a table whose
+ * capacity is a power of two; records are never removed, so the capacity should be
+ * sized for the number of distinct keys expected over the life of the file. If the
+ * table fills up, events for new keys are admitted and the table is marked
+ * approximate. Keys that are not naturally longwords (IP addresses, API key strings)
+ * must be reduced to longwords by the application. All methods are synchronized.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class ThrottleTable {
+
+	/**
+	 * This is the maximum possible representable number of ticks.
+	 */
+	public final static long MAXIMUM_TICKS = GenericCellRateAlgorithm.MAXIMUM_TICKS;
+
+	/**
+	 * This is the magic number identifying a throttle table file.
+	 */
+	public final static long MAGIC = 0x4255434b54424c31L; // "BUCKTBL1"
+
+	/**
+	 * This is the size of the file header in bytes.
+	 */
+	public final static int HEADER = 64;
+
+	/**
+	 * This is the size of each record in bytes.
+	 */
+	public final static int RECORD = 48;
+
+	/**
+	 * This is the largest capacity in records that can be mapped.
+	 */
+	public final static int MAXIMUM_CAPACITY = Integer.highestOneBit((Integer.MAX_VALUE - HEADER) / RECORD);
+
+	// Header offsets.
+	private final static int MAGIC_OFFSET = 0;
+	private final static int CAPACITY_OFFSET = 8;
+	private final static int SIZE_OFFSET = 12;
+
+	// Record offsets.
+	private final static int KEY_OFFSET = 0;
+	private final static int USED_OFFSET = 8;
+	private final static int THEN_OFFSET = 16;
+	private final static int X_OFFSET = 24;
+	private final static int INCREMENT_OFFSET = 32;
+	private final static int LIMIT_OFFSET = 40;
+
+	private final long increment;		// default increment in ticks [TM 4.0]
+	private final long limit;			// default limit in ticks [TM 4.0]
+	private final long offset;			// microseconds since the epoch at nanoTime zero
+	private final int capacity;			// capacity in records
+	private RandomAccessFile file;
+	private MappedByteBuffer map;
+	private boolean approximate;
+
+	/**
+	 * Ctor. If the file exists and is a throttle table of the same capacity, its
+	 * records are used as is. If the file does not exist or is empty, it is created
+	 * and initialized.
+	 * @param path is the file containing the table.
+	 * @param capacity is the number of records, rounded up to a power of two.
+	 * @param increment is the virtual scheduler increment or i in microseconds
+	 * used for keys that do not have their own contract.
+	 * @param limit is the virtual scheduler limit or l in microseconds used for
+	 * keys that do not have their own contract.
+	 * @throws IOException if the file cannot be mapped or is not a compatible throttle table.
+	 */
+	public ThrottleTable(File path, int capacity, long increment, long limit) throws IOException {
+		int size = (capacity > 1) ? Integer.highestOneBit(capacity - 1) << 1 : 1;
+		this.capacity = ((size > 0) && (size <= MAXIMUM_CAPACITY)) ? size : MAXIMUM_CAPACITY;
+		this.increment = (increment >= 0) ? increment : 0;
+		this.limit = (limit >= 0) ? limit : 0;
+		this.offset = (System.currentTimeMillis() * GenericCellRateAlgorithm.US_PER_MS) - (System.nanoTime() / GenericCellRateAlgorithm.NS_PER_US);
+		long length = HEADER + ((long)this.capacity * RECORD);
+		file = new RandomAccessFile(path, "rw");
+		try {
+			long existing = file.length();
+			if ((existing != 0) && (existing != length)) {
+				throw new IOException(path + ": length " + existing + " != " + length);
+			}
+			map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+			if (existing == 0) {
+				map.putLong(MAGIC_OFFSET, MAGIC);
+				map.putInt(CAPACITY_OFFSET, this.capacity);
+				map.putInt(SIZE_OFFSET, 0);
+			} else if (map.getLong(MAGIC_OFFSET) != MAGIC) {
+				throw new IOException(path + ": magic " + Long.toHexString(map.getLong(MAGIC_OFFSET)) + " != " + Long.toHexString(MAGIC));
+			} else if (map.getInt(CAPACITY_OFFSET) != this.capacity) {
+				throw new IOException(path + ": capacity " + map.getInt(CAPACITY_OFFSET) + " != " + this.capacity);
+			}
+		} catch (IOException exception) {
+			file.close();
+			throw exception;
+		}
+	}
+
+	/**
+	 * Find the offset of the record for a key, optionally allocating it.
+	 * @param key is the key.
+	 * @param ticks is the time of day used to initialize an allocated record.
+	 * @param allocate is true if a missing record is to be allocated.
+	 * @return the offset of the record or -1 if it was not found or could not be allocated.
+	 */
+	private int find(long key, long ticks, boolean allocate) {
+		int index = (int)((key * 0x9e3779b97f4a7c15L) >>> 33) & (capacity - 1);
+		for (int probes = 0; probes < capacity; ++probes) {
+			int record = HEADER + (index * RECORD);
+			if (map.getLong(record + USED_OFFSET) == 0) {
+				if (!allocate) {
+					break;
+				}
+				map.putLong(record + KEY_OFFSET, key);
+				map.putLong(record + THEN_OFFSET, ticks - increment);
+				map.putLong(record + X_OFFSET, 0);
+				map.putLong(record + INCREMENT_OFFSET, increment);
+				map.putLong(record + LIMIT_OFFSET, limit);
+				map.putLong(record + USED_OFFSET, 1);
+				map.putInt(SIZE_OFFSET, map.getInt(SIZE_OFFSET) + 1);
+				return record;
+			}
+			if (map.getLong(record + KEY_OFFSET) == key) {
+				return record;
+			}
+			index = (index + 1) & (capacity - 1);
+		}
+		if (allocate) {
+			approximate = true;
+		}
+		return -1;
+	}
+
+	/**
+	 * Compute the actual inter-arrival time, the x1 of the GCRA, for a record.
+	 * @param record is the offset of the record.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @return the actual inter-arrival time in ticks.
+	 */
+	private long x1(int record, long ticks) {
+		long elapsed = ticks - map.getLong(record + THEN_OFFSET);
+		if (elapsed < 0) {
+			elapsed = 0;
+			approximate = true;
+		}
+		long x = map.getLong(record + X_OFFSET);
+		return (x <= elapsed) ? 0 : x - elapsed;
+	}
+
+	/**
+	 * Commit an admission to a record.
+	 * @param record is the offset of the record.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @param x1 is the actual inter-arrival time in ticks.
+	 */
+	private void commit(int record, long ticks, long x1) {
+		long i = map.getLong(record + INCREMENT_OFFSET);
+		long x;
+		if (x1 > (MAXIMUM_TICKS - i)) {
+			x = MAXIMUM_TICKS;
+			approximate = true;
+		} else {
+			x = x1 + i;
+		}
+		map.putLong(record + THEN_OFFSET, ticks);
+		map.putLong(record + X_OFFSET, x);
+	}
+
+	/**
+	 * Return the number of ticks from the specified time until the next event for
+	 * the specified key would be admissible. The table is not modified.
+	 * @param key identifies the event stream.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @return the number of ticks until the next event is admissible, or zero.
+	 */
+	public synchronized long admissible(long key, long ticks) {
+		int record = find(key, ticks, false);
+		if (record < 0) {
+			return 0;
+		}
+		long x1 = x1(record, ticks);
+		long l = map.getLong(record + LIMIT_OFFSET);
+		return (x1 > l) ? x1 - l : 0;
+	}
+
+	/**
+	 * Return the number of ticks from the current time until the next event for
+	 * the specified key would be admissible. The table is not modified.
+	 * @param key identifies the event stream.
+	 * @return the number of ticks until the next event is admissible, or zero.
+	 */
+	public long admissible(long key) {
+		return admissible(key, time());
+	}
+
+	/**
+	 * Commit an event for the specified key at the specified time regardless of
+	 * whether it was admissible.
+	 * @param key identifies the event stream.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @return true if the event was admissible, false otherwise.
+	 */
+	public synchronized boolean commit(long key, long ticks) {
+		int record = find(key, ticks, true);
+		if (record < 0) {
+			return true;
+		}
+		long x1 = x1(record, ticks);
+		commit(record, ticks, x1);
+		return x1 <= map.getLong(record + LIMIT_OFFSET);
+	}
+
+	/**
+	 * Determine if an event for the specified key is admissible at the specified
+	 * time and, if it is, commit it. If it is not, the table is not modified.
+	 * @param key identifies the event stream.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 * @return zero if the event was admitted and committed, or the number of ticks
+	 * from the specified time until the next event would be admissible.
+	 */
+	public synchronized long tryAcquire(long key, long ticks) {
+		int record = find(key, ticks, true);
+		if (record < 0) {
+			return 0;
+		}
+		long x1 = x1(record, ticks);
+		long l = map.getLong(record + LIMIT_OFFSET);
+		if (x1 > l) {
+			return x1 - l;
+		}
+		commit(record, ticks, x1);
+		return 0;
+	}
+
+	/**
+	 * Determine if an event for the specified key is admissible at the current
+	 * time and, if it is, commit it. If it is not, the table is not modified.
+	 * @param key identifies the event stream.
+	 * @return zero if the event was admitted and committed, or the number of ticks
+	 * from the current time until the next event would be admissible.
+	 */
+	public long tryAcquire(long key) {
+		return tryAcquire(key, time());
+	}
+
+	/**
+	 * Give the specified key its own traffic contract. Its current state is retained.
+	 * @param key identifies the event stream.
+	 * @param increment is the virtual scheduler increment or i in microseconds.
+	 * @param limit is the virtual scheduler limit or l in microseconds.
+	 * @return true if successful, false if the table is full.
+	 */
+	public synchronized boolean contract(long key, long increment, long limit) {
+		int record = find(key, time(), true);
+		if (record < 0) {
+			return false;
+		}
+		map.putLong(record + INCREMENT_OFFSET, (increment >= 0) ? increment : 0);
+		map.putLong(record + LIMIT_OFFSET, (limit >= 0) ? limit : 0);
+		return true;
+	}
+
+	/**
+	 * Reset the state of the specified key, if it exists, to its just
+	 * allocated state using the specified time of day.
+	 * @param key identifies the event stream.
+	 * @param ticks is the time of day in the number of ticks since the epoch.
+	 */
+	public synchronized void reset(long key, long ticks) {
+		int record = find(key, ticks, false);
+		if (record >= 0) {
+			map.putLong(record + THEN_OFFSET, ticks - map.getLong(record + INCREMENT_OFFSET));
+			map.putLong(record + X_OFFSET, 0);
+		}
+	}
+
+	/**
+	 * Return the number of keys that have records in the table.
+	 * @return the number of keys that have records in the table.
+	 */
+	public synchronized int size() {
+		return map.getInt(SIZE_OFFSET);
+	}
+
+	/**
+	 * Return the capacity of the table in records.
+	 * @return the capacity of the table in records.
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns true if the table filled up or the event stream went out of specification.
+	 * @return true if the traffic contracts can only be approximately implemented.
+	 */
+	public synchronized boolean isApproximate() {
+		return approximate;
+	}
+
+	/**
+	 * Return the number of ticks that are in one second.
+	 * @return the number of ticks that are in one second.
+	 */
+	public long frequency() {
+		return GenericCellRateAlgorithm.US_PER_S;
+	}
+
+	/**
+	 * Return the number of microseconds since the UNIX epoch. Unlike the time of
+	 * the other throttles, this time is meaningful across restarts of the JVM.
+	 * @return elapsed ticks since the UNIX epoch.
+	 */
+	public long time() {
+		return offset + (System.nanoTime() / GenericCellRateAlgorithm.NS_PER_US);
+	}
+
+	/**
+	 * Force any changes to the table to be written to the file.
+	 */
+	public synchronized void force() {
+		if (map != null) {
+			map.force();
+		}
+	}
+
+	/**
+	 * Force any changes to the table to be written to the file and close it.
+	 * The table may not be used after it is closed.
+	 * @throws IOException if the file cannot be closed.
+	 */
+	public synchronized void close() throws IOException {
+		if (file != null) {
+			map.force();
+			map = null;
+			file.close();
+			file = null;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return ThrottleTable.class.getSimpleName()
+			+ "{i=" + increment
+			+ ",l=" + limit
+			+ ",capacity=" + capacity
+			+ ",size=" + ((map != null) ? size() : 0)
+			+ ",approximate=" + approximate
+			+ "}";
+	}
+
+}
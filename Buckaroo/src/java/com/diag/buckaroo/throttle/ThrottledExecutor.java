@@ -0,0 +1,338 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.diag.buckaroo.throttle.AdmissionScheduler;
+import com.diag.buckaroo.throttle.Throttle;
+
+/**
+ * This class implements an Executor Service that holds each submitted task until
+ * a Throttle admits it, and only then hands it to a delegate Executor Service to run.
+ * Unlike a task that sleeps in its worker thread until the Throttle allows it to
+ * proceed, a held task occupies no thread at all: tasks are held by an Admission
+ * Scheduler, which may be shared by any number of Throttled Executors, and which
+ * dispatches them in the order in which they were submitted, each one committed to
+ * the Throttle as a single event. Shutting down a Throttled Executor stops it from
+ * accepting tasks; tasks already held are still dispatched as the Throttle admits
+ * them, after which the delegate is shut down. Shutting it down now returns the held
+ * tasks without running them, along with those returned by the delegate. As with the
+ * Admission Scheduler, the Throttle is locked while it is asked or committed, and
+ * any other code using the same Throttle should synchronize on it too.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class ThrottledExecutor extends AbstractExecutorService {
+
+	protected static final Logger DEFAULT_LOGGER = Logger.getLogger(ThrottledExecutor.class.getName());
+
+	/**
+	 * This is a task held until it is admitted.
+	 */
+	protected static class Held {
+		final Runnable task;
+		volatile CompletableFuture<Long> future = null;
+		boolean dispatching = false;
+		Held(Runnable task) { this.task = task; }
+	}
+
+	private final ExecutorService delegate;
+	private final Throttle throttle;
+	private final AdmissionScheduler scheduler;
+	private final boolean owned;
+	private final Object lock = new Object();
+	private final Set<Held> holding = Collections.newSetFromMap(new IdentityHashMap<Held, Boolean>());
+	private Logger log = DEFAULT_LOGGER;
+	private boolean shutdown = false;
+	private boolean terminating = false;
+	private boolean terminated = false;
+	private long dispatched = 0;
+
+	/**
+	 * Ctor. The Admission Scheduler must be started by the caller.
+	 * @param delegate is the Executor Service which runs admitted tasks.
+	 * @param throttle is the Throttle which admits tasks.
+	 * @param scheduler is the Admission Scheduler which holds tasks until they are admitted.
+	 */
+	public ThrottledExecutor(ExecutorService delegate, Throttle throttle, AdmissionScheduler scheduler) {
+		this(delegate, throttle, scheduler, false);
+	}
+
+	/**
+	 * Ctor. A private Admission Scheduler is started, and is stopped when this
+	 * Throttled Executor terminates.
+	 * @param delegate is the Executor Service which runs admitted tasks.
+	 * @param throttle is the Throttle which admits tasks.
+	 */
+	public ThrottledExecutor(ExecutorService delegate, Throttle throttle) {
+		this(delegate, throttle, new AdmissionScheduler(ThrottledExecutor.class.getSimpleName()).start(), true);
+	}
+
+	private ThrottledExecutor(ExecutorService delegate, Throttle throttle, AdmissionScheduler scheduler, boolean owned) {
+		this.delegate = delegate;
+		this.throttle = throttle;
+		this.scheduler = scheduler;
+		this.owned = owned;
+	}
+
+	/**
+	 * Set the Java logger used by this Executor.
+	 * @param log is a Java logger.
+	 * @return this object.
+	 */
+	public ThrottledExecutor setLogger(Logger log) {
+		this.log = log;
+		return this;
+	}
+
+	/**
+	 * Get the Java logger used by this Executor.
+	 * @return a Java logger.
+	 */
+	public Logger getLogger() {
+		return log;
+	}
+
+	/**
+	 * Return the Executor Service which runs admitted tasks.
+	 * @return the delegate Executor Service.
+	 */
+	public ExecutorService getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * Return the Throttle which admits tasks.
+	 * @return the Throttle.
+	 */
+	public Throttle getThrottle() {
+		return throttle;
+	}
+
+	/**
+	 * Return the number of tasks held awaiting admission.
+	 * @return the number of held tasks.
+	 */
+	public int size() {
+		synchronized (lock) {
+			return holding.size();
+		}
+	}
+
+	/**
+	 * Return the number of tasks dispatched to the delegate.
+	 * @return the number of dispatched tasks.
+	 */
+	public long getDispatched() {
+		synchronized (lock) {
+			return dispatched;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+	 */
+	public void execute(Runnable task) {
+		if (task == null) {
+			throw new NullPointerException();
+		}
+		final Held held = new Held(task);
+		synchronized (lock) {
+			if (shutdown) {
+				throw new RejectedExecutionException(ThrottledExecutor.class.getSimpleName() + " shut down");
+			}
+			holding.add(held);
+		}
+		CompletableFuture<Long> future = scheduler.admit(throttle);
+		held.future = future;
+		future.whenComplete(new BiConsumer<Long, Throwable>() {
+			public void accept(Long waited, Throwable exception) { dispatch(held, exception == null); }
+		});
+	}
+
+	/**
+	 * Hand an admitted task to the delegate. This runs in the scheduler thread, or in
+	 * the submitting thread if the task was admissible immediately.
+	 * @param held is the held task.
+	 * @param admitted is true if the task was admitted, false if its admission was cancelled.
+	 */
+	private void dispatch(Held held, boolean admitted) {
+		synchronized (lock) {
+			if (held.dispatching || !holding.contains(held)) {
+				return;
+			}
+			held.dispatching = true;
+		}
+		if (admitted) {
+			try {
+				delegate.execute(held.task);
+				synchronized (lock) {
+					++dispatched;
+				}
+			} catch (RejectedExecutionException exception) {
+				log.log(Level.WARNING, exception.toString(), exception);
+			}
+		} else {
+			log.warning("cancelled " + held.task);
+		}
+		boolean terminate;
+		synchronized (lock) {
+			holding.remove(held);
+			terminate = shutdown && holding.isEmpty() && !terminating;
+			if (terminate) {
+				terminating = true;
+			}
+		}
+		if (terminate) {
+			terminate();
+		}
+	}
+
+	/**
+	 * Shut down the delegate and any private Admission Scheduler once no tasks are held.
+	 */
+	private void terminate() {
+		delegate.shutdown();
+		if (owned) {
+			try {
+				scheduler.stop();
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (lock) {
+			terminated = true;
+			lock.notifyAll();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.ExecutorService#shutdown()
+	 */
+	public void shutdown() {
+		boolean terminate;
+		synchronized (lock) {
+			shutdown = true;
+			terminate = holding.isEmpty() && !terminating;
+			if (terminate) {
+				terminating = true;
+			}
+		}
+		if (terminate) {
+			terminate();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.ExecutorService#shutdownNow()
+	 */
+	public List<Runnable> shutdownNow() {
+		List<Runnable> tasks = new ArrayList<Runnable>();
+		List<Held> cancelled = new ArrayList<Held>();
+		synchronized (lock) {
+			shutdown = true;
+			for (Held held : holding) {
+				if (!held.dispatching) {
+					cancelled.add(held);
+					tasks.add(held.task);
+				}
+			}
+			holding.removeAll(cancelled);
+		}
+		for (Held held : cancelled) {
+			CompletableFuture<Long> future = held.future;
+			if (future != null) {
+				future.cancel(false);
+			}
+		}
+		shutdown();
+		tasks.addAll(delegate.shutdownNow());
+		return tasks;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.ExecutorService#isShutdown()
+	 */
+	public boolean isShutdown() {
+		synchronized (lock) {
+			return shutdown;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.ExecutorService#isTerminated()
+	 */
+	public boolean isTerminated() {
+		synchronized (lock) {
+			if (!terminated) {
+				return false;
+			}
+		}
+		return delegate.isTerminated();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.ExecutorService#awaitTermination(long, java.util.concurrent.TimeUnit)
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		synchronized (lock) {
+			while (!terminated) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return false;
+				}
+				TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+			}
+		}
+		return delegate.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		synchronized (lock) {
+			return ThrottledExecutor.class.getSimpleName()
+				+ "{held=" + holding.size()
+				+ ",dispatched=" + dispatched
+				+ ",shutdown=" + shutdown
+				+ ",terminated=" + terminated
+				+ ",throttle=" + throttle
+				+ "}";
+		}
+	}
+
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+import com.diag.buckaroo.throttle.Acquirer;
+import com.diag.buckaroo.throttle.Throttle;
+
+/**
+ * This class implements an InputStream that shapes the octets read from an
+ * underlying InputStream using a Throttle, typically a Bandwidth Throttle. Since
+ * the number of octets a read returns is not known in advance, each read waits
+ * until the Throttle is admissible, reads no more than a maximum chunk size, and
+ * then commits the number of octets actually read; the next read waits out any
+ * resulting delay. For an Extended Throttle each chunk is committed as a count of
+ * octets; for any other Throttle each octet is an event. Octets that are skipped
+ * are shaped the same way since they are still read from the underlying source.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class ThrottledInputStream extends FilterInputStream {
+
+	/**
+	 * This is the default maximum chunk size in octets.
+	 */
+	public final static int CHUNK = 8192;
+
+	private final Acquirer acquirer;
+	private final int chunk;
+
+	/**
+	 * Ctor.
+	 * @param in is the underlying InputStream.
+	 * @param acquirer is the Acquirer of the Throttle.
+	 * @param chunk is the maximum chunk size in octets.
+	 */
+	public ThrottledInputStream(InputStream in, Acquirer acquirer, int chunk) {
+		super(in);
+		this.acquirer = acquirer;
+		this.chunk = (chunk > 0) ? chunk : 1;
+	}
+
+	/**
+	 * Ctor.
+	 * @param in is the underlying InputStream.
+	 * @param throttle is the Throttle.
+	 * @param chunk is the maximum chunk size in octets.
+	 */
+	public ThrottledInputStream(InputStream in, Throttle throttle, int chunk) {
+		this(in, new Acquirer(throttle), chunk);
+	}
+
+	/**
+	 * Ctor. The default maximum chunk size is used.
+	 * @param in is the underlying InputStream.
+	 * @param throttle is the Throttle.
+	 */
+	public ThrottledInputStream(InputStream in, Throttle throttle) {
+		this(in, throttle, CHUNK);
+	}
+
+	/**
+	 * Wait until the Throttle is admissible.
+	 * @throws InterruptedIOException if the calling thread is interrupted.
+	 */
+	private void await() throws InterruptedIOException {
+		try {
+			acquirer.await();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(exception.toString());
+		}
+	}
+
+	/**
+	 * Commit a count of octets to the Throttle.
+	 * @param count is the number of octets.
+	 * @throws InterruptedIOException if the calling thread is interrupted.
+	 */
+	private void acquire(int count) throws InterruptedIOException {
+		try {
+			acquirer.acquire(count);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(exception.toString());
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.FilterInputStream#read()
+	 */
+	public int read() throws IOException {
+		await();
+		int b = in.read();
+		if (b >= 0) {
+			acquire(1);
+		}
+		return b;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.FilterInputStream#read(byte[], int, int)
+	 */
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len <= 0) {
+			return in.read(b, off, len);
+		}
+		await();
+		int count = in.read(b, off, (len < chunk) ? len : chunk);
+		if (count > 0) {
+			acquire(count);
+		}
+		return count;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.FilterInputStream#skip(long)
+	 */
+	public long skip(long n) throws IOException {
+		if (n <= 0) {
+			return 0;
+		}
+		await();
+		long count = in.skip((n < chunk) ? n : chunk);
+		if (count > 0) {
+			acquire((int)count);
+		}
+		return count;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.FilterInputStream#markSupported()
+	 */
+	public boolean markSupported() {
+		return false;
+	}
+
+	/**
+	 * Return the Acquirer of the Throttle.
+	 * @return the Acquirer.
+	 */
+	public Acquirer getAcquirer() {
+		return acquirer;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return ThrottledInputStream.class.getSimpleName()
+			+ "{chunk=" + chunk
+			+ ",acquirer=" + acquirer
+			+ "}";
+	}
+
+}
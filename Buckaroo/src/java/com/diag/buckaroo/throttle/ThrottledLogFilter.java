@@ -0,0 +1,354 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Filter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
+import com.diag.buckaroo.throttle.GeometricThrottle;
+import com.diag.buckaroo.throttle.TickSource;
+
+/**
+ * This class implements a java.util.logging Filter that suppresses floods of log
+ * records by passing each record through a Geometric Throttle: the first, second,
+ * fourth, eighth, and so on, records are logged and the rest are dropped. There is a
+ * separate Geometric Throttle for every combination of logger name and message, where
+ * the message is the unformatted template of the record before its parameters are
+ * substituted, so a flood of one error does not suppress a different error. Since a
+ * Filter is applied by the Logger before any Handler formats the record, suppressed
+ * records are never formatted. The throttles are kept in a concurrent map bounded by
+ * a capacity; once the map is full, records for any new combination share a single
+ * overflow throttle. Every interval, whichever caller happens to notice that the
+ * interval has elapsed, or the background thread if it has been started, emits, for
+ * every throttle that suppressed records since the last interval, a summary record of
+ * the form "N messages suppressed: message" at the most severe level suppressed, and
+ * evicts, and thereby resets, every throttle that saw no records at all during the
+ * last interval. Without the background thread, a summary is only emitted once a
+ * later record arrives or sweep is called, so the last records of a flood that then
+ * stops go unreported until then. By default a summary is logged to the logger named
+ * by the suppressed records, and is itself never suppressed; a subclass may override
+ * summarize to send it elsewhere. This Filter is thread safe, and a record is
+ * throttled atomically with respect to other records with the same logger and
+ * message. Time is measured in microseconds.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class ThrottledLogFilter implements Filter {
+
+	/**
+	 * This is the default maximum number of throttles.
+	 */
+	public final static int CAPACITY = 1024;
+
+	/**
+	 * This is the default interval between summaries in ticks (microseconds).
+	 */
+	public final static long INTERVAL = 60 * GenericCellRateAlgorithm.US_PER_S;
+
+	/**
+	 * This is the message template of a summary record.
+	 */
+	public final static String SUPPRESSED = "{0} messages suppressed: {1}";
+
+	/**
+	 * This is the message reported in the summary for the overflow throttle.
+	 */
+	public final static String OVERFLOW = "(overflow)";
+
+	/**
+	 * This is the key identifying each throttle.
+	 */
+	protected static class Key {
+		final String logger;
+		final String message;
+		Key(String logger, String message) { this.logger = logger; this.message = message; }
+		public int hashCode() { return ((logger != null) ? logger.hashCode() * 31 : 0) + ((message != null) ? message.hashCode() : 0); }
+		public boolean equals(Object that) {
+			if (!(that instanceof Key)) { return false; }
+			Key key = (Key)that;
+			return ((logger != null) ? logger.equals(key.logger) : (key.logger == null)) && ((message != null) ? message.equals(key.message) : (key.message == null));
+		}
+	}
+
+	/**
+	 * This is the state of each throttle.
+	 */
+	protected static class Entry {
+		final Key key;
+		final GeometricThrottle throttle = new GeometricThrottle();
+		long records = 0;		// records seen this interval
+		long suppressed = 0;	// records suppressed this interval
+		Level level = null;		// most severe level suppressed this interval
+		boolean evicted = false;	// no longer in the map
+		Entry(Key key) { this.key = key; }
+	}
+
+	/**
+	 * This is the background thread that emits the summaries when no record arrives
+	 * to do so.
+	 */
+	protected class Sweeper extends Thread {
+		Sweeper() { super(ThrottledLogFilter.class.getSimpleName()); setDaemon(true); }
+		public void run() {
+			while (enabled) {
+				long remaining = (swept.get() + interval) - time();
+				if (remaining > 0) {
+					LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(remaining));
+				} else {
+					expire(time());
+				}
+			}
+		}
+	}
+
+	private final int capacity;
+	private final long interval;
+	private final TickSource source;
+	private final ConcurrentHashMap<Key, Entry> entries;
+	private final Entry overflow;
+	private final AtomicLong swept;
+	private volatile boolean enabled = false;
+	private Sweeper sweeper = null;
+
+	/**
+	 * Ctor.
+	 * @param capacity is the maximum number of throttles.
+	 * @param interval is the interval between summaries in microseconds.
+	 * @param source is the Tick Source from which the time is read.
+	 */
+	public ThrottledLogFilter(int capacity, long interval, TickSource source) {
+		this.capacity = (capacity > 0) ? capacity : 1;
+		this.interval = (interval >= 0) ? interval : 0;
+		this.source = source;
+		this.entries = new ConcurrentHashMap<Key, Entry>();
+		this.overflow = new Entry(new Key(null, OVERFLOW));
+		this.swept = new AtomicLong(time());
+	}
+
+	/**
+	 * Ctor.
+	 * @param capacity is the maximum number of throttles.
+	 * @param interval is the interval between summaries in microseconds.
+	 */
+	public ThrottledLogFilter(int capacity, long interval) {
+		this(capacity, interval, GenericCellRateAlgorithm.PRECISE);
+	}
+
+	/**
+	 * Ctor. The default capacity and interval are used.
+	 */
+	public ThrottledLogFilter() {
+		this(CAPACITY, INTERVAL);
+	}
+
+	/**
+	 * Return the current time in ticks.
+	 * @return the current time in microseconds.
+	 */
+	public long time() {
+		return source.nanoTime() / GenericCellRateAlgorithm.NS_PER_US;
+	}
+
+	/**
+	 * Return the number of throttles, not counting the overflow throttle.
+	 * @return the number of throttles.
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Return true if a record is a summary emitted by this class.
+	 * @param record is the record.
+	 * @return true if the record is a summary.
+	 */
+	public static boolean isSummary(LogRecord record) {
+		return SUPPRESSED.equals(record.getMessage());
+	}
+
+	private Entry find(Key key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			if (entries.size() >= capacity) {
+				return overflow;
+			}
+			Entry fresh = new Entry(key);
+			entry = entries.putIfAbsent(key, fresh);
+			if (entry == null) { entry = fresh; }
+		}
+		return entry;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.logging.Filter#isLoggable(java.util.logging.LogRecord)
+	 */
+	public boolean isLoggable(LogRecord record) {
+		if (isSummary(record)) {
+			return true;
+		}
+		Key key = new Key(record.getLoggerName(), record.getMessage());
+		boolean loggable;
+		while (true) {
+			Entry entry = find(key);
+			synchronized (entry) {
+				if (entry.evicted) {
+					continue;
+				}
+				++entry.records;
+				entry.throttle.admissible();
+				loggable = entry.throttle.commit();
+				if (!loggable) {
+					++entry.suppressed;
+					Level level = record.getLevel();
+					if ((entry.level == null) || ((level != null) && (level.intValue() > entry.level.intValue()))) {
+						entry.level = level;
+					}
+				}
+				break;
+			}
+		}
+		expire(time());
+		return loggable;
+	}
+
+	/**
+	 * Emit the summaries if the interval has elapsed since they were last emitted.
+	 * Only one caller emits them for each interval.
+	 * @param ticks is the current time in microseconds.
+	 */
+	private void expire(long ticks) {
+		long prior = swept.get();
+		if (((ticks - prior) >= interval) && swept.compareAndSet(prior, ticks)) {
+			for (LogRecord summary : sweep()) {
+				summarize(summary);
+			}
+		}
+	}
+
+	private LogRecord sweep(Entry entry, boolean evict) {
+		LogRecord summary = null;
+		synchronized (entry) {
+			if (entry.suppressed > 0) {
+				summary = new LogRecord((entry.level != null) ? entry.level : Level.INFO, SUPPRESSED);
+				summary.setLoggerName(entry.key.logger);
+				summary.setParameters(new Object[] { entry.suppressed, entry.key.message });
+				entry.suppressed = 0;
+				entry.level = null;
+			}
+			if (entry.records > 0) {
+				entry.records = 0;
+			} else if (evict) {
+				entry.evicted = true;
+				entries.remove(entry.key, entry);
+			} else {
+				entry.throttle.reset();
+			}
+		}
+		return summary;
+	}
+
+	/**
+	 * Collect a summary record for every throttle that suppressed records since the
+	 * last sweep, and evict every throttle that saw no records since the last sweep.
+	 * This is done automatically every interval, but may also be done explicitly,
+	 * for example before a Handler is closed.
+	 * @return the summary records.
+	 */
+	public List<LogRecord> sweep() {
+		List<LogRecord> summaries = new ArrayList<LogRecord>();
+		for (Entry entry : entries.values()) {
+			LogRecord summary = sweep(entry, true);
+			if (summary != null) {
+				summaries.add(summary);
+			}
+		}
+		LogRecord summary = sweep(overflow, false);
+		if (summary != null) {
+			summaries.add(summary);
+		}
+		return summaries;
+	}
+
+	/**
+	 * Start the background thread that emits the summaries every interval even if
+	 * no record arrives. A Filter with an interval of zero sweeps on every record and
+	 * has no need of one.
+	 * @return this object.
+	 */
+	public synchronized ThrottledLogFilter start() {
+		if ((sweeper == null) && (interval > 0)) {
+			enabled = true;
+			sweeper = new Sweeper();
+			sweeper.start();
+		}
+		return this;
+	}
+
+	/**
+	 * Stop the background thread.
+	 * @return this object.
+	 * @throws InterruptedException if the calling thread is interrupted while
+	 * waiting for the background thread to exit.
+	 */
+	public synchronized ThrottledLogFilter stop() throws InterruptedException {
+		if (sweeper != null) {
+			enabled = false;
+			LockSupport.unpark(sweeper);
+			sweeper.join();
+			sweeper = null;
+		}
+		return this;
+	}
+
+	/**
+	 * Emit a summary record. By default the summary is logged to the logger named by
+	 * the record, or to the global logger for the overflow throttle.
+	 * @param summary is the summary record.
+	 */
+	protected void summarize(LogRecord summary) {
+		String name = summary.getLoggerName();
+		Logger.getLogger((name != null) ? name : Logger.GLOBAL_LOGGER_NAME).log(summary);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return ThrottledLogFilter.class.getSimpleName()
+			+ "{capacity=" + capacity
+			+ ",interval=" + interval
+			+ ",size=" + entries.size()
+			+ ",swept=" + swept.get()
+			+ ",enabled=" + enabled
+			+ "}";
+	}
+
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
+import com.diag.buckaroo.throttle.ThrottledLogFilter;
+import com.diag.buckaroo.throttle.TickSource;
+
+/**
+ * This class implements a java.util.logging Handler that throttles the records
+ * published to another Handler using a Throttled Log Filter. It is an alternative to
+ * installing the Throttled Log Filter on each Logger: wrapping, for example, the
+ * console Handler of the root logger throttles every logger in the JVM in one place.
+ * Suppressed records are dropped before they reach the wrapped Handler and so are
+ * never formatted. Summary records are published directly to the wrapped Handler,
+ * every interval as well as whenever this Handler is flushed or closed. Once this
+ * Handler is started, the background thread of its Throttled Log Filter publishes
+ * them every interval even if no record arrives; closing the Handler stops it. The
+ * level and filter of this Handler, if any, are applied before the throttle.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class ThrottledLogHandler extends Handler {
+
+	private final Handler handler;
+	private final ThrottledLogFilter throttle;
+
+	/**
+	 * Ctor.
+	 * @param handler is the Handler to which records are published.
+	 * @param capacity is the maximum number of throttles.
+	 * @param interval is the interval between summaries in microseconds.
+	 * @param source is the Tick Source from which the time is read.
+	 */
+	public ThrottledLogHandler(Handler handler, int capacity, long interval, TickSource source) {
+		this.handler = handler;
+		this.throttle = new ThrottledLogFilter(capacity, interval, source) {
+			protected void summarize(LogRecord summary) {
+				ThrottledLogHandler.this.handler.publish(summary);
+			}
+		};
+	}
+
+	/**
+	 * Ctor.
+	 * @param handler is the Handler to which records are published.
+	 * @param capacity is the maximum number of throttles.
+	 * @param interval is the interval between summaries in microseconds.
+	 */
+	public ThrottledLogHandler(Handler handler, int capacity, long interval) {
+		this(handler, capacity, interval, GenericCellRateAlgorithm.PRECISE);
+	}
+
+	/**
+	 * Ctor. The default capacity and interval are used.
+	 * @param handler is the Handler to which records are published.
+	 */
+	public ThrottledLogHandler(Handler handler) {
+		this(handler, ThrottledLogFilter.CAPACITY, ThrottledLogFilter.INTERVAL);
+	}
+
+	/**
+	 * Return the Handler to which records are published.
+	 * @return the wrapped Handler.
+	 */
+	public Handler getHandler() {
+		return handler;
+	}
+
+	/**
+	 * Return the Throttled Log Filter used by this Handler.
+	 * @return the Throttled Log Filter.
+	 */
+	public ThrottledLogFilter getThrottle() {
+		return throttle;
+	}
+
+	/**
+	 * Start the background thread that publishes the summary records every interval
+	 * even if no record arrives.
+	 * @return this object.
+	 */
+	public ThrottledLogHandler start() {
+		throttle.start();
+		return this;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.logging.Handler#publish(java.util.logging.LogRecord)
+	 */
+	public void publish(LogRecord record) {
+		if (isLoggable(record) && throttle.isLoggable(record)) {
+			handler.publish(record);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.logging.Handler#flush()
+	 */
+	public void flush() {
+		for (LogRecord summary : throttle.sweep()) {
+			handler.publish(summary);
+		}
+		handler.flush();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.logging.Handler#close()
+	 */
+	public void close() {
+		try {
+			throttle.stop();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+		handler.close();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return ThrottledLogHandler.class.getSimpleName()
+			+ "{handler=" + handler
+			+ ",throttle=" + throttle
+			+ "}";
+	}
+
+}
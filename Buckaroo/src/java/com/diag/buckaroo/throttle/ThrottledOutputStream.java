@@ -0,0 +1,138 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+import com.diag.buckaroo.throttle.Acquirer;
+import com.diag.buckaroo.throttle.Throttle;
+
+/**
+ * This class implements an OutputStream that shapes the octets written to an
+ * underlying OutputStream using a Throttle, typically a Bandwidth Throttle. Writes
+ * are split into chunks of no more than a maximum size, and each chunk is acquired
+ * from the Throttle before it is written. For an Extended Throttle each chunk is
+ * committed as a count of octets; for any other Throttle each octet is an event.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class ThrottledOutputStream extends FilterOutputStream {
+
+	/**
+	 * This is the default maximum chunk size in octets.
+	 */
+	public final static int CHUNK = 8192;
+
+	private final Acquirer acquirer;
+	private final int chunk;
+
+	/**
+	 * Ctor.
+	 * @param out is the underlying OutputStream.
+	 * @param acquirer is the Acquirer of the Throttle.
+	 * @param chunk is the maximum chunk size in octets.
+	 */
+	public ThrottledOutputStream(OutputStream out, Acquirer acquirer, int chunk) {
+		super(out);
+		this.acquirer = acquirer;
+		this.chunk = (chunk > 0) ? chunk : 1;
+	}
+
+	/**
+	 * Ctor.
+	 * @param out is the underlying OutputStream.
+	 * @param throttle is the Throttle.
+	 * @param chunk is the maximum chunk size in octets.
+	 */
+	public ThrottledOutputStream(OutputStream out, Throttle throttle, int chunk) {
+		this(out, new Acquirer(throttle), chunk);
+	}
+
+	/**
+	 * Ctor. The default maximum chunk size is used.
+	 * @param out is the underlying OutputStream.
+	 * @param throttle is the Throttle.
+	 */
+	public ThrottledOutputStream(OutputStream out, Throttle throttle) {
+		this(out, throttle, CHUNK);
+	}
+
+	/**
+	 * Acquire a count of octets from the Throttle.
+	 * @param count is the number of octets.
+	 * @throws InterruptedIOException if the calling thread is interrupted.
+	 */
+	private void acquire(int count) throws InterruptedIOException {
+		try {
+			acquirer.acquire(count);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(exception.toString());
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.FilterOutputStream#write(int)
+	 */
+	public void write(int b) throws IOException {
+		acquire(1);
+		out.write(b);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.FilterOutputStream#write(byte[], int, int)
+	 */
+	public void write(byte[] b, int off, int len) throws IOException {
+		if ((off < 0) || (len < 0) || (len > (b.length - off))) {
+			throw new IndexOutOfBoundsException();
+		}
+		while (len > 0) {
+			int count = (len < chunk) ? len : chunk;
+			acquire(count);
+			out.write(b, off, count);
+			off += count;
+			len -= count;
+		}
+	}
+
+	/**
+	 * Return the Acquirer of the Throttle.
+	 * @return the Acquirer.
+	 */
+	public Acquirer getAcquirer() {
+		return acquirer;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return ThrottledOutputStream.class.getSimpleName()
+			+ "{chunk=" + chunk
+			+ ",acquirer=" + acquirer
+			+ "}";
+	}
+
+}
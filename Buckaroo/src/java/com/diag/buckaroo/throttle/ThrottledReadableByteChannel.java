@@ -0,0 +1,204 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+import com.diag.buckaroo.throttle.Acquirer;
+import com.diag.buckaroo.throttle.Throttle;
+
+/**
+ * This class implements a ReadableByteChannel that shapes the octets read from an
+ * underlying channel using a Throttle, typically a Bandwidth Throttle. Each read
+ * waits until the Throttle is admissible, reads no more than a maximum chunk size,
+ * and then commits the number of octets actually read; the next read waits out any
+ * resulting delay. The delay is waited out in the calling thread even if the
+ * underlying channel is non-blocking. Copies into a file can be shaped without
+ * giving up the zero-copy path by calling transferTo, which hands each chunk to
+ * FileChannel.transferFrom with the underlying channel as its source. For an
+ * Extended Throttle each chunk is committed as a count of octets; for any other
+ * Throttle each octet is an event.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public class ThrottledReadableByteChannel implements ReadableByteChannel {
+
+	/**
+	 * This is the default maximum chunk size in octets.
+	 */
+	public final static int CHUNK = 65536;
+
+	private final ReadableByteChannel channel;
+	private final Acquirer acquirer;
+	private final int chunk;
+
+	/**
+	 * Ctor.
+	 * @param channel is the underlying channel.
+	 * @param acquirer is the Acquirer of the Throttle.
+	 * @param chunk is the maximum chunk size in octets.
+	 */
+	public ThrottledReadableByteChannel(ReadableByteChannel channel, Acquirer acquirer, int chunk) {
+		this.channel = channel;
+		this.acquirer = acquirer;
+		this.chunk = (chunk > 0) ? chunk : 1;
+	}
+
+	/**
+	 * Ctor.
+	 * @param channel is the underlying channel.
+	 * @param throttle is the Throttle.
+	 * @param chunk is the maximum chunk size in octets.
+	 */
+	public ThrottledReadableByteChannel(ReadableByteChannel channel, Throttle throttle, int chunk) {
+		this(channel, new Acquirer(throttle), chunk);
+	}
+
+	/**
+	 * Ctor. The default maximum chunk size is used.
+	 * @param channel is the underlying channel.
+	 * @param throttle is the Throttle.
+	 */
+	public ThrottledReadableByteChannel(ReadableByteChannel channel, Throttle throttle) {
+		this(channel, throttle, CHUNK);
+	}
+
+	/**
+	 * Wait until the Throttle is admissible.
+	 * @throws InterruptedIOException if the calling thread is interrupted.
+	 */
+	private void await() throws InterruptedIOException {
+		try {
+			acquirer.await();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(exception.toString());
+		}
+	}
+
+	/**
+	 * Commit a count of octets to the Throttle.
+	 * @param count is the number of octets.
+	 * @throws InterruptedIOException if the calling thread is interrupted.
+	 */
+	private void acquire(long count) throws InterruptedIOException {
+		try {
+			acquirer.acquire((int)count);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(exception.toString());
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.nio.channels.ReadableByteChannel#read(java.nio.ByteBuffer)
+	 */
+	public int read(ByteBuffer dst) throws IOException {
+		if (!dst.hasRemaining()) {
+			return channel.read(dst);
+		}
+		int limit = dst.limit();
+		if (dst.remaining() > chunk) {
+			dst.limit(dst.position() + chunk);
+		}
+		int count;
+		await();
+		try {
+			count = channel.read(dst);
+		} finally {
+			dst.limit(limit);
+		}
+		if (count > 0) {
+			acquire(count);
+		}
+		return count;
+	}
+
+	/**
+	 * Read from this channel into a region of a file using FileChannel.transferFrom
+	 * in chunks, each of which is read directly from the underlying channel.
+	 * @param file is the file channel.
+	 * @param position is the position in the file at which to start.
+	 * @param count is the maximum number of octets to transfer.
+	 * @return the number of octets transferred.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public long transferTo(FileChannel file, long position, long count) throws IOException {
+		long total = 0;
+		while (total < count) {
+			long remaining = count - total;
+			await();
+			long transferred = file.transferFrom(channel, position + total, (remaining < chunk) ? remaining : chunk);
+			if (transferred <= 0) {
+				break;
+			}
+			acquire(transferred);
+			total += transferred;
+		}
+		return total;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.nio.channels.Channel#isOpen()
+	 */
+	public boolean isOpen() {
+		return channel.isOpen();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.nio.channels.Channel#close()
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Return the underlying channel.
+	 * @return the underlying channel.
+	 */
+	public ReadableByteChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Return the Acquirer of the Throttle.
+	 * @return the Acquirer.
+	 */
+	public Acquirer getAcquirer() {
+		return acquirer;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return ThrottledReadableByteChannel.class.getSimpleName()
+			+ "{chunk=" + chunk
+			+ ",acquirer=" + acquirer
+			+ "}";
+	}
+
+}
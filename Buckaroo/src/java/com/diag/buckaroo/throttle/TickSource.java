@@ -0,0 +1,42 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+/**
+ * Defines the interface to the clock from which a time-based Throttle reads the
+ * current time. The clock counts nanoseconds relative to some arbitrary but fixed
+ * epoch, like System.nanoTime, and each Throttle converts that into ticks of its
+ * own frequency. Choosing the clock when the Throttle is constructed lets the
+ * application trade the precision of the time against the cost of reading it.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public interface TickSource {
+
+	/**
+	 * Return the current time in nanoseconds relative to the epoch of this clock.
+	 * Successive values never decrease, but may not change on every call.
+	 * @return the current time in nanoseconds.
+	 */
+	public long nanoTime();
+
+}
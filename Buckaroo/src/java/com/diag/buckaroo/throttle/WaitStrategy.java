@@ -0,0 +1,138 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class defines the interface to a strategy for waiting out the delay returned
+ * by a Throttle, and keeps statistics about how accurately the strategy met the
+ * requested delays. Different strategies trade off CPU consumption against the
+ * precision of the wait: sleeping costs the least CPU but may overshoot by as much as
+ * a scheduler quantum, while busy spinning costs an entire core but overshoots by
+ * very little. The overshoot is the actual duration of a wait minus its requested
+ * duration. A strategy may be shared by many threads.
+ *
+ * @author <A HREF="mailto:coverclock@diag.com">Chip Overclock</A>
+ *
+ * @version $Revision$
+ */
+public abstract class WaitStrategy {
+
+	private final AtomicLong waits = new AtomicLong(0);
+	private final AtomicLong requested = new AtomicLong(0);
+	private final AtomicLong overshoot = new AtomicLong(0);
+	private final AtomicLong maximum = new AtomicLong(Long.MIN_VALUE);
+
+	/**
+	 * Wait until the specified deadline as measured by System.nanoTime.
+	 * @param deadline is the value of System.nanoTime at which to return.
+	 * @throws InterruptedException if the calling thread is interrupted.
+	 */
+	protected abstract void pause(long deadline) throws InterruptedException;
+
+	/**
+	 * Wait for at least the specified number of nanoseconds, as closely as this
+	 * strategy allows, and record how accurate the wait was.
+	 * @param nanoseconds is the requested duration of the wait.
+	 * @throws InterruptedException if the calling thread is interrupted.
+	 */
+	public final void await(long nanoseconds) throws InterruptedException {
+		if (nanoseconds <= 0) {
+			return;
+		}
+		long start = System.nanoTime();
+		pause(start + nanoseconds);
+		long error = (System.nanoTime() - start) - nanoseconds;
+		waits.incrementAndGet();
+		requested.addAndGet(nanoseconds);
+		overshoot.addAndGet(error);
+		long prior;
+		do {
+			prior = maximum.get();
+		} while ((error > prior) && !maximum.compareAndSet(prior, error));
+	}
+
+	/**
+	 * Return the number of waits recorded.
+	 * @return the number of waits recorded.
+	 */
+	public long getWaits() {
+		return waits.get();
+	}
+
+	/**
+	 * Return the total requested duration of the waits recorded.
+	 * @return the total requested duration in nanoseconds.
+	 */
+	public long getRequestedNanoseconds() {
+		return requested.get();
+	}
+
+	/**
+	 * Return the total overshoot of the waits recorded.
+	 * @return the total overshoot in nanoseconds.
+	 */
+	public long getOvershootNanoseconds() {
+		return overshoot.get();
+	}
+
+	/**
+	 * Return the mean overshoot of the waits recorded.
+	 * @return the mean overshoot in nanoseconds, or zero if there were no waits.
+	 */
+	public long getMeanOvershootNanoseconds() {
+		long count = waits.get();
+		return (count > 0) ? overshoot.get() / count : 0;
+	}
+
+	/**
+	 * Return the largest overshoot of the waits recorded.
+	 * @return the largest overshoot in nanoseconds, or zero if there were no waits.
+	 */
+	public long getMaximumOvershootNanoseconds() {
+		long value = maximum.get();
+		return (value != Long.MIN_VALUE) ? value : 0;
+	}
+
+	/**
+	 * Clear the statistics.
+	 */
+	public void resetStatistics() {
+		waits.set(0);
+		requested.set(0);
+		overshoot.set(0);
+		maximum.set(Long.MIN_VALUE);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return getClass().getSimpleName()
+			+ "{waits=" + getWaits()
+			+ ",requested=" + getRequestedNanoseconds()
+			+ ",overshoot=" + getOvershootNanoseconds()
+			+ ",mean=" + getMeanOvershootNanoseconds()
+			+ ",maximum=" + getMaximumOvershootNanoseconds()
+			+ "}";
+	}
+
+}
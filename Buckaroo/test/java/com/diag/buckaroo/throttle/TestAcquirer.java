@@ -0,0 +1,149 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.Acquirer;
+import com.diag.buckaroo.throttle.BandwidthThrottle;
+import com.diag.buckaroo.throttle.BusySpinWaitStrategy;
+import com.diag.buckaroo.throttle.CellRateThrottle;
+import com.diag.buckaroo.throttle.GeometricThrottle;
+import com.diag.buckaroo.throttle.ParkWaitStrategy;
+import com.diag.buckaroo.throttle.SleepWaitStrategy;
+import com.diag.buckaroo.throttle.SpinYieldParkWaitStrategy;
+import com.diag.buckaroo.throttle.WaitStrategy;
+
+public class TestAcquirer extends TestCase {
+
+	public void test00Conversions() {
+		assertEquals(Acquirer.ticks2ns(0, 1000000), 0L);
+		assertEquals(Acquirer.ticks2ns(-1, 1000000), 0L);
+		assertEquals(Acquirer.ticks2ns(1, 0), Acquirer.MAXIMUM_NANOSECONDS);
+		assertEquals(Acquirer.ticks2ns(1, 1000000), 1000L);
+		assertEquals(Acquirer.ticks2ns(1, 1000000000), 1L);
+		assertEquals(Acquirer.ticks2ns(1, 1000), 1000000L);
+		assertEquals(Acquirer.ticks2ns(1, 3), 333333334L);
+		assertEquals(Acquirer.ticks2ns(4, 3), 1333333334L);
+		assertEquals(Acquirer.ticks2ns(Long.MAX_VALUE, 1000000), Acquirer.MAXIMUM_NANOSECONDS);
+		assertEquals(Acquirer.ticks2ns(Long.MAX_VALUE, 3), Acquirer.MAXIMUM_NANOSECONDS);
+	}
+
+	void pace(WaitStrategy strategy) throws InterruptedException {
+		int pcr = 1000;
+		int events = 200;
+		Acquirer acquirer = new Acquirer(new CellRateThrottle(pcr), strategy);
+		long then = System.nanoTime();
+		for (int ii = 0; ii < events; ++ii) {
+			acquirer.acquire();
+		}
+		long elapsed = System.nanoTime() - then;
+		System.out.println("elapsed=" + elapsed + "ns acquirer=" + acquirer);
+		assertTrue(elapsed >= ((events - 1) * 1000000L));
+		assertTrue(strategy.getWaits() > 0);
+		assertTrue(strategy.getRequestedNanoseconds() > 0);
+		assertTrue(strategy.getMaximumOvershootNanoseconds() >= strategy.getMeanOvershootNanoseconds());
+		strategy.resetStatistics();
+		assertEquals(strategy.getWaits(), 0);
+		assertEquals(strategy.getMaximumOvershootNanoseconds(), 0);
+	}
+
+	public void test01Sleep() throws InterruptedException {
+		pace(new SleepWaitStrategy());
+	}
+
+	public void test02Park() throws InterruptedException {
+		pace(new ParkWaitStrategy());
+	}
+
+	public void test03SpinYieldPark() throws InterruptedException {
+		pace(new SpinYieldParkWaitStrategy());
+	}
+
+	public void test04BusySpin() throws InterruptedException {
+		pace(new BusySpinWaitStrategy());
+	}
+
+	public void test05Extended() throws InterruptedException {
+		int pbr = 1000000;
+		Acquirer acquirer = new Acquirer(new BandwidthThrottle(pbr));
+		long then = System.nanoTime();
+		for (int ii = 0; ii < 11; ++ii) {
+			acquirer.acquire(10000);
+		}
+		long elapsed = System.nanoTime() - then;
+		System.out.println("elapsed=" + elapsed + "ns acquirer=" + acquirer);
+		assertTrue(elapsed >= 100000000L);
+	}
+
+	public void test06TryAcquire() throws InterruptedException {
+		Acquirer acquirer = new Acquirer(new CellRateThrottle(10));
+		assertTrue(acquirer.tryAcquire(0, TimeUnit.MILLISECONDS));
+		assertFalse(acquirer.tryAcquire(10, TimeUnit.MILLISECONDS));
+		assertTrue(acquirer.tryAcquire(1, TimeUnit.SECONDS));
+		assertFalse(acquirer.tryAcquire(2, 150, TimeUnit.MILLISECONDS));
+		acquirer.await();
+		assertTrue(acquirer.tryAcquire(0, TimeUnit.MILLISECONDS));
+	}
+
+	public void test07Geometric() throws InterruptedException {
+		Acquirer acquirer = new Acquirer(new GeometricThrottle());
+		assertTrue(acquirer.tryAcquire(1, TimeUnit.SECONDS));
+		assertTrue(acquirer.tryAcquire(1, TimeUnit.SECONDS));
+		assertFalse(acquirer.tryAcquire(1, TimeUnit.SECONDS));
+	}
+
+	public void test08Interrupted() {
+		Acquirer acquirer = new Acquirer(new CellRateThrottle(1));
+		try {
+			acquirer.acquire();
+			Thread.currentThread().interrupt();
+			acquirer.acquire();
+			fail();
+		} catch (InterruptedException expected) {
+			assertFalse(Thread.currentThread().isInterrupted());
+		}
+	}
+
+	public void test09GeometricTimeout() throws InterruptedException {
+		final GeometricThrottle throttle = new GeometricThrottle();
+		Acquirer acquirer = new Acquirer(throttle);
+		assertTrue(acquirer.tryAcquire(0, TimeUnit.MILLISECONDS));
+		assertTrue(acquirer.tryAcquire(0, TimeUnit.MILLISECONDS));
+		Thread resetter = new Thread() {
+			public void run() {
+				try { Thread.sleep(100); } catch (InterruptedException ignore) { }
+				synchronized (throttle) {
+					throttle.reset();
+				}
+			}
+		};
+		long then = System.nanoTime();
+		resetter.start();
+		assertTrue(acquirer.tryAcquire(5, TimeUnit.SECONDS));
+		long elapsed = System.nanoTime() - then;
+		resetter.join();
+		System.out.println("elapsed=" + elapsed + "ns acquirer=" + acquirer);
+		assertTrue(elapsed >= 90000000L);
+		assertTrue(elapsed < 5000000000L);
+	}
+
+}
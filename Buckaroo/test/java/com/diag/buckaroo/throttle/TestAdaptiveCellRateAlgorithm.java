@@ -0,0 +1,132 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.AdaptiveCellRateAlgorithm;
+import com.diag.buckaroo.throttle.AdaptiveRate;
+import com.diag.buckaroo.throttle.TickSource;
+
+public class TestAdaptiveCellRateAlgorithm extends TestCase {
+
+	static class ManualTickSource implements TickSource {
+		long now = 0;
+		public long nanoTime() { return now; }
+	}
+
+	public void test00Construction() {
+		AdaptiveCellRateAlgorithm gcra = new AdaptiveCellRateAlgorithm(1000, 100, 10000);
+		System.out.println("gcra=" + gcra);
+		assertEquals(gcra.getRate(), 1000.0);
+		assertEquals(gcra.getIncrement(), 1000);
+		assertEquals(gcra.getMinimumRate(), 100.0);
+		assertEquals(gcra.getMaximumRate(), 10000.0);
+		assertEquals(new AdaptiveCellRateAlgorithm(1, 100, 10000).getIncrement(), 10000);
+		assertEquals(new AdaptiveCellRateAlgorithm(1000000, 100, 10000).getIncrement(), 100);
+		assertEquals(AdaptiveCellRateAlgorithm.increment(0), AdaptiveCellRateAlgorithm.MAXIMUM_TICKS);
+		assertEquals(AdaptiveCellRateAlgorithm.increment(3000000), 1);
+	}
+
+	public void test01Increase() {
+		ManualTickSource source = new ManualTickSource();
+		AdaptiveCellRateAlgorithm gcra = new AdaptiveCellRateAlgorithm(1000, 100, 2000, 0, 100, 0.5, 0, 0, source);
+		for (int ii = 0; ii < 1000; ++ii) {
+			gcra.success();
+		}
+		assertTrue(gcra.getRate() > 1090);
+		assertTrue(gcra.getRate() < 1100);
+		assertEquals(gcra.getIncreases(), 1000);
+		for (int ii = 0; ii < 100000; ++ii) {
+			gcra.success();
+		}
+		assertEquals(gcra.getRate(), 2000.0);
+		assertEquals(gcra.getIncrement(), 500);
+	}
+
+	public void test02Decrease() {
+		ManualTickSource source = new ManualTickSource();
+		AdaptiveCellRateAlgorithm gcra = new AdaptiveCellRateAlgorithm(1000, 100, 2000, 0, 100, 0.5, 5000, 100000, source);
+		gcra.failure();
+		assertEquals(gcra.getRate(), 500.0);
+		assertEquals(gcra.getIncrement(), 2000);
+		gcra.failure();
+		assertEquals(gcra.getRate(), 500.0);
+		source.now += 100000000L;
+		gcra.success(5000);
+		assertEquals(gcra.getRate(), 500.2);
+		gcra.success(5001);
+		assertEquals(gcra.getRate(), 250.1);
+		assertEquals(gcra.getDecreases(), 2);
+		for (int ii = 0; ii < 10; ++ii) {
+			source.now += 100000000L;
+			gcra.failure();
+		}
+		assertEquals(gcra.getRate(), 100.0);
+		assertEquals(gcra.getIncrement(), 10000);
+		assertEquals(gcra.getDecreases(), 4);
+	}
+
+	public void test03Smooth() {
+		ManualTickSource source = new ManualTickSource();
+		AdaptiveCellRateAlgorithm gcra = new AdaptiveCellRateAlgorithm(1000, 100, 2000, 0, 100, 0.5, 0, 0, source);
+		gcra.reset();
+		assertEquals(gcra.admissible(), 0);
+		assertTrue(gcra.commit());
+		assertEquals(gcra.admissible(), 1000);
+		gcra.rollback();
+		source.now += 500000;
+		assertEquals(gcra.admissible(), 500);
+		gcra.rollback();
+		gcra.failure();
+		assertEquals(gcra.admissible(), 1000);
+		gcra.rollback();
+		source.now += 999000;
+		assertEquals(gcra.admissible(), 1);
+		gcra.rollback();
+		source.now += 1000;
+		assertEquals(gcra.admissible(), 0);
+		assertTrue(gcra.commit());
+		assertEquals(gcra.admissible(), 2000);
+		gcra.rollback();
+	}
+
+	public void test04MBean() throws Exception {
+		AdaptiveCellRateAlgorithm gcra = new AdaptiveCellRateAlgorithm(1000, 100, 10000);
+		AdaptiveRate mbean = new AdaptiveRate(gcra);
+		assertSame(mbean.get(), gcra);
+		mbean.setMBeanName("test04MBean");
+		assertTrue(mbean.start());
+		try {
+			MBeanServer server = mbean.getMBeanServer();
+			ObjectName name = mbean.getMBeanName();
+			assertEquals(server.getAttribute(name, "Rate"), Double.valueOf(1000.0));
+			gcra.failure();
+			assertEquals(server.getAttribute(name, "Rate"), Double.valueOf(500.0));
+			assertEquals(server.getAttribute(name, "Increment"), Long.valueOf(2000));
+			assertEquals(server.getAttribute(name, "Decreases"), Long.valueOf(1));
+		} finally {
+			mbean.stop();
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.AdmissionScheduler;
+import com.diag.buckaroo.throttle.BandwidthThrottle;
+import com.diag.buckaroo.throttle.CellRateThrottle;
+import com.diag.buckaroo.throttle.GeometricThrottle;
+import com.diag.buckaroo.throttle.Throttle;
+
+public class TestAdmissionScheduler extends TestCase {
+
+	public void test00Immediate() throws Exception {
+		AdmissionScheduler scheduler = new AdmissionScheduler();
+		Throttle throttle = new CellRateThrottle(1000);
+		CompletableFuture<Long> future = scheduler.admit(throttle);
+		assertTrue(future.isDone());
+		assertTrue(future.get() >= 0);
+		future = scheduler.admit(throttle);
+		assertFalse(future.isDone());
+		assertEquals(scheduler.size(), 1);
+		scheduler.start();
+		assertTrue(future.get(1, TimeUnit.SECONDS) > 0);
+		assertEquals(scheduler.size(), 0);
+		scheduler.stop();
+	}
+
+	public void test01Pacing() throws Exception {
+		AdmissionScheduler scheduler = new AdmissionScheduler().start();
+		Throttle throttle = new CellRateThrottle(1000);
+		final List<Integer> order = new ArrayList<Integer>();
+		List<CompletableFuture<Long>> futures = new ArrayList<CompletableFuture<Long>>();
+		long then = System.nanoTime();
+		for (int ii = 0; ii < 100; ++ii) {
+			final int index = ii;
+			CompletableFuture<Long> future = scheduler.admit(throttle);
+			future.thenRun(new Runnable() { public void run() { synchronized (order) { order.add(index); } } });
+			futures.add(future);
+		}
+		for (CompletableFuture<Long> future : futures) {
+			future.get(5, TimeUnit.SECONDS);
+		}
+		long elapsed = System.nanoTime() - then;
+		System.out.println("elapsed=" + elapsed + "ns scheduler=" + scheduler);
+		assertTrue(elapsed >= 99000000L);
+		synchronized (order) {
+			assertEquals(order.size(), 100);
+			for (int ii = 0; ii < 100; ++ii) {
+				assertEquals(order.get(ii).intValue(), ii);
+			}
+		}
+		scheduler.stop();
+	}
+
+	public void test02Many() throws Exception {
+		AdmissionScheduler scheduler = new AdmissionScheduler().start();
+		final AtomicInteger admitted = new AtomicInteger(0);
+		List<CompletableFuture<Long>> futures = new ArrayList<CompletableFuture<Long>>();
+		for (int ii = 0; ii < 1000; ++ii) {
+			Throttle throttle = new CellRateThrottle(10);
+			for (int jj = 0; jj < 3; ++jj) {
+				CompletableFuture<Long> future = scheduler.admit(throttle);
+				future.thenRun(new Runnable() { public void run() { admitted.incrementAndGet(); } });
+				futures.add(future);
+			}
+		}
+		assertTrue(scheduler.size() >= 1000);
+		for (CompletableFuture<Long> future : futures) {
+			future.get(5, TimeUnit.SECONDS);
+		}
+		assertEquals(admitted.get(), 3000);
+		assertEquals(scheduler.size(), 0);
+		scheduler.stop();
+	}
+
+	public void test03Extended() throws Exception {
+		AdmissionScheduler scheduler = new AdmissionScheduler().start();
+		Throttle throttle = new BandwidthThrottle(1000000);
+		List<CompletableFuture<Long>> futures = new ArrayList<CompletableFuture<Long>>();
+		long then = System.nanoTime();
+		for (int ii = 0; ii < 11; ++ii) {
+			futures.add(scheduler.admit(throttle, 10000));
+		}
+		for (CompletableFuture<Long> future : futures) {
+			future.get(5, TimeUnit.SECONDS);
+		}
+		long elapsed = System.nanoTime() - then;
+		assertTrue(elapsed >= 100000000L);
+		scheduler.stop();
+	}
+
+	public void test04Cancel() throws Exception {
+		AdmissionScheduler scheduler = new AdmissionScheduler().start();
+		Throttle throttle = new CellRateThrottle(10);
+		CompletableFuture<Long> future1 = scheduler.admit(throttle);
+		CompletableFuture<Long> future2 = scheduler.admit(throttle);
+		CompletableFuture<Long> future3 = scheduler.admit(throttle);
+		assertTrue(future1.isDone());
+		assertTrue(future2.cancel(false));
+		assertTrue(future3.get(1, TimeUnit.SECONDS) < 200000000L);
+		CompletableFuture<Long> future4 = scheduler.admit(throttle);
+		CompletableFuture<Long> future5 = scheduler.admit(new GeometricThrottle());
+		assertTrue(future5.isDone());
+		scheduler.stop();
+		assertTrue(future4.isCancelled());
+		assertEquals(scheduler.size(), 0);
+	}
+
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.lang.Long;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.AtomicCellRateAlgorithm;
+import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
+import com.diag.buckaroo.throttle.Throttle;
+
+public class TestAtomicCellRateAlgorithm extends TestCase {
+
+	void validateInitialState(Throttle acra) {
+		long ticks = 0;
+		assertNotNull(acra);
+		acra.reset(ticks);
+		assertTrue(acra.isValid());
+		assertNotNull(acra.toString());
+		assertEquals(acra.admissible(ticks), 0);
+		assertFalse(acra.isAlarmed());
+		assertTrue(acra.rollback());
+		assertFalse(acra.isAlarmed());
+		assertEquals(acra.admissible(ticks), 0);
+		assertFalse(acra.isAlarmed());
+		acra.reset(ticks);
+		assertFalse(acra.isAlarmed());
+		assertEquals(acra.admissible(ticks), 0);
+		assertTrue(acra.commit());
+		assertFalse(acra.isAlarmed());
+	}
+
+	public void test00Construction() {
+
+		long[] values = new long[] {
+				Long.MIN_VALUE,
+				-1L,
+				0L,
+				1L,
+				1000L,
+				1000000L,
+				1000000000000L,
+				1000000000000000000L,
+				Long.MAX_VALUE
+			};
+
+		Throttle acra = new AtomicCellRateAlgorithm();
+		System.out.println("acra=" + acra);
+		validateInitialState(acra);
+		for (long increment : values) {
+			acra = new AtomicCellRateAlgorithm(increment);
+			validateInitialState(acra);
+			for (long limit : values)
+			{
+				acra = new AtomicCellRateAlgorithm(increment, limit);
+				System.out.println("i=" + increment + " l=" + limit + " acra=" + acra);
+				validateInitialState(acra);
+			}
+		}
+
+	}
+
+	public void test01Time() {
+		Throttle acra = new AtomicCellRateAlgorithm();
+		assertEquals(acra.frequency(), new GenericCellRateAlgorithm().frequency());
+		long then = acra.time();
+		for (int ii = 0; ii < 100; ++ii) {
+			try { Thread.sleep(1); } catch (Exception ignore) { }
+			long now = acra.time();
+			assertTrue(now > then);
+			then = now;
+		}
+	}
+
+	public void test02TryAcquire() {
+		AtomicCellRateAlgorithm acra = new AtomicCellRateAlgorithm(1000, 250);
+		long now = 0;
+		acra.reset(now);
+		assertEquals(acra.tryAcquire(now), 0);
+		assertEquals(acra.tryAcquire(now), 750);
+		assertFalse(acra.isAlarmed());
+		now += 900;
+		assertEquals(acra.tryAcquire(now), 0);
+		now += 900;
+		assertEquals(acra.tryAcquire(now), 0);
+		now += 900;
+		assertEquals(acra.tryAcquire(now), 50);
+		now += 50;
+		assertEquals(acra.tryAcquire(now), 0);
+		assertEquals(acra.tryAcquire(now), 1000);
+		assertEquals(acra.admissible(now), 1000);
+		assertFalse(acra.commit());
+		assertTrue(acra.isAlarmed());
+		now += 3000;
+		assertEquals(acra.tryAcquire(now), 0);
+		assertFalse(acra.isAlarmed());
+	}
+
+	public void test03Equivalence() {
+		long[][] contracts = new long[][] {
+			{ 1, 0 },
+			{ 1000, 0 },
+			{ 1000, 250 },
+			{ 1000, 10000 },
+			{ 100000, 2500000 },
+		};
+		Random random = new Random(0x5eed);
+		for (long[] contract : contracts) {
+			GenericCellRateAlgorithm gcra = new GenericCellRateAlgorithm(contract[0], contract[1]);
+			AtomicCellRateAlgorithm acra = new AtomicCellRateAlgorithm(contract[0], contract[1]);
+			long now = random.nextInt(1000000);
+			gcra.reset(now);
+			acra.reset(now);
+			for (int ii = 0; ii < 100000; ++ii) {
+				now += random.nextInt((int)contract[0] * 2 + 1);
+				long expected = gcra.admissible(now);
+				assertEquals(acra.admissible(now), expected);
+				if (random.nextInt(4) != 0) {
+					assertEquals(acra.commit(), gcra.commit());
+				} else {
+					assertEquals(acra.rollback(), gcra.rollback());
+				}
+				assertEquals(acra.isAlarmed(), gcra.isAlarmed());
+				assertEquals(acra.isApproximate(), gcra.isApproximate());
+			}
+		}
+	}
+
+	public void test04Concurrency() throws Exception {
+		final long increment = 1000;
+		final long limit = 250000;
+		final long ticks = 0;
+		final AtomicCellRateAlgorithm acra = new AtomicCellRateAlgorithm(increment, limit);
+		acra.reset(ticks);
+		final AtomicInteger admitted = new AtomicInteger(0);
+		Thread[] threads = new Thread[8];
+		for (int ii = 0; ii < threads.length; ++ii) {
+			threads[ii] = new Thread() {
+				public void run() {
+					for (int jj = 0; jj < 1000; ++jj) {
+						if (acra.tryAcquire(ticks) == 0) {
+							admitted.incrementAndGet();
+						}
+					}
+				}
+			};
+		}
+		for (Thread thread : threads) { thread.start(); }
+		for (Thread thread : threads) { thread.join(); }
+		System.out.println("admitted=" + admitted.get() + " acra=" + acra);
+		assertEquals(admitted.get(), (limit / increment) + 1);
+		assertFalse(acra.isAlarmed());
+	}
+
+}
@@ -247,5 +247,33 @@ public class TestBandwidthThrottle extends TestCase {
 			then = now;
 		}
 	}
+	
+	public void test11Reconfigure() {
+		BandwidthThrottle bt = new BandwidthThrottle(1000, 0);
+		final long increment = BandwidthThrottle.increment(1000, 0);
+		assertEquals(BandwidthThrottle.increment(500, 0), 2 * increment);
+		bt.reset(0);
+		assertEquals(bt.admissible(0), 0);
+		assertTrue(bt.commit(1));
+		assertEquals(bt.admissible(increment / 2), increment / 2);
+		bt.rollback();
+		bt.reconfigure(increment / 2, 500, 0);
+		assertEquals(bt.getPeakByteRate(), 500);
+		assertEquals(bt.admissible(increment / 2), increment);
+		bt.rollback();
+		assertEquals(bt.admissible(increment + (increment / 2)), 0);
+		assertTrue(bt.commit(1));
+		bt.reconfigure(10 * increment, 1000, 0);
+		assertEquals(bt.admissible(10 * increment), 0);
+		assertFalse(bt.isApproximate());
+		bt.rollback();
+		assertFalse(bt.reconfigure(10 * increment, 2000, 100, 500, 10));
+		assertEquals(bt.getPeakByteRate(), 1000);
+		assertEquals(bt.getJitterTolerance(), 0);
+		assertEquals(bt.getSustainedByteRate(), 0);
+		assertEquals(bt.admissible(10 * increment), 0);
+		assertTrue(bt.commit(1));
+		assertEquals(bt.admissible(10 * increment), increment);
+	}
 
 }
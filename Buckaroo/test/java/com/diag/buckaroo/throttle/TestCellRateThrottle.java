@@ -20,6 +20,7 @@
 package com.diag.buckaroo.throttle;
 
 import java.lang.Integer;
+import java.util.Random;
 import junit.framework.TestCase;
 import com.diag.buckaroo.throttle.CellRateThrottle;
 
@@ -192,4 +193,127 @@ public class TestCellRateThrottle extends TestCase {
 			then = now;
 		}
 	}
+
+	public void test07Batch() {
+		int pcr = 1000;
+		int cdvt = 500;
+		int scr = 200;
+		int mbs = 8;
+		Random random = new Random(7);
+		CellRateThrottle batch = new CellRateThrottle(pcr, cdvt, scr, mbs);
+		CellRateThrottle single = new CellRateThrottle(pcr, cdvt, scr, mbs);
+		long ticks = 0;
+		batch.reset(ticks);
+		single.reset(ticks);
+		long events = 0;
+		for (int ii = 0; ii < 10000; ++ii) {
+			ticks += random.nextInt(10000);
+			int max = random.nextInt(12);
+			int expected = 0;
+			while (expected < max) {
+				if (single.admissible(ticks) > 0) {
+					single.rollback();
+					break;
+				}
+				assertTrue(single.commit());
+				++expected;
+			}
+			int actual = batch.admissibleCount(ticks, max);
+			assertEquals(actual, expected);
+			if (actual > 0) {
+				assertTrue(batch.commit(actual));
+			} else {
+				assertTrue(batch.rollback());
+			}
+			assertEquals(batch.admissible(ticks), single.admissible(ticks));
+			batch.rollback();
+			single.rollback();
+			events += actual;
+		}
+		System.out.println("events=" + events + " ticks=" + ticks);
+		assertTrue(events <= (((ticks * scr) / 1000000) + mbs));
+	}
+
+	public void test08Reconfigure() {
+		CellRateThrottle reconfigured = new CellRateThrottle(1000, 0, 100, 4);
+		CellRateThrottle original = new CellRateThrottle(1000, 0, 100, 4);
+		assertEquals(reconfigured.getPeakCellRate(), 1000);
+		assertEquals(reconfigured.getCellDelayVariationTolerance(), 0);
+		assertEquals(reconfigured.getSustainedCellRate(), 100);
+		assertEquals(reconfigured.getMaximumBurstSize(), 4);
+		long ticks = 0;
+		reconfigured.reset(ticks);
+		original.reset(ticks);
+		for (int ii = 0; ii < 1000; ++ii) {
+			ticks += 500;
+			if (ii == 500) {
+				assertTrue(reconfigured.reconfigure(ticks, 1000, 0, 100, 4));
+			}
+			long delay = original.admissible(ticks);
+			assertEquals(reconfigured.admissible(ticks), delay);
+			if (delay == 0) {
+				assertTrue(original.commit());
+				assertTrue(reconfigured.commit());
+			} else {
+				original.rollback();
+				reconfigured.rollback();
+			}
+		}
+		assertTrue(reconfigured.reconfigure(ticks, 2000, 0, 200, 4));
+		assertEquals(reconfigured.getPeakCellRate(), 2000);
+		assertEquals(reconfigured.getSustainedCellRate(), 200);
+		CellRateThrottle fresh = new CellRateThrottle(2000, 0, 200, 4);
+		fresh.reset(ticks);
+		int burst = 0;
+		int admitted = 0;
+		for (int ii = 0; ii < 4; ++ii) {
+			ticks += 500;
+			if (fresh.admissible(ticks) == 0) {
+				assertTrue(fresh.commit());
+				++burst;
+			} else {
+				fresh.rollback();
+			}
+			if (reconfigured.admissible(ticks) == 0) {
+				assertTrue(reconfigured.commit());
+				++admitted;
+			} else {
+				reconfigured.rollback();
+			}
+		}
+		assertEquals(burst, 4);
+		assertTrue(admitted < burst);
+		reconfigured.reconfigure(ticks, 2000, 0);
+		assertEquals(reconfigured.getSustainedCellRate(), 2000);
+		assertEquals(reconfigured.getMaximumBurstSize(), 1);
+		CellRateThrottle cbr = new CellRateThrottle(1000, 0);
+		assertEquals(cbr.getSustainedCellRate(), 0);
+		assertFalse(cbr.reconfigure(1000, 0, 100, 4));
+		assertEquals(cbr.getSustainedCellRate(), 0);
+		assertFalse(cbr.reconfigure(3000, 100, 100, 4));
+		assertEquals(cbr.getPeakCellRate(), 1000);
+		assertEquals(cbr.getCellDelayVariationTolerance(), 0);
+		assertEquals(cbr.getSustainedCellRate(), 0);
+		cbr.reset(0);
+		assertEquals(cbr.admissible(0), 0);
+		assertTrue(cbr.commit());
+		assertEquals(cbr.admissible(0), 1000);
+		cbr.rollback();
+		cbr.reconfigure(2000, 0);
+		assertEquals(cbr.getPeakCellRate(), 2000);
+		cbr.reset(0);
+		assertEquals(cbr.admissible(0), 0);
+		assertTrue(cbr.commit());
+		assertEquals(cbr.admissible(0), 500);
+		cbr.rollback();
+		cbr.reconfigure(250, 1000, 0);
+		assertEquals(cbr.admissible(250), 500);
+		cbr.rollback();
+		assertEquals(cbr.admissible(750), 0);
+		assertTrue(cbr.commit());
+		cbr.reconfigure(5000, 500, 0);
+		assertEquals(cbr.admissible(5000), 0);
+		assertFalse(cbr.isApproximate());
+	}
+
 }
@@ -0,0 +1,157 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.ConcurrencyLimiter;
+
+public class TestConcurrencyLimiter extends TestCase {
+
+	static final int CAPACITY = 10;
+	static final long RTT = 1000;
+
+	/**
+	 * Simulate a downstream which serves CAPACITY requests in parallel with a base
+	 * RTT, beyond which requests queue and the RTT grows in proportion.
+	 */
+	static long rtt(int inflight) {
+		return (inflight > CAPACITY) ? (RTT * inflight) / CAPACITY : RTT;
+	}
+
+	public void test00Initial() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 1, 100);
+		limiter.reset(0);
+		assertEquals(limiter.getLimit(), 4);
+		assertEquals(limiter.getInFlight(), 0);
+		assertEquals(limiter.getMinimumRtt(), 0);
+		assertEquals(limiter.getSmoothedRtt(), 0);
+		for (int ii = 0; ii < 4; ++ii) {
+			assertEquals(limiter.admissible(0), 0);
+			assertTrue(limiter.commit());
+		}
+		assertEquals(limiter.getInFlight(), 4);
+		assertEquals(limiter.admissible(0), 1);
+		assertTrue(limiter.rollback());
+		assertFalse(limiter.isAlarmed());
+		assertFalse(limiter.commit());
+		assertTrue(limiter.isAlarmed());
+		assertEquals(limiter.getInFlight(), 5);
+		limiter.release();
+		assertEquals(limiter.getInFlight(), 4);
+		assertEquals(limiter.getLimit(), 4);
+		assertTrue(limiter.isValid());
+		assertFalse(limiter.isApproximate());
+		System.out.println(limiter);
+	}
+
+	public void test01Count() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 100);
+		limiter.reset(0);
+		assertEquals(limiter.admissibleCount(0, 4), 4);
+		assertTrue(limiter.commit(4));
+		assertEquals(limiter.admissibleCount(0, 100), 6);
+		assertTrue(limiter.commit(6));
+		assertEquals(limiter.admissibleCount(0, 100), 0);
+		assertTrue(limiter.rollback());
+		assertFalse(limiter.commit(1));
+		assertEquals(limiter.getInFlight(), 11);
+	}
+
+	public void test02Delay() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 100);
+		limiter.reset(0);
+		assertTrue(limiter.commit());
+		limiter.complete(RTT);
+		assertEquals(limiter.getMinimumRtt(), RTT);
+		assertEquals(limiter.getSmoothedRtt(), RTT);
+		assertEquals(limiter.getLimit(), 3);
+		assertTrue(limiter.commit());
+		assertTrue(limiter.commit());
+		assertTrue(limiter.commit());
+		assertEquals(limiter.admissible(0), RTT / 3);
+		assertTrue(limiter.rollback());
+	}
+
+	public void test03Drop() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(50, 1, 100);
+		limiter.reset(0);
+		assertTrue(limiter.commit());
+		limiter.drop();
+		assertEquals(limiter.getLimit(), 45);
+		assertEquals(limiter.getInFlight(), 0);
+		assertEquals(limiter.getDropped(), 1);
+		for (int ii = 0; ii < 100; ++ii) {
+			assertTrue(limiter.commit());
+			limiter.drop();
+		}
+		assertEquals(limiter.getLimit(), 1);
+	}
+
+	public void test04Underflow() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter();
+		limiter.reset(0);
+		assertEquals(limiter.getLimit(), ConcurrencyLimiter.INITIAL);
+		limiter.release();
+		assertTrue(limiter.isApproximate());
+		assertEquals(limiter.getInFlight(), 0);
+		limiter.reset(0);
+		assertFalse(limiter.isApproximate());
+	}
+
+	void converge(int initial) {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(initial, 1, 1000);
+		long ticks = 0;
+		long total = 0;
+		long rounds = 0;
+		limiter.reset(ticks);
+		for (int round = 0; round < 2000; ++round) {
+			int count = limiter.admissibleCount(ticks, Integer.MAX_VALUE);
+			assertTrue(count > 0);
+			assertTrue(limiter.commit(count));
+			int inflight = limiter.getInFlight();
+			long rtt = rtt(inflight);
+			ticks += rtt;
+			for (int ii = 0; ii < inflight; ++ii) {
+				limiter.complete(rtt);
+			}
+			if (round >= 1000) {
+				total += inflight;
+				++rounds;
+			}
+		}
+		System.out.println(limiter);
+		long average = total / rounds;
+		System.out.println("average=" + average);
+		assertEquals(limiter.getInFlight(), 0);
+		assertTrue(limiter.getMinimumRtt() >= RTT);
+		assertTrue(limiter.getMinimumRtt() <= (2 * RTT));
+		assertTrue(average >= CAPACITY);
+		assertTrue(average <= (3 * CAPACITY));
+	}
+
+	public void test05ConvergeUp() {
+		converge(1);
+	}
+
+	public void test06ConvergeDown() {
+		converge(500);
+	}
+
+}
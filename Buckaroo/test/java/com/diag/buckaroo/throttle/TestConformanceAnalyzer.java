@@ -0,0 +1,167 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.CellRateThrottle;
+import com.diag.buckaroo.throttle.ConformanceAnalyzer;
+import com.diag.buckaroo.throttle.InstrumentedThrottle;
+
+public class TestConformanceAnalyzer extends TestCase {
+
+	static final int PCR = 2000;
+	static final int CDVT = 100;
+	static final int SCR = 1000;
+	static final int MBS = 8;
+
+	static long[] trace(int count, long seed) {
+		Random random = new Random(seed);
+		long[] timestamps = new long[count];
+		long ticks = 1000000;
+		for (int index = 0; index < count; ++index) {
+			timestamps[index] = ticks;
+			ticks += (random.nextInt(10) == 0) ? random.nextInt(20000) : random.nextInt(1000);
+		}
+		return timestamps;
+	}
+
+	void assertMatches(ConformanceAnalyzer.Report report, CellRateThrottle throttle, long[] timestamps) {
+		throttle.reset(timestamps[0]);
+		long conforming = 0;
+		long maximum = 0;
+		long[] histogram = new long[ConformanceAnalyzer.BUCKETS];
+		for (long ticks : timestamps) {
+			long delay = throttle.admissible(ticks);
+			throttle.commit();
+			if (delay == 0) { ++conforming; }
+			if (delay > maximum) { maximum = delay; }
+			++histogram[InstrumentedThrottle.bucket(delay)];
+		}
+		assertEquals(report.getCount(), timestamps.length);
+		assertEquals(report.getConforming(), conforming);
+		assertEquals(report.getMaximumDelay(), maximum);
+		long[] actual = report.getHistogram();
+		for (int index = 0; index < ConformanceAnalyzer.BUCKETS; ++index) {
+			assertEquals(actual[index], histogram[index]);
+		}
+		assertFalse(report.isApproximate());
+	}
+
+	public void test00Empty() throws Exception {
+		ConformanceAnalyzer analyzer = new ConformanceAnalyzer(PCR, CDVT);
+		ConformanceAnalyzer.Report report = analyzer.analyze(new long[0]);
+		System.out.println("report=" + report);
+		assertEquals(report.getCount(), 0);
+		assertEquals(report.getConforming(), 0);
+		assertEquals(report.getConformance(), 1.0);
+		assertEquals(report.getMaximumDelay(), 0);
+		assertEquals(report.getMinimalCellDelayVariationTolerance(), 0);
+		assertEquals(report.getMinimalMaximumBurstSize(), 0);
+		assertFalse(report.isApproximate());
+	}
+
+	public void test01ConstantBitRate() throws Exception {
+		long[] timestamps = trace(1000, 1);
+		ConformanceAnalyzer analyzer = new ConformanceAnalyzer(PCR, CDVT);
+		System.out.println("analyzer=" + analyzer);
+		ConformanceAnalyzer.Report report = analyzer.analyze(timestamps);
+		System.out.println("report=" + report);
+		assertTrue(report.getConformance() < 1.0);
+		assertTrue(report.getConformance() > 0.0);
+		assertMatches(report, new CellRateThrottle(PCR, CDVT), timestamps);
+	}
+
+	public void test02VariableBitRate() throws Exception {
+		long[] timestamps = trace(1000, 2);
+		ConformanceAnalyzer analyzer = new ConformanceAnalyzer(PCR, CDVT, SCR, MBS);
+		ConformanceAnalyzer.Report report = analyzer.analyze(timestamps);
+		System.out.println("report=" + report);
+		assertTrue(report.getConformance() < 1.0);
+		assertMatches(report, new CellRateThrottle(PCR, CDVT, SCR, MBS), timestamps);
+	}
+
+	public void test03Segments() throws Exception {
+		long[] timestamps = trace(ConformanceAnalyzer.SEGMENT * 5 + 17, 3);
+		long ip = CellRateThrottle.increment(PCR, CDVT);
+		long lp = CellRateThrottle.limit(PCR, CDVT);
+		long is = CellRateThrottle.increment(PCR, CDVT, SCR, MBS);
+		long ls = CellRateThrottle.limit(PCR, CDVT, SCR, MBS);
+		ConformanceAnalyzer.Report serial = new ConformanceAnalyzer(ip, lp, is, ls, 1).analyze(timestamps);
+		ConformanceAnalyzer.Report parallel = new ConformanceAnalyzer(ip, lp, is, ls, 8).analyze(timestamps);
+		System.out.println("serial=" + serial);
+		System.out.println("parallel=" + parallel);
+		assertMatches(serial, new CellRateThrottle(PCR, CDVT, SCR, MBS), timestamps);
+		assertMatches(parallel, new CellRateThrottle(PCR, CDVT, SCR, MBS), timestamps);
+		assertEquals(parallel.getMinimalCellDelayVariationTolerance(), serial.getMinimalCellDelayVariationTolerance());
+		assertEquals(parallel.getMinimalMaximumBurstSize(), serial.getMinimalMaximumBurstSize());
+	}
+
+	public void test04Minimal() throws Exception {
+		long[] timestamps = trace(10000, 4);
+		ConformanceAnalyzer.Report report = new ConformanceAnalyzer(PCR, CDVT, SCR, MBS).analyze(timestamps);
+		int cdvt = (int)report.getMinimalCellDelayVariationTolerance();
+		int mbs = (int)report.getMinimalMaximumBurstSize();
+		assertTrue(cdvt > 0);
+		assertTrue(mbs > 1);
+		assertEquals(new ConformanceAnalyzer(PCR, cdvt, SCR, mbs).analyze(timestamps).getConformance(), 1.0);
+		assertTrue(new ConformanceAnalyzer(PCR, cdvt - 1, SCR, mbs).analyze(timestamps).getConformance() < 1.0);
+		assertTrue(new ConformanceAnalyzer(PCR, cdvt, SCR, mbs - 1).analyze(timestamps).getConformance() < 1.0);
+		ConformanceAnalyzer.Report cbr = new ConformanceAnalyzer(PCR, 0).analyze(timestamps);
+		assertEquals(cbr.getMinimalCellDelayVariationTolerance(), cdvt);
+		assertEquals(cbr.getMinimalMaximumBurstSize(), 0);
+	}
+
+	public void test05File() throws Exception {
+		long[] timestamps = trace(ConformanceAnalyzer.SEGMENT * 3, 5);
+		File file = File.createTempFile(TestConformanceAnalyzer.class.getSimpleName(), ".dat");
+		file.deleteOnExit();
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			for (long ticks : timestamps) {
+				output.writeLong(ticks);
+			}
+			output.write(0); // Partial trailing timestamp is ignored.
+		} finally {
+			output.close();
+		}
+		ConformanceAnalyzer analyzer = new ConformanceAnalyzer(PCR, CDVT, SCR, MBS);
+		ConformanceAnalyzer.Report report = analyzer.analyze(file);
+		System.out.println("report=" + report);
+		assertMatches(report, new CellRateThrottle(PCR, CDVT, SCR, MBS), timestamps);
+		assertEquals(analyzer.analyze(file, ByteOrder.LITTLE_ENDIAN).isApproximate(), true);
+		file.delete();
+	}
+
+	public void test06Approximate() throws Exception {
+		long[] timestamps = new long[] { 1000, 2000, 1500, 3000 };
+		ConformanceAnalyzer.Report report = new ConformanceAnalyzer(PCR, CDVT).analyze(timestamps);
+		System.out.println("report=" + report);
+		assertTrue(report.isApproximate());
+		assertEquals(report.getCount(), 4);
+	}
+
+}
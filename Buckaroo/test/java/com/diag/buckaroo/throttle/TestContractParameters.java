@@ -0,0 +1,98 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.Properties;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.jmx.CallBack;
+import com.diag.buckaroo.jmx.Parameters;
+import com.diag.buckaroo.throttle.BandwidthThrottle;
+import com.diag.buckaroo.throttle.CellRateThrottle;
+import com.diag.buckaroo.throttle.ContractParameters;
+
+public class TestContractParameters extends TestCase {
+
+	public void test00Defaults() {
+		Properties properties = new Properties();
+		properties.setProperty("cdvt", "250");
+		Parameters parameters = new Parameters(properties);
+		CellRateThrottle throttle = new CellRateThrottle(1000, 0, 100, 4);
+		ContractParameters binding = new ContractParameters(parameters, throttle);
+		System.out.println("binding=" + binding);
+		assertSame(binding.getParameters(), parameters);
+		assertSame(parameters.getCallBack(), binding);
+		assertEquals(parameters.get("pcr"), "1000");
+		assertEquals(parameters.get("cdvt"), "250");
+		assertEquals(parameters.get("scr"), "100");
+		assertEquals(parameters.get("mbs"), "4");
+		assertEquals(parameters.getMBeanInfo().getAttributes().length, 4);
+		assertTrue(binding.reconfigure());
+		assertEquals(throttle.getCellDelayVariationTolerance(), 250);
+		parameters.set("mbs", "many");
+		binding.setLogger(java.util.logging.Logger.getAnonymousLogger());
+		binding.getLogger().setUseParentHandlers(false);
+		assertFalse(binding.reconfigure());
+		assertEquals(throttle.getMaximumBurstSize(), 4);
+		assertEquals(binding.getReconfigurations(), 1);
+		Parameters cbr = new Parameters(new Properties());
+		new ContractParameters(cbr, new BandwidthThrottle(1000000), "link.");
+		assertEquals(cbr.get("link.pbr"), "1000000");
+		assertEquals(cbr.get("link.jt"), "0");
+		assertNull(cbr.get("link.sbr"));
+		assertNull(cbr.get("link.mbs"));
+	}
+
+	public void test01MBean() throws Exception {
+		final String[] forwarded = new String[1];
+		Parameters parameters = new Parameters(new Properties());
+		parameters.setCallBack(new CallBack() { public void callback(String name) { forwarded[0] = name; } });
+		CellRateThrottle cell = new CellRateThrottle(1000, 0, 100, 4);
+		BandwidthThrottle bandwidth = new BandwidthThrottle(1000000, 0);
+		ContractParameters cellBinding = new ContractParameters(parameters, cell, "cell.");
+		ContractParameters bandwidthBinding = new ContractParameters(parameters, bandwidth, "link.");
+		parameters.setMBeanName("test01MBean");
+		assertTrue(parameters.start());
+		try {
+			MBeanServer server = parameters.getMBeanServer();
+			ObjectName name = parameters.getMBeanName();
+			server.setAttribute(name, new Attribute("cell.pcr", "2000"));
+			assertEquals(cell.getPeakCellRate(), 2000);
+			assertEquals(cellBinding.getReconfigurations(), 1);
+			server.setAttribute(name, new Attribute("link.pbr", "500000"));
+			assertEquals(bandwidth.getPeakByteRate(), 500000);
+			assertEquals(bandwidthBinding.getReconfigurations(), 1);
+			assertEquals(cellBinding.getReconfigurations(), 1);
+			server.setAttribute(name, new Attribute("unrelated", "value"));
+			assertEquals(forwarded[0], "unrelated");
+			bandwidth.reset(0);
+			assertEquals(bandwidth.admissible(0), 0);
+			assertTrue(bandwidth.commit(1));
+			assertEquals(bandwidth.admissible(0), 2000);
+		} finally {
+			parameters.stop();
+		}
+	}
+
+}
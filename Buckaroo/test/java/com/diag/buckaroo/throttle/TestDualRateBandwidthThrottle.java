@@ -0,0 +1,130 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.BandwidthThrottle;
+import com.diag.buckaroo.throttle.DualRateBandwidthThrottle;
+
+public class TestDualRateBandwidthThrottle extends TestCase {
+
+	void validateInitialState(Throttle drbt) {
+		long ticks = 0;
+		assertNotNull(drbt);
+		drbt.reset(ticks);
+		assertTrue(drbt.isValid());
+		assertNotNull(drbt.toString());
+		assertEquals(drbt.admissible(ticks), 0);
+		assertFalse(drbt.isAlarmed());
+		assertTrue(drbt.rollback());
+		assertFalse(drbt.isAlarmed());
+		assertEquals(drbt.admissible(ticks), 0);
+		assertFalse(drbt.isAlarmed());
+		drbt.reset(ticks);
+		assertFalse(drbt.isAlarmed());
+		assertEquals(drbt.admissible(ticks), 0);
+		assertTrue(drbt.commit());
+		assertFalse(drbt.isAlarmed());
+	}
+
+	public void test00Construction() {
+		for (int pbr : TestDualRateThrottle.VALUES) {
+			for (int jt : TestDualRateThrottle.VALUES) {
+				for (int sbr : TestDualRateThrottle.VALUES) {
+					for (int mbs : TestDualRateThrottle.VALUES) {
+						if (jt == 0) {
+							validateInitialState(new DualRateBandwidthThrottle(pbr, sbr, mbs));
+						}
+						Throttle drbt = new DualRateBandwidthThrottle(pbr, jt, sbr, mbs);
+						System.out.println("pbr=" + pbr + " jt=" + jt + " sbr=" + sbr + " mbs=" + mbs + " drbt=" + drbt);
+						validateInitialState(drbt);
+					}
+				}
+			}
+		}
+	}
+
+	public void test01Time() {
+		Throttle drbt = new DualRateBandwidthThrottle(1000, 0, 100, 10);
+		assertEquals(drbt.frequency(), new BandwidthThrottle().frequency());
+		long then = drbt.time();
+		for (int ii = 0; ii < 100; ++ii) {
+			try { Thread.sleep(1); } catch (Exception ignore) { }
+			long now = drbt.time();
+			assertTrue(now > then);
+			then = now;
+		}
+	}
+
+	public void test02Equivalence() {
+		long seed = 0;
+		for (int pbr : TestDualRateThrottle.VALUES) {
+			for (int jt : TestDualRateThrottle.VALUES) {
+				for (int sbr : TestDualRateThrottle.VALUES) {
+					for (int mbs : TestDualRateThrottle.VALUES) {
+						TestSingleRateThrottle.validateEquivalence(new DualRateBandwidthThrottle(pbr, jt, sbr, mbs), new BandwidthThrottle(pbr, jt, sbr, mbs), ++seed, 100);
+					}
+				}
+			}
+		}
+		TestSingleRateThrottle.validateEquivalence(new DualRateBandwidthThrottle(1000000, 5000, 200000, 1500), new BandwidthThrottle(1000000, 5000, 200000, 1500), ++seed, 100000);
+		TestSingleRateThrottle.validateEquivalence(new DualRateBandwidthThrottle(100000000, 0, 10000000, 64), new BandwidthThrottle(100000000, 0, 10000000, 64), ++seed, 100000);
+	}
+
+	public void test03Reconfigure() {
+		DualRateBandwidthThrottle reconfigured = new DualRateBandwidthThrottle(1000000, 0, 100000, 1500);
+		BandwidthThrottle original = new BandwidthThrottle(1000000, 0, 100000, 1500);
+		assertEquals(reconfigured.getPeakByteRate(), 1000000);
+		assertEquals(reconfigured.getJitterTolerance(), 0);
+		assertEquals(reconfigured.getSustainedByteRate(), 100000);
+		assertEquals(reconfigured.getMaximumBurstSize(), 1500);
+		long ticks = 0;
+		reconfigured.reset(ticks);
+		original.reset(ticks);
+		for (int ii = 0; ii < 1000; ++ii) {
+			ticks += 5000;
+			if ((ii % 100) == 50) {
+				int pbr = 1000000 + (ii * 2000);
+				int sbr = 100000 + (ii * 1000);
+				assertTrue(reconfigured.reconfigure(ticks, pbr, 0, sbr, 1500));
+				assertTrue(original.reconfigure(ticks, pbr, 0, sbr, 1500));
+			}
+			long delay = original.admissible(ticks);
+			assertEquals(reconfigured.admissible(ticks), delay);
+			if (delay == 0) {
+				int octets = (ii % 64) + 1;
+				assertEquals(reconfigured.commit(octets), original.commit(octets));
+			} else {
+				original.rollback();
+				reconfigured.rollback();
+			}
+		}
+		reconfigured.reconfigure(ticks, 2000000, 0);
+		original.reconfigure(ticks, 2000000, 0);
+		assertEquals(reconfigured.getSustainedByteRate(), 2000000);
+		assertEquals(reconfigured.getMaximumBurstSize(), 1);
+		for (int ii = 0; ii < 100; ++ii) {
+			ticks += 3000;
+			assertEquals(reconfigured.admissible(ticks), original.admissible(ticks));
+			assertEquals(reconfigured.commit(ii % 8), original.commit(ii % 8));
+		}
+	}
+
+}
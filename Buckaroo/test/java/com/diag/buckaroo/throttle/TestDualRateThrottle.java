@@ -0,0 +1,181 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.Random;
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.CellRateThrottle;
+import com.diag.buckaroo.throttle.DualRateThrottle;
+
+public class TestDualRateThrottle extends TestCase {
+
+	static final int[] VALUES = new int[] {
+		Integer.MIN_VALUE,
+		-1,
+		0,
+		1,
+		1000,
+		1000000,
+		Integer.MAX_VALUE
+	};
+
+	void validateInitialState(Throttle drt) {
+		long ticks = 0;
+		assertNotNull(drt);
+		drt.reset(ticks);
+		assertTrue(drt.isValid());
+		assertNotNull(drt.toString());
+		assertEquals(drt.admissible(ticks), 0);
+		assertFalse(drt.isAlarmed());
+		assertTrue(drt.rollback());
+		assertFalse(drt.isAlarmed());
+		assertEquals(drt.admissible(ticks), 0);
+		assertFalse(drt.isAlarmed());
+		drt.reset(ticks);
+		assertFalse(drt.isAlarmed());
+		assertEquals(drt.admissible(ticks), 0);
+		assertTrue(drt.commit());
+		assertFalse(drt.isAlarmed());
+	}
+
+	public void test00Construction() {
+		for (int pcr : VALUES) {
+			for (int cdvt : VALUES) {
+				for (int scr : VALUES) {
+					for (int mbs : VALUES) {
+						if (cdvt == 0) {
+							validateInitialState(new DualRateThrottle(pcr, scr, mbs));
+						}
+						Throttle drt = new DualRateThrottle(pcr, cdvt, scr, mbs);
+						System.out.println("pcr=" + pcr + " cdvt=" + cdvt + " scr=" + scr + " mbs=" + mbs + " drt=" + drt);
+						validateInitialState(drt);
+					}
+				}
+			}
+		}
+	}
+
+	public void test01Time() {
+		Throttle drt = new DualRateThrottle(1000, 0, 100, 10);
+		assertEquals(drt.frequency(), new CellRateThrottle().frequency());
+		long then = drt.time();
+		for (int ii = 0; ii < 100; ++ii) {
+			try { Thread.sleep(1); } catch (Exception ignore) { }
+			long now = drt.time();
+			assertTrue(now > then);
+			then = now;
+		}
+	}
+
+	public void test02Equivalence() {
+		long seed = 0;
+		for (int pcr : VALUES) {
+			for (int cdvt : VALUES) {
+				for (int scr : VALUES) {
+					for (int mbs : VALUES) {
+						TestSingleRateThrottle.validateEquivalence(new DualRateThrottle(pcr, cdvt, scr, mbs), new CellRateThrottle(pcr, cdvt, scr, mbs), ++seed, 100);
+					}
+				}
+			}
+		}
+		TestSingleRateThrottle.validateEquivalence(new DualRateThrottle(1000, 500, 200, 8), new CellRateThrottle(1000, 500, 200, 8), ++seed, 100000);
+		TestSingleRateThrottle.validateEquivalence(new DualRateThrottle(100, 0, 10, 50), new CellRateThrottle(100, 0, 10, 50), ++seed, 100000);
+	}
+
+	public void test03Batch() {
+		int pcr = 1000;
+		int cdvt = 500;
+		int scr = 200;
+		int mbs = 8;
+		Random random = new Random(7);
+		DualRateThrottle batch = new DualRateThrottle(pcr, cdvt, scr, mbs);
+		DualRateThrottle single = new DualRateThrottle(pcr, cdvt, scr, mbs);
+		long ticks = 0;
+		batch.reset(ticks);
+		single.reset(ticks);
+		long events = 0;
+		for (int ii = 0; ii < 10000; ++ii) {
+			ticks += random.nextInt(10000);
+			int max = random.nextInt(12);
+			int expected = 0;
+			while (expected < max) {
+				if (single.admissible(ticks) > 0) {
+					single.rollback();
+					break;
+				}
+				assertTrue(single.commit());
+				++expected;
+			}
+			int actual = batch.admissibleCount(ticks, max);
+			assertEquals(actual, expected);
+			if (actual > 0) {
+				assertTrue(batch.commit(actual));
+			} else {
+				assertTrue(batch.rollback());
+			}
+			assertEquals(batch.admissible(ticks), single.admissible(ticks));
+			batch.rollback();
+			single.rollback();
+			events += actual;
+		}
+		System.out.println("events=" + events + " ticks=" + ticks);
+		assertTrue(events <= (((ticks * scr) / 1000000) + mbs));
+	}
+
+	public void test04Reconfigure() {
+		DualRateThrottle reconfigured = new DualRateThrottle(1000, 0, 100, 4);
+		CellRateThrottle original = new CellRateThrottle(1000, 0, 100, 4);
+		assertEquals(reconfigured.getPeakCellRate(), 1000);
+		assertEquals(reconfigured.getCellDelayVariationTolerance(), 0);
+		assertEquals(reconfigured.getSustainedCellRate(), 100);
+		assertEquals(reconfigured.getMaximumBurstSize(), 4);
+		long ticks = 0;
+		reconfigured.reset(ticks);
+		original.reset(ticks);
+		for (int ii = 0; ii < 1000; ++ii) {
+			ticks += 500;
+			if ((ii % 100) == 50) {
+				int pcr = 1000 + (ii * 2);
+				int scr = 100 + ii;
+				assertTrue(reconfigured.reconfigure(ticks, pcr, 0, scr, 4));
+				assertTrue(original.reconfigure(ticks, pcr, 0, scr, 4));
+			}
+			long delay = original.admissible(ticks);
+			assertEquals(reconfigured.admissible(ticks), delay);
+			if (delay == 0) {
+				assertTrue(original.commit());
+				assertTrue(reconfigured.commit());
+			} else {
+				original.rollback();
+				reconfigured.rollback();
+			}
+		}
+		reconfigured.reconfigure(ticks, 2000, 0);
+		original.reconfigure(ticks, 2000, 0);
+		assertEquals(reconfigured.getSustainedCellRate(), 2000);
+		assertEquals(reconfigured.getMaximumBurstSize(), 1);
+		for (int ii = 0; ii < 100; ++ii) {
+			ticks += 300;
+			assertEquals(reconfigured.admissible(ticks), original.admissible(ticks));
+			assertEquals(reconfigured.commit(), original.commit());
+		}
+	}
+
+}
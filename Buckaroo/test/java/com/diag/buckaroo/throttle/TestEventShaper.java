@@ -0,0 +1,157 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.BandwidthThrottle;
+import com.diag.buckaroo.throttle.CellRateThrottle;
+import com.diag.buckaroo.throttle.EventShaper;
+import com.diag.buckaroo.throttle.PromiscuousThrottle;
+import com.diag.buckaroo.throttle.Throttle;
+
+public class TestEventShaper extends TestCase {
+
+	static class Recorder implements Consumer<Integer> {
+		final List<Integer> events = new ArrayList<Integer>();
+		final List<Long> times = new ArrayList<Long>();
+		final CountDownLatch latch;
+		Recorder(int count) { latch = new CountDownLatch(count); }
+		public synchronized void accept(Integer event) { events.add(event); times.add(System.nanoTime()); latch.countDown(); }
+	}
+
+	public void test00Capacity() throws Exception {
+		Recorder recorder = new Recorder(4);
+		EventShaper<Integer> shaper = new EventShaper<Integer>(recorder, 4);
+		Throttle throttle = new CellRateThrottle(1000);
+		for (int ii = 0; ii < 4; ++ii) {
+			assertTrue(shaper.offer(throttle, ii));
+		}
+		assertFalse(shaper.offer(throttle, 4));
+		assertEquals(shaper.size(), 4);
+		assertEquals(shaper.size(throttle), 4);
+		assertEquals(recorder.events.size(), 0);
+		shaper.start();
+		assertTrue(recorder.latch.await(1, TimeUnit.SECONDS));
+		System.out.println("shaper=" + shaper);
+		assertEquals(shaper.size(), 0);
+		assertEquals(shaper.size(throttle), 0);
+		synchronized (recorder) {
+			for (int ii = 0; ii < 4; ++ii) {
+				assertEquals(recorder.events.get(ii).intValue(), ii);
+			}
+		}
+		shaper.stop();
+	}
+
+	public void test01Shaping() throws Exception {
+		Recorder recorder = new Recorder(100);
+		EventShaper<Integer> shaper = new EventShaper<Integer>(recorder).start();
+		Throttle throttle = new CellRateThrottle(1000);
+		long then = System.nanoTime();
+		for (int ii = 0; ii < 100; ++ii) {
+			assertTrue(shaper.offer(throttle, ii));
+		}
+		long offered = System.nanoTime() - then;
+		assertTrue(recorder.latch.await(5, TimeUnit.SECONDS));
+		long elapsed = System.nanoTime() - then;
+		System.out.println("offered=" + offered + "ns elapsed=" + elapsed + "ns shaper=" + shaper);
+		assertTrue(offered < 50000000L);
+		assertTrue(elapsed >= 99000000L);
+		synchronized (recorder) {
+			for (int ii = 0; ii < 100; ++ii) {
+				assertEquals(recorder.events.get(ii).intValue(), ii);
+			}
+			for (int ii = 1; ii < 100; ++ii) {
+				assertTrue((recorder.times.get(ii) - recorder.times.get(0)) >= ((ii * 1000000L) - 1000000L));
+			}
+		}
+		shaper.stop();
+	}
+
+	public void test02Flows() throws Exception {
+		Recorder recorder = new Recorder(1000 * 3 + 3);
+		EventShaper<Integer> shaper = new EventShaper<Integer>(recorder, 3).start();
+		for (int ii = 0; ii < 1000; ++ii) {
+			Throttle throttle = new CellRateThrottle(100);
+			for (int jj = 0; jj < 3; ++jj) {
+				assertTrue(shaper.offer(throttle, ii * 3 + jj));
+			}
+		}
+		Throttle throttle = new PromiscuousThrottle();
+		for (int ii = 0; ii < 3; ++ii) {
+			assertTrue(shaper.offer(throttle, -1));
+		}
+		assertTrue(recorder.latch.await(5, TimeUnit.SECONDS));
+		assertEquals(shaper.size(), 0);
+		shaper.stop();
+	}
+
+	public void test03Exception() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(2);
+		EventShaper<String> shaper = new EventShaper<String>(new Consumer<String>() {
+			public void accept(String event) { latch.countDown(); if (event.equals("bad")) { throw new IllegalArgumentException(event); } }
+		});
+		shaper.getLogger().setUseParentHandlers(false);
+		Throttle throttle = new CellRateThrottle(1000);
+		shaper.offer(throttle, "bad");
+		shaper.offer(throttle, "good");
+		shaper.start();
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+		shaper.stop();
+		assertSame(shaper.stop(), shaper);
+	}
+
+	public void test04Octets() throws Exception {
+		Recorder recorder = new Recorder(10);
+		EventShaper<Integer> shaper = new EventShaper<Integer>(recorder).start();
+		Throttle throttle = new BandwidthThrottle(100000, 0);
+		try {
+			shaper.offer(throttle, -1);
+			fail();
+		} catch (IllegalArgumentException expected) {
+			System.out.println("expected=" + expected);
+		}
+		assertEquals(shaper.size(), 0);
+		long then = System.nanoTime();
+		for (int ii = 0; ii < 10; ++ii) {
+			assertTrue(shaper.offer(throttle, ii, 1000));
+		}
+		assertTrue(recorder.latch.await(5, TimeUnit.SECONDS));
+		long elapsed = System.nanoTime() - then;
+		System.out.println("elapsed=" + elapsed + "ns shaper=" + shaper);
+		assertTrue(elapsed >= 89000000L);
+		synchronized (recorder) {
+			for (int ii = 0; ii < 10; ++ii) {
+				assertEquals(recorder.events.get(ii).intValue(), ii);
+			}
+			for (int ii = 1; ii < 10; ++ii) {
+				assertTrue((recorder.times.get(ii) - recorder.times.get(ii - 1)) >= 9000000L);
+			}
+		}
+		shaper.stop();
+	}
+
+}
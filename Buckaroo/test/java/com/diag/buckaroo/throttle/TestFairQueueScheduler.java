@@ -0,0 +1,175 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.BandwidthThrottle;
+import com.diag.buckaroo.throttle.CellRateThrottle;
+import com.diag.buckaroo.throttle.FairQueueScheduler;
+import com.diag.buckaroo.throttle.PromiscuousThrottle;
+import com.diag.buckaroo.throttle.Throttle;
+
+public class TestFairQueueScheduler extends TestCase {
+
+	public void test00Fairness() {
+		FairQueueScheduler<String> scheduler = new FairQueueScheduler<String>(new PromiscuousThrottle(), 1500);
+		Throttle a = new PromiscuousThrottle();
+		Throttle b = new PromiscuousThrottle();
+		for (int ii = 0; ii < 100; ++ii) {
+			scheduler.offer(a, "a", 1000);
+			scheduler.offer(b, "b", 500);
+		}
+		assertEquals(scheduler.size(), 200);
+		assertEquals(scheduler.size(a), 100);
+		int bytesa = 0;
+		int bytesb = 0;
+		for (int ii = 0; ii < 100; ++ii) {
+			String item = scheduler.poll();
+			assertNotNull(item);
+			if (item.equals("a")) {
+				bytesa += 1000;
+			} else {
+				bytesb += 500;
+			}
+			assertTrue(Math.abs(bytesa - bytesb) <= 3000);
+		}
+		System.out.println("bytesa=" + bytesa + " bytesb=" + bytesb + " scheduler=" + scheduler);
+		assertTrue(bytesa > 0);
+		assertTrue(bytesb > 0);
+		while (scheduler.poll() != null) { }
+		assertEquals(scheduler.size(), 0);
+		assertEquals(scheduler.size(a), 0);
+	}
+
+	public void test01Weight() {
+		FairQueueScheduler<String> scheduler = new FairQueueScheduler<String>(new PromiscuousThrottle(), 100);
+		Throttle a = new PromiscuousThrottle();
+		Throttle b = new PromiscuousThrottle();
+		assertEquals(scheduler.getWeight(a), 0);
+		assertSame(scheduler.setWeight(a, 3), scheduler);
+		assertEquals(scheduler.getWeight(a), 3);
+		for (int ii = 0; ii < 1000; ++ii) {
+			scheduler.offer(a, "a", 100);
+			scheduler.offer(b, "b", 100);
+		}
+		int counta = 0;
+		for (int ii = 0; ii < 400; ++ii) {
+			if (scheduler.poll().equals("a")) {
+				++counta;
+			}
+		}
+		assertTrue(counta >= 297);
+		assertTrue(counta <= 303);
+		assertEquals(scheduler.remove(a), 1000 - counta);
+		assertEquals(scheduler.size(), 1000 - (400 - counta));
+		assertEquals(scheduler.remove(a), 0);
+	}
+
+	public void test02Contract() {
+		FairQueueScheduler<String> scheduler = new FairQueueScheduler<String>(new PromiscuousThrottle());
+		Throttle a = new CellRateThrottle(10);
+		Throttle b = new PromiscuousThrottle();
+		for (int ii = 0; ii < 5; ++ii) {
+			scheduler.offer(a, "a", 100);
+			scheduler.offer(b, "b", 100);
+		}
+		int counta = 0;
+		int countb = 0;
+		String item;
+		while ((item = scheduler.poll()) != null) {
+			if (item.equals("a")) {
+				++counta;
+			} else {
+				++countb;
+			}
+		}
+		assertEquals(counta, 1);
+		assertEquals(countb, 5);
+		assertEquals(scheduler.size(), 4);
+		long delay = scheduler.delay();
+		System.out.println("delay=" + delay + "ns scheduler=" + scheduler);
+		assertTrue(delay > 50000000L);
+		assertTrue(delay <= 100000000L);
+	}
+
+	public void test03Link() throws InterruptedException {
+		FairQueueScheduler<Integer> scheduler = new FairQueueScheduler<Integer>(new BandwidthThrottle(100000));
+		Throttle a = new BandwidthThrottle(1000000);
+		Throttle b = new CellRateThrottle(1000);
+		for (int ii = 0; ii < 10; ++ii) {
+			scheduler.offer(a, ii, 1000);
+			scheduler.offer(b, ii, 1000);
+		}
+		long then = System.nanoTime();
+		int[] next = new int[2];
+		for (int ii = 0; ii < 20; ++ii) {
+			int item = scheduler.take();
+			assertTrue((item == next[0]) || (item == next[1]));
+			if (item == next[0]) {
+				++next[0];
+			} else {
+				++next[1];
+			}
+		}
+		long elapsed = System.nanoTime() - then;
+		System.out.println("elapsed=" + elapsed + "ns scheduler=" + scheduler);
+		assertTrue(elapsed >= 180000000L);
+		assertEquals(scheduler.size(), 0);
+	}
+
+	public void test04Many() {
+		FairQueueScheduler<Integer> scheduler = new FairQueueScheduler<Integer>(new PromiscuousThrottle());
+		for (int ii = 0; ii < 10000; ++ii) {
+			scheduler.offer(new PromiscuousThrottle(), ii, 64);
+		}
+		for (int ii = 0; ii < 10000; ++ii) {
+			assertEquals(scheduler.poll().intValue(), ii);
+		}
+		assertNull(scheduler.poll());
+	}
+
+	public void test05Atomic() {
+		final Throttle flow = new CellRateThrottle(1000);
+		final boolean[] locked = new boolean[] { true };
+		final int[] refusals = new int[] { 1 };
+		Throttle link = new PromiscuousThrottle() {
+			public int admissibleCount(long ticks, int max) {
+				locked[0] = locked[0] && Thread.holdsLock(flow);
+				return (refusals[0]-- > 0) ? 0 : max;
+			}
+			public boolean commit(int count) {
+				locked[0] = locked[0] && Thread.holdsLock(flow);
+				return super.commit(count);
+			}
+			public boolean rollback() {
+				locked[0] = locked[0] && Thread.holdsLock(flow);
+				return super.rollback();
+			}
+		};
+		FairQueueScheduler<String> scheduler = new FairQueueScheduler<String>(link);
+		scheduler.offer(flow, "a", 100);
+		assertNull(scheduler.poll());
+		assertEquals(scheduler.size(flow), 1);
+		assertEquals(scheduler.poll(), "a");
+		assertEquals(scheduler.size(), 0);
+		assertTrue(locked[0]);
+	}
+
+}
@@ -20,6 +20,7 @@
 package com.diag.buckaroo.throttle;
 
 import java.lang.Long;
+import java.util.Random;
 import junit.framework.TestCase;
 import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
 import com.diag.buckaroo.throttle.Throttle;
@@ -426,4 +427,114 @@ public class TestGenericCellRateAlgorithm extends TestCase {
 		}
 	}
 
+	public void test11Batch() {
+		long increment = 1000;
+		long limit = 5500;
+		Random random = new Random(11);
+		GenericCellRateAlgorithm batch = new GenericCellRateAlgorithm(increment, limit);
+		GenericCellRateAlgorithm single = new GenericCellRateAlgorithm(increment, limit);
+		long ticks = 0;
+		batch.reset(ticks);
+		single.reset(ticks);
+		for (int ii = 0; ii < 10000; ++ii) {
+			ticks += random.nextInt(20000);
+			int max = random.nextInt(20);
+			int expected = 0;
+			while (expected < max) {
+				if (single.admissible(ticks) > 0) {
+					single.rollback();
+					break;
+				}
+				assertTrue(single.commit());
+				++expected;
+			}
+			int actual = batch.admissibleCount(ticks, max);
+			assertEquals(actual, expected);
+			if (actual > 0) {
+				assertTrue(batch.commit(actual));
+			} else {
+				assertTrue(batch.rollback());
+			}
+			assertEquals(batch.then, single.then);
+			assertEquals(batch.x, single.x);
+			assertEquals(batch.admissible(ticks), single.admissible(ticks));
+			batch.rollback();
+			single.rollback();
+		}
+	}
+
+	public void test12BatchAlarm() {
+		GenericCellRateAlgorithm gcra = new GenericCellRateAlgorithm(1000, 2000);
+		gcra.reset(0);
+		assertEquals(gcra.admissibleCount(0, 100), 3);
+		assertTrue(gcra.commit(3));
+		assertEquals(gcra.admissibleCount(0, 100), 0);
+		assertTrue(gcra.rollback());
+		assertEquals(gcra.admissibleCount(1000, 100), 1);
+		assertFalse(gcra.commit(2));
+		assertTrue(gcra.isAlarmed());
+		assertEquals(gcra.admissible(1000), 2000);
+		gcra.rollback();
+		assertEquals(gcra.admissibleCount(6000, 0), 0);
+		assertFalse(gcra.rollback());
+		assertEquals(gcra.admissibleCount(6000, 100), 3);
+		assertTrue(gcra.commit(3));
+		assertFalse(gcra.isAlarmed());
+		gcra = new GenericCellRateAlgorithm();
+		gcra.reset(0);
+		assertEquals(gcra.admissibleCount(0, Integer.MAX_VALUE), Integer.MAX_VALUE);
+		assertTrue(gcra.commit(Integer.MAX_VALUE));
+		gcra = new GenericCellRateAlgorithm(Long.MAX_VALUE / 2, 0);
+		gcra.reset(0);
+		assertEquals(gcra.admissibleCount(0, 10), 1);
+		assertFalse(gcra.commit(10));
+		assertTrue(gcra.isApproximate());
+		assertEquals(gcra.x, GenericCellRateAlgorithm.MAXIMUM_TICKS);
+	}
+
+	public void test13Reconfigure() {
+		GenericCellRateAlgorithm gcra = new GenericCellRateAlgorithm(1000, 0);
+		gcra.reset(0);
+		assertEquals(gcra.admissible(0), 0);
+		assertTrue(gcra.commit());
+		assertEquals(gcra.admissible(500), 500);
+		assertTrue(gcra.rollback());
+		gcra.reconfigure(500, 2000, 0);
+		assertEquals(gcra.admissible(500), 1000);
+		assertTrue(gcra.rollback());
+		assertEquals(gcra.admissible(1000), 500);
+		assertTrue(gcra.rollback());
+		gcra.reconfigure(500, 2000, 1500);
+		assertEquals(gcra.admissible(500), 0);
+		assertTrue(gcra.commit());
+		assertEquals(gcra.admissible(500), 1500);
+		assertTrue(gcra.rollback());
+		gcra.reconfigure(1000, 500, 0);
+		assertEquals(gcra.admissible(1000), 625);
+		assertTrue(gcra.rollback());
+		assertFalse(gcra.isApproximate());
+		gcra.reconfigure(1000, -1, -1);
+		assertTrue(gcra.isApproximate());
+		assertEquals(gcra.admissible(1000), 0);
+		gcra = new GenericCellRateAlgorithm(1000, 0);
+		gcra.reset(0);
+		gcra.reconfigure(0, 100, 0);
+		assertEquals(gcra.admissible(0), 0);
+		assertTrue(gcra.commit());
+		assertEquals(gcra.admissible(0), 100);
+		gcra = new GenericCellRateAlgorithm(1000, 0);
+		gcra.reset(0);
+		assertEquals(gcra.admissible(0), 0);
+		assertTrue(gcra.commit());
+		gcra.reconfigure(1500, 2000, 0);
+		assertEquals(gcra.admissible(1500), 0);
+		assertTrue(gcra.commit());
+		assertEquals(gcra.admissible(1500), 2000);
+		assertTrue(gcra.rollback());
+		assertFalse(gcra.isApproximate());
+		gcra.reconfigure(1000, 1000, 0);
+		assertTrue(gcra.isApproximate());
+		assertEquals(gcra.admissible(1500), 1000);
+	}
+
 }
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
+import com.diag.buckaroo.throttle.GeometricThrottle;
+import com.diag.buckaroo.throttle.InstrumentedThrottle;
+import com.diag.buckaroo.throttle.Throttle;
+
+public class TestInstrumentedThrottle extends TestCase {
+
+	public void test00Bucket() {
+		assertEquals(InstrumentedThrottle.bucket(0), 0);
+		assertEquals(InstrumentedThrottle.bucket(-1), 0);
+		assertEquals(InstrumentedThrottle.bucket(1), 1);
+		assertEquals(InstrumentedThrottle.bucket(2), 2);
+		assertEquals(InstrumentedThrottle.bucket(3), 2);
+		assertEquals(InstrumentedThrottle.bucket(4), 3);
+		assertEquals(InstrumentedThrottle.bucket(1000), 10);
+		assertEquals(InstrumentedThrottle.bucket(Long.MAX_VALUE), InstrumentedThrottle.BUCKETS - 1);
+	}
+
+	public void test01Counters() {
+		Throttle gcra = new GenericCellRateAlgorithm(1000, 0);
+		InstrumentedThrottle throttle = new InstrumentedThrottle(gcra);
+		assertSame(throttle.get(), gcra);
+		assertEquals(throttle.frequency(), gcra.frequency());
+		assertEquals(throttle.getFrequency(), gcra.frequency());
+		throttle.reset(0);
+		assertEquals(throttle.admissible(0), 0);
+		assertTrue(throttle.commit());
+		assertEquals(throttle.admissible(0), 1000);
+		assertTrue(throttle.rollback());
+		assertEquals(throttle.admissible(500), 500);
+		assertFalse(throttle.commit());
+		assertTrue(throttle.isAlarmed());
+		assertEquals(throttle.admissibleCount(10000, 5), 1);
+		assertTrue(throttle.commit(1));
+		assertEquals(throttle.admissibleCount(10000, 5), 0);
+		assertTrue(throttle.rollback());
+		System.out.println("throttle=" + throttle);
+		assertEquals(throttle.getAdmitted(), 2);
+		assertEquals(throttle.getDelayed(), 3);
+		assertEquals(throttle.getCommitted(), 3);
+		assertEquals(throttle.getAlarmed(), 1);
+		assertEquals(throttle.getRolledBack(), 2);
+		assertEquals(throttle.getApproximated(), 0);
+		assertEquals(throttle.getMaximumDelay(), 1000);
+		long[] histogram = throttle.getDelayHistogram();
+		assertEquals(histogram.length, InstrumentedThrottle.BUCKETS);
+		assertEquals(histogram[0], 2);
+		assertEquals(histogram[InstrumentedThrottle.bucket(500)], 1);
+		assertEquals(histogram[InstrumentedThrottle.bucket(1000)], 2);
+		throttle.clear();
+		assertEquals(throttle.getAdmitted(), 0);
+		assertEquals(throttle.getCommitted(), 0);
+		assertEquals(throttle.getMaximumDelay(), 0);
+		assertEquals(throttle.getDelayHistogram()[0], 0);
+		assertFalse(throttle.isAlarmed());
+	}
+
+	public void test02NonExtended() {
+		InstrumentedThrottle throttle = new InstrumentedThrottle(new GeometricThrottle());
+		throttle.reset(0);
+		assertEquals(throttle.admissibleCount(0, 4), 1);
+		assertTrue(throttle.commit(4));
+		assertEquals(throttle.getCommitted(), 4);
+		assertEquals(throttle.getAdmitted(), 1);
+		assertEquals(throttle.getDelayHistogram()[0], 1);
+	}
+
+	public void test04Approximated() {
+		InstrumentedThrottle throttle = new InstrumentedThrottle(new GenericCellRateAlgorithm(1000, 0));
+		throttle.reset(1000);
+		assertEquals(throttle.getApproximated(), 0);
+		assertEquals(throttle.admissible(-1), 0);
+		assertTrue(throttle.isApproximate());
+		assertTrue(throttle.commit());
+		assertEquals(throttle.getApproximated(), 1);
+		assertEquals(throttle.admissible(0), 999);
+		assertTrue(throttle.rollback());
+		assertEquals(throttle.getApproximated(), 1);
+		throttle.reset(0);
+		assertFalse(throttle.isApproximate());
+		assertEquals(throttle.getApproximated(), 1);
+		assertEquals(throttle.admissibleCount(-2000, 1), 1);
+		assertTrue(throttle.isApproximate());
+		assertTrue(throttle.rollback());
+		assertEquals(throttle.getApproximated(), 2);
+		throttle.reset(0);
+		assertEquals(throttle.getApproximated(), 2);
+	}
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.CellRateThrottle;
+import com.diag.buckaroo.throttle.KeyedThrottle;
+import com.diag.buckaroo.throttle.Throttle;
+
+public class TestKeyedThrottle extends TestCase {
+
+	public void test00Construction() {
+		KeyedThrottle<String> kt = new KeyedThrottle<String>(1000);
+		assertNotNull(kt.toString());
+		assertEquals(kt.size(), 0);
+		assertEquals(kt.frequency(), new CellRateThrottle().frequency());
+		kt = new KeyedThrottle<String>(-1, -1, -1, -1);
+		assertEquals(kt.tryAcquire("a", 0), 0);
+		System.out.println("kt=" + kt);
+	}
+
+	public void test01Admission() {
+		KeyedThrottle<String> kt = new KeyedThrottle<String>(1000000L, 250000L, 0L, KeyedThrottle.MAXIMUM_TICKS, 1000000L);
+		long now = 0;
+		assertEquals(kt.admissible("a", now), 0);
+		assertEquals(kt.size(), 0);
+		assertEquals(kt.tryAcquire("a", now), 0);
+		assertEquals(kt.size(), 1);
+		assertEquals(kt.admissible("a", now), 750000);
+		assertEquals(kt.tryAcquire("a", now), 750000);
+		assertEquals(kt.tryAcquire("b", now), 0);
+		assertEquals(kt.size(), 2);
+		assertFalse(kt.commit("b", now));
+		assertEquals(kt.tryAcquire("b", now), 1750000);
+		now += 750000;
+		assertEquals(kt.tryAcquire("a", now), 0);
+		kt.reset("b");
+		assertEquals(kt.size(), 1);
+		assertEquals(kt.tryAcquire("b", now), 0);
+		kt.reset();
+		assertEquals(kt.size(), 0);
+	}
+
+	public void test02Equivalence() {
+		int pcr = 1000;
+		int cdvt = 250;
+		int scr = 100;
+		int mbs = 10;
+		KeyedThrottle<Integer> kt = new KeyedThrottle<Integer>(pcr, cdvt, scr, mbs);
+		Map<Integer, Throttle> crts = new HashMap<Integer, Throttle>();
+		Random random = new Random(0x5eed);
+		long now = 0;
+		for (int ii = 0; ii < 100000; ++ii) {
+			now += random.nextInt(200);
+			Integer key = Integer.valueOf(random.nextInt(16));
+			Throttle crt = crts.get(key);
+			if (crt == null) {
+				crt = new CellRateThrottle(pcr, cdvt, scr, mbs);
+				crt.reset(now);
+				crts.put(key, crt);
+			}
+			long expected = crt.admissible(now);
+			if (expected == 0) { crt.commit(); } else { crt.rollback(); }
+			assertEquals(kt.tryAcquire(key, now), expected);
+		}
+		System.out.println("kt=" + kt);
+	}
+
+	public void test03Eviction() {
+		KeyedThrottle<Integer> kt = new KeyedThrottle<Integer>(1000L, 0L, 10000L, 100000L, 1000000L);
+		long now = kt.time();
+		for (int ii = 0; ii < 1000; ++ii) {
+			assertEquals(kt.tryAcquire(Integer.valueOf(ii), now), 0);
+		}
+		assertEquals(kt.size(), 1000);
+		assertEquals(kt.evict(now), 0);
+		assertEquals(kt.size(), 1000);
+		assertEquals(kt.evict(now + 10000), 1000);
+		assertEquals(kt.size(), 0);
+		for (int ii = 0; ii < 1000; ++ii) {
+			assertEquals(kt.tryAcquire(Integer.valueOf(ii), now + 20000), 0);
+		}
+		assertEquals(kt.size(), 1000);
+		assertEquals(kt.tryAcquire(Integer.valueOf(-1), now + 2000000), 0);
+		assertEquals(kt.size(), 1);
+	}
+
+}
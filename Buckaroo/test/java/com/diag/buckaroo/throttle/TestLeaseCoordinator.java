@@ -0,0 +1,175 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.AtomicCellRateAlgorithm;
+import com.diag.buckaroo.throttle.LeaseCoordinator;
+import com.diag.buckaroo.throttle.LeasedThrottle;
+
+public class TestLeaseCoordinator extends TestCase {
+
+	public void test00LeaseRelease() {
+		AtomicCellRateAlgorithm gcra = new AtomicCellRateAlgorithm(1000, 0);
+		gcra.reset(0);
+		assertEquals(gcra.lease(0, 10), 1);
+		assertEquals(gcra.lease(0, 10), 0);
+		assertEquals(gcra.admissible(0), 1000);
+		assertEquals(gcra.lease(0, 5000, 10), 5);
+		assertEquals(gcra.admissible(0), 6000);
+		gcra.release(0, 4);
+		assertEquals(gcra.admissible(0), 2000);
+		gcra.release(0, 100);
+		assertEquals(gcra.admissible(0), 0);
+		gcra.release(0, 1);
+		assertEquals(gcra.admissible(0), 0);
+		assertEquals(gcra.lease(0, 0), 0);
+		assertEquals(gcra.lease(0, 2500, 3), 3);
+		assertEquals(gcra.admissible(0), 3000);
+	}
+
+	public void test01Protocol() throws IOException, InterruptedException {
+		AtomicCellRateAlgorithm gcra = new AtomicCellRateAlgorithm(1000, 0);
+		gcra.reset();
+		LeaseCoordinator coordinator = new LeaseCoordinator(gcra, 0, 10000);
+		assertEquals(coordinator.serve("BOGUS 1"), LeaseCoordinator.ERROR);
+		assertEquals(coordinator.serve("LEASE"), LeaseCoordinator.ERROR);
+		assertEquals(coordinator.serve("LEASE -1"), LeaseCoordinator.ERROR);
+		assertEquals(coordinator.serve("LEASE x"), LeaseCoordinator.ERROR);
+		assertSame(coordinator.start(), coordinator);
+		assertSame(coordinator.start(), coordinator);
+		assertTrue(coordinator.getPort() > 0);
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), coordinator.getPort());
+		try {
+			BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+			Writer output = new OutputStreamWriter(socket.getOutputStream(), "US-ASCII");
+			output.write("LEASE 5\n");
+			output.flush();
+			assertEquals(input.readLine(), "GRANT 5 10000 0");
+			output.write("RETURN 5\nNONSENSE\n");
+			output.flush();
+			assertEquals(input.readLine(), LeaseCoordinator.OK);
+			assertEquals(input.readLine(), LeaseCoordinator.ERROR);
+			output.write("LEASE 1000\n");
+			output.flush();
+			String[] tokens = input.readLine().split(" ");
+			assertEquals(tokens[0], LeaseCoordinator.GRANT);
+			int granted = Integer.parseInt(tokens[1]);
+			assertTrue(granted >= 10);
+			assertTrue(granted <= 12);
+			output.write("LEASE 1000\n");
+			output.flush();
+			tokens = input.readLine().split(" ");
+			assertEquals(Integer.parseInt(tokens[1]), 0);
+			assertTrue(Long.parseLong(tokens[3]) > 0);
+		} finally {
+			socket.close();
+		}
+		System.out.println("coordinator=" + coordinator);
+		assertSame(coordinator.stop(), coordinator);
+		assertSame(coordinator.stop(), coordinator);
+	}
+
+	public void test02Shared() throws IOException, InterruptedException {
+		int pcr = 2000;
+		AtomicCellRateAlgorithm gcra = new AtomicCellRateAlgorithm(GenericCellRateAlgorithm.US_PER_S / pcr, 0);
+		gcra.reset();
+		long ttl = 50000;
+		LeaseCoordinator coordinator = new LeaseCoordinator(gcra, 0, ttl).start();
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), coordinator.getPort());
+		LeasedThrottle one = new LeasedThrottle(address, 20);
+		LeasedThrottle two = new LeasedThrottle(address, 20);
+		one.reset();
+		two.reset();
+		int admitted = 0;
+		long start = System.nanoTime();
+		long duration = 500000000L;
+		while ((System.nanoTime() - start) < duration) {
+			LeasedThrottle throttle = ((admitted & 1) == 0) ? one : two;
+			if (throttle.admissible() == 0) {
+				assertTrue(throttle.commit());
+				++admitted;
+			} else {
+				assertTrue(throttle.rollback());
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.println("admitted=" + admitted + " elapsed=" + elapsed + "ns one=" + one + " two=" + two);
+		one.close();
+		two.close();
+		long maximum = ((pcr * (elapsed / 1000)) / GenericCellRateAlgorithm.US_PER_S) + ((2 * pcr * ttl) / GenericCellRateAlgorithm.US_PER_S) + 2;
+		assertTrue(admitted <= maximum);
+		assertTrue(admitted >= (pcr * duration / 1000000000L / 2));
+		assertFalse(one.isApproximate());
+		coordinator.stop();
+	}
+
+	public void test03Unreachable() throws IOException, InterruptedException {
+		AtomicCellRateAlgorithm gcra = new AtomicCellRateAlgorithm(1000, 0);
+		LeaseCoordinator coordinator = new LeaseCoordinator(gcra).start();
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), coordinator.getPort());
+		coordinator.stop();
+		LeasedThrottle throttle = new LeasedThrottle(address);
+		throttle.getLogger().setUseParentHandlers(false);
+		assertTrue(throttle.admissible() > 0);
+		assertTrue(throttle.isApproximate());
+		assertFalse(throttle.commit());
+		assertTrue(throttle.isAlarmed());
+		throttle.close();
+	}
+
+	public void test04Unresponsive() throws IOException {
+		ServerSocket listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		try {
+			InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), listener.getLocalPort());
+			LeasedThrottle throttle = new LeasedThrottle(address);
+			throttle.getLogger().setUseParentHandlers(false);
+			long then = System.nanoTime();
+			assertEquals(throttle.admissible(), GenericCellRateAlgorithm.US_PER_S);
+			long elapsed = System.nanoTime() - then;
+			System.out.println("elapsed=" + elapsed + "ns throttle=" + throttle);
+			assertTrue(elapsed >= 900000000L);
+			assertTrue(elapsed < 5000000000L);
+			assertTrue(throttle.isApproximate());
+			assertFalse(throttle.commit());
+			then = System.nanoTime();
+			long delay = throttle.admissible();
+			elapsed = System.nanoTime() - then;
+			assertTrue(delay > 0);
+			assertTrue(delay <= GenericCellRateAlgorithm.US_PER_S);
+			assertTrue(elapsed < 500000000L);
+			assertTrue(throttle.isApproximate());
+			throttle.close();
+		} finally {
+			listener.close();
+		}
+	}
+
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.CellRateThrottle;
+import com.diag.buckaroo.throttle.CompoundThrottle;
+import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
+import com.diag.buckaroo.throttle.ManifoldThrottle;
+import com.diag.buckaroo.throttle.PromiscuousThrottle;
+import com.diag.buckaroo.throttle.Throttle;
+
+public class TestManifoldThrottle extends TestCase {
+
+	static class CountingThrottle extends GenericCellRateAlgorithm {
+		int asked = 0;
+		CountingThrottle(long increment, long limit) { super(increment, limit); }
+		public long admissible(long ticks) { ++asked; return super.admissible(ticks); }
+	}
+
+	public void test00Construction() {
+		ManifoldThrottle manifold = new ManifoldThrottle();
+		System.out.println("manifold=" + manifold);
+		assertEquals(manifold.size(), 0);
+		assertEquals(manifold.frequency(), 0);
+		assertEquals(manifold.time(), 0);
+		assertEquals(manifold.admissible(), 0);
+		assertTrue(manifold.commit());
+		assertEquals(manifold.admissibleCount(10), 10);
+		assertTrue(manifold.commit(10));
+		assertTrue(manifold.isValid());
+		assertFalse(manifold.isAlarmed());
+		assertFalse(manifold.isApproximate());
+		Throttle gcra = new GenericCellRateAlgorithm(1000);
+		manifold = new ManifoldThrottle(new PromiscuousThrottle(), gcra, new PromiscuousThrottle());
+		System.out.println("manifold=" + manifold);
+		assertEquals(manifold.size(), 1);
+		assertSame(manifold.get(0), gcra);
+		assertEquals(manifold.frequency(), gcra.frequency());
+		manifold.reset(0);
+		assertEquals(manifold.admissible(0), 0);
+		assertTrue(manifold.commit());
+		assertEquals(manifold.admissible(0), 1000);
+		assertTrue(manifold.rollback());
+		assertFalse(manifold.isAlarmed());
+	}
+
+	public void test01ShortCircuit() {
+		CountingThrottle first = new CountingThrottle(1000, 0);
+		CountingThrottle second = new CountingThrottle(100, 0);
+		ManifoldThrottle manifold = new ManifoldThrottle(first, second);
+		manifold.reset(0);
+		assertEquals(manifold.admissible(0), 0);
+		assertTrue(manifold.commit());
+		assertEquals(first.asked, 1);
+		assertEquals(second.asked, 1);
+		assertEquals(manifold.admissible(500), 500);
+		assertEquals(first.asked, 2);
+		assertEquals(second.asked, 1);
+		assertTrue(manifold.rollback());
+		assertEquals(second.asked, 1);
+		assertEquals(manifold.admissibleCount(500, 10), 0);
+		assertEquals(second.asked, 1);
+		assertTrue(manifold.rollback());
+		assertEquals(manifold.admissible(500), 500);
+		assertFalse(manifold.commit());
+		assertEquals(second.asked, 2);
+		assertTrue(first.isAlarmed());
+		assertFalse(second.isAlarmed());
+		assertTrue(manifold.isAlarmed());
+		assertEquals(second.admissible(500), 100);
+		second.rollback();
+		assertEquals(manifold.admissible(3000), 0);
+		assertTrue(manifold.commit());
+		assertFalse(manifold.isAlarmed());
+	}
+
+	public void test02Compound() {
+		int pcr = 1000;
+		int cdvt = 500;
+		int scr = 200;
+		int mbs = 8;
+		Random random = new Random(2);
+		CellRateThrottle compound = new CellRateThrottle(pcr, cdvt, scr, mbs);
+		ManifoldThrottle manifold = new ManifoldThrottle(
+			new GenericCellRateAlgorithm(CellRateThrottle.increment(pcr, cdvt), CellRateThrottle.limit(pcr, cdvt)),
+			new GenericCellRateAlgorithm(CellRateThrottle.increment(pcr, cdvt, scr, mbs), CellRateThrottle.limit(pcr, cdvt, scr, mbs)));
+		long ticks = 0;
+		compound.reset(ticks);
+		manifold.reset(ticks);
+		for (int ii = 0; ii < 100000; ++ii) {
+			ticks += random.nextInt(5000);
+			long expected = compound.admissible(ticks);
+			long actual = manifold.admissible(ticks);
+			assertEquals(actual > 0, expected > 0);
+			assertTrue(actual <= expected);
+			if ((expected == 0) || (random.nextInt(100) == 0)) {
+				assertEquals(manifold.commit(), compound.commit());
+			} else {
+				assertEquals(manifold.rollback(), compound.rollback());
+			}
+			assertEquals(manifold.isAlarmed(), compound.isAlarmed());
+			int max = random.nextInt(4);
+			assertEquals(manifold.admissibleCount(ticks, max), compound.admissibleCount(ticks, max));
+			manifold.rollback();
+			compound.rollback();
+		}
+	}
+
+	public void test03Stack() {
+		long second = GenericCellRateAlgorithm.US_PER_S;
+		long minute = 60 * second;
+		long day = 24 * 60 * minute;
+		ManifoldThrottle manifold = new ManifoldThrottle(
+			new GenericCellRateAlgorithm(second / 10, second / 2),
+			new GenericCellRateAlgorithm(minute / 100, minute / 4),
+			new GenericCellRateAlgorithm(day / 1000, day / 8),
+			new GenericCellRateAlgorithm(second / 20));
+		Throttle compound = new CompoundThrottle(
+			new CompoundThrottle(new GenericCellRateAlgorithm(second / 10, second / 2), new GenericCellRateAlgorithm(minute / 100, minute / 4)),
+			new CompoundThrottle(new GenericCellRateAlgorithm(day / 1000, day / 8), new GenericCellRateAlgorithm(second / 20)));
+		manifold.reset(0);
+		compound.reset(0);
+		int admitted = 0;
+		for (long ticks = 0; ticks < (5 * minute); ticks += 1000) {
+			long delay = manifold.admissible(ticks);
+			assertEquals(delay > 0, compound.admissible(ticks) > 0);
+			if (delay == 0) {
+				assertTrue(manifold.commit());
+				assertTrue(compound.commit());
+				++admitted;
+			} else {
+				assertTrue(manifold.rollback());
+				assertTrue(compound.rollback());
+			}
+		}
+		System.out.println("admitted=" + admitted + " manifold=" + manifold);
+		assertTrue(admitted > 0);
+		assertTrue(admitted <= (5 * 100 + 25));
+	}
+
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.PriorityThrottle;
+import com.diag.buckaroo.throttle.Throttle;
+
+public class TestPriorityThrottle extends TestCase {
+
+	static int offer(Throttle throttle, long ticks) {
+		if (throttle.admissible(ticks) > 0) {
+			throttle.rollback();
+			return 0;
+		}
+		assertTrue(throttle.commit());
+		return 1;
+	}
+
+	public void test00Reserved() {
+		PriorityThrottle throttle = new PriorityThrottle(1000, 0, new double[] { 0.5, 0.5 });
+		assertEquals(throttle.size(), 2);
+		Throttle high = throttle.getThrottle(0);
+		Throttle low = throttle.getThrottle(1);
+		throttle.reset(0);
+		assertEquals(low.admissible(0), 0);
+		assertTrue(low.commit());
+		assertEquals(high.admissible(0), 1000);
+		assertTrue(high.rollback());
+		assertEquals(low.admissible(1000), 0);
+		assertTrue(low.commit());
+		assertEquals(low.admissible(2000), 1000);
+		assertTrue(low.rollback());
+		assertEquals(high.admissible(2000), 0);
+		assertTrue(high.commit());
+		assertEquals(high.admissible(3000), 0);
+		assertTrue(high.rollback());
+		assertEquals(low.admissible(3000), 0);
+		assertTrue(low.commit());
+		assertEquals(high.admissible(3500), 500);
+		assertFalse(high.commit());
+		assertTrue(high.isAlarmed());
+		assertEquals(throttle.getBorrowed(0), 0);
+		assertEquals(throttle.getBorrowed(1), 0);
+		System.out.println("throttle=" + throttle);
+	}
+
+	public void test01Contention() {
+		PriorityThrottle throttle = new PriorityThrottle(1000, 0, new double[] { 0.5, 0.5 });
+		Throttle high = throttle.getThrottle(0);
+		Throttle low = throttle.getThrottle(1);
+		throttle.reset(0);
+		int highs = 0;
+		int lows = 0;
+		for (long ticks = 0; ticks < 1000000; ticks += 100) {
+			lows += offer(low, ticks);
+			highs += offer(high, ticks);
+		}
+		System.out.println("highs=" + highs + " lows=" + lows);
+		assertTrue(lows <= 501);
+		assertTrue(highs >= 499);
+		assertTrue((highs + lows) <= 1001);
+	}
+
+	public void test02Borrow() {
+		PriorityThrottle throttle = new PriorityThrottle(1000, 0, new double[] { 0.5, 0.5 });
+		Throttle high = throttle.getThrottle(0);
+		Throttle low = throttle.getThrottle(1);
+		throttle.reset(0);
+		int highs = 0;
+		for (long ticks = 0; ticks < 1000000; ticks += 100) {
+			highs += offer(high, ticks);
+		}
+		assertEquals(highs, 1000);
+		assertEquals(throttle.getBorrowed(0), 499);
+		throttle.reset(2000000);
+		int lows = 0;
+		for (long ticks = 2000000; ticks < 3000000; ticks += 100) {
+			lows += offer(low, ticks);
+		}
+		assertEquals(lows, 501);
+		assertEquals(throttle.getBorrowed(1), 0);
+	}
+
+	public void test03Pool() {
+		PriorityThrottle throttle = new PriorityThrottle(1000, 0, new double[] { 0.25, 0.25 });
+		Throttle high = throttle.getThrottle(0);
+		Throttle low = throttle.getThrottle(1);
+		throttle.reset(0);
+		int lows = 0;
+		for (long ticks = 0; ticks < 1000000; ticks += 100) {
+			lows += offer(low, ticks);
+		}
+		assertEquals(lows, 751);
+		assertEquals(throttle.getBorrowed(1), 500);
+		int highs = 0;
+		for (long ticks = 2000000; ticks < 3000000; ticks += 100) {
+			highs += offer(high, ticks);
+		}
+		assertEquals(highs, 1000);
+	}
+
+	public void test04VariableBitRate() {
+		PriorityThrottle throttle = new PriorityThrottle(1000, 0, 100, 10, new double[] { 0.2, 0.8 });
+		Throttle high = throttle.getThrottle(0);
+		Throttle low = throttle.getThrottle(1);
+		throttle.reset(0);
+		int highs = 0;
+		int lows = 0;
+		for (long ticks = 0; ticks < 10000000; ticks += 100) {
+			lows += offer(low, ticks);
+			highs += offer(high, ticks);
+		}
+		System.out.println("highs=" + highs + " lows=" + lows);
+		assertTrue((highs + lows) <= 1010);
+		assertTrue(highs >= 200);
+		assertTrue(lows >= 790);
+		assertFalse(throttle.isApproximate());
+		assertTrue(throttle.isValid());
+	}
+
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.BandwidthAlgorithm;
+import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
+import com.diag.buckaroo.throttle.RateMeter;
+
+public class TestRateMeter extends TestCase {
+
+	public void test00Empty() {
+		RateMeter meter = new RateMeter();
+		assertEquals(meter.frequency(), GenericCellRateAlgorithm.US_PER_S);
+		meter.reset(0);
+		assertEquals(meter.getTotal(), 0);
+		assertEquals(meter.getCount(0), 0);
+		assertEquals(meter.getRate1(0), 0.0);
+		assertEquals(meter.getRate10(GenericCellRateAlgorithm.US_PER_S), 0.0);
+		assertEquals(meter.getRate60(GenericCellRateAlgorithm.US_PER_S * 2), 0.0);
+		System.out.println("meter=" + meter);
+	}
+
+	public void test01Steady() {
+		RateMeter meter = new RateMeter(GenericCellRateAlgorithm.US_PER_S);
+		meter.reset(0);
+		long ticks = 0;
+		for (int index = 0; index < 120000; ++index) {
+			meter.mark(ticks);
+			ticks += 1000;
+		}
+		ticks -= 1000;
+		assertEquals(meter.getTotal(), 120000);
+		long count = meter.getCount(ticks);
+		assertTrue(count >= 990);
+		assertTrue(count <= 1000);
+		assertTrue(Math.abs(meter.getWindowRate(ticks) - 1000.0) <= 10.0);
+		assertTrue(Math.abs(meter.getRate1(ticks) - 1000.0) < 1.0);
+		assertTrue(Math.abs(meter.getRate10(ticks) - 1000.0) < 1.0);
+		assertTrue(Math.abs(meter.getRate60(ticks) - (1000.0 * (1.0 - Math.exp(-2.0)))) < 5.0);
+		System.out.println("meter=" + meter);
+		ticks += 10 * GenericCellRateAlgorithm.US_PER_S;
+		assertEquals(meter.getCount(ticks), 0);
+		assertTrue(meter.getRate1(ticks) < 0.1);
+		assertTrue(Math.abs(meter.getRate10(ticks) - (1000.0 * Math.exp(-1.0))) < 5.0);
+		assertEquals(meter.getTotal(), 120000);
+	}
+
+	public void test02Window() {
+		RateMeter meter = new RateMeter(GenericCellRateAlgorithm.US_PER_S, 1000, 10, GenericCellRateAlgorithm.PRECISE);
+		meter.reset(0);
+		meter.mark(0, 5);
+		meter.mark(150, 3);
+		meter.mark(950, 2);
+		assertEquals(meter.getCount(950), 10);
+		assertEquals(meter.getCount(999), 10);
+		assertEquals(meter.getCount(1000), 5);
+		assertEquals(meter.getCount(1099), 5);
+		assertEquals(meter.getCount(1100), 2);
+		assertEquals(meter.getCount(1899), 2);
+		assertEquals(meter.getCount(1900), 0);
+		meter.mark(2050, 1);
+		assertEquals(meter.getCount(2050), 1);
+		assertEquals(meter.getTotal(), 11);
+	}
+
+	public void test03Octets() {
+		RateMeter meter = new RateMeter(BandwidthAlgorithm.NS_PER_S);
+		meter.reset(0);
+		long ticks = 0;
+		for (int index = 0; index < 10000; ++index) {
+			meter.mark(ticks, 1500);
+			ticks += BandwidthAlgorithm.NS_PER_MS;
+		}
+		assertEquals(meter.getTotal(), 15000000);
+		assertTrue(Math.abs(meter.getRate1(ticks - BandwidthAlgorithm.NS_PER_MS) - 1500000.0) < 1000.0);
+	}
+
+	public void test04Concurrent() throws Exception {
+		final RateMeter meter = new RateMeter();
+		final int events = 100000;
+		Thread[] threads = new Thread[4];
+		for (int index = 0; index < threads.length; ++index) {
+			threads[index] = new Thread() {
+				public void run() {
+					for (int event = 0; event < events; ++event) {
+						meter.mark();
+					}
+				}
+			};
+		}
+		for (Thread thread : threads) { thread.start(); }
+		for (Thread thread : threads) { thread.join(); }
+		System.out.println("meter=" + meter);
+		assertEquals(meter.getTotal(), events * threads.length);
+		assertTrue(meter.getCount() <= meter.getTotal());
+	}
+
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.BandwidthThrottle;
+import com.diag.buckaroo.throttle.SelectorPacer;
+import com.diag.buckaroo.throttle.Throttle;
+
+public class TestSelectorPacer extends TestCase {
+
+	static class Drain extends Thread {
+		final Pipe.SourceChannel source;
+		final AtomicLong total = new AtomicLong(0);
+		Drain(Pipe.SourceChannel source) { this.source = source; setDaemon(true); }
+		public void run() {
+			ByteBuffer buffer = ByteBuffer.allocate(65536);
+			try {
+				while (source.read(buffer) >= 0) {
+					total.addAndGet(buffer.position());
+					buffer.clear();
+				}
+			} catch (Exception exception) {
+				// Closed.
+			}
+		}
+	}
+
+	public void test00Idle() throws Exception {
+		SelectorPacer pacer = new SelectorPacer();
+		assertEquals(pacer.size(), 0);
+		assertEquals(pacer.delay(System.nanoTime()), -1);
+		assertEquals(pacer.timeout(System.nanoTime()), 0);
+		assertEquals(pacer.resume(), 0);
+		System.out.println("pacer=" + pacer);
+	}
+
+	public void test01Suspend() throws Exception {
+		Selector selector = Selector.open();
+		Pipe pipe = Pipe.open();
+		Drain drain = new Drain(pipe.source());
+		drain.start();
+		pipe.sink().configureBlocking(false);
+		SelectionKey key = pipe.sink().register(selector, SelectionKey.OP_WRITE);
+		SelectorPacer pacer = new SelectorPacer(1000);
+		Throttle throttle = new BandwidthThrottle(100000);
+		pacer.register(key, throttle);
+		assertSame(pacer.getThrottle(key), throttle);
+		ByteBuffer buffer = ByteBuffer.allocate(10000);
+		assertEquals(pacer.write(key, buffer), 1000);
+		assertTrue(pacer.isSuspended(key));
+		assertEquals(key.interestOps() & SelectionKey.OP_WRITE, 0);
+		assertEquals(pacer.write(key, buffer), 0);
+		long now = System.nanoTime();
+		long delay = pacer.delay(now);
+		assertTrue(delay > TimeUnit.MILLISECONDS.toNanos(5));
+		assertTrue(delay <= TimeUnit.MILLISECONDS.toNanos(10));
+		assertTrue(pacer.timeout(now) >= 5);
+		assertTrue(pacer.timeout(now) <= 10);
+		assertEquals(pacer.resume(now), 0);
+		assertEquals(pacer.resume(now + delay), 1);
+		assertFalse(pacer.isSuspended(key));
+		assertEquals(key.interestOps() & SelectionKey.OP_WRITE, SelectionKey.OP_WRITE);
+		assertSame(pacer.unregister(key), throttle);
+		assertNull(pacer.unregister(key));
+		pipe.sink().close();
+		selector.close();
+		drain.join();
+		assertEquals(drain.total.get(), 1000);
+	}
+
+	public void test02Unregister() throws Exception {
+		Selector selector = Selector.open();
+		Pipe pipe = Pipe.open();
+		pipe.sink().configureBlocking(false);
+		SelectionKey key = pipe.sink().register(selector, SelectionKey.OP_WRITE);
+		SelectorPacer pacer = new SelectorPacer(100);
+		pacer.register(key, new BandwidthThrottle(1000));
+		assertEquals(pacer.write(key, ByteBuffer.allocate(1000)), 100);
+		assertTrue(pacer.isSuspended(key));
+		assertEquals(key.interestOps(), 0);
+		pacer.unregister(key);
+		assertEquals(key.interestOps(), SelectionKey.OP_WRITE);
+		assertEquals(pacer.delay(System.nanoTime()), -1);
+		pipe.sink().close();
+		pipe.source().close();
+		selector.close();
+	}
+
+	public void test03Loop() throws Exception {
+		Selector selector = Selector.open();
+		Pipe[] pipes = new Pipe[] { Pipe.open(), Pipe.open() };
+		Drain[] drains = new Drain[pipes.length];
+		ByteBuffer[] buffers = new ByteBuffer[pipes.length];
+		SelectorPacer pacer = new SelectorPacer(1000);
+		for (int ii = 0; ii < pipes.length; ++ii) {
+			drains[ii] = new Drain(pipes[ii].source());
+			drains[ii].start();
+			pipes[ii].sink().configureBlocking(false);
+			SelectionKey key = pipes[ii].sink().register(selector, SelectionKey.OP_WRITE, Integer.valueOf(ii));
+			pacer.register(key, new BandwidthThrottle(100000 * (ii + 1)));
+			buffers[ii] = ByteBuffer.allocate(1000000);
+		}
+		long then = System.nanoTime();
+		long end = then + TimeUnit.MILLISECONDS.toNanos(500);
+		int iterations = 0;
+		while ((end - System.nanoTime()) > 0) {
+			++iterations;
+			pacer.select(selector);
+			Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+			while (selected.hasNext()) {
+				SelectionKey key = selected.next();
+				selected.remove();
+				if (key.isValid() && key.isWritable()) {
+					pacer.write(key, buffers[(Integer)key.attachment()]);
+				}
+			}
+		}
+		long elapsed = System.nanoTime() - then;
+		System.out.println("pacer=" + pacer + " iterations=" + iterations + " elapsed=" + elapsed);
+		for (int ii = 0; ii < pipes.length; ++ii) {
+			long written = buffers[ii].position();
+			long expected = (100000L * (ii + 1) * elapsed) / TimeUnit.SECONDS.toNanos(1);
+			System.out.println("written=" + written + " expected=" + expected);
+			assertTrue(written >= (expected * 7 / 10));
+			assertTrue(written <= (expected * 12 / 10) + 1000);
+		}
+		assertTrue(iterations < 400);
+		for (Pipe pipe : pipes) {
+			pipe.sink().close();
+		}
+		selector.close();
+	}
+
+}
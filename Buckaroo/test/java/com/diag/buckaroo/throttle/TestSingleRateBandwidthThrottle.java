@@ -0,0 +1,117 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.BandwidthThrottle;
+import com.diag.buckaroo.throttle.SingleRateBandwidthThrottle;
+
+public class TestSingleRateBandwidthThrottle extends TestCase {
+
+	void validateInitialState(Throttle srbt) {
+		long ticks = 0;
+		assertNotNull(srbt);
+		srbt.reset(ticks);
+		assertTrue(srbt.isValid());
+		assertNotNull(srbt.toString());
+		assertEquals(srbt.admissible(ticks), 0);
+		assertFalse(srbt.isAlarmed());
+		assertTrue(srbt.rollback());
+		assertFalse(srbt.isAlarmed());
+		assertEquals(srbt.admissible(ticks), 0);
+		assertFalse(srbt.isAlarmed());
+		srbt.reset(ticks);
+		assertFalse(srbt.isAlarmed());
+		assertEquals(srbt.admissible(ticks), 0);
+		assertTrue(srbt.commit());
+		assertFalse(srbt.isAlarmed());
+	}
+
+	public void test00Construction() {
+		Throttle srbt = new SingleRateBandwidthThrottle();
+		System.out.println("srbt=" + srbt);
+		validateInitialState(srbt);
+		for (int pbr : TestSingleRateThrottle.VALUES) {
+			srbt = new SingleRateBandwidthThrottle(pbr);
+			validateInitialState(srbt);
+			for (int jt : TestSingleRateThrottle.VALUES) {
+				srbt = new SingleRateBandwidthThrottle(pbr, jt);
+				System.out.println("pbr=" + pbr + " jt=" + jt + " srbt=" + srbt);
+				validateInitialState(srbt);
+			}
+		}
+	}
+
+	public void test01Time() {
+		Throttle srbt = new SingleRateBandwidthThrottle();
+		assertEquals(srbt.frequency(), new BandwidthThrottle().frequency());
+		long then = srbt.time();
+		for (int ii = 0; ii < 100; ++ii) {
+			try { Thread.sleep(1); } catch (Exception ignore) { }
+			long now = srbt.time();
+			assertTrue(now > then);
+			then = now;
+		}
+	}
+
+	public void test02Equivalence() {
+		long seed = 0;
+		for (int pbr : TestSingleRateThrottle.VALUES) {
+			for (int jt : TestSingleRateThrottle.VALUES) {
+				TestSingleRateThrottle.validateEquivalence(new SingleRateBandwidthThrottle(pbr, jt), new BandwidthThrottle(pbr, jt), ++seed, 1000);
+			}
+		}
+		TestSingleRateThrottle.validateEquivalence(new SingleRateBandwidthThrottle(1000000, 5000), new BandwidthThrottle(1000000, 5000), ++seed, 100000);
+		TestSingleRateThrottle.validateEquivalence(new SingleRateBandwidthThrottle(100000000, 0), new BandwidthThrottle(100000000, 0), ++seed, 100000);
+	}
+
+	public void test03Reconfigure() {
+		SingleRateBandwidthThrottle reconfigured = new SingleRateBandwidthThrottle(1000000, 0);
+		BandwidthThrottle original = new BandwidthThrottle(1000000, 0);
+		assertEquals(reconfigured.getPeakByteRate(), 1000000);
+		assertEquals(reconfigured.getJitterTolerance(), 0);
+		long ticks = 0;
+		reconfigured.reset(ticks);
+		original.reset(ticks);
+		for (int ii = 0; ii < 1000; ++ii) {
+			ticks += 7000;
+			if ((ii % 100) == 50) {
+				int pbr = 500000 + (ii * 3000);
+				int jt = ii;
+				reconfigured.reconfigure(ticks, pbr, jt);
+				original.reconfigure(ticks, pbr, jt);
+				assertEquals(reconfigured.getPeakByteRate(), pbr);
+				assertEquals(reconfigured.getJitterTolerance(), jt);
+			}
+			long delay = original.admissible(ticks);
+			assertEquals(reconfigured.admissible(ticks), delay);
+			int octets = (ii % 13) + 1;
+			assertEquals(reconfigured.commit(octets), original.commit(octets));
+			assertEquals(reconfigured.isApproximate(), original.isApproximate());
+		}
+		reconfigured.reconfigure(2000000, 0);
+		assertEquals(reconfigured.getPeakByteRate(), 2000000);
+		reconfigured.reset(0);
+		assertEquals(reconfigured.admissible(0), 0);
+		assertTrue(reconfigured.commit(10));
+		assertEquals(reconfigured.admissible(0), 5000);
+	}
+
+}
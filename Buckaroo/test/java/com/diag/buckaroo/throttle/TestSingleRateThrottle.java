@@ -0,0 +1,186 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.lang.Integer;
+import java.util.Random;
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.CellRateThrottle;
+import com.diag.buckaroo.throttle.SingleRateThrottle;
+
+public class TestSingleRateThrottle extends TestCase {
+
+	static final int[] VALUES = new int[] {
+		Integer.MIN_VALUE,
+		-1,
+		0,
+		1,
+		1000,
+		1000000,
+		1000000000,
+		Integer.MAX_VALUE
+	};
+
+	void validateInitialState(Throttle srt) {
+		long ticks = 0;
+		assertNotNull(srt);
+		srt.reset(ticks);
+		assertTrue(srt.isValid());
+		assertNotNull(srt.toString());
+		assertEquals(srt.admissible(ticks), 0);
+		assertFalse(srt.isAlarmed());
+		assertTrue(srt.rollback());
+		assertFalse(srt.isAlarmed());
+		assertEquals(srt.admissible(ticks), 0);
+		assertFalse(srt.isAlarmed());
+		srt.reset(ticks);
+		assertFalse(srt.isAlarmed());
+		assertEquals(srt.admissible(ticks), 0);
+		assertTrue(srt.commit());
+		assertFalse(srt.isAlarmed());
+	}
+
+	static void validateEquivalence(ExtendedThrottle actual, ExtendedThrottle expected, long seed, int iterations) {
+		Random random = new Random(seed);
+		long ticks = random.nextInt(1000000);
+		actual.reset(ticks);
+		expected.reset(ticks);
+		for (int ii = 0; ii < iterations; ++ii) {
+			ticks += random.nextInt(20000) - 100;
+			int choice = random.nextInt(8);
+			if (choice == 0) {
+				int max = random.nextInt(12) - 1;
+				assertEquals(actual.admissibleCount(ticks, max), expected.admissibleCount(ticks, max));
+				int count = random.nextInt(12) - 1;
+				assertEquals(actual.commit(count), expected.commit(count));
+			} else {
+				assertEquals(actual.admissible(ticks), expected.admissible(ticks));
+				if (choice < 4) {
+					assertEquals(actual.rollback(), expected.rollback());
+				} else {
+					assertEquals(actual.commit(), expected.commit());
+				}
+			}
+			assertEquals(actual.isAlarmed(), expected.isAlarmed());
+			assertEquals(actual.isValid(), expected.isValid());
+			assertEquals(actual.isApproximate(), expected.isApproximate());
+		}
+	}
+
+	public void test00Construction() {
+		Throttle srt = new SingleRateThrottle();
+		System.out.println("srt=" + srt);
+		validateInitialState(srt);
+		for (int pcr : VALUES) {
+			srt = new SingleRateThrottle(pcr);
+			validateInitialState(srt);
+			for (int cdvt : VALUES) {
+				srt = new SingleRateThrottle(pcr, cdvt);
+				System.out.println("pcr=" + pcr + " cdvt=" + cdvt + " srt=" + srt);
+				validateInitialState(srt);
+			}
+		}
+	}
+
+	public void test01Time() {
+		Throttle srt = new SingleRateThrottle();
+		assertEquals(srt.frequency(), new CellRateThrottle().frequency());
+		long then = srt.time();
+		for (int ii = 0; ii < 100; ++ii) {
+			try { Thread.sleep(1); } catch (Exception ignore) { }
+			long now = srt.time();
+			assertTrue(now > then);
+			then = now;
+		}
+	}
+
+	public void test02Equivalence() {
+		long seed = 0;
+		for (int pcr : VALUES) {
+			for (int cdvt : VALUES) {
+				validateEquivalence(new SingleRateThrottle(pcr, cdvt), new CellRateThrottle(pcr, cdvt), ++seed, 1000);
+			}
+		}
+		validateEquivalence(new SingleRateThrottle(100, 5000), new CellRateThrottle(100, 5000), ++seed, 100000);
+		validateEquivalence(new SingleRateThrottle(1000, 0), new CellRateThrottle(1000, 0), ++seed, 100000);
+	}
+
+	public void test03Example() {
+		int pcr = 10;
+		Throttle srt = new SingleRateThrottle(pcr);
+		System.out.println("srt=" + srt);
+		long then = System.currentTimeMillis();
+		long start = then;
+		for (int ii = 0; ii < 20; ++ii) {
+			long delay = CellRateThrottle.delay2ms(srt.admissible());
+			while (delay > 0) {
+				srt.rollback();
+				try { Thread.sleep(delay); } catch (Exception ignore) { }
+				delay = CellRateThrottle.delay2ms(srt.admissible());
+			}
+			srt.commit();
+			assertFalse(srt.isAlarmed());
+			long now = System.currentTimeMillis();
+			System.out.println("event=" + ii + " elapsed=" + (now - then) + "ms");
+			then = now;
+		}
+		assertTrue((then - start) >= ((19 * 1000) / pcr));
+	}
+
+	public void test04Reconfigure() {
+		SingleRateThrottle reconfigured = new SingleRateThrottle(1000, 0);
+		CellRateThrottle original = new CellRateThrottle(1000, 0);
+		assertEquals(reconfigured.getPeakCellRate(), 1000);
+		assertEquals(reconfigured.getCellDelayVariationTolerance(), 0);
+		long ticks = 0;
+		reconfigured.reset(ticks);
+		original.reset(ticks);
+		for (int ii = 0; ii < 1000; ++ii) {
+			ticks += 700;
+			if ((ii % 100) == 50) {
+				int pcr = 500 + (ii * 3);
+				int cdvt = ii;
+				reconfigured.reconfigure(ticks, pcr, cdvt);
+				original.reconfigure(ticks, pcr, cdvt);
+				assertEquals(reconfigured.getPeakCellRate(), pcr);
+				assertEquals(reconfigured.getCellDelayVariationTolerance(), cdvt);
+			}
+			long delay = original.admissible(ticks);
+			assertEquals(reconfigured.admissible(ticks), delay);
+			assertEquals(reconfigured.commit(), original.commit());
+		}
+		reconfigured.reconfigure(2000, 0);
+		assertEquals(reconfigured.getPeakCellRate(), 2000);
+		reconfigured.reset(0);
+		assertEquals(reconfigured.admissible(0), 0);
+		assertTrue(reconfigured.commit());
+		assertEquals(reconfigured.admissible(0), 500);
+		reconfigured.rollback();
+		reconfigured.reconfigure(250, 1000, 0);
+		assertEquals(reconfigured.admissible(250), 500);
+		reconfigured.rollback();
+		assertEquals(reconfigured.admissible(750), 0);
+		assertTrue(reconfigured.commit());
+		reconfigured.reconfigure(5000, 500, 0);
+		assertEquals(reconfigured.admissible(5000), 0);
+		assertFalse(reconfigured.isApproximate());
+	}
+
+}
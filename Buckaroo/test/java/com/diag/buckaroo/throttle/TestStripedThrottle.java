@@ -0,0 +1,218 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
+import com.diag.buckaroo.throttle.StripedThrottle;
+
+public class TestStripedThrottle extends TestCase {
+
+	public void test00Construction() {
+		StripedThrottle throttle = new StripedThrottle(1000, 250);
+		System.out.println("throttle=" + throttle);
+		assertEquals(throttle.getStripes(), Runtime.getRuntime().availableProcessors());
+		throttle = new StripedThrottle(1000, 250, 4);
+		assertTrue(throttle.isValid());
+		assertEquals(throttle.getStripes(), 4);
+		assertEquals(throttle.getEquivalentLimit(), 3250);
+		assertEquals(throttle.frequency(), new GenericCellRateAlgorithm().frequency());
+		throttle.reset(0);
+		assertEquals(throttle.admissible(0), 0);
+		assertFalse(throttle.isAlarmed());
+		assertTrue(throttle.rollback());
+		assertEquals(throttle.admissible(0), 0);
+		assertTrue(throttle.commit());
+		assertFalse(throttle.isAlarmed());
+		assertFalse(throttle.isApproximate());
+		throttle = new StripedThrottle(Long.MAX_VALUE, 0, 4);
+		assertFalse(throttle.isValid());
+		throttle = new StripedThrottle(-1, -1, 0);
+		assertTrue(throttle.isValid());
+		assertEquals(throttle.getStripes(), 1);
+	}
+
+	public void test01TryAcquire() {
+		StripedThrottle throttle = new StripedThrottle(1000, 0, 2);
+		int home = throttle.getHome();
+		int other = 1 - home;
+		long now = 0;
+		throttle.reset(now);
+		assertEquals(throttle.tryAcquire(now), 0);
+		assertEquals(throttle.getBacklog(home, now), 2000);
+		assertEquals(throttle.getBacklog(other, now), 0);
+		assertEquals(throttle.tryAcquire(now), 0);
+		assertEquals(throttle.getBacklog(other, now), 2000);
+		assertEquals(throttle.tryAcquire(now), 2000);
+		now += 1000;
+		assertEquals(throttle.tryAcquire(now), 1000);
+		now += 1000;
+		assertEquals(throttle.tryAcquire(now), 0);
+		assertEquals(throttle.getBacklog(home, now), 2000);
+		assertEquals(throttle.admissible(now), 0);
+		assertTrue(throttle.commit());
+		assertEquals(throttle.getBacklog(other, now), 2000);
+		assertEquals(throttle.admissible(now), 2000);
+		assertFalse(throttle.commit());
+		assertTrue(throttle.isAlarmed());
+		assertFalse(throttle.rollback());
+		assertEquals(throttle.getBacklog(home, now), 4000);
+	}
+
+	public void test02Rebalance() {
+		StripedThrottle throttle = new StripedThrottle(1000, 0, 2);
+		int home = throttle.getHome();
+		int other = 1 - home;
+		long now = 0;
+		throttle.reset(now);
+		assertEquals(throttle.admissible(now), 0);
+		assertTrue(throttle.commit());
+		assertFalse(throttle.commit());
+		assertEquals(throttle.getBacklog(home, now), 4000);
+		assertEquals(throttle.getBacklog(other, now), 0);
+		assertEquals(throttle.admissible(now), 0);
+		throttle.rebalance(now);
+		assertEquals(throttle.getBacklog(home, now), 2000);
+		assertEquals(throttle.getBacklog(other, now), 2000);
+		assertEquals(throttle.admissible(now), 2000);
+		now += 1000;
+		throttle.rebalance(now);
+		assertEquals(throttle.getBacklog(home, now), 1000);
+		assertEquals(throttle.getBacklog(other, now), 1000);
+		now += 5000;
+		throttle.rebalance(now);
+		assertEquals(throttle.getBacklog(home, now), 0);
+		assertEquals(throttle.getBacklog(other, now), 0);
+		assertEquals(throttle.tryAcquire(now), 0);
+		assertEquals(throttle.getBacklog(home, now), 2000);
+		throttle.rebalance(now);
+		assertEquals(throttle.getBacklog(home, now), 1000);
+		assertEquals(throttle.getBacklog(other, now), 1000);
+	}
+
+	public void test03Bound() {
+		long[][] contracts = new long[][] {
+			{ 1000, 0 },
+			{ 1000, 250 },
+			{ 1000, 10000 },
+			{ 100000, 2500000 },
+		};
+		int[] stripes = new int[] { 1, 2, 4, 16 };
+		Random random = new Random(0x5eed);
+		for (long[] contract : contracts) {
+			for (int count : stripes) {
+				StripedThrottle throttle = new StripedThrottle(contract[0], contract[1], count);
+				GenericCellRateAlgorithm monitor = new GenericCellRateAlgorithm(contract[0], throttle.getEquivalentLimit());
+				GenericCellRateAlgorithm gcra = new GenericCellRateAlgorithm(contract[0], contract[1]);
+				long now = random.nextInt(1000000);
+				long then = now;
+				throttle.reset(now);
+				monitor.reset(now);
+				gcra.reset(now);
+				int admitted = 0;
+				int conforming = 0;
+				for (int ii = 0; ii < 100000; ++ii) {
+					now += random.nextInt((int)contract[0] / 2 + 1);
+					if (random.nextInt(100) == 0) {
+						throttle.rebalance(now);
+					}
+					if (gcra.admissible(now) == 0) {
+						gcra.commit();
+						++conforming;
+					} else {
+						gcra.rollback();
+					}
+					if (throttle.tryAcquire(now) == 0) {
+						++admitted;
+						monitor.admissible(now);
+						assertTrue(monitor.commit());
+					}
+				}
+				long expected = (now - then) / contract[0];
+				System.out.println("stripes=" + count + " admitted=" + admitted + " conforming=" + conforming + " expected=" + expected + " throttle=" + throttle);
+				assertTrue(admitted >= ((conforming * 9) / 10));
+				assertTrue(admitted <= (expected + (throttle.getEquivalentLimit() / contract[0]) + 1));
+				assertFalse(throttle.isApproximate());
+			}
+		}
+	}
+
+	public void test04Concurrency() throws Exception {
+		final long increment = 1000;
+		final long limit = 250000;
+		final long ticks = 0;
+		final StripedThrottle throttle = new StripedThrottle(increment, limit, 4);
+		throttle.reset(ticks);
+		final AtomicInteger admitted = new AtomicInteger(0);
+		Thread[] threads = new Thread[8];
+		for (int ii = 0; ii < threads.length; ++ii) {
+			threads[ii] = new Thread() {
+				public void run() {
+					for (int jj = 0; jj < 1000; ++jj) {
+						if (throttle.tryAcquire(ticks) == 0) {
+							admitted.incrementAndGet();
+						}
+					}
+				}
+			};
+		}
+		for (Thread thread : threads) { thread.start(); }
+		for (Thread thread : threads) { thread.join(); }
+		System.out.println("admitted=" + admitted.get() + " throttle=" + throttle);
+		assertEquals(admitted.get(), 4 * ((limit / (increment * 4)) + 1));
+		assertTrue(admitted.get() <= ((throttle.getEquivalentLimit() / increment) + 1));
+	}
+
+	public void test05Rebalancer() throws Exception {
+		final long increment = 100;
+		final StripedThrottle throttle = new StripedThrottle(increment, 0, 4, 1000000, GenericCellRateAlgorithm.PRECISE);
+		throttle.reset();
+		throttle.start();
+		final AtomicInteger admitted = new AtomicInteger(0);
+		final long duration = 1000000;
+		final long then = throttle.time();
+		Thread[] threads = new Thread[2];
+		for (int ii = 0; ii < threads.length; ++ii) {
+			threads[ii] = new Thread() {
+				public void run() {
+					long now;
+					while (((now = throttle.time()) - then) < duration) {
+						if (throttle.tryAcquire(now) == 0) {
+							admitted.incrementAndGet();
+						} else {
+							Thread.yield();
+						}
+					}
+				}
+			};
+		}
+		for (Thread thread : threads) { thread.start(); }
+		for (Thread thread : threads) { thread.join(); }
+		throttle.stop();
+		long expected = duration / increment;
+		System.out.println("admitted=" + admitted.get() + " expected=" + expected + " throttle=" + throttle);
+		assertTrue(admitted.get() >= ((expected * 3) / 4));
+		assertTrue(admitted.get() <= (expected + 4));
+	}
+
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.Color;
+import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
+import com.diag.buckaroo.throttle.ThreeColorMarker;
+
+public class TestThreeColorMarker extends TestCase {
+
+	public void test00Colors() {
+		ThreeColorMarker marker = new ThreeColorMarker(new GenericCellRateAlgorithm(100, 0), new GenericCellRateAlgorithm(1000, 0));
+		marker.reset(0);
+		assertEquals(marker.mark(0), Color.GREEN);
+		assertEquals(marker.mark(100), Color.YELLOW);
+		assertEquals(marker.mark(150), Color.RED);
+		assertEquals(marker.mark(200), Color.YELLOW);
+		assertEquals(marker.mark(1000), Color.GREEN);
+		System.out.println("marker=" + marker);
+		assertEquals(marker.getCount(Color.GREEN), 2);
+		assertEquals(marker.getCount(Color.YELLOW), 2);
+		assertEquals(marker.getCount(Color.RED), 1);
+	}
+
+	public void test01ColorAware() {
+		ThreeColorMarker marker = new ThreeColorMarker(new GenericCellRateAlgorithm(100, 0), new GenericCellRateAlgorithm(1000, 0));
+		marker.reset(0);
+		assertEquals(marker.mark(1000), Color.GREEN);
+		assertEquals(marker.mark(2000, Color.YELLOW), Color.YELLOW);
+		assertEquals(marker.mark(2000), Color.RED);
+		assertEquals(marker.mark(2100), Color.GREEN);
+		assertEquals(marker.mark(2200, Color.RED), Color.RED);
+		assertEquals(marker.mark(2200), Color.YELLOW);
+		assertEquals(marker.mark(2250, Color.YELLOW), Color.RED);
+		assertEquals(marker.getCount(Color.GREEN), 2);
+		assertEquals(marker.getCount(Color.YELLOW), 2);
+		assertEquals(marker.getCount(Color.RED), 3);
+		marker.getCounters().reset();
+		assertEquals(marker.getCount(Color.RED), 0);
+	}
+
+	public void test02CellRate() {
+		ThreeColorMarker marker = new ThreeColorMarker(1000, 0, 100, 5);
+		long ticks = marker.time();
+		marker.reset(ticks);
+		int green = 0;
+		for (int index = 0; index < 20; ++index) {
+			Color color = marker.mark(ticks);
+			assertNotSame(color, Color.RED);
+			if (color == Color.GREEN) { ++green; }
+			ticks += 1000;
+		}
+		assertEquals(green, 6);
+		assertEquals(marker.mark(ticks - 500), Color.RED);
+		assertEquals(marker.getCount(Color.GREEN), 6);
+		assertEquals(marker.getCount(Color.YELLOW), 14);
+		assertEquals(marker.getCount(Color.RED), 1);
+		System.out.println("marker=" + marker);
+	}
+
+	public void test03Counters() throws Exception {
+		ThreeColorMarker marker = new ThreeColorMarker(1000, 0, 100, 5);
+		marker.reset();
+		marker.mark();
+		marker.getCounters().setMBeanName("test03MBean");
+		assertTrue(marker.getCounters().start());
+		try {
+			MBeanServer server = marker.getCounters().getMBeanServer();
+			ObjectName name = marker.getCounters().getMBeanName();
+			assertTrue(server.isRegistered(name));
+			assertEquals(server.getAttribute(name, Color.GREEN.toString()), Integer.valueOf(1));
+			assertEquals(server.getAttribute(name, Color.RED.toString()), Integer.valueOf(0));
+		} finally {
+			marker.getCounters().stop();
+		}
+	}
+
+}
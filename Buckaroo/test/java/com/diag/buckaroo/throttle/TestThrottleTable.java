@@ -0,0 +1,130 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
+import com.diag.buckaroo.throttle.ThrottleTable;
+
+public class TestThrottleTable extends TestCase {
+
+	File path;
+
+	public void setUp() throws IOException {
+		path = File.createTempFile(TestThrottleTable.class.getSimpleName(), ".dat");
+		path.delete();
+	}
+
+	public void tearDown() {
+		path.delete();
+	}
+
+	public void test00Construction() throws IOException {
+		ThrottleTable table = new ThrottleTable(path, 1000, 1000, 250);
+		assertEquals(table.capacity(), 1024);
+		assertEquals(table.size(), 0);
+		assertFalse(table.isApproximate());
+		assertEquals(table.frequency(), 1000000L);
+		long then = System.currentTimeMillis() * 1000;
+		long now = table.time();
+		assertTrue(Math.abs(now - then) < 1000000);
+		System.out.println("table=" + table);
+		table.close();
+		assertEquals(path.length(), ThrottleTable.HEADER + (1024L * ThrottleTable.RECORD));
+		try {
+			new ThrottleTable(path, 2048, 1000, 250);
+			fail();
+		} catch (IOException expected) {
+			System.out.println("expected=" + expected);
+		}
+	}
+
+	public void test01Equivalence() throws IOException {
+		ThrottleTable table = new ThrottleTable(path, 64, 1000, 250);
+		GenericCellRateAlgorithm[] gcras = new GenericCellRateAlgorithm[16];
+		Random random = new Random(0x5eed);
+		long now = table.time();
+		for (int ii = 0; ii < 100000; ++ii) {
+			now += random.nextInt(200);
+			int key = random.nextInt(gcras.length);
+			if (gcras[key] == null) {
+				gcras[key] = new GenericCellRateAlgorithm(1000, 250);
+				gcras[key].reset(now);
+			}
+			long expected = gcras[key].admissible(now);
+			assertEquals(table.admissible(key, now), expected);
+			if (random.nextInt(8) == 0) {
+				assertEquals(table.commit(key, now), gcras[key].commit());
+			} else if (expected == 0) {
+				assertEquals(table.tryAcquire(key, now), 0);
+				gcras[key].commit();
+			} else {
+				assertEquals(table.tryAcquire(key, now), expected);
+				gcras[key].rollback();
+			}
+		}
+		assertEquals(table.size(), gcras.length);
+		assertFalse(table.isApproximate());
+		table.close();
+	}
+
+	public void test02Persistence() throws IOException {
+		ThrottleTable table = new ThrottleTable(path, 1 << 16, 1000000, 0);
+		long now = table.time();
+		for (long key = 0; key < 10000; ++key) {
+			assertEquals(table.tryAcquire(key * 7919, now), 0);
+		}
+		assertEquals(table.size(), 10000);
+		table.close();
+		table = new ThrottleTable(path, 1 << 16, 1000000, 0);
+		assertEquals(table.size(), 10000);
+		for (long key = 0; key < 10000; ++key) {
+			assertEquals(table.tryAcquire(key * 7919, now), 1000000);
+		}
+		assertEquals(table.tryAcquire(-1, now), 0);
+		assertEquals(table.size(), 10001);
+		table.close();
+	}
+
+	public void test03Contract() throws IOException {
+		ThrottleTable table = new ThrottleTable(path, 4, 1000, 0);
+		long now = table.time() + 1000000;
+		assertTrue(table.contract(1, 10, 0));
+		assertEquals(table.tryAcquire(1, now), 0);
+		assertEquals(table.tryAcquire(1, now), 10);
+		assertEquals(table.tryAcquire(2, now), 0);
+		assertEquals(table.tryAcquire(2, now), 1000);
+		table.reset(2, now);
+		assertEquals(table.tryAcquire(2, now), 0);
+		assertEquals(table.tryAcquire(3, now), 0);
+		assertEquals(table.tryAcquire(4, now), 0);
+		assertFalse(table.isApproximate());
+		assertEquals(table.tryAcquire(5, now), 0);
+		assertTrue(table.isApproximate());
+		assertFalse(table.contract(6, 10, 0));
+		assertEquals(table.size(), 4);
+		table.close();
+	}
+
+}
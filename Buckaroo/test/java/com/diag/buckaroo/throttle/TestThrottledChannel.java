@@ -0,0 +1,113 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.BandwidthThrottle;
+import com.diag.buckaroo.throttle.ThrottledReadableByteChannel;
+import com.diag.buckaroo.throttle.ThrottledWritableByteChannel;
+
+public class TestThrottledChannel extends TestCase {
+
+	static final int PBR = 1000000;
+	static final int SIZE = 200000;
+
+	static byte[] data() {
+		byte[] data = new byte[SIZE];
+		for (int ii = 0; ii < data.length; ++ii) {
+			data[ii] = (byte)(ii * 7);
+		}
+		return data;
+	}
+
+	public void test00Write() throws IOException {
+		byte[] data = data();
+		ByteArrayOutputStream sink = new ByteArrayOutputStream();
+		ThrottledWritableByteChannel channel = new ThrottledWritableByteChannel(Channels.newChannel(sink), new BandwidthThrottle(PBR), 10000);
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		long then = System.nanoTime();
+		assertEquals(channel.write(buffer), SIZE);
+		long elapsed = System.nanoTime() - then;
+		System.out.println("elapsed=" + elapsed + "ns channel=" + channel);
+		assertFalse(buffer.hasRemaining());
+		assertEquals(buffer.limit(), SIZE);
+		assertTrue(Arrays.equals(sink.toByteArray(), data));
+		assertTrue(elapsed >= 180000000L);
+		assertTrue(channel.isOpen());
+		channel.close();
+		assertFalse(channel.isOpen());
+	}
+
+	public void test01Read() throws IOException {
+		byte[] data = data();
+		ThrottledReadableByteChannel channel = new ThrottledReadableByteChannel(Channels.newChannel(new ByteArrayInputStream(data)), new BandwidthThrottle(PBR), 10000);
+		ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+		long then = System.nanoTime();
+		int count;
+		while ((count = channel.read(buffer)) > 0) {
+			assertTrue(count <= 10000);
+			assertEquals(buffer.limit(), SIZE);
+		}
+		long elapsed = System.nanoTime() - then;
+		System.out.println("elapsed=" + elapsed + "ns channel=" + channel);
+		assertEquals(buffer.position(), SIZE);
+		assertTrue(Arrays.equals(buffer.array(), data));
+		assertTrue(elapsed >= 180000000L);
+		channel.close();
+	}
+
+	public void test02Transfer() throws IOException {
+		byte[] data = data();
+		File file = File.createTempFile(TestThrottledChannel.class.getSimpleName(), ".dat");
+		file.deleteOnExit();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		FileChannel fc = raf.getChannel();
+		try {
+			ThrottledReadableByteChannel in = new ThrottledReadableByteChannel(Channels.newChannel(new ByteArrayInputStream(data)), new BandwidthThrottle(PBR));
+			long then = System.nanoTime();
+			assertEquals(in.transferTo(fc, 0, SIZE), SIZE);
+			long elapsed = System.nanoTime() - then;
+			assertEquals(fc.size(), SIZE);
+			assertTrue(elapsed >= 130000000L);
+			ByteArrayOutputStream sink = new ByteArrayOutputStream();
+			ThrottledWritableByteChannel out = new ThrottledWritableByteChannel(Channels.newChannel(sink), new BandwidthThrottle(PBR));
+			then = System.nanoTime();
+			assertEquals(out.transferFrom(fc, 0, SIZE * 2), SIZE);
+			elapsed = System.nanoTime() - then;
+			assertTrue(Arrays.equals(sink.toByteArray(), data));
+			assertTrue(elapsed >= 130000000L);
+		} finally {
+			fc.close();
+			raf.close();
+			file.delete();
+		}
+	}
+
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.AdmissionScheduler;
+import com.diag.buckaroo.throttle.CellRateThrottle;
+import com.diag.buckaroo.throttle.ThrottledExecutor;
+
+public class TestThrottledExecutor extends TestCase {
+
+	/**
+	 * This Executor Service records the time at which each task is handed to it.
+	 */
+	static class RecordingExecutorService extends AbstractExecutorService {
+		final ExecutorService delegate;
+		final List<Long> dispatched = new ArrayList<Long>();
+		RecordingExecutorService(ExecutorService delegate) { this.delegate = delegate; }
+		public void execute(Runnable command) { synchronized (dispatched) { dispatched.add(System.nanoTime()); } delegate.execute(command); }
+		public void shutdown() { delegate.shutdown(); }
+		public List<Runnable> shutdownNow() { return delegate.shutdownNow(); }
+		public boolean isShutdown() { return delegate.isShutdown(); }
+		public boolean isTerminated() { return delegate.isTerminated(); }
+		public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException { return delegate.awaitTermination(timeout, unit); }
+	}
+
+	public void test00Pacing() throws Exception {
+		final int pcr = 100;
+		final int count = 20;
+		final int window = 4;
+		final long increment = TimeUnit.SECONDS.toNanos(1) / pcr;
+		final long tolerance = TimeUnit.MILLISECONDS.toNanos(5);
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		RecordingExecutorService recorder = new RecordingExecutorService(pool);
+		ThrottledExecutor executor = new ThrottledExecutor(recorder, new CellRateThrottle(pcr));
+		final CountDownLatch latch = new CountDownLatch(count);
+		long then = System.nanoTime();
+		for (int ii = 0; ii < count; ++ii) {
+			executor.execute(new Runnable() {
+				public void run() {
+					latch.countDown();
+				}
+			});
+		}
+		assertTrue(executor.size() > 0);
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		long elapsed = System.nanoTime() - then;
+		System.out.println("executor=" + executor + " elapsed=" + elapsed);
+		assertTrue(elapsed >= ((count - 1) * increment));
+		List<Long> dispatched;
+		synchronized (recorder.dispatched) {
+			dispatched = new ArrayList<Long>(recorder.dispatched);
+		}
+		assertEquals(dispatched.size(), count);
+		/*
+		 * A CBR contract with no CDVT admits no more than one task per increment, so
+		 * any window of that many gaps spans at least that many increments. The
+		 * tolerance allows for the lag between a task being admitted and it being
+		 * handed to the delegate, which may differ from one task to the next.
+		 */
+		for (int ii = window; ii < count; ++ii) {
+			long span = dispatched.get(ii) - dispatched.get(ii - window);
+			assertTrue("span=" + span, span >= ((window * increment) - tolerance));
+		}
+		executor.shutdown();
+		assertTrue(executor.isShutdown());
+		assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+		assertTrue(executor.isTerminated());
+		assertTrue(pool.isTerminated());
+		assertEquals(executor.size(), 0);
+		assertEquals(executor.getDispatched(), count);
+	}
+
+	public void test01Submit() throws Exception {
+		AdmissionScheduler scheduler = new AdmissionScheduler().start();
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		ThrottledExecutor executor = new ThrottledExecutor(pool, new CellRateThrottle(1000), scheduler);
+		Future<Integer> future = executor.submit(new Callable<Integer>() {
+			public Integer call() { return 42; }
+		});
+		assertEquals(future.get(1, TimeUnit.SECONDS), Integer.valueOf(42));
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+		try {
+			executor.execute(new Runnable() { public void run() { } });
+			fail();
+		} catch (RejectedExecutionException exception) {
+			// Expected.
+		}
+		scheduler.stop();
+	}
+
+	public void test02ShutdownDrains() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		ThrottledExecutor executor = new ThrottledExecutor(pool, new CellRateThrottle(50));
+		final AtomicInteger ran = new AtomicInteger(0);
+		for (int ii = 0; ii < 5; ++ii) {
+			executor.execute(new Runnable() { public void run() { ran.incrementAndGet(); } });
+		}
+		executor.shutdown();
+		assertFalse(executor.isTerminated());
+		assertFalse(pool.isShutdown());
+		assertTrue(executor.awaitTermination(2, TimeUnit.SECONDS));
+		assertEquals(ran.get(), 5);
+	}
+
+	public void test03ShutdownNow() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		ThrottledExecutor executor = new ThrottledExecutor(pool, new CellRateThrottle(1));
+		final AtomicInteger ran = new AtomicInteger(0);
+		for (int ii = 0; ii < 5; ++ii) {
+			executor.execute(new Runnable() { public void run() { ran.incrementAndGet(); } });
+		}
+		assertEquals(executor.size(), 4);
+		List<Runnable> tasks = executor.shutdownNow();
+		assertEquals(tasks.size(), 4);
+		assertEquals(executor.size(), 0);
+		assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+		assertTrue(executor.isTerminated());
+		assertEquals(ran.get(), 1);
+	}
+
+}
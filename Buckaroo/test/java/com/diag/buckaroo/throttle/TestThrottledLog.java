@@ -0,0 +1,206 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.ThrottledLogFilter;
+import com.diag.buckaroo.throttle.ThrottledLogHandler;
+import com.diag.buckaroo.throttle.TickSource;
+
+public class TestThrottledLog extends TestCase {
+
+	static class ManualTickSource implements TickSource {
+		long ns = 0;
+		public long nanoTime() { return ns; }
+	}
+
+	static class CollectingHandler extends Handler {
+		final List<LogRecord> records = new ArrayList<LogRecord>();
+		boolean flushed = false;
+		boolean closed = false;
+		public void publish(LogRecord record) { records.add(record); }
+		public void flush() { flushed = true; }
+		public void close() { closed = true; }
+	}
+
+	static class CollectingFilter extends ThrottledLogFilter {
+		final List<LogRecord> summaries = new ArrayList<LogRecord>();
+		CollectingFilter(int capacity, long interval, TickSource source) { super(capacity, interval, source); }
+		protected void summarize(LogRecord summary) { summaries.add(summary); }
+	}
+
+	static LogRecord record(Level level, String logger, String message) {
+		LogRecord record = new LogRecord(level, message);
+		record.setLoggerName(logger);
+		record.setParameters(new Object[] { "parameter" });
+		return record;
+	}
+
+	public void test00Geometric() {
+		ManualTickSource source = new ManualTickSource();
+		CollectingFilter filter = new CollectingFilter(16, 1000, source);
+		int loggable = 0;
+		for (int index = 1; index <= 100; ++index) {
+			boolean expected = (index & (index - 1)) == 0;
+			boolean actual = filter.isLoggable(record(Level.WARNING, "a", "flood {0}"));
+			assertEquals(actual, expected);
+			if (actual) { ++loggable; }
+		}
+		assertEquals(loggable, 7);
+		assertTrue(filter.isLoggable(record(Level.WARNING, "a", "other {0}")));
+		assertTrue(filter.isLoggable(record(Level.WARNING, "b", "flood {0}")));
+		assertEquals(filter.size(), 3);
+		assertTrue(filter.summaries.isEmpty());
+		System.out.println("filter=" + filter);
+	}
+
+	public void test01Summary() {
+		ManualTickSource source = new ManualTickSource();
+		CollectingFilter filter = new CollectingFilter(16, 1000, source);
+		for (int index = 0; index < 10; ++index) {
+			filter.isLoggable(record((index == 5) ? Level.SEVERE : Level.INFO, "a", "flood {0}"));
+		}
+		assertTrue(filter.summaries.isEmpty());
+		source.ns = 1000 * 1000;
+		assertTrue(filter.isLoggable(record(Level.INFO, "a", "other {0}")));
+		assertEquals(filter.summaries.size(), 1);
+		LogRecord summary = filter.summaries.get(0);
+		assertTrue(ThrottledLogFilter.isSummary(summary));
+		assertTrue(filter.isLoggable(summary));
+		assertEquals(summary.getLevel(), Level.SEVERE);
+		assertEquals(summary.getLoggerName(), "a");
+		assertEquals(summary.getMessage(), ThrottledLogFilter.SUPPRESSED);
+		assertEquals(summary.getParameters()[0], 6L);
+		assertEquals(summary.getParameters()[1], "flood {0}");
+		assertTrue(filter.sweep().isEmpty());
+	}
+
+	public void test02Evict() {
+		ManualTickSource source = new ManualTickSource();
+		CollectingFilter filter = new CollectingFilter(16, 1000, source);
+		assertTrue(filter.isLoggable(record(Level.INFO, "a", "flood {0}")));
+		assertTrue(filter.isLoggable(record(Level.INFO, "a", "flood {0}")));
+		assertFalse(filter.isLoggable(record(Level.INFO, "a", "flood {0}")));
+		assertEquals(filter.size(), 1);
+		assertEquals(filter.sweep().size(), 1);
+		assertEquals(filter.size(), 1);
+		assertTrue(filter.sweep().isEmpty());
+		assertEquals(filter.size(), 0);
+		assertTrue(filter.isLoggable(record(Level.INFO, "a", "flood {0}")));
+		assertTrue(filter.isLoggable(record(Level.INFO, "a", "flood {0}")));
+		assertFalse(filter.isLoggable(record(Level.INFO, "a", "flood {0}")));
+	}
+
+	public void test03Overflow() {
+		ManualTickSource source = new ManualTickSource();
+		CollectingFilter filter = new CollectingFilter(2, 1000, source);
+		assertTrue(filter.isLoggable(record(Level.INFO, "a", "one")));
+		assertTrue(filter.isLoggable(record(Level.INFO, "a", "two")));
+		assertEquals(filter.size(), 2);
+		assertTrue(filter.isLoggable(record(Level.INFO, "a", "three")));
+		assertTrue(filter.isLoggable(record(Level.INFO, "a", "four")));
+		assertFalse(filter.isLoggable(record(Level.INFO, "a", "five")));
+		assertEquals(filter.size(), 2);
+		List<LogRecord> summaries = filter.sweep();
+		assertEquals(summaries.size(), 1);
+		assertNull(summaries.get(0).getLoggerName());
+		assertEquals(summaries.get(0).getParameters()[0], 1L);
+		assertEquals(summaries.get(0).getParameters()[1], ThrottledLogFilter.OVERFLOW);
+	}
+
+	public void test04Handler() {
+		ManualTickSource source = new ManualTickSource();
+		CollectingHandler target = new CollectingHandler();
+		ThrottledLogHandler handler = new ThrottledLogHandler(target, 16, 1000, source);
+		assertSame(handler.getHandler(), target);
+		assertNotNull(handler.getThrottle());
+		handler.setLevel(Level.INFO);
+		handler.publish(record(Level.FINE, "a", "ignored {0}"));
+		for (int index = 0; index < 10; ++index) {
+			handler.publish(record(Level.WARNING, "a", "flood {0}"));
+		}
+		assertEquals(target.records.size(), 4);
+		handler.close();
+		assertTrue(target.flushed);
+		assertTrue(target.closed);
+		assertEquals(target.records.size(), 5);
+		LogRecord summary = target.records.get(4);
+		assertTrue(ThrottledLogFilter.isSummary(summary));
+		assertEquals(summary.getLevel(), Level.WARNING);
+		assertEquals(summary.getParameters()[0], 6L);
+		System.out.println("handler=" + handler);
+	}
+
+	public void test05Interval() {
+		ManualTickSource source = new ManualTickSource();
+		CollectingHandler target = new CollectingHandler();
+		ThrottledLogHandler handler = new ThrottledLogHandler(target, 16, 1000, source);
+		for (int index = 0; index < 3; ++index) {
+			handler.publish(record(Level.WARNING, "a", "flood {0}"));
+		}
+		assertEquals(target.records.size(), 2);
+		source.ns = 1000 * 1000;
+		handler.publish(record(Level.WARNING, "a", "flood {0}"));
+		assertEquals(target.records.size(), 4);
+		assertTrue(ThrottledLogFilter.isSummary(target.records.get(2)));
+		assertEquals(target.records.get(2).getParameters()[0], 1L);
+		assertFalse(ThrottledLogFilter.isSummary(target.records.get(3)));
+	}
+
+	public void test06Sweeper() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final List<LogRecord> summaries = new ArrayList<LogRecord>();
+		ThrottledLogFilter filter = new ThrottledLogFilter(16, 50000) {
+			protected void summarize(LogRecord summary) {
+				synchronized (summaries) {
+					summaries.add(summary);
+				}
+				latch.countDown();
+			}
+		};
+		assertSame(filter.start(), filter);
+		for (int index = 0; index < 10; ++index) {
+			filter.isLoggable(record(Level.WARNING, "a", "flood {0}"));
+		}
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertSame(filter.stop(), filter);
+		System.out.println("filter=" + filter);
+		synchronized (summaries) {
+			assertEquals(summaries.size(), 1);
+			assertEquals(summaries.get(0).getParameters()[0], 6L);
+		}
+		assertSame(filter.stop(), filter);
+		CollectingHandler target = new CollectingHandler();
+		ThrottledLogHandler handler = new ThrottledLogHandler(target, 16, 1000000);
+		assertSame(handler.start(), handler);
+		handler.close();
+		assertTrue(target.closed);
+		assertTrue(handler.getThrottle().toString().contains("enabled=false"));
+	}
+
+}
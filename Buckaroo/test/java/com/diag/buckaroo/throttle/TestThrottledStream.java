@@ -0,0 +1,94 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.BandwidthThrottle;
+import com.diag.buckaroo.throttle.ThrottledInputStream;
+import com.diag.buckaroo.throttle.ThrottledOutputStream;
+
+public class TestThrottledStream extends TestCase {
+
+	static final int PBR = 1000000;
+	static final int SIZE = 200000;
+
+	static byte[] data() {
+		byte[] data = new byte[SIZE];
+		for (int ii = 0; ii < data.length; ++ii) {
+			data[ii] = (byte)ii;
+		}
+		return data;
+	}
+
+	public void test00Output() throws IOException {
+		byte[] data = data();
+		ByteArrayOutputStream sink = new ByteArrayOutputStream();
+		ThrottledOutputStream out = new ThrottledOutputStream(sink, new BandwidthThrottle(PBR), 10000);
+		long then = System.nanoTime();
+		out.write(data[0]);
+		out.write(data, 1, data.length - 1);
+		out.close();
+		long elapsed = System.nanoTime() - then;
+		System.out.println("elapsed=" + elapsed + "ns out=" + out);
+		assertTrue(Arrays.equals(sink.toByteArray(), data));
+		assertTrue(elapsed >= 180000000L);
+	}
+
+	public void test01Input() throws IOException {
+		byte[] data = data();
+		ThrottledInputStream in = new ThrottledInputStream(new ByteArrayInputStream(data), new BandwidthThrottle(PBR), 10000);
+		byte[] buffer = new byte[SIZE];
+		long then = System.nanoTime();
+		int total = 0;
+		buffer[total++] = (byte)in.read();
+		int count;
+		while ((count = in.read(buffer, total, buffer.length - total)) > 0) {
+			assertTrue(count <= 10000);
+			total += count;
+		}
+		assertEquals(in.read(), -1);
+		in.close();
+		long elapsed = System.nanoTime() - then;
+		System.out.println("elapsed=" + elapsed + "ns in=" + in);
+		assertEquals(total, SIZE);
+		assertTrue(Arrays.equals(buffer, data));
+		assertTrue(elapsed >= 180000000L);
+	}
+
+	public void test02Skip() throws IOException {
+		ThrottledInputStream in = new ThrottledInputStream(new ByteArrayInputStream(data()), new BandwidthThrottle(PBR));
+		long then = System.nanoTime();
+		long total = 0;
+		long count;
+		while ((count = in.skip(SIZE)) > 0) {
+			assertTrue(count <= ThrottledInputStream.CHUNK);
+			total += count;
+		}
+		long elapsed = System.nanoTime() - then;
+		assertEquals(total, SIZE);
+		assertTrue(elapsed >= 180000000L);
+	}
+
+}
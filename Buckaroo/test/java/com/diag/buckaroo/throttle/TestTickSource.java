@@ -0,0 +1,112 @@
+/**
+ * Copyright 2014 Digital Aggregates Corporation, Colorado, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Name$
+ *
+ * $Id$
+ */
+package com.diag.buckaroo.throttle;
+
+import junit.framework.TestCase;
+import com.diag.buckaroo.throttle.AtomicCellRateAlgorithm;
+import com.diag.buckaroo.throttle.BandwidthAlgorithm;
+import com.diag.buckaroo.throttle.BandwidthThrottle;
+import com.diag.buckaroo.throttle.CellRateThrottle;
+import com.diag.buckaroo.throttle.CoarseTickSource;
+import com.diag.buckaroo.throttle.GenericCellRateAlgorithm;
+import com.diag.buckaroo.throttle.KeyedThrottle;
+import com.diag.buckaroo.throttle.PreciseTickSource;
+import com.diag.buckaroo.throttle.Throttle;
+import com.diag.buckaroo.throttle.TickSource;
+
+public class TestTickSource extends TestCase {
+
+	static class ManualTickSource implements TickSource {
+		long now = 0;
+		public long nanoTime() { return now; }
+	}
+
+	public void test00Precise() {
+		TickSource source = new PreciseTickSource();
+		System.out.println("source=" + source);
+		long then = source.nanoTime();
+		for (int ii = 0; ii < 1000; ++ii) {
+			long now = source.nanoTime();
+			assertTrue((now - then) >= 0);
+			then = now;
+		}
+	}
+
+	public void test01Coarse() throws InterruptedException {
+		long resolution = 10000000;
+		CoarseTickSource source = new CoarseTickSource(resolution);
+		assertEquals(source.getResolution(), resolution);
+		long before = System.nanoTime();
+		assertTrue((source.nanoTime() - before) >= 0);
+		assertSame(source.start(), source);
+		assertSame(source.start(), source);
+		System.out.println("source=" + source);
+		int changes = 0;
+		long then = source.nanoTime();
+		long start = System.nanoTime();
+		while ((System.nanoTime() - start) < (10 * resolution)) {
+			long now = source.nanoTime();
+			assertTrue((now - then) >= 0);
+			if (now != then) {
+				++changes;
+			}
+			then = now;
+		}
+		System.out.println("changes=" + changes);
+		assertTrue(changes > 0);
+		assertTrue(changes <= 20);
+		assertTrue((System.nanoTime() - source.nanoTime()) >= 0);
+		assertSame(source.stop(), source);
+		assertSame(source.stop(), source);
+		before = System.nanoTime();
+		assertTrue((source.nanoTime() - before) >= 0);
+		assertEquals(new CoarseTickSource(0).getResolution(), 1);
+	}
+
+	public void test02Throttles() {
+		ManualTickSource source = new ManualTickSource();
+		source.now = 123456789000L;
+		assertEquals(new GenericCellRateAlgorithm(1000, 0, source).time(), 123456789L);
+		assertEquals(new BandwidthAlgorithm(1000, 0, source).time(), 123456789000L);
+		assertEquals(new AtomicCellRateAlgorithm(1000, 0, source).time(), 123456789L);
+		assertEquals(new CellRateThrottle(1000, 0, source).time(), 123456789L);
+		assertEquals(new CellRateThrottle(1000, 0, 100, 10, source).time(), 123456789L);
+		assertEquals(new BandwidthThrottle(1000, 0, source).time(), 123456789000L);
+		assertEquals(new BandwidthThrottle(1000, 0, 100, 10, source).time(), 123456789000L);
+		assertEquals(new KeyedThrottle<String>(1000, 0, 0, 0, 0, source).time(), 123456789L);
+	}
+
+	public void test03Admission() {
+		ManualTickSource source = new ManualTickSource();
+		Throttle throttle = new CellRateThrottle(1000, 0, source);
+		throttle.reset();
+		assertEquals(throttle.admissible(), 0);
+		assertTrue(throttle.commit());
+		assertEquals(throttle.admissible(), 1000);
+		assertTrue(throttle.rollback());
+		source.now += 999999;
+		assertEquals(throttle.admissible(), 1);
+		assertTrue(throttle.rollback());
+		source.now += 1;
+		assertEquals(throttle.admissible(), 0);
+		assertTrue(throttle.commit());
+	}
+
+}